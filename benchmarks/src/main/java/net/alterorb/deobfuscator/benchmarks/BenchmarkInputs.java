@@ -0,0 +1,128 @@
+package net.alterorb.deobfuscator.benchmarks;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.TransformerPipeline;
+import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.transformer.impl.DeadCodeTransformer;
+import net.alterorb.deobfuscator.transformer.impl.IfJumpTransformer;
+import net.alterorb.deobfuscator.transformer.impl.ImpossibleJumpTransformer;
+import net.alterorb.deobfuscator.transformer.impl.SimplifyBitshiftTransformer;
+import net.alterorb.deobfuscator.transformer.impl.StringDecryptorTransformer;
+import net.alterorb.deobfuscator.transformer.impl.StringInlinerTransformer;
+import net.alterorb.deobfuscator.transformer.impl.TryCatchTransformer;
+import net.alterorb.deobfuscator.transformer.peephole.FusedPeepholeTransformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the inputs shared by the benchmarks, parsed and serialized the same way the deobfuscator does
+ */
+final class BenchmarkInputs {
+
+    static final int PARSING_OPTIONS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    static final long SEED = 42;
+
+    /**
+     * Names of the benchmarked transformers, in the order the deobfuscator runs them
+     */
+    static final List<String> TRANSFORMER_NAMES = Arrays.asList(
+            "StringDecryptorTransformer",
+            "SimplifyBitshiftTransformer",
+            "StringInlinerTransformer",
+            "TryCatchTransformer",
+            "IfJumpTransformer",
+            "ImpossibleJumpTransformer",
+            "FusedPeepholeTransformer",
+            "DeadCodeTransformer"
+    );
+
+    private BenchmarkInputs() {
+    }
+
+    static Transformer createTransformer(String name) {
+
+        switch (name) {
+            case "StringDecryptorTransformer":
+                return new StringDecryptorTransformer();
+            case "StringInlinerTransformer":
+                return new StringInlinerTransformer();
+            case "SimplifyBitshiftTransformer":
+                return new SimplifyBitshiftTransformer();
+            case "TryCatchTransformer":
+                return new TryCatchTransformer();
+            case "IfJumpTransformer":
+                return new IfJumpTransformer();
+            case "ImpossibleJumpTransformer":
+                return new ImpossibleJumpTransformer();
+            case "FusedPeepholeTransformer":
+                return new FusedPeepholeTransformer(new TryCatchTransformer(), new IfJumpTransformer());
+            case "DeadCodeTransformer":
+                return new DeadCodeTransformer();
+            default:
+                throw new IllegalArgumentException("Unknown transformer " + name);
+        }
+    }
+
+    /**
+     * @return the transformers that run before the named one, the fused peephole rules replace the individual ones
+     */
+    static List<Transformer> precedingTransformers(String name) {
+        int index = name.equals("FusedPeepholeTransformer") ? TRANSFORMER_NAMES.indexOf("TryCatchTransformer") : TRANSFORMER_NAMES.indexOf(name);
+        List<Transformer> transformers = new ArrayList<>();
+
+        for (String precedingName : TRANSFORMER_NAMES.subList(0, index)) {
+            transformers.add(createTransformer(precedingName));
+        }
+        return transformers;
+    }
+
+    static DeobfuscationContext context() {
+        DeobfuscationContext ctx = new DeobfuscationContext();
+        ctx.setTargetJarMainClass(FunOrbJarGenerator.MAIN_CLASS);
+        return ctx;
+    }
+
+    /**
+     * @return the stage running the given class-local transformers, the way the deobfuscator groups them
+     */
+    static TransformerPipeline.Stage stage(List<Transformer> transformers) {
+        return new TransformerPipeline(transformers).getStages().get(0);
+    }
+
+    /**
+     * Generates the classes and runs them through the given transformers
+     */
+    static byte[][] generate(int classes, int methods, List<Transformer> transformers) {
+        DeobfuscationContext ctx = context();
+        List<byte[]> generated = new ArrayList<>(FunOrbJarGenerator.generate(classes, methods, SEED).values());
+        TransformerPipeline.Stage stage = transformers.isEmpty() ? null : stage(transformers);
+        byte[][] output = new byte[generated.size()][];
+
+        for (int i = 0; i < output.length; i++) {
+            ClassNode classNode = parse(generated.get(i));
+
+            if (stage != null) {
+                classNode = stage.process(ctx, classNode);
+            }
+            output[i] = serialize(classNode);
+        }
+        return output;
+    }
+
+    static ClassNode parse(byte[] bytes) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, PARSING_OPTIONS);
+        return classNode;
+    }
+
+    static byte[] serialize(ClassNode classNode) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,32 @@
+package net.alterorb.deobfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks in throughput mode with the GC profiler, so every result comes with its allocation rate.
+ * Accepts the usual JMH command line, e.g. {@code java -jar target/benchmarks.jar TransformerBenchmark -p classes=50}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions)
+                                                            .addProfiler(GCProfiler.class);
+
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+
+        if (commandLineOptions.getBenchModes().isEmpty()) {
+            options.mode(Mode.Throughput);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,90 @@
+package net.alterorb.deobfuscator.benchmarks;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.CopyThroughWriter;
+import net.alterorb.betterasm.jar.JarWriter;
+import net.alterorb.deobfuscator.transformer.Transformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Serializes the deobfuscated classes of a generated jar the way the output stage does, with and without compressing
+ * them into jar entries, and in copy-through mode with the given number of methods of each class changed
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassWriterBenchmark {
+
+    @Param("500")
+    public int classes;
+
+    @Param("20")
+    public int methods;
+
+    @Param("1")
+    public int dirtyMethods;
+
+    private List<ClassNode> classNodes;
+
+    @Setup
+    public void setup() {
+        List<Transformer> transformers = BenchmarkInputs.precedingTransformers("FusedPeepholeTransformer");
+        transformers.add(BenchmarkInputs.createTransformer("FusedPeepholeTransformer"));
+
+        byte[][] deobfuscated = BenchmarkInputs.generate(classes, methods, transformers);
+        classNodes = new ArrayList<>(deobfuscated.length);
+
+        for (byte[] bytes : deobfuscated) {
+            ClassNode classNode = BenchmarkInputs.parse(bytes);
+            classNode.setSource(new ClassReader(bytes));
+            classNode.methods.stream().limit(dirtyMethods).forEach(classNode::markDirty);
+            classNodes.add(classNode);
+        }
+    }
+
+    @Benchmark
+    public void serialize(Blackhole blackhole) {
+
+        for (ClassNode classNode : classNodes) {
+            blackhole.consume(BenchmarkInputs.serialize(classNode));
+        }
+    }
+
+    @Benchmark
+    public void serializeCopyThrough(Blackhole blackhole) {
+
+        for (ClassNode classNode : classNodes) {
+            blackhole.consume(new CopyThroughWriter(classNode, ClassWriter.COMPUTE_MAXS).toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void serializeAndCompress(Blackhole blackhole) {
+
+        for (ClassNode classNode : classNodes) {
+            byte[] bytes = BenchmarkInputs.serialize(classNode);
+            blackhole.consume(JarWriter.compress(classNode.name + ".class", bytes, Deflater.DEFAULT_COMPRESSION, 0));
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package net.alterorb.deobfuscator.benchmarks;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates classes shaped like the output of the FunOrb obfuscator: every class has a static String[] z table
+ * built in its &lt;clinit&gt; through the z(String) and z(char[]) decryptors, and every method starts by storing the
+ * main class' static flag in a local that guards a fake branch, shifts by an oversized constant, jumps through a goto
+ * trampoline and is wrapped in a fake RuntimeException handler.
+ */
+public final class FunOrbJarGenerator implements Opcodes {
+
+    public static final String MAIN_CLASS = "GameMain";
+
+    private FunOrbJarGenerator() {
+    }
+
+    /**
+     * @return the generated classes in jar order, by internal name
+     */
+    public static Map<String, byte[]> generate(int classes, int methods, long seed) {
+        Random random = new Random(seed);
+        Map<String, byte[]> generated = new LinkedHashMap<>();
+
+        for (int i = 0; i < classes; i++) {
+
+            String name = name(i);
+            generated.put(name, generateClass(name, i, methods, random));
+
+            if (i == 2) {
+
+                generated.put(MAIN_CLASS, generateMain(classes));
+            }
+        }
+        return generated;
+    }
+
+    public static void writeJar(Path path, Map<String, byte[]> classes) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        try (OutputStream outputStream = Files.newOutputStream(path);
+             JarOutputStream jarOutputStream = new JarOutputStream(outputStream, manifest)) {
+
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+
+                jarOutputStream.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                jarOutputStream.write(entry.getValue());
+                jarOutputStream.closeEntry();
+            }
+            jarOutputStream.putNextEntry(new JarEntry("res/data.bin"));
+            jarOutputStream.write(new byte[]{1, 2, 3, 4});
+            jarOutputStream.closeEntry();
+        }
+    }
+
+    private static String name(int i) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.append((char) ('a' + i % 26));
+            i = i / 26 - 1;
+        } while (i >= 0);
+        return name.reverse().toString();
+    }
+
+    private static byte[] generateMain(int classes) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_1, ACC_PUBLIC | ACC_SUPER, MAIN_CLASS, null, "java/applet/Applet", null);
+        cw.visitField(ACC_PUBLIC | ACC_STATIC, "D", "Z", null, null).visitEnd();
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/applet/Applet", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(ACC_PUBLIC, "init", "()V", null, null);
+        mv.visitCode();
+        for (int i = 0; i < classes; i++) {
+
+            mv.visitInsn(ICONST_1);
+            mv.visitMethodInsn(INVOKESTATIC, name(i), "a", "(I)Ljava/lang/String;", false);
+            mv.visitInsn(POP);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "unused", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generateClass(String name, int index, int methods, Random random) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String superName = index > 0 && index % 3 == 0 ? name(index - 1) : "java/lang/Object";
+        cw.visit(V1_1, ACC_PUBLIC | ACC_SUPER, name, null, superName, null);
+        cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "z", "[Ljava/lang/String;", null, null).visitEnd();
+        cw.visitField(ACC_STATIC, "b", "I", null, null).visitEnd();
+
+        int stringKey = 1 + random.nextInt(100);
+        byte[] keys = new byte[5];
+        for (int i = 0; i < 5; i++) {
+
+            keys[i] = (byte) (1 + random.nextInt(120));
+        }
+        int strings = 4 + methods;
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // static String[] z table
+        mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitIntInsn(BIPUSH, strings);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        for (int i = 0; i < strings; i++) {
+
+            mv.visitInsn(DUP);
+            mv.visitIntInsn(BIPUSH, i);
+            mv.visitLdcInsn(encrypt(i % 7 == 3 ? "x" : "string " + name + " #" + i, stringKey, keys));
+            mv.visitMethodInsn(INVOKESTATIC, name, "z", "(Ljava/lang/String;)[C", false);
+            mv.visitMethodInsn(INVOKESTATIC, name, "z", "([C)Ljava/lang/String;", false);
+            mv.visitInsn(AASTORE);
+        }
+        mv.visitFieldInsn(PUTSTATIC, name, "z", "[Ljava/lang/String;");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int m = 0; m < methods; m++) {
+
+            String methodName = m == 0 ? "a" : "a" + name(m);
+            mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, methodName, "(I)Ljava/lang/String;", null, null);
+            mv.visitCode();
+            Label fake = new Label();
+            Label trampoline = new Label();
+            Label ret = new Label();
+            Label tryStart = new Label();
+            Label tryEnd = new Label();
+            Label handler = new Label();
+            mv.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/RuntimeException");
+            mv.visitFieldInsn(GETSTATIC, MAIN_CLASS, "D", "Z");
+            mv.visitVarInsn(ISTORE, 1);
+            mv.visitLabel(tryStart);
+            mv.visitVarInsn(ILOAD, 0);
+            mv.visitLdcInsn(0x45CE6E20 + random.nextInt(1 << 20) * 32 + 1 + m % 5);
+            mv.visitInsn(ISHR);
+            mv.visitVarInsn(ISTORE, 0);
+            mv.visitVarInsn(ILOAD, 0);
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitJumpInsn(IFNE, fake);
+            mv.visitJumpInsn(IFEQ, trampoline);
+            mv.visitLdcInsn("plain " + m);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+            mv.visitFieldInsn(PUTSTATIC, name, "b", "I");
+            mv.visitFieldInsn(GETSTATIC, name, "z", "[Ljava/lang/String;");
+            mv.visitIntInsn(BIPUSH, 1 + m);
+            mv.visitInsn(AALOAD);
+            mv.visitInsn(ARETURN);
+            mv.visitLabel(trampoline);
+            mv.visitJumpInsn(GOTO, ret);
+            mv.visitLabel(fake);
+            mv.visitInsn(ACONST_NULL);
+            mv.visitInsn(ARETURN);
+            mv.visitLabel(ret);
+            mv.visitFieldInsn(GETSTATIC, name, "z", "[Ljava/lang/String;");
+            mv.visitInsn(ICONST_0);
+            mv.visitInsn(AALOAD);
+            mv.visitLdcInsn(encrypt("inline " + m, stringKey, keys));
+            mv.visitMethodInsn(INVOKESTATIC, name, "z", "(Ljava/lang/String;)[C", false);
+            mv.visitMethodInsn(INVOKESTATIC, name, "z", "([C)Ljava/lang/String;", false);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;", false);
+            mv.visitLabel(tryEnd);
+            mv.visitInsn(ARETURN);
+            mv.visitLabel(handler);
+            mv.visitMethodInsn(INVOKESTATIC, name, "a", "(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;", false);
+            mv.visitInsn(ATHROW);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        mv = cw.visitMethod(ACC_STATIC, "a", "(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, "java/lang/RuntimeException");
+        mv.visitInsn(DUP);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // z(String) char[]
+        mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "z", "(Ljava/lang/String;)[C", null, null);
+        mv.visitCode();
+        Label skip = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false);
+        mv.visitInsn(DUP);
+        mv.visitInsn(ARRAYLENGTH);
+        mv.visitInsn(ICONST_2);
+        mv.visitJumpInsn(IF_ICMPGE, skip);
+        mv.visitInsn(DUP);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(DUP2);
+        mv.visitInsn(CALOAD);
+        mv.visitIntInsn(BIPUSH, stringKey);
+        mv.visitInsn(IXOR);
+        mv.visitInsn(I2C);
+        mv.visitInsn(CASTORE);
+        mv.visitLabel(skip);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // z(char[]) String
+        mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "z", "([C)Ljava/lang/String;", null, null);
+        mv.visitCode();
+        Label loop = new Label();
+        Label end = new Label();
+        Label xor = new Label();
+        Label[] cases = {new Label(), new Label(), new Label(), new Label()};
+        Label dflt = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(ARRAYLENGTH);
+        mv.visitVarInsn(ISTORE, 1);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, 2);
+        mv.visitLabel(loop);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitJumpInsn(IF_ICMPLE, end);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitInsn(DUP2);
+        mv.visitInsn(CALOAD);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitInsn(ICONST_5);
+        mv.visitInsn(IREM);
+        mv.visitTableSwitchInsn(0, 3, dflt, cases);
+        for (int i = 0; i < 4; i++) {
+
+            mv.visitLabel(cases[i]);
+            mv.visitIntInsn(BIPUSH, keys[i]);
+            mv.visitJumpInsn(GOTO, xor);
+        }
+        mv.visitLabel(dflt);
+        mv.visitIntInsn(BIPUSH, keys[4]);
+        mv.visitLabel(xor);
+        mv.visitInsn(IXOR);
+        mv.visitInsn(I2C);
+        mv.visitInsn(CASTORE);
+        mv.visitIincInsn(2, 1);
+        mv.visitJumpInsn(GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitTypeInsn(NEW, "java/lang/String");
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static String encrypt(String plain, int stringKey, byte[] keys) {
+        char[] chars = plain.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+
+            chars[i] = (char) (chars[i] ^ keys[i % 5]);
+        }
+        if (chars.length < 2) {
+
+            chars[0] = (char) (chars[0] ^ stringKey);
+        }
+        return new String(chars);
+    }
+}
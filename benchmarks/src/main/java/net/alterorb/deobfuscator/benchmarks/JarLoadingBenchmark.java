@@ -0,0 +1,94 @@
+package net.alterorb.deobfuscator.benchmarks;
+
+import net.alterorb.betterasm.AsmUtils;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.jar.JarReader;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Loads every class of a generated jar into trees, through {@link AsmUtils#loadJarClasses(Path)} and through
+ * {@link JarFile} streams for comparison
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JarLoadingBenchmark {
+
+    @Param("500")
+    public int classes;
+
+    @Param("20")
+    public int methods;
+
+    private Path jarPath;
+
+    @Setup
+    public void setup() throws IOException {
+        jarPath = Files.createTempFile("funorb", ".jar");
+        FunOrbJarGenerator.writeJar(jarPath, FunOrbJarGenerator.generate(classes, methods, BenchmarkInputs.SEED));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(jarPath);
+    }
+
+    @Benchmark
+    public List<ClassNode> loadJarClasses() throws IOException {
+        return AsmUtils.loadJarClasses(jarPath);
+    }
+
+    @Benchmark
+    public List<ClassNode> jarReaderSequential() throws IOException {
+        return JarReader.open(jarPath).readClasses(BenchmarkInputs.PARSING_OPTIONS, false);
+    }
+
+    @Benchmark
+    public List<ClassNode> jarFile() throws IOException {
+        List<ClassNode> classNodes = new ArrayList<>();
+
+        try (JarFile jarFile = new JarFile(jarPath.toFile())) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+
+                if (entry.getName().endsWith(".class")) {
+
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        ClassNode classNode = new ClassNode();
+                        new ClassReader(inputStream).accept(classNode, BenchmarkInputs.PARSING_OPTIONS);
+                        classNodes.add(classNode);
+                    }
+                }
+            }
+        }
+        return classNodes;
+    }
+}
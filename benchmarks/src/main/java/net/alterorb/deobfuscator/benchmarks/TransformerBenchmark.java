@@ -0,0 +1,83 @@
+package net.alterorb.deobfuscator.benchmarks;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.TransformerPipeline;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a single transformer over every class of a generated jar. Each transformer gets the classes as they look after
+ * the transformers before it ran, so it has something to do. Every operation starts from the class bytes and ends with
+ * a tree, the way the head stage of the deobfuscator runs: {@link #parse} measures parsing alone and the difference
+ * with {@link #transform} is the cost of the transformer. Streaming transformers rewrite the class on its way into the
+ * tree, so for them the difference is the cost of the rewriting visitors.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformerBenchmark {
+
+    @Param({
+            "StringDecryptorTransformer",
+            "SimplifyBitshiftTransformer",
+            "StringInlinerTransformer",
+            "TryCatchTransformer",
+            "IfJumpTransformer",
+            "ImpossibleJumpTransformer",
+            "FusedPeepholeTransformer",
+            "DeadCodeTransformer"
+    })
+    public String transformer;
+
+    @Param("200")
+    public int classes;
+
+    @Param("20")
+    public int methods;
+
+    private TransformerPipeline.Stage stage;
+    private DeobfuscationContext ctx;
+    private byte[][] input;
+
+    @Setup
+    public void setup() {
+        stage = BenchmarkInputs.stage(Collections.singletonList(BenchmarkInputs.createTransformer(transformer)));
+        ctx = BenchmarkInputs.context();
+        input = BenchmarkInputs.generate(classes, methods, BenchmarkInputs.precedingTransformers(transformer));
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+
+        for (byte[] bytes : input) {
+            blackhole.consume(BenchmarkInputs.parse(bytes));
+        }
+    }
+
+    @Benchmark
+    public void transform(Blackhole blackhole) {
+
+        for (byte[] bytes : input) {
+            ClassNode classNode = stage.process(ctx, new ClassReader(bytes), BenchmarkInputs.PARSING_OPTIONS);
+            blackhole.consume(classNode);
+        }
+    }
+}
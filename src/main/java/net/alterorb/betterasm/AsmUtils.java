@@ -1,14 +1,12 @@
 package net.alterorb.betterasm;
 
+import net.alterorb.betterasm.jar.JarReader;
 import org.objectweb.asm.ClassReader;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 public class AsmUtils {
 
@@ -17,23 +15,22 @@ public class AsmUtils {
     }
 
     public static List<ClassNode> loadJarClasses(Path pathToJar, int parsingOptions) throws IOException {
-        ArrayList<ClassNode> classNodes = new ArrayList<>();
-
-        try (JarFile jarFile = new JarFile(pathToJar.toString())) {
-            Enumeration<?> enums = jarFile.entries();
-
-            while (enums.hasMoreElements()) {
-                JarEntry entry = (JarEntry) enums.nextElement();
-
-                if (entry.getName().endsWith(".class")) {
-                    ClassReader classReader = new ClassReader(jarFile.getInputStream(entry));
-                    ClassNode classNode = new ClassNode();
+        return new ArrayList<>(JarReader.open(pathToJar).readClasses(parsingOptions, true));
+    }
 
-                    classReader.accept(classNode, parsingOptions);
-                    classNodes.add(classNode);
-                }
-            }
+    /**
+     * Reads the classes of a jar into a store without parsing any of them, for jars too big to hold in tree form
+     *
+     * @param treeBudget the estimated heap the trees inflated from the store may take up, in bytes
+     */
+    public static ClassStore storeJarClasses(Path pathToJar, int parsingOptions, long treeBudget, boolean offHeap) throws IOException {
+        JarReader jarReader = JarReader.open(pathToJar);
+        List<JarReader.Entry> classEntries = jarReader.getClassEntries();
+        ClassStore classStore = new ClassStore(classEntries.size(), parsingOptions, treeBudget, offHeap);
+
+        for (int i = 0; i < classEntries.size(); i++) {
+            classStore.put(i, jarReader.read(classEntries.get(i)), false);
         }
-        return classNodes;
+        return classStore;
     }
 }
@@ -0,0 +1,204 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.TypePath;
+
+/**
+ * A method visitor that can hold instructions back until it has seen what follows them, which is what rewriting
+ * a pattern of consecutive instructions takes when there's no instruction list to look around in.
+ * <p>
+ * Every event is preceded by a call to {@link #flush()}, in which the subclass passes on whatever it held back
+ * straight to {@link #mv}. Instructions, labels and frames are the events a tree would hold as instruction nodes,
+ * and {@link #dropNext()} drops the next one of them.
+ */
+public abstract class BufferingMethodVisitor extends MethodVisitor {
+
+    private boolean dropNext;
+
+    protected BufferingMethodVisitor(int api, MethodVisitor methodVisitor) {
+        super(api, methodVisitor);
+    }
+
+    /**
+     * Passes on the instructions held back, if any
+     */
+    protected abstract void flush();
+
+    /**
+     * Drops the next instruction, label or frame instead of passing it on
+     */
+    protected void dropNext() {
+        dropNext = true;
+    }
+
+    private boolean pass() {
+        flush();
+
+        if (dropNext) {
+            dropNext = false;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+
+        if (pass()) {
+            super.visitFrame(type, numLocal, local, numStack, stack);
+        }
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+
+        if (pass()) {
+            super.visitInsn(opcode);
+        }
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+
+        if (pass()) {
+            super.visitIntInsn(opcode, operand);
+        }
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+
+        if (pass()) {
+            super.visitVarInsn(opcode, var);
+        }
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+
+        if (pass()) {
+            super.visitTypeInsn(opcode, type);
+        }
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+
+        if (pass()) {
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+
+        if (pass()) {
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+
+        if (pass()) {
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+
+        if (pass()) {
+            super.visitJumpInsn(opcode, label);
+        }
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+
+        if (pass()) {
+            super.visitLabel(label);
+        }
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+
+        if (pass()) {
+            super.visitLdcInsn(value);
+        }
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+
+        if (pass()) {
+            super.visitIincInsn(var, increment);
+        }
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+
+        if (pass()) {
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+
+        if (pass()) {
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+
+        if (pass()) {
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+
+        if (pass()) {
+            super.visitLineNumber(line, start);
+        }
+    }
+
+    @Override
+    public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        flush();
+        return super.visitInsnAnnotation(typeRef, typePath, descriptor, visible);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        flush();
+        super.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+        flush();
+        super.visitLocalVariable(name, descriptor, signature, start, end, index);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        flush();
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    @Override
+    public void visitEnd() {
+        flush();
+        super.visitEnd();
+    }
+}
@@ -0,0 +1,112 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the names of the classes of a jar to placeholders numbered in the order a class first mentions them, so copies
+ * of a class that only differ by the names the obfuscator gave to classes map to the same canonical form. The main
+ * class of the jar gets a placeholder of its own, and names of classes outside the jar are left as they are.
+ * <p>
+ * Member names are left as they are too, since transformers recognize members by name, and obfuscators name the
+ * members of each class on their own so they match between copies anyway. The {@link #inverse()} maps the
+ * placeholders back to the names of the jar, so the canonical form of a class can be turned into a copy in any jar
+ * whose class had the same canonical form.
+ * <p>
+ * Placeholders start with a NUL character, which no class name of a jar starts with.
+ */
+public class CanonicalNames extends Remapper {
+
+    private static final char PLACEHOLDER_PREFIX = '\0';
+    private static final String MAIN_PLACEHOLDER = PLACEHOLDER_PREFIX + "main";
+
+    private final Set<String> classNames;
+    private final String mainClassName;
+    private final Map<String, String> placeholders = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * @param classNames the names of the classes of the jar
+     */
+    public CanonicalNames(Set<String> classNames, String mainClassName) {
+        this.classNames = classNames;
+        this.mainClassName = mainClassName;
+    }
+
+    /**
+     * Rewrites a class with its names mapped, leaving out its frames and debug information
+     */
+    public static byte[] remap(byte[] classBytes, Remapper remapper) {
+        ClassWriter writer = new ClassWriter(0);
+        remap(classBytes, remapper, writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Visits a class with its names mapped, leaving out its frames and debug information
+     */
+    public static void remap(byte[] classBytes, Remapper remapper, ClassVisitor visitor) {
+        new ClassReader(classBytes).accept(new ClassRemapper(visitor, remapper), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    @Override
+    public String map(String internalName) {
+
+        if (internalName.equals(mainClassName)) {
+            return MAIN_PLACEHOLDER;
+        }
+
+        if (!classNames.contains(internalName)) {
+            return internalName;
+        }
+        return placeholders.computeIfAbsent(internalName, name -> {
+            names.add(name);
+            return PLACEHOLDER_PREFIX + Integer.toString(names.size() - 1);
+        });
+    }
+
+    @Override
+    public String mapInnerClassName(String name, String ownerName, String innerName) {
+        return innerName;
+    }
+
+    /**
+     * @return a remapper mapping the placeholders handed out so far back to the names they stand for
+     */
+    public Remapper inverse() {
+        return new Remapper() {
+
+            @Override
+            public String map(String internalName) {
+
+                if (internalName.isEmpty() || internalName.charAt(0) != PLACEHOLDER_PREFIX) {
+                    return internalName;
+                }
+
+                if (internalName.equals(MAIN_PLACEHOLDER)) {
+                    return mainClassName;
+                }
+                int index = Integer.parseInt(internalName.substring(1));
+
+                if (index >= names.size()) {
+                    throw new IllegalStateException("No class was mapped to placeholder " + index);
+                }
+                return names.get(index);
+            }
+
+            @Override
+            public String mapInnerClassName(String name, String ownerName, String innerName) {
+                return innerName;
+            }
+        };
+    }
+}
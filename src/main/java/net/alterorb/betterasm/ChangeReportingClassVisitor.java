@@ -0,0 +1,28 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * A class visitor that reports the methods it changes down the chain, so a {@link ClassNode} built at the end of it
+ * knows which of its methods differ from the class that was read. Reports only get through as long as every visitor
+ * in between reports as well, anything else at the end of the chain ignores them.
+ */
+public class ChangeReportingClassVisitor extends ClassVisitor {
+
+    public ChangeReportingClassVisitor(int api, ClassVisitor classVisitor) {
+        super(api, classVisitor);
+    }
+
+    /**
+     * Reports a change to the method with the name and descriptor, has to be called after the method was visited
+     * into the next visitor
+     */
+    public void markChanged(String name, String descriptor) {
+
+        if (cv instanceof ChangeReportingClassVisitor) {
+            ((ChangeReportingClassVisitor) cv).markChanged(name, descriptor);
+        } else if (cv instanceof ClassNode) {
+            ((ClassNode) cv).markDirty(name, descriptor);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The superclass and interfaces of every class a jar knows about, for working out common superclasses without loading
+ * any class. Classes are looked up in the ones added, then through the lookup the hierarchy was created with, and
+ * finally in the JDK type table shared by every hierarchy, which reads the class files of the runtime as types are
+ * first asked for.
+ * <p>
+ * Every method is thread-safe, and common superclasses are cached once worked out. Types that can't be found are
+ * taken as direct subclasses of {@code java/lang/Object}, and are reported by {@link #getUnresolvedTypes()}.
+ */
+public class ClassHierarchy {
+
+    public static final String OBJECT = "java/lang/Object";
+
+    private static final Map<String, Entry> JDK_TYPES = new ConcurrentHashMap<>();
+    private static final Entry MISSING = new Entry(null, null, 0);
+
+    private final Function<String, ClassReader> lookup;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> commonSuperClasses = new ConcurrentHashMap<>();
+    private final Set<String> unresolvedTypes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param lookup finds the classes that weren't added, returning null for the ones it doesn't know either
+     */
+    public ClassHierarchy(Function<String, ClassReader> lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Adds or replaces a class, which has to happen before any common superclass involving it is worked out
+     */
+    public void add(ClassNode classNode) {
+        add(classNode.access, classNode.name, classNode.superName, classNode.interfaces.toArray(new String[0]));
+    }
+
+    public void add(int access, String name, String superName, String[] interfaces) {
+        entries.put(name, new Entry(superName, interfaces, access));
+    }
+
+    public void add(ClassReader classReader) {
+        entries.put(classReader.getClassName(), entry(classReader));
+    }
+
+    /**
+     * @return the types that couldn't be found in the jar nor in the JDK
+     */
+    public Set<String> getUnresolvedTypes() {
+        return Collections.unmodifiableSet(unresolvedTypes);
+    }
+
+    /**
+     * @return the nearest superclass two classes share, following the rules of {@code ClassWriter.getCommonSuperClass}
+     */
+    public String getCommonSuperClass(String type1, String type2) {
+
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        String key = type1.compareTo(type2) < 0 ? type1 + ' ' + type2 : type2 + ' ' + type1;
+        String commonSuperClass = commonSuperClasses.get(key);
+
+        if (commonSuperClass == null) {
+            commonSuperClass = findCommonSuperClass(type1, type2);
+            commonSuperClasses.put(key, commonSuperClass);
+        }
+        return commonSuperClass;
+    }
+
+    private String findCommonSuperClass(String type1, String type2) {
+        Entry entry1 = find(type1);
+        Entry entry2 = find(type2);
+
+        if (entry1 == null || entry2 == null) {
+            return OBJECT;
+        }
+
+        if (isAssignableFrom(type1, type2)) {
+            return type1;
+        }
+
+        if (isAssignableFrom(type2, type1)) {
+            return type2;
+        }
+
+        if (entry1.isInterface() || entry2.isInterface()) {
+            return OBJECT;
+        }
+        String superName = entry1.superName;
+
+        while (superName != null) {
+
+            if (isAssignableFrom(superName, type2)) {
+                return superName;
+            }
+            Entry superEntry = find(superName);
+            superName = superEntry == null ? null : superEntry.superName;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * @return whether the type is the target or has it among its supertypes
+     */
+    private boolean isAssignableFrom(String target, String type) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(type);
+
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+
+            if (name.equals(target)) {
+                return true;
+            }
+
+            if (!visited.add(name)) {
+                continue;
+            }
+            Entry entry = find(name);
+
+            if (entry == null) {
+                continue;
+            }
+
+            if (entry.superName != null) {
+                queue.add(entry.superName);
+            }
+            Collections.addAll(queue, entry.interfaces);
+        }
+        return false;
+    }
+
+    private Entry find(String name) {
+        Entry entry = entries.get(name);
+
+        if (entry == null) {
+            ClassReader classReader = lookup.apply(name);
+            entry = classReader != null ? entry(classReader) : findJdkType(name);
+            entries.putIfAbsent(name, entry);
+        }
+
+        if (entry == MISSING) {
+            unresolvedTypes.add(name);
+            return null;
+        }
+        return entry;
+    }
+
+    private static Entry findJdkType(String name) {
+        Entry entry = JDK_TYPES.get(name);
+
+        if (entry == null) {
+
+            try (InputStream in = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+                entry = in == null ? MISSING : entry(new ClassReader(in));
+            } catch (IOException e) {
+                entry = MISSING;
+            }
+            JDK_TYPES.putIfAbsent(name, entry);
+        }
+        return entry;
+    }
+
+    private static Entry entry(ClassReader classReader) {
+        return new Entry(classReader.getSuperName(), classReader.getInterfaces(), classReader.getAccess());
+    }
+
+    private static class Entry {
+
+        private final String superName;
+        private final String[] interfaces;
+        private final int access;
+
+        private Entry(String superName, String[] interfaces, int access) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.access = access;
+        }
+
+        private boolean isInterface() {
+            return (access & Opcodes.ACC_INTERFACE) != 0;
+        }
+    }
+}
@@ -1,20 +1,33 @@
 package net.alterorb.betterasm;
 
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+/**
+ * A class node that indexes its methods and fields by name and descriptor. The index is built on the first lookup
+ * and again whenever a member is added or removed, renaming a member or changing its descriptor in place has to be
+ * followed by {@link #invalidateMembers()}.
+ * <p>
+ * Transformers mark the methods they modify as dirty, for whatever needs to know which methods changed since the
+ * class was read. A class that keeps the reader it was read from can be written with {@link CopyThroughWriter},
+ * which copies the methods that aren't dirty straight from that reader, so any change at all to a method has to be
+ * marked.
+ */
 public class ClassNode extends org.objectweb.asm.tree.ClassNode {
 
-    private MethodNode noArgsConstructor;
-    private MethodNode classInitializer;
+    private volatile MemberIndex memberIndex;
+    private Set<MethodNode> dirtyMethods;
+    private ClassReader source;
 
     public ClassNode() {
         this(Opcodes.ASM6);
@@ -22,26 +35,120 @@ public class ClassNode extends org.objectweb.asm.tree.ClassNode {
 
     public ClassNode(int api) {
         super(api);
+        this.methods = new TrackedList<>();
+        this.fields = new TrackedList<>();
     }
 
     public MethodNode getNoArgsConstructor() {
+        return findMethod("<init>", "()V");
+    }
+
+    public MethodNode getClassInitializer() {
+        return findMethod("<clinit>", "()V");
+    }
+
+    /**
+     * Drops the member index, has to be called after changing the name or descriptor of a method or field
+     */
+    public void invalidateMembers() {
+        memberIndex = null;
+    }
 
-        if (noArgsConstructor == null) {
-            noArgsConstructor = findFirstMethodMatching(methodNode -> Objects.equals(methodNode.name, "<init>") && Type.getArgumentTypes(methodNode.desc).length == 0);
+    public void markDirty(MethodNode method) {
+
+        if (dirtyMethods == null) {
+            dirtyMethods = Collections.newSetFromMap(new IdentityHashMap<>());
         }
-        return noArgsConstructor;
+        dirtyMethods.add(method);
     }
 
-    public MethodNode getClassInitializer() {
+    /**
+     * Marks the method with the name and descriptor as dirty, if there is one. Looks for it from the last method
+     * backwards, since it is meant to be called while the class is being visited into this node.
+     */
+    public void markDirty(String name, String descriptor) {
+
+        for (int i = methods.size() - 1; i >= 0; i--) {
+            MethodNode method = methods.get(i);
+
+            if (method.name.equals(name) && method.desc.equals(descriptor)) {
+                markDirty(method);
+                return;
+            }
+        }
+    }
+
+    public void markAllDirty() {
+        methods.forEach(this::markDirty);
+    }
+
+    public boolean isDirty(MethodNode method) {
+        return dirtyMethods != null && dirtyMethods.contains(method);
+    }
+
+    /**
+     * @return the methods marked dirty, in no particular order
+     */
+    public Set<MethodNode> getDirtyMethods() {
+        return dirtyMethods == null ? Collections.emptySet() : Collections.unmodifiableSet(dirtyMethods);
+    }
+
+    public void clearDirty() {
+        dirtyMethods = null;
+    }
+
+    /**
+     * @return the reader the class was read from, null unless one was kept
+     */
+    public ClassReader getSource() {
+        return source;
+    }
+
+    /**
+     * Keeps the reader the class was read from. The methods that changed since have to be marked dirty.
+     */
+    public void setSource(ClassReader source) {
+        this.source = source;
+    }
 
-        if (classInitializer == null) {
-            classInitializer = findFirstMethodMatching(methodNode -> Objects.equals(methodNode.name, "<clinit>"));
+    /**
+     * Takes over the source and the dirty methods of the node this one was visited from, methods that are gone are
+     * left out
+     */
+    public void inheritChanges(ClassNode from) {
+        this.source = from.source;
+
+        for (MethodNode method : from.getDirtyMethods()) {
+            MethodNode inherited = findMethod(method.name, method.desc);
+
+            if (inherited != null) {
+                markDirty(inherited);
+            }
         }
-        return classInitializer;
+    }
+
+    private MemberIndex members() {
+        MemberIndex index = memberIndex;
+
+        if (index == null || !index.isCurrent(methods, fields)) {
+            memberIndex = index = new MemberIndex(methods, fields);
+        }
+        return index;
+    }
+
+    public FieldNode findField(String name, String descriptor) {
+        return members().getField(name, descriptor);
+    }
+
+    /**
+     * @return the fields with the descriptor, in declaration order, as an unmodifiable list
+     */
+    public List<FieldNode> findFieldsByDescriptor(String descriptor) {
+        return members().getFieldsByDescriptor(descriptor);
     }
 
     public List<FieldNode> findFieldsByType(Type type) {
-        return findFieldsMatching(fieldNode -> Objects.equals(Type.getType(fieldNode.desc), type));
+        return findFieldsByDescriptor(type.getDescriptor());
     }
 
     public List<FieldNode> findFieldsMatching(Predicate<FieldNode> predicate) {
@@ -52,12 +159,35 @@ public class ClassNode extends org.objectweb.asm.tree.ClassNode {
         return fields.stream().filter(predicate).findFirst().orElse(null);
     }
 
+    public MethodNode findMethod(String name, String descriptor) {
+        return members().getMethod(name, descriptor);
+    }
+
+    /**
+     * @return the methods with the name, in declaration order, as an unmodifiable list
+     */
+    public List<MethodNode> findMethodsByName(String name) {
+        return members().getMethodsByName(name);
+    }
+
+    /**
+     * @return the methods with the descriptor, in declaration order, as an unmodifiable list
+     */
+    public List<MethodNode> findMethodsByDescriptor(String descriptor) {
+        return members().getMethodsByDescriptor(descriptor);
+    }
+
     public List<MethodNode> findMethodsByDescriptor(Type returnType, Type... argTypes) {
-        return findMethodsMatching(methodNode -> Objects.equals(Type.getReturnType(methodNode.desc), returnType) && Arrays.equals(Type.getArgumentTypes(methodNode.desc), argTypes));
+        return findMethodsByDescriptor(Type.getMethodDescriptor(returnType, argTypes));
+    }
+
+    public MethodNode findFirstMethodByDescriptor(String descriptor) {
+        List<MethodNode> methods = findMethodsByDescriptor(descriptor);
+        return methods.isEmpty() ? null : methods.get(0);
     }
 
     public MethodNode findFirstMethodByDescriptor(Type returnType, Type... argTypes) {
-        return findFirstMethodMatching(methodNode -> Objects.equals(Type.getReturnType(methodNode.desc), returnType) && Arrays.equals(Type.getArgumentTypes(methodNode.desc), argTypes));
+        return findFirstMethodByDescriptor(Type.getMethodDescriptor(returnType, argTypes));
     }
 
     public List<MethodNode> findMethodsMatching(Predicate<MethodNode> predicate) {
@@ -0,0 +1,502 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the classes of a jar in order, serialized, and inflates them into trees as they are asked for. Trees are kept
+ * in a least recently used cache bounded by an estimate of the heap they take up, and the ones that may have been
+ * modified are serialized again when evicted. Serialized classes can be kept off the heap, in direct buffers.
+ * <p>
+ * Trees are only handed out for the duration of a call, during which they can't be evicted, so the cache can go over
+ * its budget by as many trees as there are concurrent calls. Every tree handed out by {@link #update} is taken as
+ * modified. {@link #inflateAll()} keeps every tree inflated until {@link #releaseAll()}, for whatever needs to hold on
+ * to them.
+ * <p>
+ * Trees are serialized as they were parsed, without frames nor debug information, and with the max stack and locals
+ * they had. A tree that keeps its source reader gets a reader over the original bytes back when inflated again, along
+ * with the dirty marks of its methods.
+ * <p>
+ * Every method except {@link #compact()} is thread-safe, classes being put in different places.
+ */
+public class ClassStore {
+
+    private final int parsingOptions;
+    private final long treeBudget;
+    private final boolean offHeap;
+    private final Set<Entry> inflated = new LinkedHashSet<>();
+    private Entry[] entries;
+
+    private long treeBytes;
+    private long peakTreeBytes;
+    private long storedBytes;
+    private boolean pinned;
+    private int inflations;
+    private int writeBacks;
+
+    /**
+     * @param treeBudget the estimated heap the trees may take up, in bytes
+     * @param offHeap    whether serialized classes are kept in direct buffers
+     */
+    public ClassStore(int capacity, int parsingOptions, long treeBudget, boolean offHeap) {
+        this.entries = new Entry[capacity];
+        this.parsingOptions = parsingOptions;
+        this.treeBudget = treeBudget;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Puts a class as it was read, it's only parsed once asked for
+     *
+     * @param keepSource whether the trees of the class keep a reader over these bytes as their source
+     */
+    public void put(int index, byte[] bytes, boolean keepSource) {
+        Entry entry = new Entry();
+        entry.current = compact(bytes);
+        entry.original = keepSource ? entry.current : null;
+        entries[index] = entry;
+        addStoredBytes(size(entry.current));
+    }
+
+    /**
+     * Puts a tree, which counts as modified
+     *
+     * @param source the bytes the source reader of the tree reads from, null if it doesn't keep one
+     */
+    public void put(int index, ClassNode classNode, byte[] source) {
+        Entry entry = new Entry();
+        entry.original = source != null ? compact(source) : null;
+        entry.tree = classNode;
+        entry.modified = true;
+        entries[index] = entry;
+        addStoredBytes(size(entry.original));
+        evict(touch(entry));
+    }
+
+    /**
+     * Drops the places nothing was put in or whose class was discarded, the classes after them move up
+     */
+    public void compact() {
+        List<Entry> compacted = new ArrayList<>(entries.length);
+
+        for (Entry entry : entries) {
+
+            if (entry != null) {
+                compacted.add(entry);
+            }
+        }
+        entries = compacted.toArray(new Entry[0]);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return whether nothing was put in the place or its class was discarded
+     */
+    public boolean isEmpty(int index) {
+        return entries[index] == null;
+    }
+
+    /**
+     * Hands the tree of a class to the function, which returns the tree replacing it, possibly the same one
+     */
+    public void update(int index, UnaryOperator<ClassNode> function) {
+        Entry entry = entries[index];
+        ClassNode classNode = acquire(entry);
+        ClassNode updated = null;
+
+        try {
+            updated = function.apply(classNode);
+        } finally {
+            release(entry, updated);
+        }
+    }
+
+    /**
+     * Hands the tree of a class to the consumer, which must not modify it
+     */
+    public void read(int index, Consumer<ClassNode> consumer) {
+        Entry entry = entries[index];
+        ClassNode classNode = acquire(entry);
+
+        try {
+            consumer.accept(classNode);
+        } finally {
+            release(entry, null);
+        }
+    }
+
+    /**
+     * Visits a class, from its tree if it's inflated, otherwise from its serialized form without inflating it
+     */
+    public void accept(int index, ClassVisitor visitor) {
+        Entry entry = entries[index];
+
+        synchronized (entry) {
+
+            if (entry.tree != null) {
+                entry.tree.accept(visitor);
+                return;
+            }
+            new ClassReader(toArray(entry.current)).accept(visitor, parsingOptions);
+        }
+    }
+
+    /**
+     * Takes a class out of the store
+     *
+     * @return its tree
+     */
+    public ClassNode remove(int index) {
+        Entry entry = entries[index];
+        ClassNode classNode;
+
+        synchronized (entry) {
+            classNode = entry.tree != null ? entry.tree : inflate(entry);
+
+            synchronized (this) {
+
+                if (inflated.remove(entry)) {
+                    treeBytes -= entry.treeSize;
+                }
+                storedBytes -= size(entry.original) + (entry.current != entry.original ? size(entry.current) : 0);
+            }
+            entry.tree = null;
+            entry.current = null;
+            entry.original = null;
+        }
+        return classNode;
+    }
+
+    /**
+     * Takes a class out of the store for good, its place is left empty until {@link #compact()}
+     */
+    public void discard(int index) {
+        remove(index);
+        entries[index] = null;
+    }
+
+    /**
+     * Inflates every class, and keeps every tree inflated until {@link #releaseAll()}. The trees are only read through,
+     * changes still have to go through {@link #update} to be taken as modified.
+     *
+     * @return the trees, in order
+     */
+    public List<ClassNode> inflateAll() {
+
+        synchronized (this) {
+            pinned = true;
+        }
+        List<ClassNode> classNodes = new ArrayList<>(entries.length);
+
+        for (Entry entry : entries) {
+            classNodes.add(acquire(entry));
+
+            synchronized (entry) {
+                entry.pins--;
+            }
+        }
+        return classNodes;
+    }
+
+    /**
+     * Lets trees be evicted again after {@link #inflateAll()}
+     */
+    public void releaseAll() {
+        List<Entry> victims;
+
+        synchronized (this) {
+            pinned = false;
+            victims = selectVictims();
+        }
+        evict(victims);
+    }
+
+    /**
+     * @return the number of times a class was parsed into a tree
+     */
+    public synchronized int getInflations() {
+        return inflations;
+    }
+
+    /**
+     * @return the number of times a modified tree was serialized on eviction
+     */
+    public synchronized int getWriteBacks() {
+        return writeBacks;
+    }
+
+    /**
+     * @return the most heap the trees were estimated to take up at once
+     */
+    public synchronized long getPeakTreeBytes() {
+        return peakTreeBytes;
+    }
+
+    /**
+     * @return the size of the serialized classes held
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    private ClassNode acquire(Entry entry) {
+        ClassNode classNode;
+        List<Entry> victims;
+
+        synchronized (entry) {
+
+            if (entry.tree == null) {
+                entry.tree = inflate(entry);
+            }
+            classNode = entry.tree;
+            entry.pins++;
+            victims = touch(entry);
+        }
+        evict(victims);
+        return classNode;
+    }
+
+    /**
+     * @param updated the tree that replaces the one acquired, null when it wasn't modified
+     */
+    private void release(Entry entry, ClassNode updated) {
+
+        synchronized (entry) {
+            entry.pins--;
+
+            if (updated != null) {
+                entry.tree = updated;
+                entry.modified = true;
+
+                synchronized (this) {
+                    long treeSize = estimateSize(updated);
+                    treeBytes += treeSize - entry.treeSize;
+                    peakTreeBytes = Math.max(peakTreeBytes, treeBytes);
+                    entry.treeSize = treeSize;
+                }
+            }
+        }
+    }
+
+    private ClassNode inflate(Entry entry) {
+        byte[] bytes = toArray(entry.current);
+        ClassNode classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, parsingOptions);
+
+        if (entry.original != null) {
+            classNode.setSource(new ClassReader(entry.original == entry.current ? bytes : toArray(entry.original)));
+
+            if (entry.dirtyMethods != null) {
+
+                for (String method : entry.dirtyMethods) {
+                    int descStart = method.indexOf('(');
+                    classNode.markDirty(method.substring(0, descStart), method.substring(descStart));
+                }
+            }
+        }
+        synchronized (this) {
+            inflations++;
+        }
+        return classNode;
+    }
+
+    /**
+     * Moves the entry to the most recently used end of the cache, and takes the trees to evict out of it
+     */
+    private synchronized List<Entry> touch(Entry entry) {
+
+        if (inflated.remove(entry)) {
+            inflated.add(entry);
+            return selectVictims();
+        }
+        entry.treeSize = estimateSize(entry.tree);
+        treeBytes += entry.treeSize;
+        peakTreeBytes = Math.max(peakTreeBytes, treeBytes);
+        inflated.add(entry);
+        return selectVictims();
+    }
+
+    private List<Entry> selectVictims() {
+        List<Entry> victims = null;
+
+        if (pinned) {
+            return null;
+        }
+        Iterator<Entry> iterator = inflated.iterator();
+
+        while (treeBytes > treeBudget && iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if (entry.pins > 0) {
+                continue;
+            }
+            iterator.remove();
+            treeBytes -= entry.treeSize;
+
+            if (victims == null) {
+                victims = new ArrayList<>();
+            }
+            victims.add(entry);
+        }
+        return victims;
+    }
+
+    /**
+     * Drops the trees of the victims, serializing the modified ones. A victim acquired again in the meantime is put
+     * back in the cache instead.
+     */
+    private void evict(List<Entry> victims) {
+
+        if (victims == null) {
+            return;
+        }
+
+        for (Entry entry : victims) {
+
+            synchronized (entry) {
+
+                if (entry.tree == null || isInUse(entry)) {
+                    continue;
+                }
+
+                if (entry.modified) {
+                    writeBack(entry);
+                }
+                entry.tree = null;
+            }
+        }
+    }
+
+    /**
+     * Puts a victim that is pinned back in the cache. A victim acquired again since it was selected was already put
+     * back, along with its size, so it only counts once.
+     *
+     * @return whether the victim has to stay inflated
+     */
+    private synchronized boolean isInUse(Entry entry) {
+
+        if (inflated.contains(entry)) {
+            return true;
+        }
+
+        if (entry.pins > 0) {
+
+            if (inflated.add(entry)) {
+                treeBytes += entry.treeSize;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void writeBack(Entry entry) {
+        ClassNode classNode = entry.tree;
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        Object current = compact(writer.toByteArray());
+
+        synchronized (this) {
+            storedBytes += size(current) - (entry.current != entry.original ? size(entry.current) : 0);
+            writeBacks++;
+        }
+
+        if (classNode.getSource() == null) {
+            addStoredBytes(-size(entry.original));
+            entry.original = null;
+            entry.dirtyMethods = null;
+        } else {
+            Set<MethodNode> dirtyMethods = classNode.getDirtyMethods();
+            entry.dirtyMethods = new String[dirtyMethods.size()];
+            int i = 0;
+
+            for (MethodNode method : dirtyMethods) {
+                entry.dirtyMethods[i++] = method.name + method.desc;
+            }
+        }
+        entry.current = current;
+        entry.modified = false;
+    }
+
+    private synchronized void addStoredBytes(long bytes) {
+        storedBytes += bytes;
+    }
+
+    /**
+     * @return a rough estimate of the heap the tree takes up
+     */
+    private static long estimateSize(ClassNode classNode) {
+        long size = 512;
+
+        for (FieldNode field : classNode.fields) {
+            size += 96;
+        }
+
+        for (MethodNode method : classNode.methods) {
+            size += 192 + 56L * method.instructions.size() + 64L * method.tryCatchBlocks.size();
+        }
+        return size;
+    }
+
+    private Object compact(byte[] bytes) {
+
+        if (!offHeap) {
+            return bytes;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] toArray(Object compacted) {
+
+        if (compacted instanceof byte[]) {
+            return (byte[]) compacted;
+        }
+        ByteBuffer buffer = ((ByteBuffer) compacted).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static long size(Object compacted) {
+
+        if (compacted == null) {
+            return 0;
+        }
+        return compacted instanceof byte[] ? ((byte[]) compacted).length : ((ByteBuffer) compacted).capacity();
+    }
+
+    private static class Entry {
+
+        /**
+         * The class as last serialized, null while a tree that was put directly was never evicted
+         */
+        private Object current;
+
+        /**
+         * The class as read, for the source reader of its trees, null if they don't keep one
+         */
+        private Object original;
+        private String[] dirtyMethods;
+        private ClassNode tree;
+        private long treeSize;
+        private int pins;
+        private boolean modified;
+    }
+}
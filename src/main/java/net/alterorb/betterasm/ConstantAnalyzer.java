@@ -0,0 +1,213 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+
+/**
+ * Propagates int constants through a method, which covers booleans, bytes, chars and shorts as well. A word holds
+ * either the constant itself or {@link #UNKNOWN}. Static fields are unknown unless {@link #getStaticValue} is told
+ * otherwise, and conditional jumps and switches on constants are only followed the way they go, so the code only
+ * they lead to is left unreachable.
+ */
+public class ConstantAnalyzer extends DataflowAnalyzer {
+
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    public static boolean isConstant(long value) {
+        return value != UNKNOWN;
+    }
+
+    /**
+     * @return the value every read of the static field gives, or {@link #UNKNOWN}
+     */
+    protected long getStaticValue(FieldInsnNode insnNode) {
+        return UNKNOWN;
+    }
+
+    @Override
+    protected long unknown() {
+        return UNKNOWN;
+    }
+
+    @Override
+    protected long merge(long value1, long value2) {
+        return value1 == value2 ? value1 : UNKNOWN;
+    }
+
+    @Override
+    protected long newValue(AbstractInsnNode insnNode) {
+        int opcode = insnNode.getOpcode();
+
+        if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+            return opcode - Opcodes.ICONST_0;
+        }
+
+        switch (opcode) {
+
+            case Opcodes.BIPUSH:
+            case Opcodes.SIPUSH:
+                return ((IntInsnNode) insnNode).operand;
+
+            case Opcodes.LDC:
+                Object cst = ((LdcInsnNode) insnNode).cst;
+                return cst instanceof Integer ? (Integer) cst : UNKNOWN;
+
+            case Opcodes.GETSTATIC:
+                return getStaticValue((FieldInsnNode) insnNode);
+
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    @Override
+    protected long unaryOperation(AbstractInsnNode insnNode, long value) {
+
+        if (!isConstant(value)) {
+            return UNKNOWN;
+        }
+        int intValue = (int) value;
+
+        switch (insnNode.getOpcode()) {
+
+            case Opcodes.INEG:
+                return -intValue;
+
+            case Opcodes.IINC:
+                return intValue + ((IincInsnNode) insnNode).incr;
+
+            case Opcodes.I2B:
+                return (byte) intValue;
+
+            case Opcodes.I2C:
+                return (char) intValue;
+
+            case Opcodes.I2S:
+                return (short) intValue;
+
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    @Override
+    protected long binaryOperation(AbstractInsnNode insnNode, long value1, long value2) {
+
+        if (!isConstant(value1) || !isConstant(value2)) {
+            return UNKNOWN;
+        }
+        int intValue1 = (int) value1;
+        int intValue2 = (int) value2;
+
+        switch (insnNode.getOpcode()) {
+
+            case Opcodes.IADD:
+                return intValue1 + intValue2;
+
+            case Opcodes.ISUB:
+                return intValue1 - intValue2;
+
+            case Opcodes.IMUL:
+                return intValue1 * intValue2;
+
+            case Opcodes.IDIV:
+                return intValue2 == 0 ? UNKNOWN : intValue1 / intValue2;
+
+            case Opcodes.IREM:
+                return intValue2 == 0 ? UNKNOWN : intValue1 % intValue2;
+
+            case Opcodes.ISHL:
+                return intValue1 << intValue2;
+
+            case Opcodes.ISHR:
+                return intValue1 >> intValue2;
+
+            case Opcodes.IUSHR:
+                return intValue1 >>> intValue2;
+
+            case Opcodes.IAND:
+                return intValue1 & intValue2;
+
+            case Opcodes.IOR:
+                return intValue1 | intValue2;
+
+            case Opcodes.IXOR:
+                return intValue1 ^ intValue2;
+
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    @Override
+    protected int evaluateJump(JumpInsnNode insnNode, long value1, long value2) {
+        int opcode = insnNode.getOpcode();
+
+        if (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE) {
+            return isConstant(value1) ? outcome(opcode - Opcodes.IFEQ, (int) value1, 0) : EITHER;
+        }
+
+        if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ICMPLE) {
+            return isConstant(value1) && isConstant(value2) ? outcome(opcode - Opcodes.IF_ICMPEQ, (int) value1, (int) value2) : EITHER;
+        }
+        return EITHER;
+    }
+
+    @Override
+    protected int evaluateSwitch(AbstractInsnNode insnNode, long key) {
+
+        if (!isConstant(key)) {
+            return EITHER;
+        }
+        int intKey = (int) key;
+
+        if (insnNode instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insnNode;
+            return intKey >= tableSwitch.min && intKey <= tableSwitch.max ? intKey - tableSwitch.min : tableSwitch.labels.size();
+        }
+        LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insnNode;
+        int index = lookupSwitch.keys.indexOf(intKey);
+        return index >= 0 ? index : lookupSwitch.labels.size();
+    }
+
+    /**
+     * @param condition the comparison in the order shared by ifeq to ifle and if_icmpeq to if_icmple
+     */
+    private static int outcome(int condition, int value1, int value2) {
+        boolean taken;
+
+        switch (condition) {
+
+            case 0:
+                taken = value1 == value2;
+                break;
+
+            case 1:
+                taken = value1 != value2;
+                break;
+
+            case 2:
+                taken = value1 < value2;
+                break;
+
+            case 3:
+                taken = value1 >= value2;
+                break;
+
+            case 4:
+                taken = value1 > value2;
+                break;
+
+            default:
+                taken = value1 <= value2;
+        }
+        return taken ? 1 : 0;
+    }
+}
@@ -0,0 +1,353 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A cheap look at a class file that doesn't build any tree: the member references and integer constants of its
+ * constant pool, the fields and methods it declares and whether any of its methods has exception handlers. Which
+ * opcodes the methods use is only worked out on the first call to {@link #hasOpcode(int)}.
+ * <p>
+ * Meant to tell classes apart that can't possibly be of interest before paying for parsing them.
+ */
+public class ConstantPoolScan {
+
+    private static final int FIELDREF = 9;
+    private static final int METHODREF = 10;
+    private static final int INTERFACE_METHODREF = 11;
+    private static final int INTEGER = 3;
+    private static final int LDC_W = 19;
+    private static final int LDC2_W = 20;
+    private static final int WIDE = 196;
+    private static final int GOTO_W = 200;
+    private static final int JSR_W = 201;
+
+    /**
+     * What code we can't make sense of is assumed to hold
+     */
+    private static final long[] ALL_OPCODES = {-1L, -1L, -1L, -1L};
+
+    private final ClassReader classReader;
+    private final List<MemberRef> fieldReferences = new ArrayList<>();
+    private final List<MemberRef> methodReferences = new ArrayList<>();
+    private final List<Member> fields = new ArrayList<>();
+    private final List<Member> methods = new ArrayList<>();
+    private final List<int[]> codeRanges = new ArrayList<>();
+    private int[] integers = new int[8];
+    private int integerCount;
+    private boolean tryCatchBlocks;
+    private long[] opcodes;
+
+    private ConstantPoolScan(ClassReader classReader) {
+        this.classReader = classReader;
+    }
+
+    public static ConstantPoolScan of(ClassReader classReader) {
+        ConstantPoolScan scan = new ConstantPoolScan(classReader);
+        scan.scanConstantPool();
+        scan.scanMembers();
+        return scan;
+    }
+
+    public ClassReader getClassReader() {
+        return classReader;
+    }
+
+    public List<MemberRef> getFieldReferences() {
+        return Collections.unmodifiableList(fieldReferences);
+    }
+
+    public List<MemberRef> getMethodReferences() {
+        return Collections.unmodifiableList(methodReferences);
+    }
+
+    public List<Member> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+
+    public List<Member> getMethods() {
+        return Collections.unmodifiableList(methods);
+    }
+
+    /**
+     * @return whether any field of the given owner is read or written
+     */
+    public boolean referencesFieldOf(String owner) {
+
+        for (MemberRef reference : fieldReferences) {
+
+            if (reference.owner.equals(owner)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether a method with the name and descriptor is invoked, on any owner
+     */
+    public boolean referencesMethod(String name, String descriptor) {
+
+        for (MemberRef reference : methodReferences) {
+
+            if (reference.name.equals(name) && reference.descriptor.equals(descriptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean declaresField(int access, String descriptor) {
+
+        for (Member field : fields) {
+
+            if (field.access == access && field.descriptor.equals(descriptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean declaresMethod(String descriptor) {
+
+        for (Member method : methods) {
+
+            if (method.descriptor.equals(descriptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the constant pool holds an integer constant matching the predicate, small constants pushed
+     * with iconst, bipush or sipush never make it into the constant pool
+     */
+    public boolean hasIntegerConstant(IntPredicate predicate) {
+
+        for (int i = 0; i < integerCount; i++) {
+
+            if (predicate.test(integers[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasTryCatchBlocks() {
+        return tryCatchBlocks;
+    }
+
+    /**
+     * @return whether any method uses the opcode, worked out from the code of every method on the first call. Like
+     * ASM does when reading a class, goto_w and jsr_w count as goto and jsr.
+     */
+    public boolean hasOpcode(int opcode) {
+
+        if (opcodes == null) {
+            opcodes = scanOpcodes();
+        }
+        return (opcodes[opcode >>> 6] & (1L << opcode)) != 0;
+    }
+
+    private void scanConstantPool() {
+        char[] buffer = new char[classReader.getMaxStringLength()];
+
+        for (int i = 1; i < classReader.getItemCount(); i++) {
+            int offset = classReader.getItem(i);
+
+            if (offset == 0) {
+                // second slot of a long or double
+                continue;
+            }
+            int tag = classReader.readByte(offset - 1);
+
+            if (tag == FIELDREF || tag == METHODREF || tag == INTERFACE_METHODREF) {
+                int nameAndType = classReader.getItem(classReader.readUnsignedShort(offset + 2));
+                MemberRef reference = new MemberRef(classReader.readClass(offset, buffer), classReader.readUTF8(nameAndType, buffer),
+                        classReader.readUTF8(nameAndType + 2, buffer));
+                (tag == FIELDREF ? fieldReferences : methodReferences).add(reference);
+            } else if (tag == INTEGER) {
+
+                if (integerCount == integers.length) {
+                    integers = Arrays.copyOf(integers, integerCount * 2);
+                }
+                integers[integerCount++] = classReader.readInt(offset);
+            }
+        }
+    }
+
+    private void scanMembers() {
+        char[] buffer = new char[classReader.getMaxStringLength()];
+        int offset = classReader.header + 6;
+        offset += 2 + classReader.readUnsignedShort(offset) * 2;
+        offset = scanMembers(offset, fields, buffer, false);
+        scanMembers(offset, methods, buffer, true);
+    }
+
+    private int scanMembers(int offset, List<Member> members, char[] buffer, boolean methods) {
+        int count = classReader.readUnsignedShort(offset);
+        offset += 2;
+
+        for (int i = 0; i < count; i++) {
+            members.add(new Member(classReader.readUnsignedShort(offset), classReader.readUTF8(offset + 2, buffer), classReader.readUTF8(offset + 4, buffer)));
+            int attributes = classReader.readUnsignedShort(offset + 6);
+            offset += 8;
+
+            for (int j = 0; j < attributes; j++) {
+                int length = classReader.readInt(offset + 2);
+
+                if (methods && "Code".equals(classReader.readUTF8(offset, buffer))) {
+                    int codeLength = classReader.readInt(offset + 10);
+                    int codeStart = offset + 14;
+
+                    codeRanges.add(new int[]{codeStart, codeStart + codeLength});
+                    tryCatchBlocks |= classReader.readUnsignedShort(codeStart + codeLength) > 0;
+                }
+                offset += 6 + length;
+            }
+        }
+        return offset;
+    }
+
+    private long[] scanOpcodes() {
+        long[] found = new long[4];
+
+        try {
+
+            for (int[] range : codeRanges) {
+
+                if (!scanOpcodes(range[0], range[1], found)) {
+                    return ALL_OPCODES;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return ALL_OPCODES;
+        }
+        return found;
+    }
+
+    private boolean scanOpcodes(int codeStart, int codeEnd, long[] found) {
+        int offset = codeStart;
+
+        while (offset < codeEnd) {
+            int start = offset;
+            int opcode = classReader.readByte(offset);
+            int readOpcode = opcode == GOTO_W ? Opcodes.GOTO : opcode == JSR_W ? Opcodes.JSR : opcode;
+            found[readOpcode >>> 6] |= 1L << readOpcode;
+
+            if (opcode == Opcodes.TABLESWITCH) {
+                int padded = codeStart + ((offset - codeStart + 4) & ~3);
+                int low = classReader.readInt(padded + 4);
+                int high = classReader.readInt(padded + 8);
+                offset = padded + 12 + (high - low + 1) * 4;
+            } else if (opcode == Opcodes.LOOKUPSWITCH) {
+                int padded = codeStart + ((offset - codeStart + 4) & ~3);
+                offset = padded + 8 + classReader.readInt(padded + 4) * 8;
+            } else if (opcode == WIDE) {
+                offset += classReader.readByte(offset + 1) == Opcodes.IINC ? 6 : 4;
+            } else {
+                int length = instructionLength(opcode);
+
+                if (length == 0) {
+                    return false;
+                }
+                offset += length;
+            }
+
+            if (offset <= start) {
+                return false;
+            }
+        }
+        return offset == codeEnd;
+    }
+
+    /**
+     * @return the length of a fixed size instruction, 0 for unknown opcodes
+     */
+    private static int instructionLength(int opcode) {
+
+        if (opcode == Opcodes.BIPUSH || opcode == Opcodes.LDC || opcode == Opcodes.NEWARRAY || opcode == Opcodes.RET
+                || (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) || (opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE)) {
+            return 2;
+        }
+
+        if (opcode == Opcodes.SIPUSH || opcode == LDC_W || opcode == LDC2_W || opcode == Opcodes.IINC
+                || (opcode >= Opcodes.IFEQ && opcode <= Opcodes.JSR) || (opcode >= Opcodes.GETSTATIC && opcode <= Opcodes.INVOKESTATIC)
+                || opcode == Opcodes.NEW || opcode == Opcodes.ANEWARRAY || opcode == Opcodes.CHECKCAST || opcode == Opcodes.INSTANCEOF
+                || opcode == Opcodes.IFNULL || opcode == Opcodes.IFNONNULL) {
+            return 3;
+        }
+
+        if (opcode == Opcodes.MULTIANEWARRAY) {
+            return 4;
+        }
+
+        if (opcode == Opcodes.INVOKEINTERFACE || opcode == Opcodes.INVOKEDYNAMIC || opcode == GOTO_W || opcode == JSR_W) {
+            return 5;
+        }
+        return opcode <= Opcodes.MONITOREXIT ? 1 : 0;
+    }
+
+    /**
+     * A field or method reference of the constant pool
+     */
+    public static class MemberRef {
+
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+
+        private MemberRef(String owner, String name, String descriptor) {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+    }
+
+    /**
+     * A field or method declared by the class
+     */
+    public static class Member {
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+
+        private Member(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public int getAccess() {
+            return access;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+    }
+}
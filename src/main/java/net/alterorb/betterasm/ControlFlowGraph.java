@@ -0,0 +1,363 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.List;
+
+/**
+ * The basic blocks of a method and the edges between them, held in int arrays only. Blocks are numbered in the order
+ * of the instructions, block 0 being the entry, and span the instructions from their start up to the start of the
+ * next block. Edges are stored per block in compressed rows, the normal successors apart from the handlers an
+ * exception may go to. The graph is a snapshot, it has to be built again once the instructions change.
+ * <p>
+ * Blocks start at the first instruction, at every label a jump, switch or try/catch block refers to, and after every
+ * instruction that doesn't simply fall through, so each block lies entirely inside or outside of a try/catch range.
+ * <p>
+ * The walk building the graph also counts the instructions and the references the code makes to each label, for
+ * whatever cleans up after the graph without walking the method again.
+ */
+public final class ControlFlowGraph {
+
+    private final InsnList instructions;
+    private final int blockCount;
+    private final int[] blockStarts;
+    private final int[] blocksByInsn;
+    private final int[] successorOffsets;
+    private final int[] successors;
+    private final int[] handlerOffsets;
+    private final int[] handlers;
+    private final int instructionCount;
+    private final int[] labelReferences;
+
+    private ControlFlowGraph(InsnList instructions, int blockCount, int[] blockStarts, int[] blocksByInsn, int[] successorOffsets,
+                             int[] successors, int[] handlerOffsets, int[] handlers, int instructionCount, int[] labelReferences) {
+        this.instructions = instructions;
+        this.blockCount = blockCount;
+        this.blockStarts = blockStarts;
+        this.blocksByInsn = blocksByInsn;
+        this.successorOffsets = successorOffsets;
+        this.successors = successors;
+        this.handlerOffsets = handlerOffsets;
+        this.handlers = handlers;
+        this.instructionCount = instructionCount;
+        this.labelReferences = labelReferences;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the method uses jsr or ret, whose successors can't be told from the code
+     */
+    public static ControlFlowGraph build(MethodNode method) {
+        InsnList instructions = method.instructions;
+        int size = instructions.size();
+        boolean[] leaders = new boolean[size + 1];
+        int[] labelReferences = new int[size];
+        int instructionCount = 0;
+        leaders[0] = true;
+        leaders[size] = true;
+
+        for (int i = 0; i < size; i++) {
+            AbstractInsnNode insnNode = instructions.get(i);
+            int opcode = insnNode.getOpcode();
+
+            if (opcode == Opcodes.JSR || opcode == Opcodes.RET) {
+                throw new IllegalArgumentException("jsr and ret are not supported");
+            }
+            instructionCount += opcode >= 0 ? 1 : 0;
+
+            if (insnNode instanceof JumpInsnNode) {
+                int target = instructions.indexOf(((JumpInsnNode) insnNode).label);
+                leaders[target] = true;
+                labelReferences[target]++;
+            } else if (insnNode instanceof TableSwitchInsnNode) {
+                markLeaders(instructions, leaders, labelReferences, ((TableSwitchInsnNode) insnNode).dflt, ((TableSwitchInsnNode) insnNode).labels);
+            } else if (insnNode instanceof LookupSwitchInsnNode) {
+                markLeaders(instructions, leaders, labelReferences, ((LookupSwitchInsnNode) insnNode).dflt, ((LookupSwitchInsnNode) insnNode).labels);
+            } else if (insnNode instanceof LineNumberNode) {
+                labelReferences[instructions.indexOf(((LineNumberNode) insnNode).start)]++;
+            } else if (insnNode instanceof FrameNode) {
+                countReferences(instructions, labelReferences, ((FrameNode) insnNode).local);
+                countReferences(instructions, labelReferences, ((FrameNode) insnNode).stack);
+            }
+
+            if (insnNode instanceof JumpInsnNode || !fallsThrough(opcode)) {
+                leaders[i + 1] = true;
+            }
+        }
+
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            leaders[instructions.indexOf(tryCatchBlock.start)] = true;
+            leaders[instructions.indexOf(tryCatchBlock.end)] = true;
+            leaders[instructions.indexOf(tryCatchBlock.handler)] = true;
+        }
+        int blockCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            blockCount += leaders[i] ? 1 : 0;
+        }
+        int[] blockStarts = new int[blockCount + 1];
+        int[] blocksByInsn = new int[size];
+        int block = -1;
+
+        for (int i = 0; i < size; i++) {
+
+            if (leaders[i]) {
+                blockStarts[++block] = i;
+            }
+            blocksByInsn[i] = block;
+        }
+        blockStarts[blockCount] = size;
+
+        // rows are counted first, then filled
+        int[] successorOffsets = new int[blockCount + 1];
+        int[] handlerOffsets = new int[blockCount + 1];
+
+        for (int b = 0; b < blockCount; b++) {
+            successorOffsets[b + 1] = successorOffsets[b] + countSuccessors(instructions, blockStarts, blockCount, b);
+            handlerOffsets[b + 1] = handlerOffsets[b] + countHandlers(instructions, method.tryCatchBlocks, blockStarts[b]);
+        }
+        int[] successors = new int[successorOffsets[blockCount]];
+        int[] handlers = new int[handlerOffsets[blockCount]];
+
+        for (int b = 0; b < blockCount; b++) {
+            fillSuccessors(instructions, blockStarts, blocksByInsn, blockCount, b, successors, successorOffsets[b]);
+            int offset = handlerOffsets[b];
+
+            for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+
+                if (covers(instructions, tryCatchBlock, blockStarts[b])) {
+                    handlers[offset++] = blocksByInsn[instructions.indexOf(tryCatchBlock.handler)];
+                }
+            }
+        }
+        return new ControlFlowGraph(instructions, blockCount, blockStarts, blocksByInsn, successorOffsets, successors, handlerOffsets, handlers,
+                instructionCount, labelReferences);
+    }
+
+    /**
+     * @return the number of instructions of the method, labels, line numbers and frames aside
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return how many jumps, switch targets, line numbers and frames refer to the label at each index, as a copy the
+     * caller may count down as it removes them. Try/catch blocks and local variables aren't counted.
+     */
+    public int[] getLabelReferences() {
+        return labelReferences.clone();
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the index of the first instruction of the block
+     */
+    public int getBlockStart(int block) {
+        return blockStarts[block];
+    }
+
+    /**
+     * @return the index right after the last instruction of the block
+     */
+    public int getBlockEnd(int block) {
+        return blockStarts[block + 1];
+    }
+
+    /**
+     * @return the block the instruction at the index belongs to
+     */
+    public int getBlock(int index) {
+        return blocksByInsn[index];
+    }
+
+    public AbstractInsnNode getInstruction(int index) {
+        return instructions.get(index);
+    }
+
+    public int getSuccessorCount(int block) {
+        return successorOffsets[block + 1] - successorOffsets[block];
+    }
+
+    public int getSuccessor(int block, int successor) {
+        return successors[successorOffsets[block] + successor];
+    }
+
+    /**
+     * @return the number of handlers an exception thrown in the block may go to
+     */
+    public int getHandlerCount(int block) {
+        return handlerOffsets[block + 1] - handlerOffsets[block];
+    }
+
+    public int getHandler(int block, int handler) {
+        return handlers[handlerOffsets[block] + handler];
+    }
+
+    /**
+     * @return which blocks can be reached from the entry, through normal and exception edges
+     */
+    public boolean[] findReachableBlocks() {
+        boolean[] reachable = new boolean[blockCount];
+        int[] stack = new int[blockCount];
+        int pending = 0;
+
+        if (blockCount == 0) {
+            return reachable;
+        }
+        reachable[0] = true;
+        stack[pending++] = 0;
+
+        while (pending > 0) {
+            int block = stack[--pending];
+
+            for (int i = successorOffsets[block]; i < successorOffsets[block + 1]; i++) {
+
+                if (!reachable[successors[i]]) {
+                    reachable[successors[i]] = true;
+                    stack[pending++] = successors[i];
+                }
+            }
+
+            for (int i = handlerOffsets[block]; i < handlerOffsets[block + 1]; i++) {
+
+                if (!reachable[handlers[i]]) {
+                    reachable[handlers[i]] = true;
+                    stack[pending++] = handlers[i];
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private static void markLeaders(InsnList instructions, boolean[] leaders, int[] labelReferences, LabelNode dflt, List<LabelNode> labels) {
+        int target = instructions.indexOf(dflt);
+        leaders[target] = true;
+        labelReferences[target]++;
+
+        for (LabelNode label : labels) {
+            target = instructions.indexOf(label);
+            leaders[target] = true;
+            labelReferences[target]++;
+        }
+    }
+
+    /**
+     * Counts the labels among the types of a frame, which stand for the values their new instruction left uninitialized
+     */
+    private static void countReferences(InsnList instructions, int[] labelReferences, List<Object> types) {
+
+        if (types == null) {
+            return;
+        }
+
+        for (Object type : types) {
+
+            if (type instanceof LabelNode) {
+                labelReferences[instructions.indexOf((LabelNode) type)]++;
+            }
+        }
+    }
+
+    private static int countSuccessors(InsnList instructions, int[] blockStarts, int blockCount, int block) {
+        AbstractInsnNode last = lastInstruction(instructions, blockStarts, block);
+
+        if (last == null) {
+            return block + 1 < blockCount ? 1 : 0;
+        }
+
+        if (last instanceof TableSwitchInsnNode) {
+            return ((TableSwitchInsnNode) last).labels.size() + 1;
+        }
+
+        if (last instanceof LookupSwitchInsnNode) {
+            return ((LookupSwitchInsnNode) last).labels.size() + 1;
+        }
+        int count = last instanceof JumpInsnNode ? 1 : 0;
+
+        if (fallsThrough(last.getOpcode()) && block + 1 < blockCount) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void fillSuccessors(InsnList instructions, int[] blockStarts, int[] blocksByInsn, int blockCount, int block, int[] successors, int offset) {
+        AbstractInsnNode last = lastInstruction(instructions, blockStarts, block);
+
+        if (last instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) last;
+            successors[offset++] = blocksByInsn[instructions.indexOf(tableSwitch.dflt)];
+
+            for (LabelNode label : tableSwitch.labels) {
+                successors[offset++] = blocksByInsn[instructions.indexOf(label)];
+            }
+            return;
+        }
+
+        if (last instanceof LookupSwitchInsnNode) {
+            LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) last;
+            successors[offset++] = blocksByInsn[instructions.indexOf(lookupSwitch.dflt)];
+
+            for (LabelNode label : lookupSwitch.labels) {
+                successors[offset++] = blocksByInsn[instructions.indexOf(label)];
+            }
+            return;
+        }
+
+        if (last instanceof JumpInsnNode) {
+            successors[offset++] = blocksByInsn[instructions.indexOf(((JumpInsnNode) last).label)];
+        }
+
+        if ((last == null || fallsThrough(last.getOpcode())) && block + 1 < blockCount) {
+            successors[offset] = block + 1;
+        }
+    }
+
+    private static int countHandlers(InsnList instructions, List<TryCatchBlockNode> tryCatchBlocks, int start) {
+        int count = 0;
+
+        for (TryCatchBlockNode tryCatchBlock : tryCatchBlocks) {
+            count += covers(instructions, tryCatchBlock, start) ? 1 : 0;
+        }
+        return count;
+    }
+
+    private static boolean covers(InsnList instructions, TryCatchBlockNode tryCatchBlock, int index) {
+        return index >= instructions.indexOf(tryCatchBlock.start) && index < instructions.indexOf(tryCatchBlock.end);
+    }
+
+    /**
+     * @return the last instruction of the block that isn't a label, line number or frame, if any
+     */
+    private static AbstractInsnNode lastInstruction(InsnList instructions, int[] blockStarts, int block) {
+
+        for (int i = blockStarts[block + 1] - 1; i >= blockStarts[block]; i--) {
+            AbstractInsnNode insnNode = instructions.get(i);
+
+            if (insnNode.getOpcode() >= 0) {
+                return insnNode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether execution may continue with the next instruction
+     */
+    private static boolean fallsThrough(int opcode) {
+        return opcode != Opcodes.GOTO && opcode != Opcodes.ATHROW && opcode != Opcodes.TABLESWITCH && opcode != Opcodes.LOOKUPSWITCH
+                && (opcode < Opcodes.IRETURN || opcode > Opcodes.RETURN);
+    }
+}
@@ -0,0 +1,115 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Writes a class node that kept the reader it was read from, starting from the constant pool of that reader and
+ * copying the methods that aren't dirty from it byte for byte. Only the dirty methods are written from the tree,
+ * and only their max stack and locals are computed when the writer flags ask for it. The header, fields and
+ * attributes of the class are always written from the tree.
+ * <p>
+ * Copied methods keep the debug attributes and frames they were read with, and constants that are no longer used
+ * stay in the constant pool. Classes without a source reader are written from the tree as usual.
+ */
+public class CopyThroughWriter {
+
+    private final ClassNode classNode;
+    private final ClassWriter writer;
+    private final Set<MethodNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int copiedMethods;
+    private int writtenMethods;
+
+    public CopyThroughWriter(ClassNode classNode, int flags) {
+        this(classNode, source -> new ClassWriter(source, flags));
+    }
+
+    /**
+     * @param writers creates the writer from the source of the class, which may be null
+     */
+    public CopyThroughWriter(ClassNode classNode, Function<ClassReader, ClassWriter> writers) {
+        this.classNode = classNode;
+        this.writer = writers.apply(classNode.getSource());
+    }
+
+    /**
+     * @return the number of methods copied from the source, valid after {@link #toByteArray()}
+     */
+    public int getCopiedMethods() {
+        return copiedMethods;
+    }
+
+    /**
+     * @return the number of methods written from the tree, valid after {@link #toByteArray()}
+     */
+    public int getWrittenMethods() {
+        return writtenMethods;
+    }
+
+    public byte[] toByteArray() {
+        ClassReader source = classNode.getSource();
+
+        if (source == null) {
+            classNode.accept(writer);
+            writtenMethods = classNode.methods.size();
+            return writer.toByteArray();
+        }
+        classNode.accept(new ClassVisitor(Opcodes.ASM7, writer) {
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return null;
+            }
+
+            @Override
+            public void visitEnd() {
+            }
+        });
+        // the writer has to be handed to the reader as it is, any visitor in between stops it from copying
+        source.accept(new ClassVisitor(Opcodes.ASM7) {
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                MethodNode method = classNode.findMethod(name, descriptor);
+
+                if (method == null || !visited.add(method)) {
+                    return null;
+                }
+
+                if (classNode.isDirty(method) || method.access != access || !Objects.equals(method.signature, signature)
+                        || !Arrays.equals(exceptions == null ? new String[0] : exceptions, method.exceptions.toArray())) {
+                    writeMethod(method);
+                    return null;
+                }
+                copiedMethods++;
+                return writer.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        // methods the source doesn't have go last
+        for (MethodNode method : classNode.methods) {
+
+            if (visited.add(method)) {
+                writeMethod(method);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    private void writeMethod(MethodNode method) {
+        String[] exceptions = method.exceptions.toArray(new String[0]);
+        writtenMethods++;
+        method.accept(writer.visitMethod(method.access, method.name, method.desc, method.signature, exceptions));
+    }
+}
@@ -0,0 +1,753 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A forward dataflow analysis over the instructions of a method, in which every word of a frame, local or stack, is a
+ * single long. The frames of all instructions are stored side by side in one array which, like every other array of
+ * the analyzer, is only ever grown, so an analyzer reused across methods stops allocating once it has seen its
+ * largest method. Longs and doubles take two words on the stack and in the locals, as they do in the JVM.
+ * <p>
+ * Subclasses give meaning to the values through the operation hooks, and may tell that a conditional jump or a switch
+ * always goes the same way, in which case only that way is followed. Operations on longs and doubles aren't handed to
+ * the hooks, their results are always {@link #unknown()}. The frame of an instruction is the one before it executes,
+ * and instructions that can't be reached have none.
+ * <p>
+ * An analyzer keeps the results of the last method it analyzed until the next one, and isn't thread-safe.
+ */
+public abstract class DataflowAnalyzer {
+
+    /**
+     * The outcome of a branch that can go either way
+     */
+    public static final int EITHER = -1;
+
+    private static final int UNREACHED = -1;
+
+    private InsnList instructions;
+    private int size;
+    private int locals;
+    private int frameSize;
+
+    private long[] frames = new long[0];
+    private int[] stackSizes = new int[0];
+    private int[] worklist = new int[0];
+    private boolean[] queued = new boolean[0];
+    private int pending;
+
+    private long[] current = new long[0];
+    private long[] handlerFrame = new long[0];
+    private int top;
+
+    private int[] handlerStarts = new int[0];
+    private int[] handlerEnds = new int[0];
+    private int[] handlerTargets = new int[0];
+    private int handlers;
+
+    /**
+     * @return the value of words nothing is known about, which is also the second word of longs and doubles
+     */
+    protected abstract long unknown();
+
+    /**
+     * @return the value of a word reached with either of the values
+     */
+    protected abstract long merge(long value1, long value2);
+
+    /**
+     * Pushes of constants, getstatic and new
+     */
+    protected long newValue(AbstractInsnNode insnNode) {
+        return unknown();
+    }
+
+    /**
+     * Operations taking a single word, including iinc, which is handed the value of its local
+     */
+    protected long unaryOperation(AbstractInsnNode insnNode, long value) {
+        return unknown();
+    }
+
+    /**
+     * Operations taking two words, with the first pushed one as the first value
+     */
+    protected long binaryOperation(AbstractInsnNode insnNode, long value1, long value2) {
+        return unknown();
+    }
+
+    /**
+     * @param value2 the second operand of jumps comparing two values, {@link #unknown()} for the others
+     * @return 1 if the jump is always taken, 0 if it never is, {@link #EITHER} otherwise
+     */
+    protected int evaluateJump(JumpInsnNode insnNode, long value1, long value2) {
+        return EITHER;
+    }
+
+    /**
+     * @return the index of the label the switch always goes to, the number of labels for the default one, or
+     * {@link #EITHER}
+     */
+    protected int evaluateSwitch(AbstractInsnNode insnNode, long key) {
+        return EITHER;
+    }
+
+    /**
+     * Computes the frame of every instruction of the method, starting with every parameter and local unknown
+     *
+     * @throws AnalyzerException if the method uses jsr or ret, or its code isn't valid for its max stack and locals
+     */
+    public void analyze(MethodNode method) throws AnalyzerException {
+        this.instructions = method.instructions;
+        this.size = instructions.size();
+        this.locals = method.maxLocals;
+        this.frameSize = method.maxLocals + method.maxStack;
+        this.pending = 0;
+        this.handlers = 0;
+        ensureCapacity(method.tryCatchBlocks.size());
+
+        Arrays.fill(stackSizes, 0, size, UNREACHED);
+
+        if (size == 0) {
+            return;
+        }
+
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            handlerStarts[handlers] = instructions.indexOf(tryCatchBlock.start);
+            handlerEnds[handlers] = instructions.indexOf(tryCatchBlock.end);
+            handlerTargets[handlers] = instructions.indexOf(tryCatchBlock.handler);
+            handlers++;
+        }
+
+        if (handlers > 0 && method.maxStack == 0) {
+            throw new AnalyzerException(null, "No room on the stack for the exceptions of the handlers");
+        }
+        Arrays.fill(current, 0, frameSize, unknown());
+        top = 0;
+        flow(null, 0);
+
+        while (pending > 0) {
+            int index = worklist[--pending];
+            queued[index] = false;
+
+            System.arraycopy(frames, index * frameSize, current, 0, frameSize);
+            top = stackSizes[index];
+            AbstractInsnNode insnNode = instructions.get(index);
+
+            if (insnNode.getOpcode() < 0) {
+                flowNext(insnNode, index);
+                continue;
+            }
+            flowHandlers(index);
+            execute(insnNode, index);
+
+            if (insnNode instanceof VarInsnNode || insnNode instanceof IincInsnNode) {
+                flowHandlers(index);
+            }
+        }
+    }
+
+    /**
+     * @return the number of instructions of the last method analyzed
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Has to be checked before reading the frame of an instruction, only reachable instructions have one
+     */
+    public boolean isReachable(int index) {
+        return stackSizes[index] != UNREACHED;
+    }
+
+    public int getStackSize(int index) {
+        return stackSizes[index];
+    }
+
+    public long getLocal(int index, int local) {
+        return frames[index * frameSize + local];
+    }
+
+    /**
+     * @param depth the position from the top of the stack, 0 for the top word
+     */
+    public long getStack(int index, int depth) {
+        return frames[index * frameSize + locals + stackSizes[index] - 1 - depth];
+    }
+
+    /**
+     * @return the outcome of the conditional jump or switch at the index given its frame, as told by
+     * {@link #evaluateJump} or {@link #evaluateSwitch}
+     */
+    public int getOutcome(int index) {
+        AbstractInsnNode insnNode = instructions.get(index);
+        int opcode = insnNode.getOpcode();
+
+        if (opcode == Opcodes.TABLESWITCH || opcode == Opcodes.LOOKUPSWITCH) {
+            return evaluateSwitch(insnNode, getStack(index, 0));
+        }
+
+        if (isSingleOperandJump(opcode)) {
+            return evaluateJump((JumpInsnNode) insnNode, getStack(index, 0), unknown());
+        }
+
+        if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ACMPNE) {
+            return evaluateJump((JumpInsnNode) insnNode, getStack(index, 1), getStack(index, 0));
+        }
+        return EITHER;
+    }
+
+    private void execute(AbstractInsnNode insnNode, int index) throws AnalyzerException {
+        int opcode = insnNode.getOpcode();
+
+        switch (opcode) {
+
+            case Opcodes.NOP:
+                break;
+
+            case Opcodes.ACONST_NULL:
+            case Opcodes.ICONST_M1:
+            case Opcodes.ICONST_0:
+            case Opcodes.ICONST_1:
+            case Opcodes.ICONST_2:
+            case Opcodes.ICONST_3:
+            case Opcodes.ICONST_4:
+            case Opcodes.ICONST_5:
+            case Opcodes.FCONST_0:
+            case Opcodes.FCONST_1:
+            case Opcodes.FCONST_2:
+            case Opcodes.BIPUSH:
+            case Opcodes.SIPUSH:
+            case Opcodes.NEW:
+                push(insnNode, newValue(insnNode));
+                break;
+
+            case Opcodes.LCONST_0:
+            case Opcodes.LCONST_1:
+            case Opcodes.DCONST_0:
+            case Opcodes.DCONST_1:
+                pushUnknown(insnNode, 2);
+                break;
+
+            case Opcodes.LDC:
+                Object cst = ((LdcInsnNode) insnNode).cst;
+
+                if (cst instanceof Long || cst instanceof Double) {
+                    pushUnknown(insnNode, 2);
+                } else {
+                    push(insnNode, newValue(insnNode));
+                }
+                break;
+
+            case Opcodes.ILOAD:
+            case Opcodes.FLOAD:
+            case Opcodes.ALOAD:
+                push(insnNode, current[local(insnNode, ((VarInsnNode) insnNode).var, 1)]);
+                break;
+
+            case Opcodes.LLOAD:
+            case Opcodes.DLOAD: {
+                int var = local(insnNode, ((VarInsnNode) insnNode).var, 2);
+                push(insnNode, current[var]);
+                push(insnNode, current[var + 1]);
+                break;
+            }
+
+            case Opcodes.ISTORE:
+            case Opcodes.FSTORE:
+            case Opcodes.ASTORE:
+                current[local(insnNode, ((VarInsnNode) insnNode).var, 1)] = pop(insnNode);
+                break;
+
+            case Opcodes.LSTORE:
+            case Opcodes.DSTORE: {
+                int var = local(insnNode, ((VarInsnNode) insnNode).var, 2);
+                current[var + 1] = pop(insnNode);
+                current[var] = pop(insnNode);
+                break;
+            }
+
+            case Opcodes.IINC: {
+                int var = local(insnNode, ((IincInsnNode) insnNode).var, 1);
+                current[var] = unaryOperation(insnNode, current[var]);
+                break;
+            }
+
+            case Opcodes.LALOAD:
+            case Opcodes.DALOAD:
+                pop(insnNode, 2);
+                pushUnknown(insnNode, 2);
+                break;
+
+            case Opcodes.IALOAD:
+            case Opcodes.FALOAD:
+            case Opcodes.AALOAD:
+            case Opcodes.BALOAD:
+            case Opcodes.CALOAD:
+            case Opcodes.SALOAD:
+                binary(insnNode);
+                break;
+
+            case Opcodes.IASTORE:
+            case Opcodes.FASTORE:
+            case Opcodes.AASTORE:
+            case Opcodes.BASTORE:
+            case Opcodes.CASTORE:
+            case Opcodes.SASTORE:
+                pop(insnNode, 3);
+                break;
+
+            case Opcodes.LASTORE:
+            case Opcodes.DASTORE:
+                pop(insnNode, 4);
+                break;
+
+            case Opcodes.POP:
+            case Opcodes.MONITORENTER:
+            case Opcodes.MONITOREXIT:
+                pop(insnNode, 1);
+                break;
+
+            case Opcodes.POP2:
+                pop(insnNode, 2);
+                break;
+
+            case Opcodes.DUP: {
+                long value1 = pop(insnNode);
+                push(insnNode, value1);
+                push(insnNode, value1);
+                break;
+            }
+
+            case Opcodes.DUP_X1: {
+                long value1 = pop(insnNode);
+                long value2 = pop(insnNode);
+                push(insnNode, value1);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                break;
+            }
+
+            case Opcodes.DUP_X2: {
+                long value1 = pop(insnNode);
+                long value2 = pop(insnNode);
+                long value3 = pop(insnNode);
+                push(insnNode, value1);
+                push(insnNode, value3);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                break;
+            }
+
+            case Opcodes.DUP2: {
+                long value1 = pop(insnNode);
+                long value2 = pop(insnNode);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                break;
+            }
+
+            case Opcodes.DUP2_X1: {
+                long value1 = pop(insnNode);
+                long value2 = pop(insnNode);
+                long value3 = pop(insnNode);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                push(insnNode, value3);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                break;
+            }
+
+            case Opcodes.DUP2_X2: {
+                long value1 = pop(insnNode);
+                long value2 = pop(insnNode);
+                long value3 = pop(insnNode);
+                long value4 = pop(insnNode);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                push(insnNode, value4);
+                push(insnNode, value3);
+                push(insnNode, value2);
+                push(insnNode, value1);
+                break;
+            }
+
+            case Opcodes.SWAP: {
+                long value1 = pop(insnNode);
+                long value2 = pop(insnNode);
+                push(insnNode, value1);
+                push(insnNode, value2);
+                break;
+            }
+
+            case Opcodes.INEG:
+            case Opcodes.FNEG:
+            case Opcodes.I2F:
+            case Opcodes.F2I:
+            case Opcodes.I2B:
+            case Opcodes.I2C:
+            case Opcodes.I2S:
+            case Opcodes.NEWARRAY:
+            case Opcodes.ANEWARRAY:
+            case Opcodes.ARRAYLENGTH:
+            case Opcodes.CHECKCAST:
+            case Opcodes.INSTANCEOF:
+                push(insnNode, unaryOperation(insnNode, pop(insnNode)));
+                break;
+
+            case Opcodes.LNEG:
+            case Opcodes.DNEG:
+            case Opcodes.L2D:
+            case Opcodes.D2L:
+                pop(insnNode, 2);
+                pushUnknown(insnNode, 2);
+                break;
+
+            case Opcodes.I2L:
+            case Opcodes.I2D:
+            case Opcodes.F2L:
+            case Opcodes.F2D:
+                pop(insnNode, 1);
+                pushUnknown(insnNode, 2);
+                break;
+
+            case Opcodes.L2I:
+            case Opcodes.L2F:
+            case Opcodes.D2I:
+            case Opcodes.D2F:
+                pop(insnNode, 2);
+                pushUnknown(insnNode, 1);
+                break;
+
+            case Opcodes.LCMP:
+            case Opcodes.DCMPL:
+            case Opcodes.DCMPG:
+                pop(insnNode, 4);
+                pushUnknown(insnNode, 1);
+                break;
+
+            case Opcodes.FCMPL:
+            case Opcodes.FCMPG:
+                binary(insnNode);
+                break;
+
+            case Opcodes.GOTO:
+                flow(insnNode, index(((JumpInsnNode) insnNode).label));
+                return;
+
+            case Opcodes.JSR:
+            case Opcodes.RET:
+                throw new AnalyzerException(insnNode, "jsr and ret are not supported");
+
+            case Opcodes.TABLESWITCH:
+                flowSwitch(insnNode, ((TableSwitchInsnNode) insnNode).dflt, ((TableSwitchInsnNode) insnNode).labels);
+                return;
+
+            case Opcodes.LOOKUPSWITCH:
+                flowSwitch(insnNode, ((LookupSwitchInsnNode) insnNode).dflt, ((LookupSwitchInsnNode) insnNode).labels);
+                return;
+
+            case Opcodes.IRETURN:
+            case Opcodes.LRETURN:
+            case Opcodes.FRETURN:
+            case Opcodes.DRETURN:
+            case Opcodes.ARETURN:
+            case Opcodes.RETURN:
+            case Opcodes.ATHROW:
+                return;
+
+            case Opcodes.GETSTATIC: {
+                int words = Type.getType(((FieldInsnNode) insnNode).desc).getSize();
+
+                if (words == 1) {
+                    push(insnNode, newValue(insnNode));
+                } else {
+                    pushUnknown(insnNode, words);
+                }
+                break;
+            }
+
+            case Opcodes.PUTSTATIC:
+                pop(insnNode, Type.getType(((FieldInsnNode) insnNode).desc).getSize());
+                break;
+
+            case Opcodes.GETFIELD: {
+                int words = Type.getType(((FieldInsnNode) insnNode).desc).getSize();
+                long reference = pop(insnNode);
+
+                if (words == 1) {
+                    push(insnNode, unaryOperation(insnNode, reference));
+                } else {
+                    pushUnknown(insnNode, words);
+                }
+                break;
+            }
+
+            case Opcodes.PUTFIELD:
+                pop(insnNode, Type.getType(((FieldInsnNode) insnNode).desc).getSize() + 1);
+                break;
+
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKESTATIC:
+            case Opcodes.INVOKEINTERFACE:
+            case Opcodes.INVOKEDYNAMIC: {
+                String descriptor = opcode == Opcodes.INVOKEDYNAMIC ? ((InvokeDynamicInsnNode) insnNode).desc : ((MethodInsnNode) insnNode).desc;
+                int sizes = Type.getArgumentsAndReturnSizes(descriptor);
+                int arguments = sizes >> 2;
+
+                // the argument size counts the receiver, which static methods and call sites don't take
+                pop(insnNode, opcode == Opcodes.INVOKESTATIC || opcode == Opcodes.INVOKEDYNAMIC ? arguments - 1 : arguments);
+                pushUnknown(insnNode, sizes & 0x3);
+                break;
+            }
+
+            case Opcodes.MULTIANEWARRAY:
+                pop(insnNode, ((MultiANewArrayInsnNode) insnNode).dims);
+                pushUnknown(insnNode, 1);
+                break;
+
+            case Opcodes.IFNULL:
+            case Opcodes.IFNONNULL:
+            case Opcodes.IFEQ:
+            case Opcodes.IFNE:
+            case Opcodes.IFLT:
+            case Opcodes.IFGE:
+            case Opcodes.IFGT:
+            case Opcodes.IFLE: {
+                long value = pop(insnNode);
+                flowJump((JumpInsnNode) insnNode, index, evaluateJump((JumpInsnNode) insnNode, value, unknown()));
+                return;
+            }
+
+            case Opcodes.IF_ICMPEQ:
+            case Opcodes.IF_ICMPNE:
+            case Opcodes.IF_ICMPLT:
+            case Opcodes.IF_ICMPGE:
+            case Opcodes.IF_ICMPGT:
+            case Opcodes.IF_ICMPLE:
+            case Opcodes.IF_ACMPEQ:
+            case Opcodes.IF_ACMPNE: {
+                long value2 = pop(insnNode);
+                long value1 = pop(insnNode);
+                flowJump((JumpInsnNode) insnNode, index, evaluateJump((JumpInsnNode) insnNode, value1, value2));
+                return;
+            }
+
+            default:
+                executeArithmetic(insnNode, opcode);
+        }
+        flowNext(insnNode, index);
+    }
+
+    /**
+     * The arithmetic operations left, from iadd to lxor, of which only the ones on ints and floats are handed to the
+     * hooks
+     */
+    private void executeArithmetic(AbstractInsnNode insnNode, int opcode) throws AnalyzerException {
+
+        if (opcode < Opcodes.IADD || opcode > Opcodes.LXOR) {
+            throw new AnalyzerException(insnNode, "Unknown opcode " + opcode);
+        }
+
+        // the long and double variants have odd opcodes, long shifts take an int as their second operand
+        if (opcode % 2 == 0) {
+            binary(insnNode);
+        } else {
+            pop(insnNode, opcode >= Opcodes.ISHL && opcode <= Opcodes.LUSHR ? 3 : 4);
+            pushUnknown(insnNode, 2);
+        }
+    }
+
+    private void binary(AbstractInsnNode insnNode) throws AnalyzerException {
+        long value2 = pop(insnNode);
+        long value1 = pop(insnNode);
+        push(insnNode, binaryOperation(insnNode, value1, value2));
+    }
+
+    private void flowJump(JumpInsnNode insnNode, int index, int outcome) throws AnalyzerException {
+
+        if (outcome != 1) {
+            flowNext(insnNode, index);
+        }
+
+        if (outcome != 0) {
+            flow(insnNode, index(insnNode.label));
+        }
+    }
+
+    private void flowSwitch(AbstractInsnNode insnNode, LabelNode dflt, List<LabelNode> labels) throws AnalyzerException {
+        int outcome = evaluateSwitch(insnNode, pop(insnNode));
+
+        if (outcome == EITHER) {
+            flow(insnNode, index(dflt));
+
+            for (LabelNode label : labels) {
+                flow(insnNode, index(label));
+            }
+        } else {
+            flow(insnNode, index(outcome == labels.size() ? dflt : labels.get(outcome)));
+        }
+    }
+
+    private void flowNext(AbstractInsnNode insnNode, int index) throws AnalyzerException {
+
+        if (index + 1 < size) {
+            flow(insnNode, index + 1);
+        } else if (insnNode.getOpcode() >= 0) {
+            throw new AnalyzerException(insnNode, "Execution can fall off the end of the code");
+        }
+    }
+
+    /**
+     * Merges the locals into the handlers covering the instruction, with the exception as the only word on the stack
+     */
+    private void flowHandlers(int index) throws AnalyzerException {
+
+        for (int i = 0; i < handlers; i++) {
+
+            if (index >= handlerStarts[i] && index < handlerEnds[i]) {
+                System.arraycopy(current, 0, handlerFrame, 0, locals);
+                handlerFrame[locals] = unknown();
+                merge(null, handlerTargets[i], handlerFrame, 1);
+            }
+        }
+    }
+
+    private void flow(AbstractInsnNode insnNode, int target) throws AnalyzerException {
+        merge(insnNode, target, current, top);
+    }
+
+    private void merge(AbstractInsnNode insnNode, int target, long[] frame, int stackSize) throws AnalyzerException {
+        int offset = target * frameSize;
+        int words = locals + stackSize;
+
+        if (stackSizes[target] == UNREACHED) {
+            System.arraycopy(frame, 0, frames, offset, words);
+            stackSizes[target] = stackSize;
+            enqueue(target);
+            return;
+        }
+
+        if (stackSizes[target] != stackSize) {
+            throw new AnalyzerException(insnNode, "Incompatible stack heights");
+        }
+        boolean changed = false;
+
+        for (int i = 0; i < words; i++) {
+            long merged = merge(frames[offset + i], frame[i]);
+
+            if (merged != frames[offset + i]) {
+                frames[offset + i] = merged;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            enqueue(target);
+        }
+    }
+
+    private void enqueue(int index) {
+
+        if (!queued[index]) {
+            queued[index] = true;
+            worklist[pending++] = index;
+        }
+    }
+
+    private int index(LabelNode label) {
+        return instructions.indexOf(label);
+    }
+
+    private int local(AbstractInsnNode insnNode, int var, int words) throws AnalyzerException {
+
+        if (var + words > locals) {
+            throw new AnalyzerException(insnNode, "Local variable " + var + " is beyond max locals");
+        }
+        return var;
+    }
+
+    private void push(AbstractInsnNode insnNode, long value) throws AnalyzerException {
+
+        if (locals + top >= frameSize) {
+            throw new AnalyzerException(insnNode, "Stack is beyond max stack");
+        }
+        current[locals + top++] = value;
+    }
+
+    private void pushUnknown(AbstractInsnNode insnNode, int words) throws AnalyzerException {
+
+        for (int i = 0; i < words; i++) {
+            push(insnNode, unknown());
+        }
+    }
+
+    private long pop(AbstractInsnNode insnNode) throws AnalyzerException {
+
+        if (top == 0) {
+            throw new AnalyzerException(insnNode, "Cannot pop from an empty stack");
+        }
+        return current[locals + --top];
+    }
+
+    private void pop(AbstractInsnNode insnNode, int words) throws AnalyzerException {
+
+        for (int i = 0; i < words; i++) {
+            pop(insnNode);
+        }
+    }
+
+    private void ensureCapacity(int tryCatchBlocks) {
+
+        if (size > stackSizes.length) {
+            int capacity = Math.max(size, stackSizes.length * 2);
+            stackSizes = new int[capacity];
+            worklist = new int[capacity];
+            queued = new boolean[capacity];
+        }
+
+        if ((long) size * frameSize > frames.length) {
+            frames = new long[Math.max(size * frameSize, frames.length * 2)];
+        }
+
+        if (frameSize + 1 > current.length) {
+            current = new long[frameSize + 1];
+            handlerFrame = new long[frameSize + 1];
+        }
+
+        if (tryCatchBlocks > handlerStarts.length) {
+            int capacity = Math.max(tryCatchBlocks, handlerStarts.length * 2);
+            handlerStarts = new int[capacity];
+            handlerEnds = new int[capacity];
+            handlerTargets = new int[capacity];
+        }
+    }
+
+    private static boolean isSingleOperandJump(int opcode) {
+        return (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE) || opcode == Opcodes.IFNULL || opcode == Opcodes.IFNONNULL;
+    }
+}
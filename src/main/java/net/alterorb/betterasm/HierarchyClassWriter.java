@@ -0,0 +1,74 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * A class writer that works out common superclasses from a {@link ClassHierarchy} instead of loading classes, so
+ * frames can be computed for classes of a jar that isn't on the classpath, from any number of threads at once.
+ */
+public class HierarchyClassWriter extends ClassWriter {
+
+    private final ClassHierarchy hierarchy;
+
+    public HierarchyClassWriter(ClassHierarchy hierarchy, int flags) {
+        this(null, hierarchy, flags);
+    }
+
+    /**
+     * @param classReader the reader to copy the constant pool and unchanged methods from, or null
+     */
+    public HierarchyClassWriter(ClassReader classReader, ClassHierarchy hierarchy, int flags) {
+        super(classReader, flags);
+        this.hierarchy = hierarchy;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        return hierarchy.getCommonSuperClass(type1, type2);
+    }
+
+    /**
+     * @return whether the JVM verifies the class with frames, which is the case from Java 6 onwards, and the class
+     * doesn't use jsr or ret, which frames can't be computed for and only classes before Java 7 may use
+     */
+    public static boolean needsFrames(ClassReader classReader) {
+        int majorVersion = majorVersion(classReader);
+
+        if (majorVersion != Opcodes.V1_6) {
+            return majorVersion > Opcodes.V1_6;
+        }
+        ConstantPoolScan scan = ConstantPoolScan.of(classReader);
+        return !scan.hasOpcode(Opcodes.JSR) && !scan.hasOpcode(Opcodes.RET);
+    }
+
+    public static boolean needsFrames(ClassNode classNode) {
+        int majorVersion = classNode.version & 0xFFFF;
+
+        if (majorVersion != Opcodes.V1_6) {
+            return majorVersion > Opcodes.V1_6;
+        }
+
+        for (MethodNode method : classNode.methods) {
+
+            for (AbstractInsnNode insnNode = method.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+
+                if (insnNode.getOpcode() == Opcodes.JSR || insnNode.getOpcode() == Opcodes.RET) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The reader doesn't tell where the class starts in its buffer, but the first constant starts 11 bytes in, right
+     * after the magic, the version, the constant count and its own tag
+     */
+    private static int majorVersion(ClassReader classReader) {
+        return classReader.readUnsignedShort(classReader.getItem(1) - 5);
+    }
+}
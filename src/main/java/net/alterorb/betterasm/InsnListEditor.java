@@ -0,0 +1,272 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects removals, replacements and insertions made while scanning an {@link InsnList} and applies them all at
+ * once on {@link #commit()}. Until then the list is left untouched, so it can be walked through its own links
+ * without taking a copy of it first, and isn't changed node by node in the middle of a scan.
+ * <p>
+ * Edits are applied in a single pass over the recorded edits, in the order their locations were first edited. Each
+ * location has its insertions before and after it applied before it is removed or replaced, so a location may be
+ * inserted around and removed in the same batch.
+ * <p>
+ * Looking an instruction up among the edits never hashes it: the first few edits are scanned, past that they are
+ * found by the index of their location, which the list keeps for as long as it isn't changed. Walks only look
+ * instructions up once something was removed or replaced, and nothing is allocated until the first edit, since most
+ * walks edit nothing and then cost no more than following the links of the list.
+ */
+public class InsnListEditor {
+
+    private static final int SCANNED_EDITS = 8;
+
+    private final InsnList instructions;
+    private Edit[] editsByIndex;
+    private List<Edit> edits;
+    private int removals;
+
+    public InsnListEditor(InsnList instructions) {
+        this.instructions = instructions;
+    }
+
+    public InsnList getInstructions() {
+        return instructions;
+    }
+
+    public void remove(AbstractInsnNode insnNode) {
+        Edit edit = edit(insnNode);
+        edit.checkNotRemoved();
+        edit.removed = true;
+        removals++;
+    }
+
+    public void set(AbstractInsnNode insnNode, AbstractInsnNode replacement) {
+        Edit edit = edit(insnNode);
+        edit.checkNotRemoved();
+        edit.replacement = replacement;
+        removals++;
+    }
+
+    /**
+     * Inserts an instruction before the location, after any inserted before it earlier
+     */
+    public void insertBefore(AbstractInsnNode location, AbstractInsnNode insnNode) {
+        edit(location).before().add(insnNode);
+    }
+
+    public void insertBefore(AbstractInsnNode location, InsnList insnList) {
+        edit(location).before().add(insnList);
+    }
+
+    /**
+     * Inserts an instruction after the location, after any inserted after it earlier
+     */
+    public void insertAfter(AbstractInsnNode location, AbstractInsnNode insnNode) {
+        edit(location).after().add(insnNode);
+    }
+
+    public void insertAfter(AbstractInsnNode location, InsnList insnList) {
+        edit(location).after().add(insnList);
+    }
+
+    /**
+     * @return whether the instruction is going to be removed or replaced on commit
+     */
+    public boolean isRemoved(AbstractInsnNode insnNode) {
+
+        if (removals == 0) {
+            return false;
+        }
+        Edit edit = find(insnNode);
+        return edit != null && edit.isRemoved();
+    }
+
+    /**
+     * @return the next instruction of the list that isn't going to be removed or replaced, instructions inserted
+     * so far aren't seen until they are committed
+     */
+    public AbstractInsnNode getNext(AbstractInsnNode insnNode) {
+        AbstractInsnNode next = insnNode.getNext();
+
+        if (removals == 0) {
+            return next;
+        }
+
+        while (next != null && isRemoved(next)) {
+            next = next.getNext();
+        }
+        return next;
+    }
+
+    /**
+     * @return the previous instruction of the list that isn't going to be removed or replaced, instructions inserted
+     * so far aren't seen until they are committed
+     */
+    public AbstractInsnNode getPrevious(AbstractInsnNode insnNode) {
+        AbstractInsnNode previous = insnNode.getPrevious();
+
+        if (removals == 0) {
+            return previous;
+        }
+
+        while (previous != null && isRemoved(previous)) {
+            previous = previous.getPrevious();
+        }
+        return previous;
+    }
+
+    /**
+     * @return whether no instruction of the try/catch block's range is left once the edits are applied, labels, line
+     * numbers and frames aside. Instructions inserted so far aren't seen, nor are the ones replacing others.
+     */
+    public boolean isEmpty(TryCatchBlockNode tryCatchBlock) {
+
+        for (AbstractInsnNode insnNode = tryCatchBlock.start; insnNode != tryCatchBlock.end; insnNode = insnNode.getNext()) {
+
+            if (insnNode.getOpcode() >= 0 && !isRemoved(insnNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasEdits() {
+        return edits != null && !edits.isEmpty();
+    }
+
+    /**
+     * Applies the recorded edits to the list and forgets about them
+     *
+     * @return whether there was anything to apply
+     */
+    public boolean commit() {
+
+        if (!hasEdits()) {
+            return false;
+        }
+
+        for (Edit edit : edits) {
+
+            if (edit.before != null) {
+                instructions.insertBefore(edit.location, edit.before);
+            }
+
+            if (edit.after != null) {
+                instructions.insert(edit.location, edit.after);
+            }
+
+            if (edit.removed) {
+                instructions.remove(edit.location);
+            } else if (edit.replacement != null) {
+                instructions.set(edit.location, edit.replacement);
+            }
+        }
+        edits.clear();
+        editsByIndex = null;
+        removals = 0;
+        return true;
+    }
+
+    private Edit edit(AbstractInsnNode location) {
+
+        if (edits == null) {
+            edits = new ArrayList<>();
+        }
+        Edit edit = find(location);
+
+        if (edit == null) {
+            edit = new Edit(location);
+            edits.add(edit);
+
+            if (editsByIndex != null) {
+                index(edit);
+            } else if (edits.size() > SCANNED_EDITS) {
+                editsByIndex = new Edit[instructions.size()];
+                edits.forEach(this::index);
+            }
+        }
+        return edit;
+    }
+
+    private Edit find(AbstractInsnNode insnNode) {
+
+        if (editsByIndex != null) {
+            int index = indexOf(insnNode);
+            return index < 0 ? null : editsByIndex[index];
+        }
+
+        if (edits != null) {
+
+            for (int i = 0; i < edits.size(); i++) {
+                Edit edit = edits.get(i);
+
+                if (edit.location == insnNode) {
+                    return edit;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void index(Edit edit) {
+        int index = indexOf(edit.location);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("Instruction isn't part of the list");
+        }
+        editsByIndex[index] = edit;
+    }
+
+    /**
+     * @return the index of an instruction of the list, or -1 if it isn't part of it
+     */
+    private int indexOf(AbstractInsnNode insnNode) {
+        int index = instructions.indexOf(insnNode);
+        return index >= 0 && index < editsByIndex.length && instructions.get(index) == insnNode ? index : -1;
+    }
+
+    private static class Edit {
+
+        private final AbstractInsnNode location;
+        private InsnList before;
+        private InsnList after;
+        private AbstractInsnNode replacement;
+        private boolean removed;
+
+        private Edit(AbstractInsnNode location) {
+            this.location = location;
+        }
+
+        private boolean isRemoved() {
+            return removed || replacement != null;
+        }
+
+        private void checkNotRemoved() {
+
+            if (isRemoved()) {
+                throw new IllegalStateException("Instruction already removed or replaced");
+            }
+        }
+
+        private InsnList before() {
+
+            if (before == null) {
+                before = new InsnList();
+            }
+            return before;
+        }
+
+        private InsnList after() {
+
+            if (after == null) {
+                after = new InsnList();
+            }
+            return after;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+/**
+ * The instructions an {@link InsnPattern} matched, one per element of the pattern
+ */
+public final class InsnMatch {
+
+    private final InsnPattern pattern;
+    private final AbstractInsnNode[] instructions;
+
+    InsnMatch(InsnPattern pattern, AbstractInsnNode[] instructions) {
+        this.pattern = pattern;
+        this.instructions = instructions;
+    }
+
+    public InsnPattern getPattern() {
+        return pattern;
+    }
+
+    public int size() {
+        return instructions.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends AbstractInsnNode> T get(int index) {
+        return (T) instructions[index];
+    }
+
+    /**
+     * @return the instruction captured under the name
+     */
+    public <T extends AbstractInsnNode> T get(String capture) {
+        return get(pattern.indexOf(capture));
+    }
+
+    public AbstractInsnNode getFirst() {
+        return instructions[0];
+    }
+
+    public AbstractInsnNode getLast() {
+        return instructions[instructions.length - 1];
+    }
+}
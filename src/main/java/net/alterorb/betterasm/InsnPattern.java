@@ -0,0 +1,170 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * A fixed-length sequence of instructions to look for, matched by an {@link InsnPatternMatcher}. Each element matches
+ * a set of opcodes, optionally narrowed down by a predicate on the instruction, and may capture the instruction under
+ * a name. Labels, line numbers and frames are never part of a match, they are skipped over.
+ * <pre>
+ * InsnPattern.of(
+ *     InsnPattern.field(Opcodes.GETSTATIC, null, null, "[Ljava/lang/String;").as("array"),
+ *     InsnPattern.intConstant().as("index"),
+ *     InsnPattern.opcode(Opcodes.AALOAD));
+ * </pre>
+ */
+public final class InsnPattern {
+
+    private final Element[] elements;
+    private final Map<String, Integer> captures;
+
+    private InsnPattern(Element[] elements) {
+        Map<String, Integer> captures = new HashMap<>();
+
+        for (int i = 0; i < elements.length; i++) {
+
+            if (elements[i].capture != null && captures.put(elements[i].capture, i) != null) {
+                throw new IllegalArgumentException("Capture '" + elements[i].capture + "' is used twice");
+            }
+        }
+        this.elements = elements;
+        this.captures = Collections.unmodifiableMap(captures);
+    }
+
+    public static InsnPattern of(Element... elements) {
+
+        if (elements.length == 0) {
+            throw new IllegalArgumentException("A pattern needs at least one element");
+        }
+        return new InsnPattern(elements.clone());
+    }
+
+    /**
+     * @return an element matching any of the opcodes
+     */
+    public static Element opcode(int... opcodes) {
+        BitSet bits = new BitSet();
+
+        for (int opcode : opcodes) {
+            bits.set(opcode);
+        }
+        return new Element(bits, null, null);
+    }
+
+    /**
+     * @return an element matching the opcodes from one to the other, both included
+     */
+    public static Element range(int fromOpcode, int toOpcode) {
+        BitSet bits = new BitSet();
+        bits.set(fromOpcode, toOpcode + 1);
+        return new Element(bits, null, null);
+    }
+
+    /**
+     * @return an element matching any instruction
+     */
+    public static Element any() {
+        return range(Opcodes.NOP, InsnPatternMatcher.OPCODES - 1);
+    }
+
+    /**
+     * @return an element matching the instructions pushing an int that {@code DeobUtils.extractIntValue} reads,
+     * iconst, bipush and sipush
+     */
+    public static Element intConstant() {
+        Element element = range(Opcodes.ICONST_M1, Opcodes.ICONST_5);
+        element.opcodes.set(Opcodes.BIPUSH);
+        element.opcodes.set(Opcodes.SIPUSH);
+        return element;
+    }
+
+    /**
+     * @return an element matching a field instruction, a null owner, name or descriptor matches any
+     */
+    public static Element field(int opcode, String owner, String name, String descriptor) {
+        return opcode(opcode).where((FieldInsnNode insnNode) -> (owner == null || owner.equals(insnNode.owner))
+                && (name == null || name.equals(insnNode.name)) && (descriptor == null || descriptor.equals(insnNode.desc)));
+    }
+
+    /**
+     * @return an element matching a method instruction, a null owner, name or descriptor matches any
+     */
+    public static Element method(int opcode, String owner, String name, String descriptor) {
+        return opcode(opcode).where((MethodInsnNode insnNode) -> (owner == null || owner.equals(insnNode.owner))
+                && (name == null || name.equals(insnNode.name)) && (descriptor == null || descriptor.equals(insnNode.desc)));
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    public Element get(int index) {
+        return elements[index];
+    }
+
+    /**
+     * @return the index of the element captured under the name
+     */
+    public int indexOf(String capture) {
+        Integer index = captures.get(capture);
+
+        if (index == null) {
+            throw new IllegalArgumentException("No capture named '" + capture + "'");
+        }
+        return index;
+    }
+
+    /**
+     * A single instruction of a pattern. Elements are immutable, {@link #where} and {@link #as} return new ones.
+     */
+    public static final class Element {
+
+        private final BitSet opcodes;
+        private final Predicate<AbstractInsnNode> predicate;
+        private final String capture;
+
+        private Element(BitSet opcodes, Predicate<AbstractInsnNode> predicate, String capture) {
+            this.opcodes = opcodes;
+            this.predicate = predicate;
+            this.capture = capture;
+        }
+
+        /**
+         * @return an element that also has to pass the predicate, which is only tested on instructions with one of
+         * the opcodes of the element, so it may cast to the node type of those
+         */
+        @SuppressWarnings("unchecked")
+        public <T extends AbstractInsnNode> Element where(Predicate<T> predicate) {
+            Predicate<AbstractInsnNode> added = (Predicate<AbstractInsnNode>) predicate;
+            return new Element(opcodes, this.predicate == null ? added : this.predicate.and(added), capture);
+        }
+
+        /**
+         * @return an element capturing the instruction it matches under the name
+         */
+        public Element as(String capture) {
+            return new Element(opcodes, predicate, Objects.requireNonNull(capture));
+        }
+
+        public boolean matchesOpcode(int opcode) {
+            return opcodes.get(opcode);
+        }
+
+        /**
+         * Tests the predicate of the element, the opcode is taken as already matched
+         */
+        boolean test(AbstractInsnNode insnNode) {
+            return predicate == null || predicate.test(insnNode);
+        }
+    }
+}
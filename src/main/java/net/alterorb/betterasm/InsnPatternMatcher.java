@@ -0,0 +1,180 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches any number of {@link InsnPattern}s at once in a single scan over the instructions of a method. The patterns
+ * are compiled into one shift-and automaton with a bit per pattern element, so every instruction costs a shift and
+ * a mask lookup by opcode no matter how many patterns there are. Only when the last element of a pattern is reached
+ * are the predicates of its elements tested, against the instructions kept in a window as long as the longest pattern.
+ * <p>
+ * A matcher is immutable and can be shared between threads, each scan of a method needs its own {@link Scan}.
+ */
+public final class InsnPatternMatcher {
+
+    static final int OPCODES = 256;
+
+    private final List<InsnPattern> patterns;
+    private final int words;
+    private final long[] masks;
+    private final long[] startMask;
+    private final long[] endMask;
+    private final int[] patternsByEndBit;
+    private final int window;
+
+    public InsnPatternMatcher(InsnPattern... patterns) {
+        this(Arrays.asList(patterns));
+    }
+
+    public InsnPatternMatcher(List<InsnPattern> patterns) {
+        int bits = 0;
+        int window = 1;
+
+        for (InsnPattern pattern : patterns) {
+            bits += pattern.size();
+            window = Math.max(window, pattern.size());
+        }
+        this.patterns = new ArrayList<>(patterns);
+        this.words = Math.max(1, (bits + 63) >>> 6);
+        this.masks = new long[OPCODES * words];
+        this.startMask = new long[words];
+        this.endMask = new long[words];
+        this.patternsByEndBit = new int[words << 6];
+        this.window = window;
+
+        int bit = 0;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            InsnPattern pattern = patterns.get(i);
+            startMask[bit >>> 6] |= 1L << bit;
+
+            for (int element = 0; element < pattern.size(); element++, bit++) {
+
+                for (int opcode = 0; opcode < OPCODES; opcode++) {
+
+                    if (pattern.get(element).matchesOpcode(opcode)) {
+                        masks[opcode * words + (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+            }
+            endMask[(bit - 1) >>> 6] |= 1L << (bit - 1);
+            patternsByEndBit[bit - 1] = i;
+        }
+    }
+
+    public List<InsnPattern> getPatterns() {
+        return patterns;
+    }
+
+    public Scan newScan() {
+        return new Scan();
+    }
+
+    /**
+     * Scans a list of instructions from start to end. The next instruction is read before the current one is handed
+     * to the handler, so the handler may remove the instructions it matched.
+     */
+    public void scan(InsnList instructions, MatchHandler handler) {
+        Scan scan = newScan();
+        AbstractInsnNode insnNode = instructions.getFirst();
+
+        while (insnNode != null) {
+            AbstractInsnNode next = insnNode.getNext();
+            scan.feed(insnNode, handler);
+            insnNode = next;
+        }
+    }
+
+    @FunctionalInterface
+    public interface MatchHandler {
+
+        /**
+         * @param pattern the index of the matched pattern in the list the matcher was created with
+         */
+        void onMatch(int pattern, InsnMatch match);
+
+    }
+
+    /**
+     * The state of the automaton over a single sequence of instructions
+     */
+    public final class Scan {
+
+        private final long[] state = new long[words];
+        private final AbstractInsnNode[] recent = new AbstractInsnNode[window];
+        private long position;
+
+        private Scan() {
+        }
+
+        /**
+         * Advances the automaton over the next instruction, calling the handler for every pattern ending with it, in
+         * the order the patterns were given. Labels, line numbers and frames are skipped.
+         */
+        public void feed(AbstractInsnNode insnNode, MatchHandler handler) {
+            int opcode = insnNode.getOpcode();
+
+            if (opcode < 0) {
+                return;
+            }
+            recent[(int) (position++ % window)] = insnNode;
+
+            int base = opcode * words;
+            long carry = 0;
+            boolean ended = false;
+
+            for (int word = 0; word < words; word++) {
+                long current = state[word];
+                long next = ((current << 1) | carry | startMask[word]) & masks[base + word];
+
+                carry = current >>> 63;
+                state[word] = next;
+                ended |= (next & endMask[word]) != 0;
+            }
+
+            if (!ended) {
+                return;
+            }
+
+            for (int word = 0; word < words; word++) {
+                long ends = state[word] & endMask[word];
+
+                while (ends != 0) {
+                    int bit = (word << 6) + Long.numberOfTrailingZeros(ends);
+                    ends &= ends - 1;
+                    match(patternsByEndBit[bit], handler);
+                }
+            }
+        }
+
+        /**
+         * Forgets the instructions fed so far
+         */
+        public void reset() {
+            Arrays.fill(state, 0);
+            Arrays.fill(recent, null);
+            position = 0;
+        }
+
+        private void match(int index, MatchHandler handler) {
+            InsnPattern pattern = patterns.get(index);
+            AbstractInsnNode[] instructions = new AbstractInsnNode[pattern.size()];
+            long start = position - instructions.length;
+
+            for (int i = 0; i < instructions.length; i++) {
+                AbstractInsnNode insnNode = recent[(int) ((start + i) % window)];
+
+                if (!pattern.get(i).test(insnNode)) {
+                    return;
+                }
+                instructions[i] = insnNode;
+            }
+            handler.onMatch(index, new InsnMatch(pattern, instructions));
+        }
+    }
+}
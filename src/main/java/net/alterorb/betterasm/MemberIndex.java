@@ -0,0 +1,94 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the methods and fields of a class by name and descriptor. It remembers the lists it was built from and
+ * their modification counts, which is how {@link ClassNode} tells it needs building again.
+ */
+final class MemberIndex {
+
+    private final List<MethodNode> methods;
+    private final List<FieldNode> fields;
+    private final int methodsModCount;
+    private final int fieldsModCount;
+
+    private final Map<String, MethodNode> methodsByKey = new HashMap<>();
+    private final Map<String, List<MethodNode>> methodsByName = new HashMap<>();
+    private final Map<String, List<MethodNode>> methodsByDescriptor = new HashMap<>();
+    private final Map<String, FieldNode> fieldsByKey = new HashMap<>();
+    private final Map<String, List<FieldNode>> fieldsByDescriptor = new HashMap<>();
+
+    MemberIndex(List<MethodNode> methods, List<FieldNode> fields) {
+        this.methods = methods;
+        this.fields = fields;
+        this.methodsModCount = modCount(methods);
+        this.fieldsModCount = modCount(fields);
+
+        for (MethodNode method : methods) {
+            methodsByKey.putIfAbsent(key(method.name, method.desc), method);
+            add(methodsByName, method.name, method);
+            add(methodsByDescriptor, method.desc, method);
+        }
+
+        for (FieldNode field : fields) {
+            fieldsByKey.putIfAbsent(key(field.name, field.desc), field);
+            add(fieldsByDescriptor, field.desc, field);
+        }
+        freeze(methodsByName);
+        freeze(methodsByDescriptor);
+        freeze(fieldsByDescriptor);
+    }
+
+    /**
+     * @return whether the index still matches the lists, lists that don't track their changes are never trusted
+     */
+    boolean isCurrent(List<MethodNode> methods, List<FieldNode> fields) {
+        return methods == this.methods && fields == this.fields
+                && methods instanceof TrackedList && fields instanceof TrackedList
+                && modCount(methods) == methodsModCount && modCount(fields) == fieldsModCount;
+    }
+
+    MethodNode getMethod(String name, String descriptor) {
+        return methodsByKey.get(key(name, descriptor));
+    }
+
+    List<MethodNode> getMethodsByName(String name) {
+        return methodsByName.getOrDefault(name, Collections.emptyList());
+    }
+
+    List<MethodNode> getMethodsByDescriptor(String descriptor) {
+        return methodsByDescriptor.getOrDefault(descriptor, Collections.emptyList());
+    }
+
+    FieldNode getField(String name, String descriptor) {
+        return fieldsByKey.get(key(name, descriptor));
+    }
+
+    List<FieldNode> getFieldsByDescriptor(String descriptor) {
+        return fieldsByDescriptor.getOrDefault(descriptor, Collections.emptyList());
+    }
+
+    private static int modCount(List<?> list) {
+        return list instanceof TrackedList ? ((TrackedList<?>) list).getModCount() : -1;
+    }
+
+    private static String key(String name, String descriptor) {
+        return name + descriptor;
+    }
+
+    private static <T> void add(Map<String, List<T>> map, String key, T value) {
+        map.computeIfAbsent(key, ignored -> new ArrayList<>(1)).add(value);
+    }
+
+    private static <T> void freeze(Map<String, List<T>> map) {
+        map.replaceAll((key, values) -> Collections.unmodifiableList(values));
+    }
+}
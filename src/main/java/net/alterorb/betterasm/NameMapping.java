@@ -0,0 +1,592 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renames the classes, fields and methods of a jar whose names look obfuscated, which as for finding the main class
+ * means they're at most three characters long. Names come from the entries of a mapping file, or are generated in
+ * the order of the jar as {@code Class1}, {@code field1} and {@code method1}, numbered on from the highest number
+ * the file already uses.
+ * <p>
+ * Fields are renamed along with the class that declares them, and references to them are resolved the way the JVM
+ * resolves them, so a reference through a subclass gets the name of the field it inherits. Methods that may override
+ * one another get the same name: a method is renamed along with every method of the same name and descriptor in the
+ * classes of the jar its class is connected to through the hierarchy, and is left as it is when a class outside of
+ * the jar that they extend declares it, or can't be found. Constructors and static initializers keep their names.
+ * <p>
+ * The mapping file has one entry per line, in tab separated columns, with the original names of the owner and in the
+ * descriptor:
+ * <pre>
+ * class   name   new name
+ * field   owner  name  descriptor  new name
+ * method  owner  name  descriptor  new name
+ * </pre>
+ * Entries that don't apply to the jar are kept as they are, so one file can follow a game through its revisions.
+ * <p>
+ * Once {@link #complete} returns, mapping names is thread-safe.
+ */
+public class NameMapping extends Remapper {
+
+    private static final int MAX_OBFUSCATED_LENGTH = 3;
+
+    private static final String CLASS = "class";
+    private static final String FIELD = "field";
+    private static final String METHOD = "method";
+
+    private static final Pattern GENERATED_CLASS = Pattern.compile("(?:.*/)?Class(\\d+)");
+    private static final Pattern GENERATED_FIELD = Pattern.compile("field(\\d+)");
+    private static final Pattern GENERATED_METHOD = Pattern.compile("method(\\d+)");
+
+    private static final Map<String, Set<String>> EXTERNAL_METHODS = new ConcurrentHashMap<>();
+    private static final Set<String> MISSING = Collections.emptySet();
+
+    /**
+     * Every entry, keyed by kind, owner, name and descriptor as in the file
+     */
+    private final Map<String, String> entries = new LinkedHashMap<>();
+
+    /**
+     * The entries that apply to the jar, keyed by owner, name and descriptor
+     */
+    private final Map<String, String> classNames = new HashMap<>();
+    private final Map<String, String> fieldNames = new HashMap<>();
+    private final Map<String, String> methodNames = new HashMap<>();
+
+    private final Map<String, ClassDeclaration> declarations = new HashMap<>();
+    private final Map<String, String> resolvedFields = new ConcurrentHashMap<>();
+    private final Map<String, String> resolvedMethods = new ConcurrentHashMap<>();
+
+    private int generatedCount;
+
+    /**
+     * Reads a mapping file, a file that doesn't exist being an empty mapping
+     */
+    public static NameMapping read(Path path) throws IOException {
+        NameMapping mapping = new NameMapping();
+
+        if (!Files.exists(path)) {
+            return mapping;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            int expectedColumns = columns[0].equals(CLASS) ? 3 : 5;
+
+            if (columns.length != expectedColumns || !(columns[0].equals(CLASS) || columns[0].equals(FIELD) || columns[0].equals(METHOD))) {
+                throw new IOException("Malformed entry at line " + (i + 1) + " of " + path + ": " + line);
+            }
+            mapping.entries.put(line.substring(0, line.lastIndexOf('\t')), columns[columns.length - 1]);
+        }
+        return mapping;
+    }
+
+    /**
+     * Writes every entry, the ones read first followed by the ones generated
+     */
+    public void write(Path path) throws IOException {
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Applies the entries to the classes of a jar, and generates names for the obfuscated ones they don't cover
+     *
+     * @param declarations the classes of the jar, in order
+     * @throws IllegalArgumentException if two classes would end up with the same name
+     */
+    public void complete(List<ClassDeclaration> declarations) {
+
+        for (ClassDeclaration declaration : declarations) {
+            this.declarations.put(declaration.name, declaration);
+        }
+        completeClasses(declarations);
+        completeFields(declarations);
+        completeMethods(declarations);
+    }
+
+    /**
+     * @return the number of names the mapping changes in the jar
+     */
+    public int getRenamedCount() {
+        return classNames.size() + fieldNames.size() + methodNames.size();
+    }
+
+    /**
+     * @return the number of names generated for the jar, rather than read
+     */
+    public int getGeneratedCount() {
+        return generatedCount;
+    }
+
+    /**
+     * @return the names the mapping changes in the jar, one per line in a stable order
+     */
+    public String describe() {
+        Map<String, String> names = new TreeMap<>();
+        classNames.forEach((key, newName) -> names.put(CLASS + '\t' + key, newName));
+        fieldNames.forEach((key, newName) -> names.put(FIELD + '\t' + key, newName));
+        methodNames.forEach((key, newName) -> names.put(METHOD + '\t' + key, newName));
+        StringBuilder description = new StringBuilder();
+
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            description.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        return description.toString();
+    }
+
+    @Override
+    public String map(String internalName) {
+        return classNames.getOrDefault(internalName, internalName);
+    }
+
+    @Override
+    public String mapFieldName(String owner, String name, String descriptor) {
+
+        if (fieldNames.isEmpty()) {
+            return name;
+        }
+        return resolvedFields.computeIfAbsent(key(owner, name, descriptor), ignored -> {
+            String field = name + '\t' + descriptor;
+            String declaringClass = findField(owner, field);
+            return declaringClass == null ? name : fieldNames.getOrDefault(declaringClass + '\t' + field, name);
+        });
+    }
+
+    @Override
+    public String mapMethodName(String owner, String name, String descriptor) {
+
+        if (methodNames.isEmpty() || name.startsWith("<")) {
+            return name;
+        }
+        return resolvedMethods.computeIfAbsent(key(owner, name, descriptor), ignored -> resolveMethod(owner, name, descriptor));
+    }
+
+    private void completeClasses(List<ClassDeclaration> declarations) {
+        Set<String> takenNames = new HashSet<>(this.declarations.keySet());
+        int nextNumber = nextNumber(CLASS, GENERATED_CLASS);
+
+        for (ClassDeclaration declaration : declarations) {
+            String newName = entries.get(CLASS + '\t' + declaration.name);
+
+            if (newName == null && isObfuscated(declaration.name.substring(declaration.name.lastIndexOf('/') + 1))) {
+                String packagePrefix = declaration.name.substring(0, declaration.name.lastIndexOf('/') + 1);
+
+                do {
+                    newName = packagePrefix + "Class" + nextNumber++;
+                } while (takenNames.contains(newName));
+                entries.put(CLASS + '\t' + declaration.name, newName);
+                generatedCount++;
+            }
+
+            if (newName != null && !newName.equals(declaration.name)) {
+                classNames.put(declaration.name, newName);
+                takenNames.add(newName);
+            }
+        }
+        Map<String, String> namesTaken = new HashMap<>();
+
+        for (ClassDeclaration declaration : declarations) {
+            String newName = map(declaration.name);
+            String other = namesTaken.putIfAbsent(newName, declaration.name);
+
+            if (other != null) {
+                throw new IllegalArgumentException("Both " + other + " and " + declaration.name + " would be named " + newName);
+            }
+        }
+    }
+
+    private void completeFields(List<ClassDeclaration> declarations) {
+        Set<String> takenNames = memberNames(declarations);
+        int nextNumber = nextNumber(FIELD, GENERATED_FIELD);
+
+        for (ClassDeclaration declaration : declarations) {
+
+            for (String field : declaration.fields) {
+                String key = declaration.name + '\t' + field;
+                String name = field.substring(0, field.indexOf('\t'));
+                String newName = entries.get(FIELD + '\t' + key);
+
+                if (newName == null && isObfuscated(name)) {
+
+                    do {
+                        newName = "field" + nextNumber++;
+                    } while (takenNames.contains(newName));
+                    entries.put(FIELD + '\t' + key, newName);
+                    takenNames.add(newName);
+                    generatedCount++;
+                }
+
+                if (newName != null && !newName.equals(name)) {
+                    fieldNames.put(key, newName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups the methods that may override one another, and gives each group a single name
+     */
+    private void completeMethods(List<ClassDeclaration> declarations) {
+        Set<String> takenNames = memberNames(declarations);
+        int nextNumber = nextNumber(METHOD, GENERATED_METHOD);
+        Map<String, String> components = components(declarations);
+        Map<String, Set<String>> externalMethods = new HashMap<>();
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+
+        for (ClassDeclaration declaration : declarations) {
+            String component = components.get(declaration.name);
+
+            for (String superType : declaration.superTypes()) {
+
+                if (!this.declarations.containsKey(superType)) {
+                    externalMethods.merge(component, externalMethods(superType), NameMapping::union);
+                }
+            }
+
+            for (String method : declaration.methods) {
+
+                if (!method.startsWith("<")) {
+                    groups.computeIfAbsent(component + '\t' + method, ignored -> new ArrayList<>()).add(declaration.name);
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            String component = group.getKey().substring(0, group.getKey().indexOf('\t'));
+            String method = group.getKey().substring(component.length() + 1);
+            String name = method.substring(0, method.indexOf('\t'));
+            Set<String> inherited = externalMethods.getOrDefault(component, Collections.emptySet());
+
+            if (inherited == MISSING || inherited.contains(method)) {
+                continue;
+            }
+            String newName = null;
+
+            for (String owner : group.getValue()) {
+                newName = entries.get(METHOD + '\t' + owner + '\t' + method);
+
+                if (newName != null) {
+                    break;
+                }
+            }
+
+            if (newName == null && isObfuscated(name)) {
+
+                do {
+                    newName = "method" + nextNumber++;
+                } while (takenNames.contains(newName));
+                takenNames.add(newName);
+                generatedCount++;
+            }
+
+            if (newName == null) {
+                continue;
+            }
+
+            for (String owner : group.getValue()) {
+                entries.putIfAbsent(METHOD + '\t' + owner + '\t' + method, newName);
+
+                if (!newName.equals(name)) {
+                    methodNames.put(owner + '\t' + method, newName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks the field up in the class, then in its interfaces, then in its superclass
+     *
+     * @return the class of the jar declaring the field, or null if none does
+     */
+    private String findField(String owner, String field) {
+        ClassDeclaration declaration = declarations.get(owner);
+
+        if (declaration == null) {
+            return null;
+        }
+
+        if (declaration.fields.contains(field)) {
+            return owner;
+        }
+
+        for (String interfaceName : declaration.interfaces) {
+            String declaringClass = findField(interfaceName, field);
+
+            if (declaringClass != null) {
+                return declaringClass;
+            }
+        }
+        return declaration.superName == null ? null : findField(declaration.superName, field);
+    }
+
+    /**
+     * Finds the nearest class of the jar declaring the method, every class of its group having the same name for it
+     */
+    private String resolveMethod(String owner, String name, String descriptor) {
+        String method = name + '\t' + descriptor;
+        Deque<String> queue = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        queue.add(owner);
+
+        while (!queue.isEmpty()) {
+            ClassDeclaration declaration = declarations.get(queue.poll());
+
+            if (declaration == null || !visited.add(declaration.name)) {
+                continue;
+            }
+
+            if (declaration.methods.contains(method)) {
+                return methodNames.getOrDefault(declaration.name + '\t' + method, name);
+            }
+
+            if (declaration.superName != null) {
+                queue.add(declaration.superName);
+            }
+            Collections.addAll(queue, declaration.interfaces);
+        }
+        return name;
+    }
+
+    /**
+     * Splits the classes of the jar into groups connected through their superclasses and interfaces
+     *
+     * @return the representative of the group of every class
+     */
+    private Map<String, String> components(List<ClassDeclaration> declarations) {
+        Map<String, String> parents = new HashMap<>();
+
+        for (ClassDeclaration declaration : declarations) {
+            parents.put(declaration.name, declaration.name);
+        }
+
+        for (ClassDeclaration declaration : declarations) {
+
+            for (String superType : declaration.superTypes()) {
+
+                if (parents.containsKey(superType)) {
+                    parents.put(find(parents, declaration.name), find(parents, superType));
+                }
+            }
+        }
+        Map<String, String> components = new HashMap<>();
+
+        for (ClassDeclaration declaration : declarations) {
+            components.put(declaration.name, find(parents, declaration.name));
+        }
+        return components;
+    }
+
+    private static String find(Map<String, String> parents, String name) {
+        String parent;
+
+        while (!(parent = parents.get(name)).equals(name)) {
+            parents.put(name, parents.get(parent));
+            name = parent;
+        }
+        return name;
+    }
+
+    private Set<String> memberNames(List<ClassDeclaration> declarations) {
+        Set<String> names = new HashSet<>();
+
+        for (ClassDeclaration declaration : declarations) {
+
+            for (String field : declaration.fields) {
+                names.add(field.substring(0, field.indexOf('\t')));
+            }
+
+            for (String method : declaration.methods) {
+                names.add(method.substring(0, method.indexOf('\t')));
+            }
+        }
+        names.addAll(entries.values());
+        return names;
+    }
+
+    /**
+     * @return the number following the highest one used by a generated name of that kind
+     */
+    private int nextNumber(String kind, Pattern pattern) {
+        int nextNumber = 1;
+
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            Matcher matcher = pattern.matcher(entry.getValue());
+
+            if (entry.getKey().startsWith(kind + '\t') && matcher.matches()) {
+                nextNumber = Math.max(nextNumber, Integer.parseInt(matcher.group(1)) + 1);
+            }
+        }
+        return nextNumber;
+    }
+
+    private static boolean isObfuscated(String name) {
+        return name.length() <= MAX_OBFUSCATED_LENGTH;
+    }
+
+    private static String key(String owner, String name, String descriptor) {
+        return owner + '\t' + name + '\t' + descriptor;
+    }
+
+    private static Set<String> union(Set<String> set1, Set<String> set2) {
+
+        if (set1 == MISSING || set2 == MISSING) {
+            return MISSING;
+        }
+        Set<String> union = new HashSet<>(set1);
+        union.addAll(set2);
+        return union;
+    }
+
+    /**
+     * @return the methods a type outside of the jar declares or inherits, by name and descriptor separated by a tab, or
+     * null if it or one of its supertypes can't be found
+     */
+    public static Set<String> getExternalMethods(String type) {
+        Set<String> methods = externalMethods(type);
+        return methods == MISSING ? null : methods;
+    }
+
+    /**
+     * @return the methods a type outside of the jar declares or inherits, by name and descriptor, or {@link #MISSING}
+     * if it or one of its supertypes can't be found
+     */
+    private static Set<String> externalMethods(String type) {
+        Set<String> methods = EXTERNAL_METHODS.get(type);
+
+        if (methods != null) {
+            return methods;
+        }
+        ClassDeclaration declaration;
+
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(type + ".class")) {
+            declaration = in == null ? null : ClassDeclaration.of(new ClassReader(in));
+        } catch (IOException e) {
+            declaration = null;
+        }
+
+        if (declaration == null) {
+            methods = MISSING;
+        } else {
+            methods = new HashSet<>(declaration.methods);
+
+            for (String superType : declaration.superTypes()) {
+                methods = union(methods, externalMethods(superType));
+            }
+            methods = methods == MISSING ? MISSING : Collections.unmodifiableSet(methods);
+        }
+        EXTERNAL_METHODS.putIfAbsent(type, methods);
+        return methods;
+    }
+
+    /**
+     * The header and members of a class, without its code
+     */
+    public static class ClassDeclaration {
+
+        private int access;
+        private String name;
+        private String superName;
+        private String[] interfaces;
+
+        /**
+         * Names and descriptors, separated by a tab
+         */
+        private final Set<String> fields = new LinkedHashSet<>();
+        private final Set<String> methods = new LinkedHashSet<>();
+
+        public static ClassDeclaration of(ClassReader classReader) {
+            ClassDeclaration declaration = new ClassDeclaration();
+
+            classReader.accept(new ClassVisitor(Opcodes.ASM7) {
+
+                @Override
+                public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                    declaration.access = access;
+                    declaration.name = name;
+                    declaration.superName = superName;
+                    declaration.interfaces = interfaces == null ? new String[0] : interfaces;
+                }
+
+                @Override
+                public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                    declaration.fields.add(name + '\t' + descriptor);
+                    return null;
+                }
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    declaration.methods.add(name + '\t' + descriptor);
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return declaration;
+        }
+
+        public int getAccess() {
+            return access;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSuperName() {
+            return superName;
+        }
+
+        public String[] getInterfaces() {
+            return interfaces;
+        }
+
+        private List<String> superTypes() {
+            List<String> superTypes = new ArrayList<>(interfaces.length + 1);
+
+            if (superName != null) {
+                superTypes.add(superName);
+            }
+            Collections.addAll(superTypes, interfaces);
+            return superTypes;
+        }
+    }
+}
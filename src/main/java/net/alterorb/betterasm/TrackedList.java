@@ -0,0 +1,28 @@
+package net.alterorb.betterasm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * An {@link ArrayList} exposing its structural modification count, so indexes built over it can tell when they went
+ * stale without having to be told about every change.
+ */
+public class TrackedList<E> extends ArrayList<E> {
+
+    private static final long serialVersionUID = 1L;
+
+    public TrackedList() {
+    }
+
+    public TrackedList(Collection<? extends E> elements) {
+        super(elements);
+    }
+
+    /**
+     * @return a number that changes whenever elements are added, removed or the list is cleared, replacing an element
+     * through {@link #set(int, Object)} or sorting the list doesn't change it
+     */
+    public int getModCount() {
+        return modCount;
+    }
+}
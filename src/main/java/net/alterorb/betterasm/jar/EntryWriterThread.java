@@ -0,0 +1,205 @@
+package net.alterorb.betterasm.jar;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes compressed entries to the output jar in index order, no matter the order they finish in. The number of
+ * entries handed to it is bounded by permits that are only given back once an entry is written.
+ */
+public class EntryWriterThread implements AutoCloseable {
+
+    private final JarWriter output;
+    private final Semaphore permits;
+    private final BlockingQueue<IndexedEntry> queue;
+    private final Thread thread;
+
+    private volatile Throwable failure;
+    private volatile boolean stopped;
+    private boolean reported;
+    private int written;
+
+    /**
+     * @param capacity the number of entries that may be handed to it before they're written
+     */
+    public EntryWriterThread(JarWriter output, int capacity) {
+        this.output = output;
+        this.permits = new Semaphore(capacity);
+        this.queue = new ArrayBlockingQueue<>(capacity + 1);
+        this.thread = new Thread(this::writeEntries, "jar-writer");
+        this.thread.start();
+    }
+
+    /**
+     * Waits for a permit to submit an entry
+     */
+    public void acquire() {
+        permits.acquireUninterruptibly();
+    }
+
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Produces and queues an entry, must be preceded by a call to {@link #acquire()}
+     */
+    public void submit(int index, EntrySupplier supplier) {
+        IndexedEntry indexedEntry;
+
+        try {
+            indexedEntry = new IndexedEntry(index, supplier.get(), null);
+        } catch (Throwable t) {
+            indexedEntry = new IndexedEntry(index, null, t);
+        }
+        queue.add(indexedEntry);
+    }
+
+    private void writeEntries() {
+        Map<Integer, IndexedEntry> pending = new HashMap<>();
+
+        while (true) {
+            IndexedEntry indexedEntry;
+
+            try {
+                indexedEntry = queue.take();
+            } catch (InterruptedException e) {
+
+                if (!stopped) {
+                    failure = e;
+                }
+                return;
+            }
+
+            if (indexedEntry.index < 0) {
+
+                if (!pending.isEmpty() && failure == null) {
+                    failure = new IllegalStateException("Missing entry at index " + written);
+                }
+                return;
+            }
+            pending.put(indexedEntry.index, indexedEntry);
+
+            while ((indexedEntry = pending.remove(written)) != null) {
+                write(indexedEntry);
+                written++;
+                permits.release();
+            }
+        }
+    }
+
+    private void write(IndexedEntry indexedEntry) {
+
+        if (failure != null) {
+            return;
+        }
+
+        if (indexedEntry.failure != null) {
+            failure = indexedEntry.failure;
+            return;
+        }
+
+        try {
+            output.write(indexedEntry.entry);
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    /**
+     * Waits for every submitted entry to be written
+     */
+    public void finish() throws IOException {
+        queue.add(new IndexedEntry(-1, null, null));
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing entries", e);
+        }
+        reported = true;
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IOException("Failed to write entries", failure);
+        }
+    }
+
+    /**
+     * Stops the thread if it's still running, waits for it to be done with the entry it may be writing and closes the
+     * output. A failure of the thread {@link #finish()} didn't report is thrown, or added to the failure of closing.
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (thread.isAlive()) {
+            stopped = true;
+            thread.interrupt();
+            joinUninterruptibly();
+        }
+        Throwable unreported = reported ? null : failure;
+
+        try {
+            output.close();
+        } catch (IOException e) {
+
+            if (unreported != null) {
+                e.addSuppressed(unreported);
+            }
+            throw e;
+        }
+
+        if (unreported != null) {
+            throw new IOException("Failed to write entries", unreported);
+        }
+    }
+
+    private void joinUninterruptibly() {
+        boolean interrupted = false;
+
+        while (true) {
+
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Produces a compressed entry, on the thread that submits it
+     */
+    @FunctionalInterface
+    public interface EntrySupplier {
+
+        JarWriter.Entry get() throws IOException;
+
+    }
+
+    private static class IndexedEntry {
+
+        private final int index;
+        private final JarWriter.Entry entry;
+        private final Throwable failure;
+
+        private IndexedEntry(int index, JarWriter.Entry entry, Throwable failure) {
+            this.index = index;
+            this.entry = entry;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package net.alterorb.betterasm.jar;
+
+import net.alterorb.betterasm.ClassNode;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads jars by parsing the zip central directory directly instead of going through {@link java.util.jar.JarFile}.
+ * <p>
+ * The whole file is read into a single heap array, since on Java 8 both {@link Inflater} and {@link ClassReader} only
+ * accept heap arrays. Stored entries are then handed to {@link ClassReader} in place without any further copy, and
+ * deflated entries are inflated straight into arrays of their exact size. Every read method is thread-safe, so entries
+ * can be read in parallel.
+ * <p>
+ * ZIP64 jars and encrypted entries are rejected, neither shows up in the jars this reads.
+ */
+public class JarReader {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ENCRYPTED_FLAG = 1;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final byte[] data;
+    private final List<Entry> entries;
+
+    private JarReader(byte[] data) throws ZipException {
+        this.data = data;
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+    }
+
+    public static JarReader open(Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Jar too large: " + path);
+            }
+            byte[] data = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            while (buffer.hasRemaining()) {
+
+                if (channel.read(buffer) < 0) {
+                    throw new ZipException("Jar truncated while reading: " + path);
+                }
+            }
+            return new JarReader(data);
+        }
+    }
+
+    /**
+     * @return every entry of the jar, in central directory order
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public List<Entry> getClassEntries() {
+        return entries.stream().filter(Entry::isClass).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the uncompressed contents of an entry, in an array of exactly its size
+     */
+    public byte[] read(Entry entry) throws ZipException {
+
+        if (entry.method == STORED) {
+            byte[] bytes = new byte[entry.size];
+            System.arraycopy(data, dataOffset(entry), bytes, 0, entry.size);
+            return bytes;
+        }
+        return inflate(entry);
+    }
+
+    /**
+     * @return a reader over a class entry, which reads straight from the jar's data if the entry is stored
+     */
+    public ClassReader classReader(Entry entry) throws ZipException {
+
+        if (entry.method == STORED) {
+            return new ClassReader(data, dataOffset(entry), entry.size);
+        }
+        return new ClassReader(inflate(entry));
+    }
+
+    /**
+     * Reads every class of the jar, in parallel when asked to, returning them in jar order
+     */
+    public List<ClassNode> readClasses(int parsingOptions, boolean parallel) {
+        List<Entry> classEntries = getClassEntries();
+
+        return (parallel ? classEntries.parallelStream() : classEntries.stream())
+                .map(entry -> {
+                    ClassNode classNode = new ClassNode();
+
+                    try {
+                        classReader(entry).accept(classNode, parsingOptions);
+                    } catch (ZipException e) {
+                        throw new IllegalStateException("Failed to read " + entry.name, e);
+                    }
+                    return classNode;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private byte[] inflate(Entry entry) throws ZipException {
+
+        if (entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        Inflater inflater = INFLATERS.get();
+        byte[] bytes = new byte[entry.size];
+
+        try {
+            inflater.setInput(data, dataOffset(entry), entry.compressedSize);
+            int length = 0;
+
+            while (length < bytes.length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+
+            if (length != bytes.length) {
+                throw new ZipException("Truncated entry " + entry.name);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.reset();
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+
+        if ((int) crc32.getValue() != entry.crc) {
+            throw new ZipException("CRC mismatch for " + entry.name);
+        }
+        return bytes;
+    }
+
+    private int dataOffset(Entry entry) throws ZipException {
+        int offset = entry.localHeaderOffset;
+
+        if (offset < 0 || offset + 30 > data.length || readInt(offset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+        int dataOffset = offset + 30 + readShort(offset + 26) + readShort(offset + 28);
+
+        if (dataOffset + (long) entry.compressedSize > data.length) {
+            throw new ZipException("Entry " + entry.name + " runs past the end of the jar");
+        }
+        return dataOffset;
+    }
+
+    private List<Entry> readCentralDirectory() throws ZipException {
+        int end = findEndOfCentralDirectory();
+        int count = readShort(end + 10);
+        int size = readInt(end + 12);
+        int offset = readInt(end + 16);
+
+        if (count == 0xFFFF || size == -1 || offset == -1 || isZip64Locator(end - ZIP64_LOCATOR_SIZE)) {
+            throw new ZipException("ZIP64 jars aren't supported");
+        }
+
+        if (readShort(end + 4) != 0 || readShort(end + 6) != 0 || readShort(end + 8) != count) {
+            throw new ZipException("Multi-disk jars aren't supported");
+        }
+
+        if (offset < 0 || size < 0 || (long) offset + size > end) {
+            throw new ZipException("Invalid end of central directory");
+        }
+        List<Entry> entries = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+
+            if (offset + 46 > end || readInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int nameLength = readShort(offset + 28);
+            int extraLength = readShort(offset + 30);
+            int commentLength = readShort(offset + 32);
+
+            if (offset + 46 + nameLength > end) {
+                throw new ZipException("Invalid central directory header");
+            }
+            String name = new String(data, offset + 46, nameLength, StandardCharsets.UTF_8);
+            int compressedSize = readInt(offset + 20);
+            int uncompressedSize = readInt(offset + 24);
+            int localHeaderOffset = readInt(offset + 42);
+
+            if ((readShort(offset + 8) & ENCRYPTED_FLAG) != 0) {
+                throw new ZipException("Encrypted entry " + name + " isn't supported");
+            }
+
+            if (compressedSize == -1 || uncompressedSize == -1 || localHeaderOffset == -1) {
+                throw new ZipException("ZIP64 entry " + name + " isn't supported");
+            }
+
+            if (compressedSize < 0 || uncompressedSize < 0) {
+                throw new ZipException("Entry " + name + " is too large");
+            }
+            entries.add(new Entry(name, readShort(offset + 10), readInt(offset + 12), readInt(offset + 16), compressedSize,
+                    uncompressedSize, localHeaderOffset));
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private boolean isZip64Locator(int offset) {
+        return offset >= 0 && readInt(offset) == ZIP64_LOCATOR_SIGNATURE;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        int minimum = Math.max(0, data.length - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF);
+
+        for (int offset = data.length - END_OF_CENTRAL_DIRECTORY_SIZE; offset >= minimum; offset--) {
+
+            if (readInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return offset;
+            }
+        }
+        throw new ZipException("Could not find the end of the central directory, not a jar?");
+    }
+
+    private int readShort(int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private int readInt(int offset) {
+        return readShort(offset) | readShort(offset + 2) << 16;
+    }
+
+    public static class Entry {
+
+        private final String name;
+        private final int method;
+        private final int dosTime;
+        private final int crc;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        private Entry(String name, int method, int dosTime, int crc, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isClass() {
+            return name.endsWith(".class");
+        }
+
+        /**
+         * @return the modification time of the entry, in milliseconds since the epoch
+         */
+        public long getTime() {
+            Calendar calendar = Calendar.getInstance();
+            calendar.clear();
+            calendar.set(((dosTime >> 25) & 0x7F) + 1980, ((dosTime >> 21) & 0x0F) - 1, (dosTime >> 16) & 0x1F,
+                    (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E);
+            return calendar.getTimeInMillis();
+        }
+    }
+}
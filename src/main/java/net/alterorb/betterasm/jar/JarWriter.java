@@ -0,0 +1,232 @@
+package net.alterorb.betterasm.jar;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes entries that were compressed ahead of time, possibly on other threads, into a jar. Entries are written in
+ * the order {@link #write(Entry)} is called, which is what makes the output deterministic.
+ */
+public class JarWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+    private final OutputStream output;
+    private final List<WrittenEntry> writtenEntries = new ArrayList<>();
+    private long offset;
+
+    public JarWriter(OutputStream output) {
+        this.output = new BufferedOutputStream(output, 1 << 16);
+    }
+
+    /**
+     * Compresses an entry, can be called from any thread.
+     *
+     * @param level the deflate level from 1 to 9, {@link Deflater#DEFAULT_COMPRESSION}, or 0 to store the entry uncompressed
+     * @param time  the modification time of the entry, in milliseconds since the epoch
+     */
+    public static Entry compress(String name, byte[] data, int level, long time) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+
+        if (level == Deflater.NO_COMPRESSION || data.length == 0) {
+            return new Entry(name, 0, data, data.length, data.length, (int) crc32.getValue(), time);
+        }
+        Deflater deflater = deflater(level);
+        byte[] buffer = new byte[Math.max(64, data.length / 2)];
+        int length = 0;
+
+        try {
+            deflater.setInput(data, 0, data.length);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+        } finally {
+            deflater.reset();
+        }
+        return new Entry(name, Deflater.DEFLATED, buffer, length, data.length, (int) crc32.getValue(), time);
+    }
+
+    private static Deflater deflater(int level) {
+        Deflater[] deflaters = DEFLATERS.get();
+        int slot = level == Deflater.DEFAULT_COMPRESSION ? 0 : level;
+
+        if (deflaters[slot] == null) {
+            deflaters[slot] = new Deflater(level, true);
+        }
+        return deflaters[slot];
+    }
+
+    public void write(Entry entry) throws IOException {
+
+        if (writtenEntries.size() == MAX_ENTRIES) {
+            throw new IOException("Too many entries, zip64 is not supported");
+        }
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        int dosTime = toDosTime(entry.time);
+
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(versionNeeded(entry.method));
+        writeShort(UTF8_FLAG);
+        writeShort(entry.method);
+        writeInt(dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(name.length);
+        writeShort(0);
+        output.write(name);
+        output.write(entry.data, 0, entry.compressedSize);
+
+        // only the central directory fields are kept, the data can be collected once it's written
+        writtenEntries.add(new WrittenEntry(entry.method, entry.crc, entry.compressedSize, entry.size, name, dosTime, offset));
+        offset += 30 + name.length + entry.compressedSize;
+
+        if (offset > 0xFFFFFFFFL) {
+            throw new IOException("Jar too large, zip64 is not supported");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        long centralDirectoryOffset = offset;
+
+        for (WrittenEntry writtenEntry : writtenEntries) {
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(20);
+            writeShort(versionNeeded(writtenEntry.method));
+            writeShort(UTF8_FLAG);
+            writeShort(writtenEntry.method);
+            writeInt(writtenEntry.dosTime);
+            writeInt(writtenEntry.crc);
+            writeInt(writtenEntry.compressedSize);
+            writeInt(writtenEntry.size);
+            writeShort(writtenEntry.name.length);
+            writeShort(0); // extra field length
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(0); // external attributes
+            writeInt((int) writtenEntry.offset);
+            output.write(writtenEntry.name);
+            offset += 46 + writtenEntry.name.length;
+        }
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(writtenEntries.size());
+        writeShort(writtenEntries.size());
+        writeInt((int) (offset - centralDirectoryOffset));
+        writeInt((int) centralDirectoryOffset);
+        writeShort(0);
+        output.close();
+    }
+
+    private static int versionNeeded(int method) {
+        return method == Deflater.DEFLATED ? 20 : 10;
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private void writeShort(int value) throws IOException {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value);
+        writeShort(value >>> 16);
+    }
+
+    /**
+     * A compressed entry, ready to be written
+     */
+    public static class Entry {
+
+        private final String name;
+        private final int method;
+        private final byte[] data;
+        private final int compressedSize;
+        private final int size;
+        private final int crc;
+        private final long time;
+
+        private Entry(String name, int method, byte[] data, int compressedSize, int size, int crc, long time) {
+            this.name = name;
+            this.method = method;
+            this.data = data;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.crc = crc;
+            this.time = time;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCompressedSize() {
+            return compressedSize;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    private static class WrittenEntry {
+
+        private final int method;
+        private final int crc;
+        private final int compressedSize;
+        private final int size;
+        private final byte[] name;
+        private final int dosTime;
+        private final long offset;
+
+        private WrittenEntry(int method, int crc, int compressedSize, int size, byte[] name, int dosTime, long offset) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.name = name;
+            this.dosTime = dosTime;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package net.alterorb.deobfuscator;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.deobfuscator.cache.ClassCache;
+import net.alterorb.deobfuscator.cache.ClassDeduplicator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deobfuscates many jars in one JVM. Jars are run by a few driver threads, each going through its own
+ * {@link JarPipeline} on the shared pool, so classes of different jars are processed side by side. How many jars
+ * run at once is bounded by an estimate of the heap each one takes up, a jar bigger than the whole budget runs on
+ * its own. Since only as many classes of a jar as fit in the class memory budget are held in tree form, the estimate
+ * of a large jar is its serialized classes plus that budget.
+ * <p>
+ * Unless told otherwise, the jars share a {@link ClassDeduplicator}, so a class found in many jars under different
+ * names is only transformed once.
+ * <p>
+ * A jar that fails is reported and skipped, the rest of the batch carries on. Once every jar is done a tab
+ * separated report with the timings, class counts, reused classes and failures of each jar is written next to the outputs.
+ */
+@Log4j2
+public class BatchRunner {
+
+    private static final String REPORT_NAME = "report.tsv";
+
+    /**
+     * Rough ratio between the size of a jar and the heap its classes take up in tree form
+     */
+    private static final int HEAP_PER_JAR_BYTE = 16;
+
+    /**
+     * Rough ratio between the size of a jar and the size of its classes once decompressed, which they take up serialized
+     */
+    private static final int STORED_PER_JAR_BYTE = 3;
+
+    private final TransformerPipeline transformerPipeline;
+    private final ForkJoinPool pool;
+    private final ClassCache cache;
+    private final MetricRegistry metrics;
+    private final DeobfuscatorOptions options;
+    private final Queue<JarPipeline> running = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean cancelled;
+
+    /**
+     * @param pool  the pool classes are processed on, or null to process each jar on its driver thread
+     * @param cache the cache shared by every jar, or null to run without one
+     */
+    public BatchRunner(TransformerPipeline transformerPipeline, ForkJoinPool pool, ClassCache cache, MetricRegistry metrics, DeobfuscatorOptions options) {
+        this.transformerPipeline = transformerPipeline;
+        this.pool = pool;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.options = options;
+    }
+
+    /**
+     * Abandons the batch, the jars being deobfuscated stop at their next class and those that haven't started fail right
+     * away
+     */
+    public void cancel() {
+        cancelled = true;
+        running.forEach(JarPipeline::cancel);
+    }
+
+    /**
+     * @return the results of every jar, in the order they were listed
+     */
+    public List<JobResult> run(Path batchPath, Path outputDir) throws IOException {
+        List<Path> jarPaths = listJars(batchPath);
+        Files.createDirectories(outputDir);
+        LOGGER.info("Deobfuscating {} jars from {} into {}", jarPaths.size(), batchPath, outputDir);
+
+        // permits are counted in kilobytes so large budgets still fit an int
+        int heapBudget = (int) Math.min(Integer.MAX_VALUE, Math.max(1, options.getBatchHeap() >> 10));
+        Semaphore heap = new Semaphore(heapBudget, true);
+        AtomicInteger driverCount = new AtomicInteger();
+        ExecutorService drivers = Executors.newFixedThreadPool(Math.max(1, Math.min(options.getThreads(), jarPaths.size())), runnable -> {
+            Thread thread = new Thread(runnable, "batch-" + driverCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ClassDeduplicator deduplicator = options.isDedup() ? new ClassDeduplicator(options.getDedupMemory()) : null;
+        List<Future<JobResult>> futures = new ArrayList<>(jarPaths.size());
+        Set<String> outputNames = new HashSet<>();
+        long start = System.nanoTime();
+
+        try {
+
+            for (Path jarPath : jarPaths) {
+                Path deobJarPath = outputDir.resolve(outputName(jarPath, outputNames));
+                futures.add(drivers.submit(() -> runJob(jarPath, deobJarPath, heap, heapBudget, deduplicator)));
+            }
+            List<JobResult> results = new ArrayList<>(futures.size());
+
+            for (Future<JobResult> future : futures) {
+
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the batch", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Batch job failed unexpectedly", e.getCause());
+                }
+            }
+            long failures = results.stream().filter(result -> result.failure != null).count();
+
+            writeReport(outputDir.resolve(REPORT_NAME), results);
+            LOGGER.info("Deobfuscated {} of {} jars in {} ms, {} failed, report written to {}", results.size() - failures, results.size(),
+                    (System.nanoTime() - start) / 1_000_000, failures, outputDir.resolve(REPORT_NAME));
+
+            if (deduplicator != null) {
+                deduplicator.report(metrics);
+            }
+            return results;
+        } finally {
+            drivers.shutdownNow();
+        }
+    }
+
+    private JobResult runJob(Path jarPath, Path deobJarPath, Semaphore heap, int heapBudget, ClassDeduplicator deduplicator) {
+        int weight = heapBudget;
+
+        try {
+            weight = (int) Math.max(1, Math.min(heapBudget, estimateHeap(Files.size(jarPath)) >> 10));
+        } catch (IOException e) {
+            // the pipeline reports the jar as unreadable, reserve the whole budget until then
+        }
+        heap.acquireUninterruptibly(weight);
+        long start = System.nanoTime();
+        JarPipeline jarPipeline = new JarPipeline(transformerPipeline, pool, cache, deduplicator, metrics, options);
+        running.add(jarPipeline);
+
+        try {
+
+            if (cancelled) {
+                throw new CancellationException("The batch was abandoned");
+            }
+            DeobfuscationContext ctx = jarPipeline.run(jarPath, deobJarPath);
+            return new JobResult(jarPath, deobJarPath, ctx.getClassCount(), ctx.getDeduplicatedCount(), (System.nanoTime() - start) / 1_000_000, null);
+        } catch (Exception | LinkageError | StackOverflowError e) {
+            LOGGER.error("Failed to deobfuscate {}", jarPath, e);
+
+            try {
+                Files.deleteIfExists(deobJarPath);
+            } catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+            return new JobResult(jarPath, deobJarPath, 0, 0, (System.nanoTime() - start) / 1_000_000, e);
+        } finally {
+            running.remove(jarPipeline);
+            heap.release(weight);
+        }
+    }
+
+    /**
+     * Estimates the heap a jar takes up while it's processed, the jar itself being read whole into memory on top of its
+     * classes.
+     */
+    private long estimateHeap(long jarSize) {
+        long storedSize = options.isOffHeap() ? 0 : jarSize * STORED_PER_JAR_BYTE;
+        return jarSize + Math.min(jarSize * HEAP_PER_JAR_BYTE, storedSize + options.getClassMemory());
+    }
+
+    /**
+     * Lists the jars of a directory, or reads them from a file with one path per line, relative paths being resolved
+     * against the directory of the file. Blank lines and lines starting with # are skipped.
+     */
+    private static List<Path> listJars(Path batchPath) throws IOException {
+
+        if (Files.isDirectory(batchPath)) {
+
+            try (Stream<Path> paths = Files.list(batchPath)) {
+                return paths.filter(path -> path.getFileName().toString().endsWith(".jar") && Files.isRegularFile(path))
+                            .sorted()
+                            .collect(Collectors.toList());
+            }
+        }
+        Path baseDir = batchPath.toAbsolutePath().getParent();
+
+        return Files.readAllLines(batchPath, StandardCharsets.UTF_8)
+                    .stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .map(baseDir::resolve)
+                    .collect(Collectors.toList());
+    }
+
+    /**
+     * Outputs keep the name of their jar, jars with the same name from different directories get a numbered suffix
+     */
+    private static String outputName(Path jarPath, Set<String> outputNames) {
+        String jarName = jarPath.getFileName().toString();
+        String baseName = jarName.endsWith(".jar") ? jarName.substring(0, jarName.length() - ".jar".length()) : jarName;
+        String outputName = baseName + ".jar";
+
+        for (int i = 2; !outputNames.add(outputName); i++) {
+            outputName = baseName + "-" + i + ".jar";
+        }
+        return outputName;
+    }
+
+    private static void writeReport(Path reportPath, List<JobResult> results) throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8))) {
+            writer.println("jar\toutput\tstatus\tclasses\treused\tmillis\tfailure");
+
+            for (JobResult result : results) {
+                String failure = result.failure == null ? "" : String.valueOf(result.failure).replaceAll("\\s+", " ");
+
+                writer.println(result.jarPath + "\t" + result.deobJarPath + "\t" + (result.failure == null ? "ok" : "failed") + "\t"
+                        + result.classCount + "\t" + result.reusedCount + "\t" + result.millis + "\t" + failure);
+            }
+        }
+    }
+
+    public static class JobResult {
+
+        private final Path jarPath;
+        private final Path deobJarPath;
+        private final int classCount;
+        private final int reusedCount;
+        private final long millis;
+        private final Throwable failure;
+
+        private JobResult(Path jarPath, Path deobJarPath, int classCount, int reusedCount, long millis, Throwable failure) {
+            this.jarPath = jarPath;
+            this.deobJarPath = deobJarPath;
+            this.classCount = classCount;
+            this.reusedCount = reusedCount;
+            this.millis = millis;
+            this.failure = failure;
+        }
+
+        public Path getJarPath() {
+            return jarPath;
+        }
+
+        public int getClassCount() {
+            return classCount;
+        }
+
+        /**
+         * @return the number of classes transformed for another jar of the batch, and reused
+         */
+        public int getReusedCount() {
+            return reusedCount;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.alterorb.deobfuscator;
+
+import net.alterorb.betterasm.HierarchyClassWriter;
+import net.alterorb.deobfuscator.cache.ClassCache;
+import net.alterorb.deobfuscator.transformer.Transformer;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Takes the results of the head stage from a {@link ClassCache} when they're there, and runs it otherwise. The cache
+ * holds classes under their original names, and without frames when renaming, since those are computed as they're
+ * renamed. A class changing elsewhere in the jar then never invalidates the others through the mapping.
+ */
+class CachingHeadStage implements HeadStage {
+
+    private final ClassCache cache;
+    private final byte[] fingerprint;
+    private final HeadStage head;
+
+    /**
+     * @param fingerprint the fingerprint of the cache keys, see {@link #fingerprint}
+     */
+    CachingHeadStage(ClassCache cache, byte[] fingerprint, HeadStage head) {
+        this.cache = cache;
+        this.fingerprint = fingerprint;
+        this.head = head;
+    }
+
+    @Override
+    public byte[] transform(DeobfuscationContext ctx, byte[] bytes, ClassReader classReader, boolean output) {
+
+        if (ClassOutput.computesFrames(ctx, false) && HierarchyClassWriter.needsFrames(classReader)) {
+            // the frames depend on other classes of the jar, which the key doesn't cover
+            cache.recordUncacheable();
+            return head.transform(ctx, bytes, classReader, output);
+        }
+        String key = cache.key(fingerprint, bytes);
+        byte[] transformed = cache.get(key);
+
+        if (transformed == null) {
+            transformed = head.transform(ctx, bytes, classReader, false);
+            cache.put(key, transformed);
+        }
+        return output && ctx.getNameMapping() != null ? ClassOutput.rename(ctx, transformed) : transformed;
+    }
+
+    /**
+     * Describes everything the output of a stage depends on besides the class itself
+     *
+     * @param frames whether the cached classes get their frames, which they don't when renaming
+     */
+    static byte[] fingerprint(TransformerPipeline.Stage stage, String mainClassName, boolean copyThrough, boolean frames) {
+        StringBuilder description = new StringBuilder();
+        description.append("main=").append(mainClassName)
+                   .append(";parsing=").append(ClassOutput.PARSING_OPTIONS)
+                   .append(";writer=").append(ClassOutput.WRITER_FLAGS)
+                   .append(";copyThrough=").append(copyThrough)
+                   .append(";frames=").append(frames);
+
+        for (Transformer transformer : stage.getTransformers()) {
+            description.append(';').append(transformer.getClass().getName()).append(':').append(transformer.getVersion());
+        }
+        return ClassCache.fingerprint(description.toString());
+    }
+}
@@ -0,0 +1,62 @@
+package net.alterorb.deobfuscator;
+
+import net.alterorb.betterasm.CanonicalNames;
+import net.alterorb.betterasm.ClassHierarchy;
+import net.alterorb.betterasm.HierarchyClassWriter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+
+/**
+ * How classes are parsed and serialized by {@link JarPipeline}, and how they get their frames and new names as
+ * they're written to the jar. Classes for Java 6 and later get frames computed with a {@link ClassHierarchy} of the
+ * jar, which holds the renamed classes when renaming. Classes collected for whole-program stages then keep their
+ * original names and get no frames until they're written, so every stage sees the names the main class of the context
+ * has. Copy-through has no effect when renaming, since every method mentioning a renamed name changes.
+ */
+final class ClassOutput {
+
+    static final int PARSING_OPTIONS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    static final int WRITER_FLAGS = ClassWriter.COMPUTE_MAXS;
+
+    private ClassOutput() {
+    }
+
+    /**
+     * @param output whether the class is written to the jar, rather than collected for whole-program stages
+     * @return the writer with the classes it writes renamed, if they are and the class is written to the jar
+     */
+    static ClassVisitor renaming(DeobfuscationContext ctx, ClassVisitor writer, boolean output) {
+        return ctx.getNameMapping() == null || !output ? writer : new ClassRemapper(writer, ctx.getNameMapping());
+    }
+
+    /**
+     * @param output whether the class is written to the jar, rather than collected for whole-program stages
+     * @return whether frames can be computed for the class, which a hierarchy of renamed classes only allows once the
+     * class is renamed as well
+     */
+    static boolean computesFrames(DeobfuscationContext ctx, boolean output) {
+        return ctx.getClassHierarchy() != null && (output || ctx.getNameMapping() == null);
+    }
+
+    /**
+     * Renames a class the head stage wrote under its original names, computing its frames
+     */
+    static byte[] rename(DeobfuscationContext ctx, byte[] bytes) {
+        ClassWriter writer = newWriter(ctx, null, computesFrames(ctx, true) && HierarchyClassWriter.needsFrames(new ClassReader(bytes)));
+        CanonicalNames.remap(bytes, ctx.getNameMapping(), writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param source the reader to copy from, or null
+     */
+    static ClassWriter newWriter(DeobfuscationContext ctx, ClassReader source, boolean computeFrames) {
+
+        if (computeFrames) {
+            return new HierarchyClassWriter(source, ctx.getClassHierarchy(), ClassWriter.COMPUTE_FRAMES);
+        }
+        return new ClassWriter(source, WRITER_FLAGS);
+    }
+}
@@ -0,0 +1,105 @@
+package net.alterorb.deobfuscator;
+
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.CanonicalNames;
+import net.alterorb.betterasm.HierarchyClassWriter;
+import net.alterorb.betterasm.jar.JarReader;
+import net.alterorb.deobfuscator.cache.ClassCache;
+import net.alterorb.deobfuscator.cache.ClassDeduplicator;
+import net.alterorb.deobfuscator.transformer.Transformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reuses the head stage output of a class another jar of the batch had a copy of under different names, mapping the
+ * transformed copy to the names of this jar, see {@link CanonicalNames}. Frames are computed again as the names are
+ * mapped. One is created per jar.
+ */
+@Log4j2
+class DeduplicatingHeadStage implements HeadStage {
+
+    private final ClassDeduplicator deduplicator;
+    private final byte[] fingerprint;
+    private final Set<String> classNames = new HashSet<>();
+    private final LongAdder reused = new LongAdder();
+    private final HeadStage head;
+
+    /**
+     * @param head what transforms the classes no other jar had, which may be cached
+     */
+    DeduplicatingHeadStage(ClassDeduplicator deduplicator, TransformerPipeline.Stage stage, List<JarReader.Entry> classEntries, HeadStage head) {
+        this.deduplicator = deduplicator;
+        this.fingerprint = canonicalFingerprint(stage);
+        this.head = head;
+
+        for (JarReader.Entry entry : classEntries) {
+            classNames.add(entry.getName().substring(0, entry.getName().length() - ".class".length()));
+        }
+    }
+
+    /**
+     * @return the number of classes reused so far
+     */
+    int getReused() {
+        return reused.intValue();
+    }
+
+    @Override
+    public byte[] transform(DeobfuscationContext ctx, byte[] bytes, ClassReader classReader, boolean output) {
+        long start = System.nanoTime();
+        CanonicalNames names = new CanonicalNames(classNames, ctx.getTargetJarMainClass());
+        byte[] key = ClassCache.hash(fingerprint, CanonicalNames.remap(bytes, names));
+        ClassDeduplicator.Entry entry = deduplicator.get(key);
+
+        if (entry != null) {
+            boolean computeFrames = ClassOutput.computesFrames(ctx, output) && HierarchyClassWriter.needsFrames(classReader);
+            ClassWriter writer = ClassOutput.newWriter(ctx, null, computeFrames);
+
+            try {
+                CanonicalNames.remap(entry.getCanonicalBytes(), names.inverse(), ClassOutput.renaming(ctx, writer, output));
+                byte[] transformed = writer.toByteArray();
+
+                deduplicator.recordHit(entry);
+                deduplicator.recordOverhead(System.nanoTime() - start);
+                reused.increment();
+                return transformed;
+            } catch (IllegalStateException e) {
+                // the transformed copy mentions a class this copy doesn't, which only happens on a hash collision
+                LOGGER.warn("Could not reuse the transformed copy of {}, transforming it", classReader.getClassName(), e);
+            }
+        }
+        long transformStart = System.nanoTime();
+        // the copy kept has to be in the names of the jar, so the class is renamed and gets its frames separately
+        byte[] transformed = head.transform(ctx, bytes, classReader, false);
+        long transformEnd = System.nanoTime();
+
+        deduplicator.put(key, CanonicalNames.remap(transformed, names), transformEnd - transformStart);
+
+        if (output && ctx.getNameMapping() != null) {
+            transformed = ClassOutput.rename(ctx, transformed);
+        }
+        deduplicator.recordOverhead(transformStart - start + System.nanoTime() - transformEnd);
+        return transformed;
+    }
+
+    /**
+     * Describes everything the output of a stage depends on besides the class itself, when the class is mapped to a
+     * canonical form before it's transformed and its frames are computed after
+     */
+    private static byte[] canonicalFingerprint(TransformerPipeline.Stage stage) {
+        StringBuilder description = new StringBuilder();
+        description.append("canonical")
+                   .append(";parsing=").append(ClassOutput.PARSING_OPTIONS)
+                   .append(";writer=").append(ClassOutput.WRITER_FLAGS);
+
+        for (Transformer transformer : stage.getTransformers()) {
+            description.append(';').append(transformer.getClass().getName()).append(':').append(transformer.getVersion());
+        }
+        return ClassCache.fingerprint(description.toString());
+    }
+}
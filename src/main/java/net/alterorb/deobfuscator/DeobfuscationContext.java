@@ -1,13 +1,91 @@
 package net.alterorb.deobfuscator;
 
+import com.codahale.metrics.MetricRegistry;
+import lombok.AccessLevel;
 import lombok.Data;
-import net.alterorb.betterasm.ClassNode;
+import lombok.Getter;
+import lombok.Setter;
+import net.alterorb.betterasm.ClassHierarchy;
+import net.alterorb.betterasm.ClassStore;
+import net.alterorb.betterasm.NameMapping;
+import net.alterorb.deobfuscator.index.SymbolIndex;
 
-import java.util.List;
+import java.util.concurrent.CancellationException;
 
 @Data
 public class DeobfuscationContext {
 
-    private List<ClassNode> classNodes;
+    private ClassStore classStore;
     private String targetJarMainClass;
+    private int classCount;
+
+    /**
+     * The number of classes whose transformed form was reused from another jar of the batch
+     */
+    private int deduplicatedCount;
+    private MetricRegistry metrics = new MetricRegistry();
+
+    /**
+     * The hierarchy frames are computed with, null when they aren't
+     */
+    private ClassHierarchy classHierarchy;
+
+    /**
+     * The mapping classes are renamed with as they're written, null when they aren't
+     */
+    private NameMapping nameMapping;
+
+    /**
+     * Set when the run was abandoned, the classes that haven't been processed yet are skipped
+     */
+    private volatile boolean cancelled;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile SymbolIndex symbolIndex;
+
+    /**
+     * @throws CancellationException if the run was abandoned
+     */
+    public void checkCancelled() {
+
+        if (cancelled) {
+            throw new CancellationException("The run was abandoned");
+        }
+    }
+
+    /**
+     * Replacing the classes discards the symbol index, it's built from the new classes on its next use
+     */
+    public synchronized void setClassStore(ClassStore classStore) {
+        this.classStore = classStore;
+        this.symbolIndex = null;
+    }
+
+    /**
+     * Builds the symbol index on first use, which is only possible once every class has been loaded, so not from
+     * a class-local transformer that runs while the jar is being streamed in. It isn't kept up to date by class-local
+     * transformers, it's only meant for whole-program transformers such as pruning, which update it as they go.
+     *
+     * @throws IllegalStateException if the classes aren't loaded yet
+     */
+    public SymbolIndex getSymbolIndex() {
+        SymbolIndex index = symbolIndex;
+
+        if (index == null) {
+
+            synchronized (this) {
+                index = symbolIndex;
+
+                if (index == null) {
+
+                    if (classStore == null) {
+                        throw new IllegalStateException("The symbol index is only available once every class has been loaded");
+                    }
+                    symbolIndex = index = SymbolIndex.build(classStore);
+                }
+            }
+        }
+        return index;
+    }
 }
@@ -1,26 +1,26 @@
 package net.alterorb.deobfuscator;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
 import lombok.extern.log4j.Log4j2;
-import net.alterorb.betterasm.AsmUtils;
-import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.cache.ClassCache;
+import net.alterorb.deobfuscator.metrics.MetricsReporters;
+import net.alterorb.deobfuscator.transformer.FixedPointTransformer;
 import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.transformer.impl.DeadCodeTransformer;
 import net.alterorb.deobfuscator.transformer.impl.IfJumpTransformer;
 import net.alterorb.deobfuscator.transformer.impl.ImpossibleJumpTransformer;
 import net.alterorb.deobfuscator.transformer.impl.SimplifyBitshiftTransformer;
 import net.alterorb.deobfuscator.transformer.impl.StringDecryptorTransformer;
 import net.alterorb.deobfuscator.transformer.impl.StringInlinerTransformer;
 import net.alterorb.deobfuscator.transformer.impl.TryCatchTransformer;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.commons.ClassRemapper;
+import net.alterorb.deobfuscator.transformer.impl.UnreachableMemberTransformer;
+import net.alterorb.deobfuscator.transformer.peephole.FusedPeepholeTransformer;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 @Log4j2
 public class Deobfuscator {
@@ -28,72 +28,82 @@ public class Deobfuscator {
     private static final List<Transformer> TRANSFORMERS = new ArrayList<>();
 
     static {
+        // the streaming transformers come first so they share a single pass before the tree is built
         TRANSFORMERS.add(new StringDecryptorTransformer());
-        TRANSFORMERS.add(new StringInlinerTransformer());
         TRANSFORMERS.add(new SimplifyBitshiftTransformer());
-        TRANSFORMERS.add(new TryCatchTransformer());
-        TRANSFORMERS.add(new IfJumpTransformer());
-        TRANSFORMERS.add(new ImpossibleJumpTransformer());
+        // removing impossible jumps and fake handlers exposes jumps to gotos, so the peephole rules run until nothing changes
+        TRANSFORMERS.add(new FixedPointTransformer(
+                new FusedPeepholeTransformer(
+                        new StringInlinerTransformer(),
+                        new TryCatchTransformer(),
+                        new IfJumpTransformer(),
+                        new ImpossibleJumpTransformer()
+                )
+        ));
+        // then the dead code all of them left behind goes in a single pass
+        TRANSFORMERS.add(new DeadCodeTransformer());
     }
 
     public static void main(String[] args) throws IOException {
+        DeobfuscatorOptions options;
 
-        if (args.length <= 0) {
-            LOGGER.info("Missing required parameter: Path to obfuscated jar");
+        try {
+            options = DeobfuscatorOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info(e.getMessage());
             return;
         }
-        Path jarPath = Paths.get(args[0]);
-        Path deobJarPath;
-
-        if (args.length >= 2) {
-            deobJarPath = Paths.get(args[1]);
-        } else {
-            String jarName = jarPath.getFileName().toString();
-            jarName = jarName.substring(0, jarName.lastIndexOf('.'));
-            deobJarPath = jarPath.resolveSibling(jarName + "-deob.jar");
-        }
-
-        LOGGER.info("Obfuscated jar location={}", jarPath);
-        List<ClassNode> classNodes = AsmUtils.loadJarClasses(jarPath);
-        String mainClassName = findMainClass(classNodes);
-
-        LOGGER.info("Determined that the class {} is the main class name", mainClassName);
-
-        DeobfuscationContext deobfuscationContext = new DeobfuscationContext();
-        deobfuscationContext.setTargetJarMainClass(mainClassName);
-        deobfuscationContext.setClassNodes(classNodes);
+        TransformerPipeline pipeline = createPipeline(options);
+        ForkJoinPool pool = options.getThreads() > 1 ? new ForkJoinPool(options.getThreads()) : null;
+
+        ClassCache cache = options.isCache() ? new ClassCache(options.getCacheDir(), options.getCacheSize()) : null;
+        MetricRegistry metrics = new MetricRegistry();
+
+        try {
+
+            if (options.getServerPort() != 0) {
+                DeobfuscatorServer server = new DeobfuscatorServer(pipeline, pool, cache, metrics, options);
+                server.run();
+            } else if (options.getBatchPath() != null) {
+                BatchRunner batchRunner = new BatchRunner(pipeline, pool, cache, metrics, options);
+                batchRunner.run(options.getBatchPath(), options.getBatchOutputDir());
+            } else {
+                JarPipeline jarPipeline = new JarPipeline(pipeline, pool, cache, metrics, options);
+                jarPipeline.run(options.getJarPath(), options.getDeobJarPath());
+            }
+        } finally {
 
-        LOGGER.info("Loaded {} classes, starting to run the transformers...", classNodes.size());
+            if (cache != null) {
+                cache.close();
+            }
 
-        for (Transformer transformer : TRANSFORMERS) {
-            LOGGER.info("Transforming classes with {}", transformer.getClass().getSimpleName());
-            transformer.process(deobfuscationContext);
+            if (pool != null) {
+                pool.shutdown();
+            }
+            report(metrics, options);
         }
-        LOGGER.info("Writing classes to {}", deobJarPath);
-
-        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(deobJarPath.toFile()))) {
-
-            for (ClassNode node : classNodes) {
-                JarEntry entry = new JarEntry(node.name + ".class");
-                output.putNextEntry(entry);
+    }
 
-                ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                node.accept(writer);
-                output.write(writer.toByteArray());
+    /**
+     * @return the pipeline of every transformer, along with the ones the options ask for
+     */
+    static TransformerPipeline createPipeline(DeobfuscatorOptions options) {
+        List<Transformer> transformers = new ArrayList<>(TRANSFORMERS);
 
-                output.closeEntry();
-            }
+        if (options.isPrune()) {
+            // last, so it sees what every other transformer left unreachable
+            transformers.add(new UnreachableMemberTransformer());
         }
+        return new TransformerPipeline(transformers);
     }
 
-    private static String findMainClass(List<ClassNode> classNodes) {
+    static void report(MetricRegistry metrics, DeobfuscatorOptions options) {
 
-        for (ClassNode classNode : classNodes) {
+        for (String spec : options.getMetricsReporters()) {
 
-            if (classNode.name.length() > 3) {
-                return classNode.name;
+            try (ScheduledReporter reporter = MetricsReporters.create(spec, metrics)) {
+                reporter.report();
             }
         }
-        throw new RuntimeException("Could not determine the main class");
     }
 }
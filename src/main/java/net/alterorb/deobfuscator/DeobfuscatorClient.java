@@ -0,0 +1,94 @@
+package net.alterorb.deobfuscator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Sends a job to a running {@link DeobfuscatorServer} and waits for it to finish. The command line is the one of the
+ * deobfuscator itself, optionally preceded by {@code --port n} to reach a server on another port than the default one.
+ * {@code --stop} asks the server to stop instead. The token the server wrote to {@link #tokenPath} is sent ahead of
+ * the request, so only the user running the server can use it.
+ * <p>
+ * Exits with 0 once the job succeeded, 1 if it failed, 2 if it was invalid, denied or timed out and 3 if the server
+ * couldn't be reached. Only the JDK is loaded, so the client starts as fast as a JVM can.
+ */
+public class DeobfuscatorClient {
+
+    public static final int DEFAULT_PORT = 47041;
+
+    /**
+     * @return the file the server on the port keeps its token in, which only the user running it can read
+     */
+    public static Path tokenPath(int port) {
+        return Paths.get(System.getProperty("user.home"), ".alterorb", "deobfuscator-server-" + port + ".token");
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int first = 0;
+
+        if (args.length >= 2 && args[0].equals("--port")) {
+            port = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        boolean stop = args.length > first && args[first].equals("--stop");
+        String[] jobArgs = Arrays.copyOfRange(args, first, args.length);
+        String token;
+
+        try {
+            token = new String(Files.readAllBytes(tokenPath(port)), StandardCharsets.US_ASCII);
+        } catch (NoSuchFileException e) {
+            System.err.println("No server is running on port " + port + " for this user, " + e.getFile() + " doesn't exist");
+            System.exit(3);
+            return;
+        } catch (IOException e) {
+            System.err.println("Could not read the token of the server on port " + port + ": " + e.getMessage());
+            System.exit(3);
+            return;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            out.writeUTF(token);
+
+            if (stop) {
+                out.writeUTF(DeobfuscatorServer.COMMAND_STOP);
+            } else {
+                out.writeUTF(DeobfuscatorServer.COMMAND_RUN);
+                out.writeUTF(Paths.get("").toAbsolutePath().toString());
+                out.writeInt(jobArgs.length);
+
+                for (String arg : jobArgs) {
+                    out.writeUTF(arg);
+                }
+            }
+            out.flush();
+            String status = in.readUTF();
+            long millis = in.readLong();
+            int classCount = in.readInt();
+            String message = in.readUTF();
+
+            if (status.equals(DeobfuscatorServer.STATUS_OK)) {
+                System.out.println(stop ? message : message + ", " + classCount + " classes in " + millis + " ms");
+                System.exit(0);
+            }
+            System.err.println(status + ": " + message);
+            System.exit(status.equals(DeobfuscatorServer.STATUS_FAILED) ? 1 : 2);
+        } catch (IOException e) {
+            System.err.println("Could not reach the server on port " + port + ": " + e.getMessage());
+            System.exit(3);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package net.alterorb.deobfuscator;
+
+import lombok.Data;
+import net.alterorb.deobfuscator.metrics.MetricsReporters;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+@Data
+public class DeobfuscatorOptions {
+
+    private Path jarPath;
+    private Path deobJarPath;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean streaming;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean prescan = true;
+    private boolean copyThrough;
+    private boolean frames = true;
+    private boolean rename;
+    private boolean prune;
+    private Path mappingPath;
+    private boolean cache = true;
+    private Path cacheDir = Paths.get(System.getProperty("user.home"), ".alterorb", "deobfuscator-cache");
+    private long cacheSize = 256L << 20;
+    private Path batchPath;
+    private Path batchOutputDir;
+    private long batchHeap = Runtime.getRuntime().maxMemory() / 2;
+    private boolean dedup = true;
+    private long dedupMemory = Runtime.getRuntime().maxMemory() / 8;
+    private long classMemory = Runtime.getRuntime().maxMemory() / 4;
+    private boolean offHeap;
+    private List<String> metricsReporters = new ArrayList<>();
+    private int serverPort;
+    private long jobTimeout = 600;
+
+    /**
+     * Parses the command line, which is the path to the obfuscated jar, optionally followed by the output path
+     * and any of the following switches. In batch mode the only path is the optional output directory, in server mode
+     * there is none.
+     * <p>
+     * --threads n  number of threads class-local transformers run on, 1 runs everything serially
+     * --streaming  transform and write classes while the jar is still being read, see {@link JarPipeline}
+     * --compression-level n  deflate level of the output jar from 1 to 9, 0 stores entries uncompressed
+     * --no-prescan  parse every class, even the ones a scan of their constant pool shows no transformer applies to
+     * --copy-through  write classes starting from the constant pool they were read with, copying the methods no
+     * transformer changed as they are, see {@link JarPipeline}
+     * --no-frames  leave stack map frames out of classes for Java 6 and later, which are then verified the slow way
+     * --rename  rename the classes and members with obfuscated names, reading and extending the mapping file next to
+     * the output jar, see {@link JarPipeline}
+     * --mapping file  mapping file to read and write instead of the one next to the output jar, implies --rename
+     * --prune  remove the classes, methods and fields that can't be reached from the main class, see
+     * {@link net.alterorb.deobfuscator.transformer.impl.UnreachableMemberTransformer}
+     * --no-cache  transform every class instead of reusing the results of earlier runs
+     * --cache-dir dir  directory transformed classes are cached in
+     * --cache-size mb  size the cache is trimmed down to after each run, in megabytes
+     * --batch dir|file  deobfuscate every jar in a directory, or every jar listed in a file, see {@link BatchRunner}
+     * --batch-heap mb  estimated heap the jars of a batch being processed at once may take up, in megabytes
+     * --no-dedup  transform every class of a batch instead of reusing classes transformed for other jars, see {@link JarPipeline}
+     * --dedup-memory mb  size the transformed classes kept for other jars of a batch may add up to, in megabytes
+     * --class-memory mb  estimated heap the classes of a jar may take up in tree form between whole-program stages, in
+     * megabytes, the others are kept serialized
+     * --off-heap  keep the serialized classes out of the heap
+     * --metrics console|csv:dir|json:file  where to report the metrics of the run to once it's done, can be repeated
+     * --server port  keep running and take jobs from {@link DeobfuscatorClient} on a local port, see {@link DeobfuscatorServer}
+     * --job-timeout s  seconds a job of the server may run for before it's abandoned
+     */
+    public static DeobfuscatorOptions parse(String[] args) {
+        return parse(args, null);
+    }
+
+    /**
+     * Parses the command line of a job sent to the server, relative paths being resolved against the working directory
+     * of the client
+     *
+     * @param baseDir the directory relative paths are resolved against, null to leave them as they are
+     */
+    public static DeobfuscatorOptions parse(String[] args, Path baseDir) {
+        DeobfuscatorOptions options = new DeobfuscatorOptions();
+        List<Path> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (arg.equals("--threads")) {
+                options.threads = Integer.parseInt(requireValue(args, ++i, arg));
+
+                if (options.threads < 1) {
+                    throw new IllegalArgumentException("--threads must be at least 1");
+                }
+            } else if (arg.equals("--compression-level")) {
+                options.compressionLevel = Integer.parseInt(requireValue(args, ++i, arg));
+
+                if (options.compressionLevel < 0 || options.compressionLevel > 9) {
+                    throw new IllegalArgumentException("--compression-level must be between 0 and 9");
+                }
+            } else if (arg.equals("--cache-dir")) {
+                options.cacheDir = path(requireValue(args, ++i, arg), baseDir);
+            } else if (arg.equals("--cache-size")) {
+                options.cacheSize = Long.parseLong(requireValue(args, ++i, arg)) << 20;
+
+                if (options.cacheSize < 0) {
+                    throw new IllegalArgumentException("--cache-size can't be negative");
+                }
+            } else if (arg.equals("--mapping")) {
+                options.mappingPath = path(requireValue(args, ++i, arg), baseDir);
+                options.rename = true;
+            } else if (arg.equals("--batch")) {
+                options.batchPath = path(requireValue(args, ++i, arg), baseDir);
+            } else if (arg.equals("--batch-heap")) {
+                options.batchHeap = Long.parseLong(requireValue(args, ++i, arg)) << 20;
+
+                if (options.batchHeap < 1) {
+                    throw new IllegalArgumentException("--batch-heap must be at least 1");
+                }
+            } else if (arg.equals("--dedup-memory")) {
+                options.dedupMemory = Long.parseLong(requireValue(args, ++i, arg)) << 20;
+
+                if (options.dedupMemory < 0) {
+                    throw new IllegalArgumentException("--dedup-memory can't be negative");
+                }
+            } else if (arg.equals("--class-memory")) {
+                options.classMemory = Long.parseLong(requireValue(args, ++i, arg)) << 20;
+
+                if (options.classMemory < 1) {
+                    throw new IllegalArgumentException("--class-memory must be at least 1");
+                }
+            } else if (arg.equals("--server")) {
+                options.serverPort = Integer.parseInt(requireValue(args, ++i, arg));
+
+                if (options.serverPort < 1 || options.serverPort > 65535) {
+                    throw new IllegalArgumentException("--server must be a port between 1 and 65535");
+                }
+            } else if (arg.equals("--job-timeout")) {
+                options.jobTimeout = Long.parseLong(requireValue(args, ++i, arg));
+
+                if (options.jobTimeout < 1) {
+                    throw new IllegalArgumentException("--job-timeout must be at least 1");
+                }
+            } else if (arg.equals("--metrics")) {
+                String reporter = requireValue(args, ++i, arg);
+
+                MetricsReporters.validate(reporter);
+                options.metricsReporters.add(baseDir != null ? MetricsReporters.resolve(reporter, baseDir) : reporter);
+            } else if (arg.equals("--no-prescan")) {
+                options.prescan = false;
+            } else if (arg.equals("--copy-through")) {
+                options.copyThrough = true;
+            } else if (arg.equals("--prune")) {
+                options.prune = true;
+            } else if (arg.equals("--rename")) {
+                options.rename = true;
+            } else if (arg.equals("--no-frames")) {
+                options.frames = false;
+            } else if (arg.equals("--off-heap")) {
+                options.offHeap = true;
+            } else if (arg.equals("--no-dedup")) {
+                options.dedup = false;
+            } else if (arg.equals("--no-cache")) {
+                options.cache = false;
+            } else if (arg.equals("--streaming")) {
+                options.streaming = true;
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                paths.add(path(arg, baseDir));
+            }
+        }
+
+        if (options.serverPort != 0) {
+
+            if (!paths.isEmpty()) {
+                throw new IllegalArgumentException("Unexpected parameter: " + paths.get(0));
+            }
+            return options;
+        }
+
+        if (options.batchPath != null) {
+
+            if (options.mappingPath != null) {
+                throw new IllegalArgumentException("--mapping can't be used in batch mode, each jar has its mapping next to its output");
+            }
+
+            if (paths.size() > 1) {
+                throw new IllegalArgumentException("Unexpected parameter: " + paths.get(1));
+            }
+            String batchName = options.batchPath.getFileName().toString();
+
+            if (batchName.indexOf('.') > 0) {
+                batchName = batchName.substring(0, batchName.lastIndexOf('.'));
+            }
+            options.batchOutputDir = paths.isEmpty() ? options.batchPath.resolveSibling(batchName + "-deob") : paths.get(0);
+            return options;
+        }
+
+        if (paths.size() > 2) {
+            throw new IllegalArgumentException("Unexpected parameter: " + paths.get(2));
+        }
+        options.jarPath = paths.isEmpty() ? null : paths.get(0);
+        options.deobJarPath = paths.size() < 2 ? null : paths.get(1);
+
+        if (options.jarPath == null) {
+            throw new IllegalArgumentException("Missing required parameter: Path to obfuscated jar");
+        }
+
+        if (options.deobJarPath == null) {
+            String jarName = options.jarPath.getFileName().toString();
+            jarName = jarName.substring(0, jarName.lastIndexOf('.'));
+            options.deobJarPath = options.jarPath.resolveSibling(jarName + "-deob.jar");
+        }
+        return options;
+    }
+
+    private static Path path(String value, Path baseDir) {
+        return baseDir != null ? baseDir.resolve(value) : Paths.get(value);
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+}
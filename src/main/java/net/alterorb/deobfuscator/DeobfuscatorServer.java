@@ -0,0 +1,386 @@
+package net.alterorb.deobfuscator;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.deobfuscator.cache.ClassCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the transformers loaded and warmed up, and runs the jobs {@link DeobfuscatorClient} sends it on a port of the
+ * loopback address. A job is the command line of a single run, either a jar or a batch, with its relative paths
+ * resolved against the working directory of the client. Jobs run side by side on the shared pool, and a job that
+ * runs past the timeout, counted from when it leaves the queue, is abandoned: the client is told right away, the job
+ * stops at its next class and the jar it was writing is deleted. A job that waits as long as the timeout in the queue
+ * is dropped without running. Jobs share the cache of the server, unless they ask to run without one, and the
+ * transformers of the server, unless they ask for other ones. The cache is trimmed after every job rather than when
+ * the server stops.
+ * <p>
+ * Jobs read, write and delete whatever paths they're given with the permissions of the server, so only the user
+ * running it may send them. The server writes a random token to {@link DeobfuscatorClient#tokenPath} when it starts,
+ * in a file only that user can read, and every request starts with it. Requests without it are denied, stop
+ * included. A client has {@value #READ_TIMEOUT_MILLIS} ms to send its request, and at most
+ * {@value #MAX_CONNECTIONS} connections are handled at once, the others are closed right away.
+ * <p>
+ * Each connection carries a single request, the token and a command followed by its arguments, and gets a single
+ * response back:
+ * <pre>
+ * token, run: cwd, argument count, arguments  ->  status, millis, class count, message
+ * token, stop:                                ->  status, 0, 0, message
+ * </pre>
+ * Every value is written with {@link DataOutputStream}, strings as modified UTF-8. The status is one of
+ * {@link #STATUS_OK}, {@link #STATUS_FAILED}, {@link #STATUS_INVALID}, {@link #STATUS_DENIED} or
+ * {@link #STATUS_TIMEOUT}.
+ */
+@Log4j2
+public class DeobfuscatorServer {
+
+    public static final String COMMAND_RUN = "run";
+    public static final String COMMAND_STOP = "stop";
+
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_INVALID = "invalid";
+    public static final String STATUS_DENIED = "denied";
+    public static final String STATUS_TIMEOUT = "timeout";
+
+    public static final int READ_TIMEOUT_MILLIS = 30_000;
+    public static final int MAX_CONNECTIONS = 32;
+    private static final int TOKEN_BYTES = 32;
+
+    private final TransformerPipeline transformerPipeline;
+    private final ForkJoinPool pool;
+    private final ClassCache cache;
+    private final MetricRegistry metrics;
+    private final DeobfuscatorOptions options;
+    private final ExecutorService connections;
+    private final ExecutorService jobs;
+
+    private volatile ServerSocket serverSocket;
+    private volatile byte[] token;
+
+    /**
+     * @param pool  the pool classes of every job are processed on, or null to process each job on its own thread
+     * @param cache the cache shared by every job, or null to run without one
+     */
+    public DeobfuscatorServer(TransformerPipeline transformerPipeline, ForkJoinPool pool, ClassCache cache, MetricRegistry metrics,
+                              DeobfuscatorOptions options) {
+        this.transformerPipeline = transformerPipeline;
+        this.pool = pool;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.options = options;
+        this.connections = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                daemonThreads("server-connection"));
+        this.jobs = Executors.newFixedThreadPool(options.getThreads(), daemonThreads("server-job"));
+    }
+
+    /**
+     * Takes jobs until a client asks the server to stop
+     */
+    public void run() throws IOException {
+        Path tokenPath = DeobfuscatorClient.tokenPath(options.getServerPort());
+
+        try (ServerSocket serverSocket = new ServerSocket(options.getServerPort(), 50, InetAddress.getLoopbackAddress())) {
+            this.serverSocket = serverSocket;
+            // written once the port is ours, so a second server failing to bind doesn't replace the token of the first
+            this.token = writeToken(tokenPath);
+            LOGGER.info("Taking jobs on {}, they time out after {} s", serverSocket.getLocalSocketAddress(), options.getJobTimeout());
+
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+
+                    if (serverSocket.isClosed()) {
+                        break;
+                    }
+                    throw e;
+                }
+
+                try {
+                    connections.execute(() -> handle(socket));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.warn("Closing a connection, {} are open already", MAX_CONNECTIONS);
+                    metrics.counter(MetricRegistry.name("server", "connections-rejected")).inc();
+                    closeQuietly(socket);
+                }
+            }
+        } finally {
+            connections.shutdownNow();
+            jobs.shutdownNow();
+
+            if (token != null) {
+                Files.deleteIfExists(tokenPath);
+            }
+        }
+        LOGGER.info("Stopped taking jobs");
+    }
+
+    private void handle(Socket socket) {
+
+        // closing the socket closes its streams, responses are flushed as they're written
+        try (Socket connection = socket) {
+            // only bounds reading the request, nothing is read while the job runs
+            connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+            if (!MessageDigest.isEqual(token, in.readUTF().getBytes(StandardCharsets.US_ASCII))) {
+                LOGGER.warn("Denied a request without the token from {}", connection.getRemoteSocketAddress());
+                metrics.counter(MetricRegistry.name("server", "requests-denied")).inc();
+                respond(out, STATUS_DENIED, 0, 0, "Wrong token, the server only takes jobs from the user running it");
+                return;
+            }
+            String command = in.readUTF();
+
+            if (command.equals(COMMAND_STOP)) {
+                respond(out, STATUS_OK, 0, 0, "Stopping");
+                serverSocket.close();
+                return;
+            }
+
+            if (!command.equals(COMMAND_RUN)) {
+                respond(out, STATUS_INVALID, 0, 0, "Unknown command " + command);
+                return;
+            }
+            Path baseDir = Paths.get(in.readUTF());
+            String[] args = new String[in.readInt()];
+
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            runJob(baseDir, args, out);
+        } catch (IOException e) {
+            LOGGER.warn("Lost the connection to a client", e);
+        }
+    }
+
+    private void runJob(Path baseDir, String[] args, DataOutputStream out) throws IOException {
+        DeobfuscatorOptions jobOptions;
+
+        try {
+            jobOptions = DeobfuscatorOptions.parse(args, baseDir);
+        } catch (IllegalArgumentException e) {
+            respond(out, STATUS_INVALID, 0, 0, e.getMessage());
+            return;
+        }
+
+        if (jobOptions.getServerPort() != 0) {
+            respond(out, STATUS_INVALID, 0, 0, "A job can't start a server");
+            return;
+        }
+        long start = System.nanoTime();
+        Job job = new Job(jobOptions);
+        Future<Integer> future = jobs.submit(job::run);
+
+        try {
+
+            // a job queued behind others only starts its clock once it runs, but waits no longer than it may run
+            if (!job.started.await(options.getJobTimeout(), TimeUnit.SECONDS)) {
+                // it may have started in the meantime, then it's abandoned like any job running late
+                job.abandon();
+                future.cancel(true);
+                LOGGER.warn("Dropped the job {}, no slot freed up in {} s", String.join(" ", args), options.getJobTimeout());
+                metrics.counter(MetricRegistry.name("server", "jobs-not-started")).inc();
+                respond(out, STATUS_TIMEOUT, millisSince(start), 0, "No free slot after " + options.getJobTimeout() + " s");
+                return;
+            }
+            long deadline = job.startTime + TimeUnit.SECONDS.toNanos(options.getJobTimeout());
+            int classCount = future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            metrics.counter(MetricRegistry.name("server", "jobs-ok")).inc();
+            respond(out, STATUS_OK, millisSince(start), classCount, "Deobfuscated into " + job.getOutput());
+        } catch (TimeoutException e) {
+            job.abandon();
+            future.cancel(true);
+            LOGGER.warn("Abandoned the job {} after {} s", String.join(" ", args), options.getJobTimeout());
+            metrics.counter(MetricRegistry.name("server", "jobs-timed-out")).inc();
+            respond(out, STATUS_TIMEOUT, millisSince(start), 0, "Timed out after " + options.getJobTimeout() + " s");
+        } catch (ExecutionException e) {
+            LOGGER.error("Job {} failed", String.join(" ", args), e.getCause());
+            metrics.counter(MetricRegistry.name("server", "jobs-failed")).inc();
+            respond(out, STATUS_FAILED, millisSince(start), 0, String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(out, STATUS_FAILED, millisSince(start), 0, "The server is stopping");
+        }
+    }
+
+    private static void respond(DataOutputStream out, String status, long millis, int classCount, String message) throws IOException {
+        out.writeUTF(status);
+        out.writeLong(millis);
+        out.writeInt(classCount);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    /**
+     * Replaces the token file with a new random token only the current user can read
+     *
+     * @return the token
+     */
+    private static byte[] writeToken(Path path) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        Files.deleteIfExists(path);
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(path.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(path.getParent());
+            Files.createFile(path);
+            File file = path.toFile();
+
+            if (!file.setReadable(false, false) || !file.setReadable(true, true) || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                throw new IOException("Could not make " + path + " readable by its owner only");
+            }
+        }
+        byte[] tokenBytes = hex.toString().getBytes(StandardCharsets.US_ASCII);
+        Files.write(path, tokenBytes);
+        return tokenBytes;
+    }
+
+    private static void closeQuietly(Socket socket) {
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close a connection", e);
+        }
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A single run, which deletes whatever it wrote if it was abandoned
+     */
+    private class Job {
+
+        private final DeobfuscatorOptions jobOptions;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile long startTime;
+        private volatile boolean abandoned;
+        private volatile JarPipeline jarPipeline;
+        private volatile BatchRunner batchRunner;
+
+        private Job(DeobfuscatorOptions jobOptions) {
+            this.jobOptions = jobOptions;
+        }
+
+        private Path getOutput() {
+            return jobOptions.getBatchPath() != null ? jobOptions.getBatchOutputDir() : jobOptions.getDeobJarPath();
+        }
+
+        private void abandon() {
+            abandoned = true;
+            JarPipeline jarPipeline = this.jarPipeline;
+            BatchRunner batchRunner = this.batchRunner;
+
+            if (jarPipeline != null) {
+                jarPipeline.cancel();
+            }
+
+            if (batchRunner != null) {
+                batchRunner.cancel();
+            }
+        }
+
+        /**
+         * @return the number of classes written
+         */
+        private int run() throws IOException {
+            startTime = System.nanoTime();
+            started.countDown();
+            MetricRegistry jobMetrics = new MetricRegistry();
+            ClassCache jobCache = jobOptions.isCache() ? cache : null;
+            TransformerPipeline jobPipeline = jobOptions.isPrune() == options.isPrune()
+                    ? transformerPipeline : Deobfuscator.createPipeline(jobOptions);
+            int classCount = 0;
+
+            try {
+
+                if (jobOptions.getBatchPath() != null) {
+                    BatchRunner batchRunner = new BatchRunner(jobPipeline, pool, jobCache, jobMetrics, jobOptions);
+                    this.batchRunner = batchRunner;
+
+                    if (abandoned) {
+                        batchRunner.cancel();
+                    }
+
+                    for (BatchRunner.JobResult result : batchRunner.run(jobOptions.getBatchPath(), jobOptions.getBatchOutputDir())) {
+                        classCount += result.getClassCount();
+                    }
+                } else {
+                    JarPipeline jarPipeline = new JarPipeline(jobPipeline, pool, jobCache, jobMetrics, jobOptions);
+                    this.jarPipeline = jarPipeline;
+
+                    if (abandoned) {
+                        jarPipeline.cancel();
+                    }
+                    classCount = jarPipeline.run(jobOptions.getJarPath(), jobOptions.getDeobJarPath()).getClassCount();
+                }
+            } finally {
+
+                if (abandoned && jobOptions.getBatchPath() == null) {
+                    Files.deleteIfExists(jobOptions.getDeobJarPath());
+                }
+
+                if (jobCache != null) {
+                    jobCache.trim();
+                }
+                Deobfuscator.report(jobMetrics, jobOptions);
+            }
+            return classCount;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package net.alterorb.deobfuscator;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Runs the first class-local stage of {@link JarPipeline} on a class and returns the serialized result.
+ * {@link CachingHeadStage} and {@link DeduplicatingHeadStage} skip it when an earlier result can be reused.
+ */
+@FunctionalInterface
+interface HeadStage {
+
+    /**
+     * @param bytes  the class as it was read from the jar
+     * @param output whether the result is written to the jar, rather than collected for whole-program stages
+     */
+    byte[] transform(DeobfuscationContext ctx, byte[] bytes, ClassReader classReader, boolean output);
+
+}
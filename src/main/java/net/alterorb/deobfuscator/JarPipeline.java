@@ -0,0 +1,660 @@
+package net.alterorb.deobfuscator;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassHierarchy;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.betterasm.CopyThroughWriter;
+import net.alterorb.betterasm.HierarchyClassWriter;
+import net.alterorb.betterasm.NameMapping;
+import net.alterorb.betterasm.jar.JarReader;
+import net.alterorb.betterasm.jar.EntryWriterThread;
+import net.alterorb.betterasm.jar.JarWriter;
+import net.alterorb.deobfuscator.cache.ClassCache;
+import net.alterorb.deobfuscator.cache.ClassDeduplicator;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Reads, transforms and writes a jar. Entries are inflated, parsed, transformed, serialized and compressed on the pool,
+ * and an {@link EntryWriterThread} appends them in a fixed order: the manifest, the classes in jar order, then every
+ * other resource. Signature files are dropped since the classes they sign are modified.
+ * <p>
+ * In streaming mode, or with a cache or deduplication, the first class-local stage runs on each class as it comes off
+ * the reader, see {@link HeadStage}. Whole-program stages force a barrier: every class is collected in a
+ * {@link ClassStore} before they run, after which a trailing class-local stage streams into the writer again. With
+ * pre-scanning, classes no transformer applies to are copied byte for byte, and in copy-through mode the methods no
+ * transformer changed are copied as they were read, see {@link CopyThroughWriter}.
+ * <p>
+ * With renaming, a {@link NameMapping} built from the declarations of every class and the mapping file renames
+ * classes as they're written, see {@link ClassOutput}. The phases are timed as {@code phase.read}, {@code phase.load},
+ * {@code phase.transform} and {@code phase.write}.
+ */
+@Log4j2
+public class JarPipeline {
+
+    private final TransformerPipeline transformerPipeline;
+    private final ForkJoinPool pool;
+    private final ClassCache cache;
+    private final ClassDeduplicator deduplicator;
+    private final MetricRegistry metrics;
+    private final boolean streaming;
+    private final boolean prescan;
+    private final boolean copyThrough;
+    private final boolean frames;
+    private final boolean rename;
+    private final Path mappingPath;
+    private final long classMemory;
+    private final boolean offHeap;
+    private final int inFlightEntries;
+    private final int compressionLevel;
+
+    private volatile boolean cancelled;
+    private volatile DeobfuscationContext running;
+
+    /**
+     * @param pool  the pool classes are processed on, or null to process everything on the calling thread
+     * @param cache the cache results of the first class-local stage are kept in, or null to always run it
+     */
+    public JarPipeline(TransformerPipeline transformerPipeline, ForkJoinPool pool, ClassCache cache, MetricRegistry metrics, DeobfuscatorOptions options) {
+        this(transformerPipeline, pool, cache, null, metrics, options);
+    }
+
+    /**
+     * @param deduplicator the transformed classes of the other jars of the batch, or null to transform every class
+     */
+    public JarPipeline(TransformerPipeline transformerPipeline, ForkJoinPool pool, ClassCache cache, ClassDeduplicator deduplicator, MetricRegistry metrics,
+                       DeobfuscatorOptions options) {
+        this.transformerPipeline = transformerPipeline;
+        this.pool = pool;
+        this.cache = cache;
+        this.deduplicator = deduplicator;
+        this.metrics = metrics;
+        this.streaming = options.isStreaming();
+        this.prescan = options.isPrescan();
+        this.copyThrough = options.isCopyThrough();
+        this.frames = options.isFrames();
+        this.rename = options.isRename();
+        this.mappingPath = options.getMappingPath();
+        this.classMemory = options.getClassMemory();
+        this.offHeap = options.isOffHeap();
+        this.inFlightEntries = options.getThreads() * 4;
+        this.compressionLevel = options.getCompressionLevel();
+    }
+
+    /**
+     * Abandons the run, from any thread and even before it started. The classes that haven't been processed yet are
+     * skipped and the run fails with a {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+        DeobfuscationContext ctx = running;
+
+        if (ctx != null) {
+            ctx.setCancelled(true);
+        }
+    }
+
+    public DeobfuscationContext run(Path jarPath, Path deobJarPath) throws IOException {
+        List<TransformerPipeline.Stage> stages = transformerPipeline.getStages();
+        boolean streamHead = streaming || cache != null || deduplicator != null;
+        int headStages = streamHead && !stages.isEmpty() && stages.get(0).isClassLocal() ? 1 : 0;
+        int tailStages = streaming && stages.size() > headStages && stages.get(stages.size() - 1).isClassLocal() ? 1 : 0;
+        boolean barrier = !streamHead || headStages + tailStages < stages.size();
+
+        DeobfuscationContext ctx = new DeobfuscationContext();
+        ctx.setMetrics(metrics);
+        running = ctx;
+
+        if (cancelled) {
+            ctx.setCancelled(true);
+        }
+        LOGGER.info("Obfuscated jar location={}", jarPath);
+        long runStart = System.nanoTime();
+        long phaseStart = runStart;
+
+        JarReader jarReader = JarReader.open(jarPath);
+
+        try (EntryWriterThread writer = new EntryWriterThread(new JarWriter(new FileOutputStream(deobJarPath.toFile())), inFlightEntries)) {
+            List<JarReader.Entry> classEntries = new ArrayList<>();
+            List<JarReader.Entry> leadingResources = new ArrayList<>();
+            List<JarReader.Entry> trailingResources = new ArrayList<>();
+            Map<String, Long> entryTimes = new HashMap<>();
+            long defaultTime = jarPath.toFile().lastModified();
+
+            sortEntries(jarReader, classEntries, leadingResources, trailingResources, entryTimes);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(classEntries.size());
+            phaseStart = endPhase("read", phaseStart);
+            int classBase = leadingResources.size();
+            String mainClassName = findMainClass(classEntries);
+
+            LOGGER.info("Determined that the class {} is the main class name", mainClassName);
+            ctx.setTargetJarMainClass(mainClassName);
+            List<NameMapping.ClassDeclaration> declarations = rename ? readDeclarations(jarReader, classEntries) : null;
+            NameMapping nameMapping = rename ? NameMapping.read(mappingPath(deobJarPath)) : null;
+
+            if (nameMapping != null) {
+                nameMapping.complete(declarations);
+                ctx.setNameMapping(nameMapping);
+                LOGGER.info("Renaming {} classes and members, generated {} new names", nameMapping.getRenamedCount(),
+                        nameMapping.getGeneratedCount());
+            }
+
+            for (int i = 0; i < leadingResources.size(); i++) {
+                tasks.add(submitResource(ctx, writer, i, jarReader, leadingResources.get(i)));
+            }
+
+            if (frames && nameMapping != null) {
+                ctx.setClassHierarchy(renamedHierarchy(declarations, nameMapping));
+            } else if (frames) {
+                ctx.setClassHierarchy(new ClassHierarchy(classLookup(jarReader, classEntries)));
+            }
+            TransformerPipeline.Stage head = headStages > 0 ? stages.get(0) : null;
+            HeadStage sharedHead = (headCtx, bytes, classReader, output) -> transform(headCtx, head, classReader, output);
+            DeduplicatingHeadStage deduplication = null;
+
+            if (head != null && cache != null) {
+                // cached classes are renamed and get their frames once they're written
+                byte[] fingerprint = CachingHeadStage.fingerprint(head, mainClassName, copyThrough, frames && nameMapping == null);
+                sharedHead = new CachingHeadStage(cache, fingerprint, sharedHead);
+            }
+
+            if (head != null && deduplicator != null) {
+                sharedHead = deduplication = new DeduplicatingHeadStage(deduplicator, head, classEntries, sharedHead);
+            }
+            HeadStage shared = head != null && (cache != null || deduplicator != null) ? sharedHead : null;
+
+            if (headStages > 0) {
+                LOGGER.info("Streaming {} classes through {}", classEntries.size(), stages.get(0).describe());
+            }
+
+            if (!barrier) {
+                LOGGER.info("Writing classes to {}", deobJarPath);
+            }
+            ClassStore classStore = barrier ? new ClassStore(classEntries.size(), ClassOutput.PARSING_OPTIONS, classMemory, offHeap) : null;
+            byte[][] copiedClasses = new byte[classEntries.size()][];
+            LongAdder copied = new LongAdder();
+            int classCount = classEntries.size();
+
+            for (int i = 0; i < classEntries.size() && !writer.hasFailed() && !ctx.isCancelled(); i++) {
+                int index = i;
+                JarReader.Entry entry = classEntries.get(i);
+
+                if (barrier) {
+                    tasks.add(submit(() -> {
+                        ctx.checkCancelled();
+                        byte[] bytes = read(jarReader, entry);
+                        ClassReader classReader = new ClassReader(bytes);
+
+                        if (prescan && !transformerPipeline.isApplicable(ctx, ConstantPoolScan.of(classReader))) {
+                            copiedClasses[index] = bytes;
+                            copied.increment();
+                        } else if (shared != null) {
+                            classStore.put(index, shared.transform(ctx, bytes, classReader, false), copyThrough);
+                        } else if (head == null) {
+                            classStore.put(index, bytes, copyThrough);
+                        } else {
+                            classStore.put(index, load(ctx, head, classReader), copyThrough ? bytes : null);
+                        }
+                    }));
+                } else {
+                    writer.acquire();
+                    tasks.add(submit(() -> writer.submit(classBase + index, () -> {
+                        ctx.checkCancelled();
+                        String name = entryName(ctx, entry.getName());
+
+                        if (!prescan && shared == null) {
+                            byte[] bytes = transform(ctx, head, classReader(jarReader, entry), true);
+                            return JarWriter.compress(name, bytes, compressionLevel, entry.getTime());
+                        }
+                        byte[] bytes = read(jarReader, entry);
+                        ClassReader classReader = new ClassReader(bytes);
+
+                        if (prescan && !transformerPipeline.isApplicable(ctx, ConstantPoolScan.of(classReader))) {
+                            copied.increment();
+                            return JarWriter.compress(name, renameCopied(ctx, bytes), compressionLevel, entry.getTime());
+                        }
+                        bytes = shared != null ? shared.transform(ctx, bytes, classReader, true) : transform(ctx, head, classReader, true);
+                        return JarWriter.compress(name, bytes, compressionLevel, entry.getTime());
+                    })));
+                }
+            }
+            tasks.forEach(ForkJoinTask::join);
+            tasks.clear();
+            ctx.checkCancelled();
+
+            if (prescan) {
+                LOGGER.info("Copied {} classes no transformer applies to as they are", copied.sum());
+                DeobfuscatorMetrics.counter(ctx, this, "classes-copied").inc(copied.sum());
+            }
+
+            if (deduplication != null) {
+                LOGGER.info("Reused {} classes transformed for other jars of the batch", deduplication.getReused());
+                ctx.setDeduplicatedCount(deduplication.getReused());
+            }
+
+            if (head != null) {
+                head.complete(ctx);
+            }
+            phaseStart = endPhase("load", phaseStart);
+
+            if (barrier) {
+                classStore.compact();
+                ctx.setClassStore(classStore);
+                LOGGER.info("Loaded {} classes, starting to run the transformers...", classStore.size());
+
+                transformerPipeline.run(ctx, pool, headStages, stages.size() - tailStages);
+                phaseStart = endPhase("transform", phaseStart);
+                ClassStore transformedClasses = ctx.getClassStore();
+
+                if (frames) {
+                    ClassVisitor hierarchyVisitor = hierarchyVisitor(ctx.getClassHierarchy());
+
+                    // the hierarchy holds the renamed classes, the collected ones are only renamed as they're written
+                    if (nameMapping != null) {
+                        hierarchyVisitor = new ClassRemapper(hierarchyVisitor, nameMapping);
+                    }
+
+                    for (int i = 0; i < transformedClasses.size(); i++) {
+                        transformedClasses.accept(i, hierarchyVisitor);
+                    }
+                }
+                int nextNode = 0;
+                classCount = 0;
+
+                if (tailStages > 0) {
+                    LOGGER.info("Streaming {} classes through {}", transformedClasses.size(), stages.get(stages.size() - 1).describe());
+                }
+                LOGGER.info("Writing classes to {}", deobJarPath);
+
+                // copied classes keep their place in the jar, transformed ones fill the other places in order
+                for (int i = 0; (i < copiedClasses.length || nextNode < transformedClasses.size()) && !writer.hasFailed() && !ctx.isCancelled(); i++) {
+                    int index = classBase + classCount;
+
+                    if (i < copiedClasses.length && copiedClasses[i] != null) {
+                        JarReader.Entry entry = classEntries.get(i);
+                        byte[] bytes = copiedClasses[i];
+
+                        writer.acquire();
+                        tasks.add(submit(() -> writer.submit(index, () -> {
+                            ctx.checkCancelled();
+                            String name = entryName(ctx, entry.getName());
+                            return JarWriter.compress(name, renameCopied(ctx, bytes), compressionLevel, entry.getTime());
+                        })));
+                        classCount++;
+                        continue;
+                    }
+
+                    if (nextNode == transformedClasses.size()) {
+                        continue;
+                    }
+                    int storeIndex = nextNode++;
+
+                    writer.acquire();
+                    tasks.add(submit(() -> writer.submit(index, () -> {
+                        ctx.checkCancelled();
+                        ClassNode classNode = transformedClasses.remove(storeIndex);
+                        String name = classNode.name + ".class";
+                        byte[] bytes = tailStages > 0 ? transform(ctx, stages.get(stages.size() - 1), classNode) : serialize(ctx, classNode, true);
+                        return JarWriter.compress(entryName(ctx, name), bytes, compressionLevel, entryTimes.getOrDefault(name, defaultTime));
+                    })));
+                    classCount++;
+                }
+                tasks.forEach(ForkJoinTask::join);
+                tasks.clear();
+                ctx.checkCancelled();
+
+                if (tailStages > 0) {
+                    stages.get(stages.size() - 1).complete(ctx);
+                }
+                ctx.setClassStore(null);
+                recordClassStore(ctx, transformedClasses);
+            }
+
+            for (int i = 0; i < trailingResources.size() && !writer.hasFailed(); i++) {
+                tasks.add(submitResource(ctx, writer, classBase + classCount + i, jarReader, trailingResources.get(i)));
+            }
+            tasks.forEach(ForkJoinTask::join);
+            ctx.checkCancelled();
+            writer.finish();
+            ctx.setClassCount(classCount);
+
+            if (frames && !ctx.getClassHierarchy().getUnresolvedTypes().isEmpty()) {
+                LOGGER.warn("Frames were computed as if these types, found neither in the jar nor in the JDK, extended java/lang/Object: {}",
+                        ctx.getClassHierarchy().getUnresolvedTypes());
+            }
+            endPhase("write", phaseStart);
+        }
+
+        if (ctx.getNameMapping() != null) {
+            ctx.getNameMapping().write(mappingPath(deobJarPath));
+            ctx.setTargetJarMainClass(ctx.getNameMapping().map(ctx.getTargetJarMainClass()));
+            LOGGER.info("Mapping written to {}", mappingPath(deobJarPath));
+        }
+        endPhase("total", runStart);
+        return ctx;
+    }
+
+    /**
+     * Records the time spent in a phase, and returns the start of the next one
+     */
+    private long endPhase(String phase, long phaseStart) {
+        long end = System.nanoTime();
+        DeobfuscatorMetrics.phase(metrics, phase).update(end - phaseStart, TimeUnit.NANOSECONDS);
+        return end;
+    }
+
+    private ForkJoinTask<?> submit(Runnable runnable) {
+
+        if (pool == null) {
+            ForkJoinTask<?> task = ForkJoinTask.adapt(runnable);
+            task.invoke();
+            return task;
+        }
+        return pool.submit(runnable);
+    }
+
+    private ForkJoinTask<?> submitResource(DeobfuscationContext ctx, EntryWriterThread writer, int index, JarReader jarReader,
+                                           JarReader.Entry entry) {
+        writer.acquire();
+        return submit(() -> writer.submit(index, () -> {
+            byte[] bytes = entry.isDirectory() ? new byte[0] : jarReader.read(entry);
+
+            if (ctx.getNameMapping() != null && entry.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+                bytes = renameMainClass(bytes, ctx.getNameMapping());
+            }
+            return JarWriter.compress(entry.getName(), bytes, compressionLevel, entry.getTime());
+        }));
+    }
+
+    /**
+     * The mapping is kept next to the output jar unless a file was given
+     */
+    private Path mappingPath(Path deobJarPath) {
+
+        if (mappingPath != null) {
+            return mappingPath;
+        }
+        String jarName = deobJarPath.getFileName().toString();
+        String baseName = jarName.endsWith(".jar") ? jarName.substring(0, jarName.length() - ".jar".length()) : jarName;
+        return deobJarPath.resolveSibling(baseName + ".mapping");
+    }
+
+    /**
+     * Reads the declarations of every class, in jar order
+     */
+    private List<NameMapping.ClassDeclaration> readDeclarations(JarReader jarReader, List<JarReader.Entry> classEntries) {
+        NameMapping.ClassDeclaration[] declarations = new NameMapping.ClassDeclaration[classEntries.size()];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(classEntries.size());
+
+        for (int i = 0; i < classEntries.size(); i++) {
+            int index = i;
+            tasks.add(submit(() -> declarations[index] = NameMapping.ClassDeclaration.of(classReader(jarReader, classEntries.get(index)))));
+        }
+        tasks.forEach(ForkJoinTask::join);
+        return Arrays.asList(declarations);
+    }
+
+    /**
+     * @return a hierarchy of the classes of the jar under their new names
+     */
+    private static ClassHierarchy renamedHierarchy(List<NameMapping.ClassDeclaration> declarations, NameMapping nameMapping) {
+        ClassHierarchy classHierarchy = new ClassHierarchy(name -> null);
+
+        for (NameMapping.ClassDeclaration declaration : declarations) {
+            classHierarchy.add(declaration.getAccess(), nameMapping.map(declaration.getName()), nameMapping.map(declaration.getSuperName()),
+                    nameMapping.mapTypes(declaration.getInterfaces()));
+        }
+        return classHierarchy;
+    }
+
+    /**
+     * @return the name of the entry a class is written to
+     */
+    private static String entryName(DeobfuscationContext ctx, String entryName) {
+
+        if (ctx.getNameMapping() == null) {
+            return entryName;
+        }
+        String className = entryName.substring(0, entryName.length() - ".class".length());
+        return ctx.getNameMapping().map(className) + ".class";
+    }
+
+    /**
+     * Renames a class copied as it is, keeping its frames and debug information
+     */
+    private static byte[] renameCopied(DeobfuscationContext ctx, byte[] bytes) {
+
+        if (ctx.getNameMapping() == null) {
+            return bytes;
+        }
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(bytes).accept(new ClassRemapper(writer, ctx.getNameMapping()), 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Points the Main-Class attribute of the manifest to the new name of its class, if it was renamed
+     */
+    private static byte[] renameMainClass(byte[] bytes, NameMapping nameMapping) throws IOException {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(bytes));
+        String mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+
+        if (mainClass == null) {
+            return bytes;
+        }
+        String className = mainClass.replace('.', '/');
+        String newName = nameMapping.map(className);
+
+        if (newName.equals(className)) {
+            return bytes;
+        }
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, newName.replace('/', '.'));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        manifest.write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Splits the entries of the jar into classes, the manifest and its directory which have to come first, and every
+     * other resource. Signature files are left out entirely.
+     */
+    private static void sortEntries(JarReader jarReader, List<JarReader.Entry> classEntries, List<JarReader.Entry> leadingResources,
+                                    List<JarReader.Entry> trailingResources, Map<String, Long> entryTimes) {
+
+        for (JarReader.Entry entry : jarReader.getEntries()) {
+            String name = entry.getName();
+
+            if (entry.isClass()) {
+                classEntries.add(entry);
+                entryTimes.put(name, entry.getTime());
+            } else if (name.equals("META-INF/") || name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+                leadingResources.add(entry);
+            } else if (!isSignatureFile(name)) {
+                trailingResources.add(entry);
+            }
+        }
+        leadingResources.sort(Comparator.comparing(entry -> !entry.isDirectory()));
+    }
+
+    private static boolean isSignatureFile(String name) {
+        String upperCaseName = name.toUpperCase();
+
+        if (!upperCaseName.startsWith("META-INF/") || upperCaseName.indexOf('/', "META-INF/".length()) != -1) {
+            return false;
+        }
+        return upperCaseName.endsWith(".SF") || upperCaseName.endsWith(".RSA") || upperCaseName.endsWith(".DSA")
+                || upperCaseName.endsWith(".EC") || upperCaseName.startsWith("META-INF/SIG-");
+    }
+
+    private static String findMainClass(List<JarReader.Entry> classEntries) {
+
+        for (JarReader.Entry entry : classEntries) {
+            String className = entry.getName().substring(0, entry.getName().length() - ".class".length());
+
+            if (className.length() > 3) {
+                return className;
+            }
+        }
+        throw new RuntimeException("Could not determine the main class");
+    }
+
+    private static byte[] read(JarReader jarReader, JarReader.Entry entry) {
+
+        try {
+            return jarReader.read(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + entry.getName(), e);
+        }
+    }
+
+    private static ClassReader classReader(JarReader jarReader, JarReader.Entry entry) {
+
+        try {
+            return jarReader.classReader(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + entry.getName(), e);
+        }
+    }
+
+    /**
+     * @param keepSource whether the tree keeps the reader, for it to be written with {@link CopyThroughWriter}
+     */
+    private static ClassNode parse(ClassReader classReader, boolean keepSource) {
+        ClassNode classNode = new ClassNode();
+        classReader.accept(classNode, ClassOutput.PARSING_OPTIONS);
+
+        if (keepSource) {
+            classNode.setSource(classReader);
+        }
+        return classNode;
+    }
+
+    /**
+     * Parses a class, running the head stage on it if there is one
+     */
+    private ClassNode load(DeobfuscationContext ctx, TransformerPipeline.Stage head, ClassReader classReader) {
+
+        if (head == null) {
+            return parse(classReader, copyThrough);
+        }
+        ClassNode classNode = head.process(ctx, classReader, ClassOutput.PARSING_OPTIONS);
+
+        if (copyThrough) {
+            classNode.setSource(classReader);
+        }
+        return classNode;
+    }
+
+    /**
+     * @param output whether the class is written to the jar, rather than collected for whole-program stages
+     */
+    private byte[] transform(DeobfuscationContext ctx, TransformerPipeline.Stage stage, ClassReader classReader, boolean output) {
+
+        if (copyThrough && stage.endsWithTree()) {
+            return serialize(ctx, load(ctx, stage, classReader), output);
+        }
+        boolean computeFrames = ClassOutput.computesFrames(ctx, output) && HierarchyClassWriter.needsFrames(classReader);
+        ClassWriter writer = ClassOutput.newWriter(ctx, null, computeFrames);
+        stage.process(ctx, classReader, ClassOutput.PARSING_OPTIONS, ClassOutput.renaming(ctx, writer, output));
+        return writer.toByteArray();
+    }
+
+    /**
+     * Runs the tail stage on a class and returns it as it's written to the jar
+     */
+    private byte[] transform(DeobfuscationContext ctx, TransformerPipeline.Stage stage, ClassNode classNode) {
+
+        if (copyThrough && stage.endsWithTree()) {
+            return serialize(ctx, stage.process(ctx, classNode), true);
+        }
+        boolean computeFrames = ClassOutput.computesFrames(ctx, true) && HierarchyClassWriter.needsFrames(classNode);
+        ClassWriter writer = ClassOutput.newWriter(ctx, null, computeFrames);
+        stage.process(ctx, classNode, ClassOutput.renaming(ctx, writer, true));
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param output whether the class is written to the jar, rather than collected for whole-program stages
+     */
+    private byte[] serialize(DeobfuscationContext ctx, ClassNode classNode, boolean output) {
+        boolean computeFrames = ClassOutput.computesFrames(ctx, output) && HierarchyClassWriter.needsFrames(classNode);
+
+        if (!copyThrough || output && ctx.getNameMapping() != null) {
+            ClassWriter writer = ClassOutput.newWriter(ctx, null, computeFrames);
+            classNode.accept(ClassOutput.renaming(ctx, writer, output));
+            return writer.toByteArray();
+        }
+        CopyThroughWriter writer = new CopyThroughWriter(classNode, source -> ClassOutput.newWriter(ctx, source, computeFrames));
+        byte[] bytes = writer.toByteArray();
+
+        DeobfuscatorMetrics.counter(ctx, this, "methods-copied").inc(writer.getCopiedMethods());
+        DeobfuscatorMetrics.counter(ctx, this, "methods-written").inc(writer.getWrittenMethods());
+        return bytes;
+    }
+
+    /**
+     * @return a visitor adding the classes it visits to the hierarchy
+     */
+    private static ClassVisitor hierarchyVisitor(ClassHierarchy classHierarchy) {
+        return new ClassVisitor(Opcodes.ASM7) {
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                classHierarchy.add(access, name, superName, interfaces);
+            }
+        };
+    }
+
+    private void recordClassStore(DeobfuscationContext ctx, ClassStore classStore) {
+        LOGGER.info("Inflated classes into trees {} times, serialized {} modified trees again, trees peaked at about {} KB",
+                classStore.getInflations(), classStore.getWriteBacks(), classStore.getPeakTreeBytes() >> 10);
+
+        DeobfuscatorMetrics.counter(ctx, classStore, "inflations").inc(classStore.getInflations());
+        DeobfuscatorMetrics.counter(ctx, classStore, "write-backs").inc(classStore.getWriteBacks());
+        metrics.histogram(MetricRegistry.name(ClassStore.class.getSimpleName(), "peak-tree-kb")).update(classStore.getPeakTreeBytes() >> 10);
+    }
+
+    /**
+     * Looks up the classes of the jar by name, reading them from the jar again
+     */
+    private static Function<String, ClassReader> classLookup(JarReader jarReader, List<JarReader.Entry> classEntries) {
+        Map<String, JarReader.Entry> entriesByName = new HashMap<>();
+
+        for (JarReader.Entry entry : classEntries) {
+            entriesByName.put(entry.getName().substring(0, entry.getName().length() - ".class".length()), entry);
+        }
+        return name -> {
+            JarReader.Entry entry = entriesByName.get(name);
+            return entry == null ? null : classReader(jarReader, entry);
+        };
+    }
+}
@@ -0,0 +1,352 @@
+package net.alterorb.deobfuscator;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.ClassSource;
+import net.alterorb.deobfuscator.transformer.ClassTransformer;
+import net.alterorb.deobfuscator.transformer.StreamingTransformer;
+import net.alterorb.deobfuscator.transformer.Transformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a list of transformers in order, grouping consecutive {@link ClassTransformer}s and
+ * {@link StreamingTransformer}s into a single stage so each class goes through all of them in one go. Class stages
+ * can be fanned out over a {@link ForkJoinPool}, whole-program transformers always run on the calling thread and act
+ * as a barrier between stages.
+ * <p>
+ * Within a class stage, consecutive streaming transformers share one pass from a reader or tree to the next visitor,
+ * and a tree is only built for the tree transformers. A stage that starts from a reader and ends in streaming
+ * transformers never builds a tree at all.
+ * <p>
+ * Every transformer is timed into the metrics of the context, class-local ones once per class. Streaming
+ * transformers sharing a pass are timed together as {@code streaming-pass.time}.
+ */
+@Log4j2
+public class TransformerPipeline {
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    public TransformerPipeline(List<Transformer> transformers) {
+        List<Transformer> classTransformers = new ArrayList<>();
+
+        for (Transformer transformer : transformers) {
+
+            if (transformer instanceof ClassTransformer || transformer instanceof StreamingTransformer) {
+                classTransformers.add(transformer);
+                continue;
+            }
+
+            if (!classTransformers.isEmpty()) {
+                stages.add(new Stage(classTransformers, null));
+                classTransformers = new ArrayList<>();
+            }
+            stages.add(new Stage(Collections.emptyList(), transformer));
+        }
+
+        if (!classTransformers.isEmpty()) {
+            stages.add(new Stage(classTransformers, null));
+        }
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * @return whether any transformer of any stage could change the scanned class
+     */
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+
+        for (Stage stage : stages) {
+
+            for (Transformer transformer : stage.getTransformers()) {
+
+                if (transformer.isApplicable(ctx, scan)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs every stage against the classes of the context.
+     *
+     * @param pool the pool class stages are fanned out on, or null to run everything on the calling thread
+     */
+    public void run(DeobfuscationContext ctx, ForkJoinPool pool) {
+        run(ctx, pool, 0, stages.size());
+    }
+
+    /**
+     * Runs the stages from {@code fromStage} (inclusive) to {@code toStage} (exclusive) against the classes of the context.
+     */
+    public void run(DeobfuscationContext ctx, ForkJoinPool pool, int fromStage, int toStage) {
+
+        for (Stage stage : stages.subList(fromStage, toStage)) {
+            ctx.checkCancelled();
+
+            if (stage.programTransformer != null) {
+                LOGGER.info("Transforming classes with {}", stage.describe());
+
+                DeobfuscatorMetrics.transformerTimer(ctx.getMetrics(), stage.programTransformer).time(() -> stage.programTransformer.process(ctx));
+                stage.complete(ctx);
+                continue;
+            }
+            LOGGER.info("Transforming classes with {}", stage.describe());
+            ClassStore classStore = ctx.getClassStore();
+
+            if (pool == null) {
+
+                for (int i = 0; i < classStore.size(); i++) {
+                    ctx.checkCancelled();
+                    classStore.update(i, classNode -> stage.process(ctx, classNode));
+                }
+            } else {
+                // transformed classes take the place of the originals, so the store keeps its order
+                pool.invoke(new ClassStageTask(stage, ctx, classStore, 0, classStore.size()));
+            }
+            stage.complete(ctx);
+        }
+    }
+
+    public static class Stage {
+
+        private final List<Transformer> classTransformers;
+        private final Transformer programTransformer;
+        private final List<List<Transformer>> segments = new ArrayList<>();
+
+        private Stage(List<Transformer> classTransformers, Transformer programTransformer) {
+            this.classTransformers = classTransformers;
+            this.programTransformer = programTransformer;
+            List<Transformer> segment = null;
+
+            for (Transformer transformer : classTransformers) {
+
+                if (segment == null || isStreaming(segment) != transformer instanceof StreamingTransformer) {
+                    segment = new ArrayList<>();
+                    segments.add(segment);
+                }
+                segment.add(transformer);
+            }
+        }
+
+        public boolean isClassLocal() {
+            return programTransformer == null;
+        }
+
+        public List<Transformer> getTransformers() {
+
+            if (programTransformer != null) {
+                return Collections.singletonList(programTransformer);
+            }
+            return Collections.unmodifiableList(classTransformers);
+        }
+
+        /**
+         * @return whether the last transformers of the stage work on a tree, which the stage then ends with
+         */
+        public boolean endsWithTree() {
+            return !segments.isEmpty() && !isStreaming(segments.get(segments.size() - 1));
+        }
+
+        /**
+         * Runs every transformer of a class-local stage against a single class
+         *
+         * @return the transformed class, which is a new tree when the stage ends with streaming transformers
+         */
+        public ClassNode process(DeobfuscationContext ctx, ClassNode classNode) {
+            return process(ctx, null, 0, classNode, null);
+        }
+
+        /**
+         * Runs every transformer of a class-local stage against a single class, and visits the result with the output
+         */
+        public void process(DeobfuscationContext ctx, ClassNode classNode, ClassVisitor output) {
+            process(ctx, null, 0, classNode, output);
+        }
+
+        /**
+         * Runs every transformer of a class-local stage against a class as it's read
+         *
+         * @return the transformed class
+         */
+        public ClassNode process(DeobfuscationContext ctx, ClassReader classReader, int parsingOptions) {
+            return process(ctx, classReader, parsingOptions, null, null);
+        }
+
+        /**
+         * Runs every transformer of a class-local stage against a class as it's read, and visits the result with the
+         * output. No tree is built unless the stage has tree transformers.
+         */
+        public void process(DeobfuscationContext ctx, ClassReader classReader, int parsingOptions, ClassVisitor output) {
+            process(ctx, classReader, parsingOptions, null, output);
+        }
+
+        /**
+         * Takes the class either from the reader or from the tree, and returns it as a tree when there's no output
+         */
+        private ClassNode process(DeobfuscationContext ctx, ClassReader classReader, int parsingOptions, ClassNode classNode, ClassVisitor output) {
+            MetricRegistry metrics = ctx.getMetrics();
+            String className = classReader != null ? classReader.getClassName() : classNode.name;
+            long stageStart = System.nanoTime();
+            long start = stageStart;
+
+            for (int i = 0; i < segments.size(); i++) {
+                List<Transformer> segment = segments.get(i);
+
+                if (!isStreaming(segment)) {
+
+                    if (classNode == null) {
+                        classNode = new ClassNode();
+                        classReader.accept(classNode, parsingOptions);
+                        classReader = null;
+                    }
+
+                    for (Transformer transformer : segment) {
+                        ((ClassTransformer) transformer).process(ctx, classNode);
+                        long end = System.nanoTime();
+
+                        DeobfuscatorMetrics.transformerTimer(metrics, transformer).update(end - start, TimeUnit.NANOSECONDS);
+                        start = end;
+                    }
+                    continue;
+                }
+                ClassNode input = classNode;
+                ClassSource source = classReader != null ? readerSource(classReader, parsingOptions) : input::accept;
+                ClassNode transformed = i == segments.size() - 1 && output != null ? null : new ClassNode();
+                ClassVisitor chain = transformed != null ? transformed : output;
+
+                for (int j = segment.size() - 1; j >= 0; j--) {
+                    chain = visitor(ctx, (StreamingTransformer<?>) segment.get(j), source, chain);
+                }
+                source.accept(chain);
+                long end = System.nanoTime();
+
+                DeobfuscatorMetrics.streamingPassTimer(metrics).update(end - start, TimeUnit.NANOSECONDS);
+                start = end;
+                trackChanges(segment, input, transformed);
+                classReader = null;
+                classNode = transformed;
+            }
+            DeobfuscatorMetrics.recordClass(metrics, className, start - stageStart);
+
+            if (output == null) {
+
+                if (classNode == null) {
+                    classNode = new ClassNode();
+                    classReader.accept(classNode, parsingOptions);
+                }
+                return classNode;
+            }
+
+            if (classNode != null) {
+                classNode.accept(output);
+            } else if (classReader != null) {
+                classReader.accept(output, parsingOptions);
+            }
+            return null;
+        }
+
+        private static ClassSource readerSource(ClassReader classReader, int parsingOptions) {
+            return visitor -> classReader.accept(visitor, parsingOptions);
+        }
+
+        private static <S> ClassVisitor visitor(DeobfuscationContext ctx, StreamingTransformer<S> transformer, ClassSource source, ClassVisitor next) {
+            return transformer.visitor(ctx, transformer.prepare(ctx, source), next);
+        }
+
+        /**
+         * A tree built by a streaming pass keeps the changes made to the class before it, and has every method marked
+         * dirty unless the transformers of the pass reported what they changed
+         */
+        private static void trackChanges(List<Transformer> segment, ClassNode input, ClassNode transformed) {
+
+            if (transformed == null) {
+                return;
+            }
+
+            if (input != null) {
+                transformed.inheritChanges(input);
+            }
+
+            for (Transformer transformer : segment) {
+
+                if (!((StreamingTransformer<?>) transformer).reportsChanges()) {
+                    transformed.markAllDirty();
+                    return;
+                }
+            }
+        }
+
+        private static boolean isStreaming(List<Transformer> segment) {
+            return segment.get(0) instanceof StreamingTransformer;
+        }
+
+        public void complete(DeobfuscationContext ctx) {
+
+            if (programTransformer != null) {
+                programTransformer.complete(ctx);
+            } else {
+                classTransformers.forEach(transformer -> transformer.complete(ctx));
+            }
+        }
+
+        public String describe() {
+
+            if (programTransformer != null) {
+                return programTransformer.getClass().getSimpleName();
+            }
+            return classTransformers.stream()
+                                    .map(transformer -> transformer.getClass().getSimpleName())
+                                    .collect(Collectors.joining(", "));
+        }
+    }
+
+    private static class ClassStageTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Stage stage;
+        private final DeobfuscationContext ctx;
+        private final ClassStore classStore;
+        private final int from;
+        private final int to;
+
+        private ClassStageTask(Stage stage, DeobfuscationContext ctx, ClassStore classStore, int from, int to) {
+            this.stage = stage;
+            this.ctx = ctx;
+            this.classStore = classStore;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from <= 1) {
+
+                if (from < to) {
+                    ctx.checkCancelled();
+                    classStore.update(from, classNode -> stage.process(ctx, classNode));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ClassStageTask(stage, ctx, classStore, from, middle), new ClassStageTask(stage, ctx, classStore, middle, to));
+        }
+    }
+}
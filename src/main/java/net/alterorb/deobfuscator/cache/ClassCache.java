@@ -0,0 +1,260 @@
+package net.alterorb.deobfuscator.cache;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of transformed classes, keyed by a hash of the original class bytes and a fingerprint of
+ * everything the transformation depends on. Entries are files named after their key, written atomically so
+ * concurrent runs can share a directory. Reads refresh the modification time of an entry, which is what
+ * {@link #trim()} and {@link #close()} evict by once the cache grows past its size. They also delete the temporary
+ * files a crashed run left behind.
+ * <p>
+ * Every method except {@link #close()} is thread-safe. Failing to read or write the cache never fails a run,
+ * the class is simply transformed again.
+ */
+@Log4j2
+public class ClassCache implements AutoCloseable {
+
+    private static final String SUFFIX = ".class";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Temporary files are only deleted once they're this old, so entries concurrent runs are writing are left alone
+     */
+    private static final long STALE_TEMPORARY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Path directory;
+    private final long maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize the size in bytes the cache is trimmed down to
+     */
+    public ClassCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the cache directory " + directory, e);
+        }
+    }
+
+    /**
+     * Hashes a description of the transformation, used as the fingerprint of every key it produces
+     */
+    public static byte[] fingerprint(String description) {
+        return DIGESTS.get().digest(description.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hashes a class along with the fingerprint of its transformation
+     */
+    public static byte[] hash(byte[] fingerprint, byte[] classBytes) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(fingerprint);
+        digest.update(classBytes);
+        return digest.digest();
+    }
+
+    public String key(byte[] fingerprint, byte[] classBytes) {
+        byte[] hash = hash(fingerprint, classBytes);
+        char[] key = new char[hash.length * 2];
+
+        for (int i = 0; i < hash.length; i++) {
+            key[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            key[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(key);
+    }
+
+    /**
+     * @return the cached bytes for the key, or null if there are none
+     */
+    public byte[] get(String key) {
+        Path path = path(key);
+
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.increment();
+            return bytes;
+        } catch (NoSuchFileException e) {
+            misses.increment();
+        } catch (IOException e) {
+            LOGGER.warn("Could not read cache entry {}", path, e);
+            failures.increment();
+            misses.increment();
+        }
+        return null;
+    }
+
+    public void put(String key, byte[] bytes) {
+        Path path = path(key);
+        Path temporaryPath = null;
+
+        try {
+            Files.createDirectories(path.getParent());
+            temporaryPath = Files.createTempFile(path.getParent(), key, TEMPORARY_SUFFIX);
+
+            Files.write(temporaryPath, bytes);
+            Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            stores.increment();
+        } catch (IOException e) {
+            LOGGER.warn("Could not write cache entry {}", path, e);
+            failures.increment();
+
+            if (temporaryPath != null) {
+                deleteTemporary(temporaryPath);
+            }
+        }
+    }
+
+    private static void deleteTemporary(Path temporaryPath) {
+
+        try {
+            Files.deleteIfExists(temporaryPath);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete the temporary file {}, it's deleted once the cache is trimmed", temporaryPath, e);
+        }
+    }
+
+    /**
+     * Records a class that was transformed without going through the cache, since its result depends on more than the
+     * key covers
+     */
+    public void recordUncacheable() {
+        uncacheable.increment();
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    /**
+     * Trims the cache, then logs the statistics of the run
+     */
+    @Override
+    public void close() {
+        trim();
+        LOGGER.info("Class cache had {} hits and {} misses, stored {} classes and evicted {}, {} uncacheable, {} failures",
+                hits.sum(), misses.sum(), stores.sum(), evictions.sum(), uncacheable.sum(), failures.sum());
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits its size again, for processes that keep it open
+     * across many runs
+     */
+    public void trim() {
+
+        try {
+            evictions.add(evict());
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Could not trim the cache in {}", directory, e);
+        }
+    }
+
+    private int evict() throws IOException {
+        List<CachedFile> files = new ArrayList<>();
+        long size = 0;
+        long staleBefore = System.currentTimeMillis() - STALE_TEMPORARY_MILLIS;
+
+        try (Stream<Path> paths = Files.walk(directory, 2)) {
+
+            for (Path path : paths.filter(ClassCache::isCacheFile).collect(Collectors.toList())) {
+                BasicFileAttributes attributes;
+
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // evicted by a concurrent run
+                    continue;
+                }
+
+                if (path.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+
+                    // left behind by a run that failed to write an entry or was killed while it did
+                    if (attributes.lastModifiedTime().toMillis() < staleBefore) {
+                        deleteTemporary(path);
+                    }
+                    continue;
+                }
+                files.add(new CachedFile(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                size += attributes.size();
+            }
+        }
+
+        if (size <= maxSize) {
+            return 0;
+        }
+        files.sort(Comparator.comparingLong(file -> file.lastModified));
+        int evicted = 0;
+
+        for (CachedFile file : files) {
+
+            if (size <= maxSize) {
+                break;
+            }
+
+            if (Files.deleteIfExists(file.path)) {
+                evicted++;
+            }
+            size -= file.size;
+        }
+        return evicted;
+    }
+
+    private static boolean isCacheFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(SUFFIX) || name.endsWith(TEMPORARY_SUFFIX);
+    }
+
+    private static class CachedFile {
+
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private CachedFile(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
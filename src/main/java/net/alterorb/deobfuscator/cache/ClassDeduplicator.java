@@ -0,0 +1,119 @@
+package net.alterorb.deobfuscator.cache;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.CanonicalNames;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the transformed classes of a batch in memory, keyed by a structural fingerprint of the class they were
+ * transformed from, so a class shared by many jars under different names is only transformed once. The fingerprint
+ * is a hash of the class in its canonical form, see {@link CanonicalNames}, and the transformed classes are kept in
+ * canonical form as well, to be mapped to the names of whichever jar needs them.
+ * <p>
+ * Transformed classes are kept until their size adds up to the limit, classes transformed after that aren't kept.
+ * Every method is thread-safe.
+ */
+@Log4j2
+public class ClassDeduplicator {
+
+    private final long maxSize;
+    private final ConcurrentMap<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+    private final LongAdder overheadNanos = new LongAdder();
+
+    /**
+     * @param maxSize the size in bytes the transformed classes kept may add up to
+     */
+    public ClassDeduplicator(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param fingerprint the hash of a class in canonical form along with the fingerprint of its transformation
+     * @return the transformed class, or null if there is none
+     */
+    public Entry get(byte[] fingerprint) {
+        return entries.get(ByteBuffer.wrap(fingerprint));
+    }
+
+    /**
+     * Records that a transformed class was reused instead of transforming another copy of it
+     */
+    public void recordHit(Entry entry) {
+        hits.increment();
+        savedNanos.add(entry.transformNanos);
+    }
+
+    /**
+     * Keeps a transformed class unless the limit was reached
+     *
+     * @param canonicalBytes the transformed class in canonical form
+     * @param transformNanos the time it took to transform the class
+     */
+    public void put(byte[] fingerprint, byte[] canonicalBytes, long transformNanos) {
+        misses.increment();
+
+        if (size.addAndGet(canonicalBytes.length) > maxSize) {
+            size.addAndGet(-canonicalBytes.length);
+            rejected.increment();
+            return;
+        }
+
+        if (entries.putIfAbsent(ByteBuffer.wrap(fingerprint), new Entry(canonicalBytes, transformNanos)) != null) {
+            // another copy was transformed at the same time
+            size.addAndGet(-canonicalBytes.length);
+        }
+    }
+
+    /**
+     * Records time spent fingerprinting and mapping classes rather than transforming them
+     */
+    public void recordOverhead(long nanos) {
+        overheadNanos.add(nanos);
+    }
+
+    /**
+     * Logs how much was deduplicated and records it into the metrics
+     */
+    public void report(MetricRegistry metrics) {
+        long lookups = hits.sum() + misses.sum();
+        long savedMillis = TimeUnit.NANOSECONDS.toMillis(savedNanos.sum());
+        long overheadMillis = TimeUnit.NANOSECONDS.toMillis(overheadNanos.sum());
+
+        LOGGER.info("Transformed {} of {} classes, reused {} ({}%) from other jars, saving about {} ms of transforming for {} ms of "
+                        + "fingerprinting and mapping, {} transformed classes didn't fit in memory",
+                misses.sum(), lookups, hits.sum(), lookups == 0 ? 0 : hits.sum() * 100 / lookups, savedMillis, overheadMillis, rejected.sum());
+
+        metrics.counter(MetricRegistry.name(ClassDeduplicator.class.getSimpleName(), "hits")).inc(hits.sum());
+        metrics.counter(MetricRegistry.name(ClassDeduplicator.class.getSimpleName(), "misses")).inc(misses.sum());
+        metrics.counter(MetricRegistry.name(ClassDeduplicator.class.getSimpleName(), "saved-ms")).inc(savedMillis);
+        metrics.counter(MetricRegistry.name(ClassDeduplicator.class.getSimpleName(), "overhead-ms")).inc(overheadMillis);
+    }
+
+    public static class Entry {
+
+        private final byte[] canonicalBytes;
+        private final long transformNanos;
+
+        private Entry(byte[] canonicalBytes, long transformNanos) {
+            this.canonicalBytes = canonicalBytes;
+            this.transformNanos = transformNanos;
+        }
+
+        public byte[] getCanonicalBytes() {
+            return canonicalBytes;
+        }
+    }
+}
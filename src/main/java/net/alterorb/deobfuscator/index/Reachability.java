@@ -0,0 +1,485 @@
+package net.alterorb.deobfuscator.index;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.NameMapping;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the classes, methods and fields of the jar that can be reached from the main class, over the calls and field
+ * accesses of the methods reached so far and the types they mention. The main class is reached along with its
+ * constructors and {@code main} method, and every class reached brings in its supertypes, its static initializer and
+ * the methods overriding methods of classes outside of the jar, which is what reaches the applet lifecycle methods
+ * and the likes of {@code run} and {@code paint}.
+ * <p>
+ * Calls to static methods, constructors and super methods reach the method they resolve to. Virtual calls reach the
+ * method they resolve to as well, along with every method they may dispatch to in the classes reached so far and in
+ * the ones reached later. Strings naming a class of the jar reach the class and its constructors, since they may be
+ * loaded by name, classes of the jar that can be serialized keep every field and their serialization methods, and
+ * enums keep their {@code values} and {@code valueOf} methods.
+ * <p>
+ * The worklist is processed in rounds, the classes and methods reached in a round being visited in parallel in the
+ * next one, until a round reaches nothing new. Members are resolved from the index alone, the trees of the classes
+ * are only read to visit them, and the methods of a class reached in the same round are visited together.
+ */
+public class Reachability {
+
+    private static final Set<String> SERIALIZATION_METHODS = new HashSet<>(Arrays.asList(
+            "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+    private static final Set<String> EXTERNAL_SERIALIZABLE = ConcurrentHashMap.newKeySet();
+    private static final Set<String> EXTERNAL_NOT_SERIALIZABLE = ConcurrentHashMap.newKeySet();
+
+    private final SymbolIndex index;
+    private final Set<String> classes = ConcurrentHashMap.newKeySet();
+    private final Set<String> methods = ConcurrentHashMap.newKeySet();
+    private final Set<String> fields = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The virtual calls made by the methods reached, by owner, name and descriptor
+     */
+    private final Set<String> virtualCalls = ConcurrentHashMap.newKeySet();
+
+    private final Queue<String> pendingClasses = new ConcurrentLinkedQueue<>();
+    private final Queue<Member> pendingMethods = new ConcurrentLinkedQueue<>();
+    private int rounds;
+
+    private Reachability(SymbolIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param mainClass the class the jar is started from, which has to be in the index
+     */
+    public static Reachability analyze(SymbolIndex index, String mainClass) {
+        Reachability reachability = new Reachability(index);
+
+        reachability.reachClass(mainClass);
+        reachability.reachConstructors(mainClass);
+        reachability.reachMethod(mainClass, "main", "([Ljava/lang/String;)V");
+        reachability.run();
+        return reachability;
+    }
+
+    public boolean isReachable(String className) {
+        return classes.contains(className);
+    }
+
+    public boolean isReachable(ClassNode owner, MethodNode method) {
+        return methods.contains(memberKey(owner.name, method.name, method.desc));
+    }
+
+    public boolean isReachable(ClassNode owner, FieldNode field) {
+        return fields.contains(memberKey(owner.name, field.name, field.desc));
+    }
+
+    /**
+     * @return the number of rounds it took the worklist to run dry
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    private void run() {
+
+        while (!pendingClasses.isEmpty() || !pendingMethods.isEmpty()) {
+            List<String> classBatch = drain(pendingClasses);
+            Map<String, List<Member>> methodBatch = drain(pendingMethods).stream().collect(Collectors.groupingBy(member -> member.owner));
+
+            classBatch.parallelStream().forEach(name -> index.readClass(name, this::visitClass));
+            methodBatch.entrySet().parallelStream().forEach(entry -> index.readClass(entry.getKey(), classNode -> {
+
+                for (Member member : entry.getValue()) {
+                    visitMethod(classNode.findMethod(member.name, member.desc));
+                }
+            }));
+            rounds++;
+        }
+    }
+
+    private static <T> List<T> drain(Queue<T> queue) {
+        List<T> batch = new ArrayList<>();
+        T element;
+
+        while ((element = queue.poll()) != null) {
+            batch.add(element);
+        }
+        return batch;
+    }
+
+    private void visitClass(ClassNode classNode) {
+
+        if (classNode.superName != null) {
+            reachClass(classNode.superName);
+        }
+
+        for (String interfaceName : classNode.interfaces) {
+            reachClass(interfaceName);
+        }
+
+        if (classNode.outerClass != null) {
+            reachClass(classNode.outerClass);
+        }
+        reachMethod(classNode, classNode.getClassInitializer());
+        Set<String> supertypes = index.getSupertypes(classNode.name);
+        Set<String> externalMethods = externalMethods(supertypes);
+        boolean serializable = isSerializable(supertypes);
+        boolean isEnum = (classNode.access & Opcodes.ACC_ENUM) != 0;
+
+        for (MethodNode method : classNode.methods) {
+
+            if (method.name.startsWith("<") || (method.access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0) {
+
+                if (isEnum && (method.name.equals("values") || method.name.equals("valueOf"))
+                        || serializable && SERIALIZATION_METHODS.contains(method.name)) {
+                    reachMethod(classNode, method);
+                }
+                continue;
+            }
+
+            if (externalMethods == null || externalMethods.contains(method.name + '\t' + method.desc)
+                    || serializable && SERIALIZATION_METHODS.contains(method.name) || isCalled(classNode.name, supertypes, method)) {
+                reachMethod(classNode, method);
+            }
+        }
+
+        if (serializable) {
+            classNode.fields.forEach(field -> reachField(classNode.name, field.name, field.desc));
+        }
+    }
+
+    private void visitMethod(MethodNode method) {
+        reachType(Type.getMethodType(method.desc));
+
+        if (method.exceptions != null) {
+            method.exceptions.forEach(this::reachClass);
+        }
+
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+
+            if (tryCatchBlock.type != null) {
+                reachClass(tryCatchBlock.type);
+            }
+        }
+
+        for (AbstractInsnNode insnNode = method.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+
+            switch (insnNode.getType()) {
+                case AbstractInsnNode.METHOD_INSN:
+                    MethodInsnNode methodInsnNode = (MethodInsnNode) insnNode;
+                    reachCall(methodInsnNode.getOpcode(), methodInsnNode.owner, methodInsnNode.name, methodInsnNode.desc);
+                    break;
+                case AbstractInsnNode.FIELD_INSN:
+                    FieldInsnNode fieldInsnNode = (FieldInsnNode) insnNode;
+                    reachFieldAccess(fieldInsnNode.owner, fieldInsnNode.name, fieldInsnNode.desc);
+                    break;
+                case AbstractInsnNode.TYPE_INSN:
+                    reachType(Type.getObjectType(((TypeInsnNode) insnNode).desc));
+                    break;
+                case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                    reachType(Type.getType(((MultiANewArrayInsnNode) insnNode).desc));
+                    break;
+                case AbstractInsnNode.LDC_INSN:
+                    reachConstant(((LdcInsnNode) insnNode).cst);
+                    break;
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                    InvokeDynamicInsnNode invokeDynamicInsnNode = (InvokeDynamicInsnNode) insnNode;
+                    reachType(Type.getMethodType(invokeDynamicInsnNode.desc));
+                    reachConstant(invokeDynamicInsnNode.bsm);
+
+                    for (Object bsmArg : invokeDynamicInsnNode.bsmArgs) {
+                        reachConstant(bsmArg);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void reachCall(int opcode, String owner, String name, String desc) {
+        reachType(Type.getObjectType(owner));
+        reachType(Type.getMethodType(desc));
+
+        if (owner.charAt(0) == '[') {
+            return;
+        }
+
+        if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>")) {
+            reachMethod(owner, name, desc);
+            return;
+        }
+        String declaringClass = declaringClass(owner, name, desc, false);
+
+        if (declaringClass != null) {
+            reachMethod(declaringClass, name, desc);
+        }
+
+        if (opcode == Opcodes.INVOKEVIRTUAL || opcode == Opcodes.INVOKEINTERFACE) {
+            // registered before looking at the subclasses reached so far, so a class reached meanwhile sees the call
+            virtualCalls.add(memberKey(owner, name, desc));
+            reachOverrides(owner, name, desc);
+        }
+    }
+
+    /**
+     * Reaches the methods a virtual call may dispatch to in the subclasses of its owner reached so far
+     */
+    private void reachOverrides(String owner, String name, String desc) {
+        Set<String> visited = new HashSet<>();
+        List<String> queue = new ArrayList<>(index.getDirectSubclasses(owner));
+
+        for (int i = 0; i < queue.size(); i++) {
+            String subclass = queue.get(i);
+
+            if (!visited.add(subclass)) {
+                continue;
+            }
+            queue.addAll(index.getDirectSubclasses(subclass));
+
+            if (!classes.contains(subclass)) {
+                continue;
+            }
+            String declaringClass = declaringClass(subclass, name, desc, false);
+
+            if (declaringClass != null) {
+                reachMethod(declaringClass, name, desc);
+            }
+        }
+    }
+
+    /**
+     * @return whether a virtual call reached so far may dispatch to the method, through the class or a supertype
+     */
+    private boolean isCalled(String className, Set<String> supertypes, MethodNode method) {
+
+        if (virtualCalls.contains(memberKey(className, method.name, method.desc))) {
+            return true;
+        }
+
+        for (String supertype : supertypes) {
+
+            if (virtualCalls.contains(memberKey(supertype, method.name, method.desc))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reachFieldAccess(String owner, String name, String desc) {
+        reachType(Type.getObjectType(owner));
+        reachType(Type.getType(desc));
+        String declaringClass = declaringClass(owner, name, desc, true);
+
+        if (declaringClass != null) {
+            reachClass(declaringClass);
+            reachField(declaringClass, name, desc);
+        }
+    }
+
+    private void reachConstant(Object constant) {
+
+        if (constant instanceof Type) {
+            reachType((Type) constant);
+        } else if (constant instanceof Handle) {
+            Handle handle = (Handle) constant;
+
+            if (handle.getTag() <= Opcodes.H_PUTSTATIC) {
+                reachFieldAccess(handle.getOwner(), handle.getName(), handle.getDesc());
+            } else if (handle.getTag() == Opcodes.H_INVOKEVIRTUAL || handle.getTag() == Opcodes.H_INVOKEINTERFACE) {
+                reachCall(Opcodes.INVOKEVIRTUAL, handle.getOwner(), handle.getName(), handle.getDesc());
+            } else {
+                reachCall(handle.getTag() == Opcodes.H_INVOKESTATIC ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL, handle.getOwner(),
+                        handle.getName(), handle.getDesc());
+            }
+        } else if (constant instanceof String) {
+            // class literals of old compilers and reflection load classes by name
+            String name = ((String) constant).replace('.', '/');
+
+            if (index.contains(name)) {
+                reachClass(name);
+                reachConstructors(name);
+            }
+        }
+    }
+
+    private void reachType(Type type) {
+
+        switch (type.getSort()) {
+            case Type.ARRAY:
+                reachType(type.getElementType());
+                break;
+            case Type.OBJECT:
+                reachClass(type.getInternalName());
+                break;
+            case Type.METHOD:
+                reachType(type.getReturnType());
+
+                for (Type argumentType : type.getArgumentTypes()) {
+                    reachType(argumentType);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void reachClass(String name) {
+
+        if (index.contains(name) && classes.add(name)) {
+            pendingClasses.add(name);
+        }
+    }
+
+    private void reachConstructors(String className) {
+
+        for (String method : index.getMethods(className)) {
+
+            if (method.startsWith("<init>")) {
+                reachMethod(className, "<init>", method.substring("<init>".length()));
+            }
+        }
+    }
+
+    private void reachMethod(ClassNode owner, MethodNode method) {
+
+        if (method != null) {
+            reachMethod(owner.name, method.name, method.desc);
+        }
+    }
+
+    /**
+     * Reaches the method if the class declares it
+     */
+    private void reachMethod(String owner, String name, String desc) {
+
+        if (index.declaresMethod(owner, name, desc) && methods.add(memberKey(owner, name, desc))) {
+            reachClass(owner);
+            pendingMethods.add(new Member(owner, name, desc));
+        }
+    }
+
+    private void reachField(String owner, String name, String desc) {
+
+        if (index.declaresField(owner, name, desc) && fields.add(memberKey(owner, name, desc))) {
+            reachType(Type.getType(desc));
+        }
+    }
+
+    /**
+     * Resolves a member the way the JVM would, looking at the owner and then its supertypes
+     *
+     * @return the class of the jar declaring it, or null if none does
+     */
+    private String declaringClass(String owner, String name, String desc, boolean field) {
+
+        if (declares(owner, name, desc, field)) {
+            return owner;
+        }
+
+        for (String supertype : index.getSupertypes(owner)) {
+
+            if (declares(supertype, name, desc, field)) {
+                return supertype;
+            }
+        }
+        return null;
+    }
+
+    private boolean declares(String owner, String name, String desc, boolean field) {
+        return field ? index.declaresField(owner, name, desc) : index.declaresMethod(owner, name, desc);
+    }
+
+    /**
+     * @return the methods the classes outside of the jar among the supertypes declare or inherit, null if one of them
+     * can't be found
+     */
+    private Set<String> externalMethods(Set<String> supertypes) {
+        Set<String> externalMethods = new HashSet<>();
+
+        for (String supertype : supertypes) {
+
+            if (index.contains(supertype)) {
+                continue;
+            }
+            Set<String> methods = NameMapping.getExternalMethods(supertype);
+
+            if (methods == null) {
+                return null;
+            }
+            externalMethods.addAll(methods);
+        }
+        return externalMethods;
+    }
+
+    private boolean isSerializable(Set<String> supertypes) {
+
+        for (String supertype : supertypes) {
+
+            if (!index.contains(supertype) && isExternalSerializable(supertype)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExternalSerializable(String type) {
+
+        if (EXTERNAL_SERIALIZABLE.contains(type)) {
+            return true;
+        }
+
+        if (EXTERNAL_NOT_SERIALIZABLE.contains(type)) {
+            return false;
+        }
+        boolean serializable;
+
+        try {
+            serializable = Serializable.class.isAssignableFrom(Class.forName(type.replace('/', '.'), false, ClassLoader.getSystemClassLoader()));
+        } catch (ClassNotFoundException | LinkageError e) {
+            serializable = false;
+        }
+        (serializable ? EXTERNAL_SERIALIZABLE : EXTERNAL_NOT_SERIALIZABLE).add(type);
+        return serializable;
+    }
+
+    private static String memberKey(String owner, String name, String desc) {
+        return owner + '.' + name + desc;
+    }
+
+    private static class Member {
+
+        private final String owner;
+        private final String name;
+        private final String desc;
+
+        private Member(String owner, String name, String desc) {
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+        }
+    }
+}
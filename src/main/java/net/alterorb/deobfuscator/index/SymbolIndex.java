@@ -0,0 +1,221 @@
+package net.alterorb.deobfuscator.index;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Index of the classes of a {@link ClassStore} by name, of the methods and fields each declares, and of the class
+ * hierarchy. It's built from the classes as the store holds them, serialized ones are visited without inflating them
+ * and no tree is kept, trees are only read through the store while they are looked at.
+ * <p>
+ * The index is safe to read from several threads. Whole-program transformers keep it up to date as they remove
+ * members and classes, or tell it to read a class again once they changed it otherwise.
+ */
+public class SymbolIndex {
+
+    private final ClassStore classStore;
+    private final Map<String, ClassEntry> classes = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> subclasses = new ConcurrentHashMap<>();
+
+    private SymbolIndex(ClassStore classStore) {
+        this.classStore = classStore;
+    }
+
+    /**
+     * @param classStore a store with a class in every place
+     */
+    public static SymbolIndex build(ClassStore classStore) {
+        SymbolIndex index = new SymbolIndex(classStore);
+        IntStream.range(0, classStore.size()).parallel().forEach(index::addClass);
+        return index;
+    }
+
+    public boolean contains(String name) {
+        return classes.containsKey(name);
+    }
+
+    /**
+     * Hands the tree of a class to the consumer, which must not modify it nor hold on to it
+     *
+     * @return whether the class is in the index
+     */
+    public boolean readClass(String name, Consumer<ClassNode> consumer) {
+        ClassEntry entry = classes.get(name);
+
+        if (entry == null) {
+            return false;
+        }
+        classStore.read(entry.position, consumer);
+        return true;
+    }
+
+    /**
+     * @return the names and descriptors of the methods the class declares, concatenated
+     */
+    public Set<String> getMethods(String name) {
+        ClassEntry entry = classes.get(name);
+        return entry == null ? Collections.emptySet() : Collections.unmodifiableSet(entry.methods);
+    }
+
+    public boolean declaresMethod(String owner, String name, String desc) {
+        ClassEntry entry = classes.get(owner);
+        return entry != null && entry.methods.contains(name + desc);
+    }
+
+    public boolean declaresField(String owner, String name, String desc) {
+        ClassEntry entry = classes.get(owner);
+        return entry != null && entry.fields.contains(name + desc);
+    }
+
+    /**
+     * @return the classes of the jar directly extending or implementing the given one
+     */
+    public Set<String> getDirectSubclasses(String name) {
+        Set<String> directSubclasses = subclasses.get(name);
+        return directSubclasses == null ? Collections.emptySet() : Collections.unmodifiableSet(directSubclasses);
+    }
+
+    /**
+     * @return every superclass and interface of the class, as far as the jar knows them, nearest first
+     */
+    public Set<String> getSupertypes(String name) {
+        Set<String> supertypes = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(name);
+
+        while (!queue.isEmpty()) {
+            ClassEntry entry = classes.get(queue.poll());
+
+            if (entry == null) {
+                continue;
+            }
+
+            for (String supertype : entry.supertypes) {
+
+                if (supertypes.add(supertype)) {
+                    queue.add(supertype);
+                }
+            }
+        }
+        return supertypes;
+    }
+
+    public void removeMethod(String owner, String name, String desc) {
+        ClassEntry entry = classes.get(owner);
+
+        if (entry != null) {
+            entry.methods.remove(name + desc);
+        }
+    }
+
+    public void removeField(String owner, String name, String desc) {
+        ClassEntry entry = classes.get(owner);
+
+        if (entry != null) {
+            entry.fields.remove(name + desc);
+        }
+    }
+
+    /**
+     * Forgets what the index knows about the class, and reads it again from its place in the store unless the class
+     * was discarded from it
+     */
+    public void invalidate(String name) {
+        ClassEntry entry = classes.remove(name);
+
+        if (entry == null) {
+            return;
+        }
+
+        for (String supertype : entry.supertypes) {
+            Set<String> directSubclasses = subclasses.get(supertype);
+
+            if (directSubclasses != null) {
+                directSubclasses.remove(name);
+            }
+        }
+
+        if (!classStore.isEmpty(entry.position)) {
+            addClass(entry.position);
+        }
+    }
+
+    /**
+     * Follows {@link ClassStore#compact()}, the classes discarded from the store must have been invalidated already
+     */
+    public void compact() {
+        List<ClassEntry> entries = new ArrayList<>(classes.values());
+        entries.sort(Comparator.comparingInt(entry -> entry.position));
+
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).position = i;
+        }
+    }
+
+    /**
+     * Indexes a class, its place in the hierarchy and the members it declares
+     */
+    private void addClass(int position) {
+        ClassEntry entry = new ClassEntry(position);
+
+        classStore.accept(position, new ClassVisitor(Opcodes.ASM7) {
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                entry.name = name;
+
+                if (superName != null) {
+                    entry.supertypes.add(superName);
+                }
+                Collections.addAll(entry.supertypes, interfaces);
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                entry.fields.add(name + descriptor);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                entry.methods.add(name + descriptor);
+                return null;
+            }
+        });
+        classes.put(entry.name, entry);
+
+        for (String supertype : entry.supertypes) {
+            subclasses.computeIfAbsent(supertype, key -> ConcurrentHashMap.newKeySet()).add(entry.name);
+        }
+    }
+
+    private static class ClassEntry {
+
+        private final List<String> supertypes = new ArrayList<>();
+        private final Set<String> methods = ConcurrentHashMap.newKeySet();
+        private final Set<String> fields = ConcurrentHashMap.newKeySet();
+        private volatile int position;
+        private String name;
+
+        private ClassEntry(int position) {
+            this.position = position;
+        }
+    }
+}
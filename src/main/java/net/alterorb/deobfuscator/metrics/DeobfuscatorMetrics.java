@@ -0,0 +1,62 @@
+package net.alterorb.deobfuscator.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Names and helpers for the metrics recorded during a run. Phases and transformers are timed, transformers count
+ * the work they did under their own name, e.g. {@code StringDecryptorTransformer.strings-decrypted}, and the time
+ * every class spends in a class-local stage feeds a histogram along with a gauge of the slowest classes.
+ */
+public final class DeobfuscatorMetrics {
+
+    public static final String CLASS_PROCESSING_TIME = "classes.processing-time-us";
+    public static final String SLOWEST_CLASSES = "classes.slowest";
+
+    private DeobfuscatorMetrics() {
+    }
+
+    public static Timer phase(MetricRegistry metrics, String phase) {
+        return metrics.timer(MetricRegistry.name("phase", phase));
+    }
+
+    public static Timer transformerTimer(MetricRegistry metrics, Object transformer) {
+        return metrics.timer(MetricRegistry.name(transformer.getClass().getSimpleName(), "time"));
+    }
+
+    /**
+     * @return the timer of the passes streaming transformers run in together, which can't be timed one by one
+     */
+    public static Timer streamingPassTimer(MetricRegistry metrics) {
+        return metrics.timer(MetricRegistry.name("streaming-pass", "time"));
+    }
+
+    /**
+     * @return the counter of some work done by a transformer
+     */
+    public static Counter counter(DeobfuscationContext ctx, Object transformer, String name) {
+        return ctx.getMetrics().counter(MetricRegistry.name(transformer.getClass().getSimpleName(), name));
+    }
+
+    /**
+     * @return the histogram of some sizes seen by a transformer
+     */
+    public static Histogram histogram(DeobfuscationContext ctx, Object transformer, String name) {
+        return ctx.getMetrics().histogram(MetricRegistry.name(transformer.getClass().getSimpleName(), name), () -> new Histogram(new UniformReservoir()));
+    }
+
+    /**
+     * Records the time a class took to go through a stage
+     */
+    public static void recordClass(MetricRegistry metrics, String className, long nanos) {
+        Histogram histogram = metrics.histogram(CLASS_PROCESSING_TIME, () -> new Histogram(new UniformReservoir()));
+        histogram.update(TimeUnit.NANOSECONDS.toMicros(nanos));
+        ((SlowestClasses) metrics.gauge(SLOWEST_CLASSES, SlowestClasses::new)).offer(className, nanos);
+    }
+}
@@ -0,0 +1,148 @@
+package net.alterorb.deobfuscator.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every metric to a single JSON file, replacing it on each report. Durations are in milliseconds and rates
+ * per second, like the console and CSV reporters.
+ */
+@Log4j2
+public class JsonReporter extends ScheduledReporter {
+
+    private final Path path;
+
+    public JsonReporter(MetricRegistry registry, Path path) {
+        super(registry, "json-reporter", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+        this.path = path;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // the signature of ScheduledReporter
+    public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms,
+                       SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": ").append(System.currentTimeMillis())
+            .append(",\n  \"rateUnit\": ").append(quote(getRateUnit()))
+            .append(",\n  \"durationUnit\": ").append(quote(getDurationUnit()));
+
+        appendSection(json, "gauges", gauges, gauge -> value(gauge.getValue()));
+        appendSection(json, "counters", counters, counter -> String.valueOf(counter.getCount()));
+        appendSection(json, "histograms", histograms, histogram -> "{\"count\": " + histogram.getCount() + snapshot(histogram.getSnapshot(), 1) + "}");
+        appendSection(json, "meters", meters, meter -> "{\"count\": " + meter.getCount() + rates(meter) + "}");
+        appendSection(json, "timers", timers, timer -> "{\"count\": " + timer.getCount() + snapshot(timer.getSnapshot(), convertDuration(1)) + rates(timer) + "}");
+        json.append("\n}\n");
+
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        } catch (IOException e) {
+            LOGGER.warn("Could not write metrics to {}", path, e);
+        }
+    }
+
+    private static <T> void appendSection(StringBuilder json, String name, SortedMap<String, T> metrics, MetricFormatter<T> formatter) {
+        json.append(",\n  ").append(quote(name)).append(": {");
+        Iterator<Map.Entry<String, T>> iterator = metrics.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, T> entry = iterator.next();
+            json.append("\n    ").append(quote(entry.getKey())).append(": ").append(formatter.format(entry.getValue()));
+
+            if (iterator.hasNext()) {
+                json.append(',');
+            }
+        }
+        json.append(metrics.isEmpty() ? "}" : "\n  }");
+    }
+
+    /**
+     * @param factor converts the raw values of the snapshot into the reported unit
+     */
+    private static String snapshot(Snapshot snapshot, double factor) {
+        return ", \"min\": " + number(snapshot.getMin() * factor)
+                + ", \"max\": " + number(snapshot.getMax() * factor)
+                + ", \"mean\": " + number(snapshot.getMean() * factor)
+                + ", \"stddev\": " + number(snapshot.getStdDev() * factor)
+                + ", \"p50\": " + number(snapshot.getMedian() * factor)
+                + ", \"p75\": " + number(snapshot.get75thPercentile() * factor)
+                + ", \"p95\": " + number(snapshot.get95thPercentile() * factor)
+                + ", \"p99\": " + number(snapshot.get99thPercentile() * factor)
+                + ", \"p999\": " + number(snapshot.get999thPercentile() * factor);
+    }
+
+    private String rates(Metered metered) {
+        return ", \"meanRate\": " + number(convertRate(metered.getMeanRate()))
+                + ", \"m1Rate\": " + number(convertRate(metered.getOneMinuteRate()))
+                + ", \"m5Rate\": " + number(convertRate(metered.getFiveMinuteRate()))
+                + ", \"m15Rate\": " + number(convertRate(metered.getFifteenMinuteRate()));
+    }
+
+    private static String value(Object value) {
+
+        if (value instanceof Number) {
+            return number(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return value.toString();
+        } else if (value instanceof Collection) {
+            StringBuilder array = new StringBuilder("[");
+
+            for (Object element : (Collection<?>) value) {
+                array.append(array.length() > 1 ? ", " : "").append(value(element));
+            }
+            return array.append(']').toString();
+        }
+        return value == null ? "null" : quote(value.toString());
+    }
+
+    private static String number(double value) {
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String quote(String string) {
+        StringBuilder quoted = new StringBuilder(string.length() + 2).append('"');
+
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    @FunctionalInterface
+    private interface MetricFormatter<T> {
+
+        String format(T metric);
+
+    }
+}
@@ -0,0 +1,76 @@
+package net.alterorb.deobfuscator.metrics;
+
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.CsvReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the reporters metrics are written to at the end of a run, from specs of the form {@code console},
+ * {@code csv:directory} or {@code json:file}
+ */
+public final class MetricsReporters {
+
+    private static final String CSV_PREFIX = "csv:";
+    private static final String JSON_PREFIX = "json:";
+
+    private MetricsReporters() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the spec isn't one of the supported forms
+     */
+    public static void validate(String spec) {
+
+        if (!spec.equals("console") && !(spec.startsWith(CSV_PREFIX) && spec.length() > CSV_PREFIX.length())
+                && !(spec.startsWith(JSON_PREFIX) && spec.length() > JSON_PREFIX.length())) {
+            throw new IllegalArgumentException("Unknown metrics reporter '" + spec + "', expected console, csv:<dir> or json:<file>");
+        }
+    }
+
+    /**
+     * @return the spec with the path it writes to resolved against the directory
+     */
+    public static String resolve(String spec, Path baseDir) {
+
+        if (spec.startsWith(CSV_PREFIX)) {
+            return CSV_PREFIX + baseDir.resolve(spec.substring(CSV_PREFIX.length()));
+        } else if (spec.startsWith(JSON_PREFIX)) {
+            return JSON_PREFIX + baseDir.resolve(spec.substring(JSON_PREFIX.length()));
+        }
+        return spec;
+    }
+
+    public static ScheduledReporter create(String spec, MetricRegistry metrics) {
+        validate(spec);
+
+        if (spec.startsWith(CSV_PREFIX)) {
+            Path directory = Paths.get(spec.substring(CSV_PREFIX.length()));
+
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create the metrics directory " + directory, e);
+            }
+            return CsvReporter.forRegistry(metrics)
+                              .formatFor(Locale.US)
+                              .convertRatesTo(TimeUnit.SECONDS)
+                              .convertDurationsTo(TimeUnit.MILLISECONDS)
+                              .build(directory.toFile());
+        } else if (spec.startsWith(JSON_PREFIX)) {
+            return new JsonReporter(metrics, Paths.get(spec.substring(JSON_PREFIX.length())));
+        }
+        return ConsoleReporter.forRegistry(metrics)
+                              .convertRatesTo(TimeUnit.SECONDS)
+                              .convertDurationsTo(TimeUnit.MILLISECONDS)
+                              .build();
+    }
+}
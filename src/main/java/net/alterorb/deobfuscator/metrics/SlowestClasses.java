@@ -0,0 +1,66 @@
+package net.alterorb.deobfuscator.metrics;
+
+import com.codahale.metrics.Gauge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the classes that took the longest to process, reported slowest first as "name=micros"
+ */
+public class SlowestClasses implements Gauge<List<String>> {
+
+    private static final int CAPACITY = 10;
+
+    private final PriorityQueue<Sample> samples = new PriorityQueue<>(Comparator.comparingLong(sample -> sample.nanos));
+    private volatile long threshold = Long.MIN_VALUE;
+
+    public void offer(String className, long nanos) {
+
+        if (nanos <= threshold) {
+            return;
+        }
+
+        synchronized (samples) {
+            samples.add(new Sample(className, nanos));
+
+            if (samples.size() > CAPACITY) {
+                samples.poll();
+            }
+
+            if (samples.size() == CAPACITY) {
+                threshold = samples.peek().nanos;
+            }
+        }
+    }
+
+    @Override
+    public List<String> getValue() {
+        List<Sample> slowest;
+
+        synchronized (samples) {
+            slowest = new ArrayList<>(samples);
+        }
+        slowest.sort(Comparator.comparingLong((Sample sample) -> sample.nanos).reversed());
+        List<String> value = new ArrayList<>(slowest.size());
+
+        for (Sample sample : slowest) {
+            value.add(sample.className + "=" + TimeUnit.NANOSECONDS.toMicros(sample.nanos));
+        }
+        return value;
+    }
+
+    private static class Sample {
+
+        private final String className;
+        private final long nanos;
+
+        private Sample(String className, long nanos) {
+            this.className = className;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package net.alterorb.deobfuscator.transformer;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * Something a class can be read from any number of times, either a class reader or a tree
+ */
+@FunctionalInterface
+public interface ClassSource {
+
+    void accept(ClassVisitor visitor);
+
+}
@@ -0,0 +1,26 @@
+package net.alterorb.deobfuscator.transformer;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+
+/**
+ * A transformer that only reads and modifies the class it is handed, which allows the pipeline to run it
+ * on many classes at once. Transformers that need to look across classes should implement {@link Transformer} directly.
+ */
+public interface ClassTransformer extends Transformer {
+
+    void process(DeobfuscationContext ctx, ClassNode classNode);
+
+    @Override
+    default void process(DeobfuscationContext ctx) {
+        ClassStore classStore = ctx.getClassStore();
+
+        for (int i = 0; i < classStore.size(); i++) {
+            classStore.update(i, classNode -> {
+                process(ctx, classNode);
+                return classNode;
+            });
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package net.alterorb.deobfuscator.transformer;
+
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs method transformers until they stop finding anything to simplify. The first pass goes over every method of
+ * the class, every following pass only over the methods changed by the one before, since one simplification often
+ * exposes another in the same method: removing an impossible jump can leave a jump to a goto behind, for example.
+ * <p>
+ * Classes still changing after the maximum number of passes are left as they are at that point. The passes are counted
+ * into the metrics of the context, since the same transformer runs for every job of a batch or server.
+ */
+@Log4j2
+public class FixedPointTransformer implements ClassTransformer {
+
+    public static final int DEFAULT_MAX_PASSES = 16;
+
+    private final List<MethodTransformer> transformers;
+    private final int maxPasses;
+
+    public FixedPointTransformer(MethodTransformer... transformers) {
+        this(DEFAULT_MAX_PASSES, Arrays.asList(transformers));
+    }
+
+    public FixedPointTransformer(int maxPasses, List<MethodTransformer> transformers) {
+
+        if (maxPasses < 1) {
+            throw new IllegalArgumentException("maxPasses must be at least 1");
+        }
+        this.transformers = transformers;
+        this.maxPasses = maxPasses;
+    }
+
+    @Override
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+
+        for (MethodTransformer transformer : transformers) {
+
+            if (transformer.isApplicable(ctx, scan)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void process(DeobfuscationContext ctx, ClassNode classNode) {
+        transformers.forEach(transformer -> transformer.beginClass(ctx, classNode));
+
+        try {
+            runPasses(ctx, classNode);
+        } finally {
+            transformers.forEach(transformer -> transformer.endClass(ctx, classNode));
+        }
+    }
+
+    private void runPasses(DeobfuscationContext ctx, ClassNode classNode) {
+        List<MethodNode> pending = new ArrayList<>(classNode.methods);
+        int pass = 0;
+        int visits = 0;
+
+        while (!pending.isEmpty() && pass < maxPasses) {
+            List<MethodNode> changed = new ArrayList<>();
+            pass++;
+
+            for (MethodNode method : pending) {
+                boolean methodChanged = false;
+
+                for (MethodTransformer transformer : transformers) {
+                    methodChanged |= transformer.process(ctx, classNode, method);
+                }
+                visits++;
+
+                if (methodChanged) {
+                    changed.add(method);
+                    classNode.markDirty(method);
+                }
+            }
+            pending = changed;
+        }
+
+        if (!pending.isEmpty()) {
+            LOGGER.warn("{} method(s) of the class '{}' were still changing after {} passes", pending.size(), classNode.name, pass);
+            DeobfuscatorMetrics.counter(ctx, this, "capped-classes").inc();
+        }
+        DeobfuscatorMetrics.counter(ctx, this, "passes").inc(pass);
+        DeobfuscatorMetrics.counter(ctx, this, "method-visits").inc(visits);
+        DeobfuscatorMetrics.histogram(ctx, this, "passes-per-class").update(pass);
+    }
+
+    @Override
+    public void complete(DeobfuscationContext ctx) {
+        transformers.forEach(transformer -> transformer.complete(ctx));
+        LOGGER.info("{} took {} passes and {} method visits, at most {} passes for a class, {} class(es) hit the cap of {} passes",
+                getClass().getSimpleName(), DeobfuscatorMetrics.counter(ctx, this, "passes").getCount(),
+                DeobfuscatorMetrics.counter(ctx, this, "method-visits").getCount(),
+                DeobfuscatorMetrics.histogram(ctx, this, "passes-per-class").getSnapshot().getMax(),
+                DeobfuscatorMetrics.counter(ctx, this, "capped-classes").getCount(), maxPasses);
+    }
+
+    /**
+     * Combines the names and versions of the transformers with the cap, since it changes the output as well
+     */
+    @Override
+    public int getVersion() {
+        int version = maxPasses;
+
+        for (MethodTransformer transformer : transformers) {
+            version = 31 * version + transformer.getClass().getName().hashCode();
+            version = 31 * version + transformer.getVersion();
+        }
+        return version;
+    }
+}
@@ -0,0 +1,49 @@
+package net.alterorb.deobfuscator.transformer;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * A class-local transformer that works one method at a time and reports whether it changed the method, which lets
+ * {@link FixedPointTransformer} run it again on just the methods that changed.
+ */
+public interface MethodTransformer extends ClassTransformer {
+
+    /**
+     * @return whether the method was changed
+     */
+    boolean process(DeobfuscationContext ctx, ClassNode classNode, MethodNode method);
+
+    /**
+     * Called on the thread processing a class before any of its methods are processed
+     */
+    default void beginClass(DeobfuscationContext ctx, ClassNode classNode) {
+    }
+
+    /**
+     * Called on the thread processing a class once all of its methods are processed
+     */
+    default void endClass(DeobfuscationContext ctx, ClassNode classNode) {
+    }
+
+    /**
+     * Runs the transformer on every method of the class once, marking the ones it changes as dirty
+     */
+    @Override
+    default void process(DeobfuscationContext ctx, ClassNode classNode) {
+        beginClass(ctx, classNode);
+
+        try {
+
+            for (MethodNode method : classNode.methods) {
+
+                if (process(ctx, classNode, method)) {
+                    classNode.markDirty(method);
+                }
+            }
+        } finally {
+            endClass(ctx, classNode);
+        }
+    }
+}
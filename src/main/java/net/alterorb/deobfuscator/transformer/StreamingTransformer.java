@@ -0,0 +1,68 @@
+package net.alterorb.deobfuscator.transformer;
+
+import net.alterorb.betterasm.ChangeReportingClassVisitor;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import org.objectweb.asm.ClassVisitor;
+
+
+/**
+ * A class-local transformer that rewrites classes as they go from a reader to a writer, without ever building a
+ * tree. Consecutive streaming transformers are chained into a single pass over each class, tree transformers
+ * around them get the class parsed into a tree only when they need it.
+ * <p>
+ * Anything the rewrite depends on is gathered by {@link #prepare}, a first read of the class as it enters the pass.
+ * That read should only look at what it needs, e.g. by skipping every method it isn't interested in.
+ * <p>
+ * A tree built from a streaming pass has every method marked dirty, unless each transformer of the pass
+ * {@link #reportsChanges() reports} the methods it changes.
+ *
+ * @param <S> the per-class state found by the first read
+ */
+public interface StreamingTransformer<S> extends Transformer {
+
+    /**
+     * @return the state handed to {@link #visitor}, null by default
+     */
+    default S prepare(DeobfuscationContext ctx, ClassSource source) {
+        return null;
+    }
+
+    /**
+     * @return a visitor rewriting the class into the next one
+     */
+    ClassVisitor visitor(DeobfuscationContext ctx, S state, ClassVisitor next);
+
+    /**
+     * @return whether the visitor reports every method it changes through
+     * {@link ChangeReportingClassVisitor#markChanged}, false by default
+     */
+    default boolean reportsChanges() {
+        return false;
+    }
+
+    /**
+     * Runs the transformer on every class of the context, each class being replaced by a rewritten copy
+     */
+    @Override
+    default void process(DeobfuscationContext ctx) {
+        ClassStore classStore = ctx.getClassStore();
+
+        for (int i = 0; i < classStore.size(); i++) {
+            classStore.update(i, classNode -> {
+                ClassNode transformed = new ClassNode();
+
+                classNode.accept(visitor(ctx, prepare(ctx, classNode::accept), transformed));
+                transformed.inheritChanges(classNode);
+
+                if (!reportsChanges()) {
+                    transformed.markAllDirty();
+                }
+                return transformed;
+            });
+        }
+        // the symbol index was built from the classes as they were before
+        ctx.setClassStore(classStore);
+    }
+}
@@ -1,9 +1,30 @@
 package net.alterorb.deobfuscator.transformer;
 
+import net.alterorb.betterasm.ConstantPoolScan;
 import net.alterorb.deobfuscator.DeobfuscationContext;
 
 public interface Transformer {
 
     void process(DeobfuscationContext ctx);
 
+    /**
+     * Tells from a scan of a class whether the transformer could change it. Classes no transformer applies to are
+     * copied to the output as they are, so this must only return false when the class is certainly left alone.
+     */
+    default boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return true;
+    }
+
+    /**
+     * Called once the transformer has been run against every class, for reporting
+     */
+    default void complete(DeobfuscationContext ctx) {
+    }
+
+    /**
+     * Has to be bumped whenever the output of the transformer changes, cached results of older versions are discarded
+     */
+    default int getVersion() {
+        return 1;
+    }
 }
@@ -0,0 +1,330 @@
+package net.alterorb.deobfuscator.transformer.impl;
+
+import com.codahale.metrics.Histogram;
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.betterasm.ControlFlowGraph;
+import net.alterorb.betterasm.InsnListEditor;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.MethodTransformer;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableAnnotationNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cleans up the control flow the other transformers leave behind: jumps to gotos are retargeted to where the chain
+ * of gotos ends, blocks that can't be reached are removed, as are gotos to the very next instruction, try/catch blocks
+ * left without any code and the labels nothing refers to anymore. Retargeting jumps is what leaves the goto trampolines
+ * behind, and removing fake handlers the handler bodies. Methods using subroutines only have their goto chains
+ * collapsed, the control flow graph everything else relies on can't be built for them.
+ * <p>
+ * The size of every method changed is recorded, in instructions, before and after, into the metrics of the context.
+ */
+@Log4j2
+public class DeadCodeTransformer implements MethodTransformer {
+
+    @Override
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return scan.hasOpcode(Opcodes.GOTO) || scan.hasTryCatchBlocks();
+    }
+
+    @Override
+    public boolean process(DeobfuscationContext ctx, ClassNode classNode, MethodNode method) {
+        InsnList instructions = method.instructions;
+
+        if (instructions.size() == 0) {
+            return false;
+        }
+        int collapsed = collapseGotoChains(instructions);
+        ControlFlowGraph graph;
+
+        try {
+            graph = ControlFlowGraph.build(method);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Method {}.{}{} uses subroutines, only its goto chains are collapsed", classNode.name, method.name, method.desc);
+            DeobfuscatorMetrics.counter(ctx, this, "jumps-retargeted").inc(collapsed);
+            return collapsed > 0;
+        }
+        int sizeBefore = graph.getInstructionCount();
+        int[] labelReferences = graph.getLabelReferences();
+        InsnListEditor editor = new InsnListEditor(instructions);
+        int unreachable = removeUnreachableBlocks(graph, editor, labelReferences);
+        int gotos = removeGotosToNext(graph, editor, labelReferences);
+        int handlers = method.tryCatchBlocks.size();
+        method.tryCatchBlocks.removeIf(editor::isEmpty);
+        handlers -= method.tryCatchBlocks.size();
+
+        // labels nothing refers to aren't written, they are only worth removing along with what referred to them
+        if (collapsed + unreachable + gotos + handlers == 0) {
+            return false;
+        }
+        int labels = removeUnusedLabels(method, graph, editor, labelReferences);
+        editor.commit();
+        int sizeAfter = sizeBefore - unreachable - gotos;
+        LOGGER.debug("Method {}.{}{} went from {} to {} instructions", classNode.name, method.name, method.desc, sizeBefore, sizeAfter);
+
+        DeobfuscatorMetrics.counter(ctx, this, "instructions-before").inc(sizeBefore);
+        DeobfuscatorMetrics.counter(ctx, this, "instructions-after").inc(sizeAfter);
+        histogram(ctx, "method-size-before").update(sizeBefore);
+        histogram(ctx, "method-size-after").update(sizeAfter);
+        DeobfuscatorMetrics.counter(ctx, this, "jumps-retargeted").inc(collapsed);
+        DeobfuscatorMetrics.counter(ctx, this, "unreachable-removed").inc(unreachable);
+        DeobfuscatorMetrics.counter(ctx, this, "gotos-removed").inc(gotos);
+        DeobfuscatorMetrics.counter(ctx, this, "handlers-removed").inc(handlers);
+        DeobfuscatorMetrics.counter(ctx, this, "labels-removed").inc(labels);
+        return true;
+    }
+
+    @Override
+    public void complete(DeobfuscationContext ctx) {
+        long before = DeobfuscatorMetrics.counter(ctx, this, "instructions-before").getCount();
+        long after = DeobfuscatorMetrics.counter(ctx, this, "instructions-after").getCount();
+        LOGGER.info("{} shrank the methods it changed from {} to {} instructions", getClass().getSimpleName(), before, after);
+    }
+
+    /**
+     * Points every jump and switch whose target starts with a goto to the target of the last goto of the chain
+     *
+     * @return the number of targets changed
+     */
+    private static int collapseGotoChains(InsnList instructions) {
+        int collapsed = 0;
+        int limit = instructions.size();
+
+        for (AbstractInsnNode insnNode = instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+
+            // a jsr is left alone, its target is where the subroutine starts
+            if (insnNode instanceof JumpInsnNode && insnNode.getOpcode() != Opcodes.JSR) {
+                JumpInsnNode jumpInsnNode = (JumpInsnNode) insnNode;
+                LabelNode target = follow(jumpInsnNode.label, limit);
+
+                if (target != jumpInsnNode.label) {
+                    jumpInsnNode.label = target;
+                    collapsed++;
+                }
+            } else if (insnNode instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insnNode;
+                collapsed += collapse(tableSwitch.labels, limit);
+                LabelNode target = follow(tableSwitch.dflt, limit);
+
+                if (target != tableSwitch.dflt) {
+                    tableSwitch.dflt = target;
+                    collapsed++;
+                }
+            } else if (insnNode instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insnNode;
+                collapsed += collapse(lookupSwitch.labels, limit);
+                LabelNode target = follow(lookupSwitch.dflt, limit);
+
+                if (target != lookupSwitch.dflt) {
+                    lookupSwitch.dflt = target;
+                    collapsed++;
+                }
+            }
+        }
+        return collapsed;
+    }
+
+    private static int collapse(List<LabelNode> labels, int limit) {
+        int collapsed = 0;
+
+        for (int i = 0; i < labels.size(); i++) {
+            LabelNode target = follow(labels.get(i), limit);
+
+            if (target != labels.get(i)) {
+                labels.set(i, target);
+                collapsed++;
+            }
+        }
+        return collapsed;
+    }
+
+    /**
+     * @return the label the chain of gotos starting at the label ends at, giving up after as many steps as there are
+     * instructions, which only a loop of gotos can take
+     */
+    private static LabelNode follow(LabelNode label, int limit) {
+        LabelNode target = label;
+
+        for (int steps = 0; steps < limit; steps++) {
+            AbstractInsnNode next = nextInstruction(target);
+
+            if (next == null || next.getOpcode() != Opcodes.GOTO || ((JumpInsnNode) next).label == target) {
+                return target;
+            }
+            target = ((JumpInsnNode) next).label;
+        }
+        return label;
+    }
+
+    /**
+     * @return the number of instructions removed
+     */
+    private static int removeUnreachableBlocks(ControlFlowGraph graph, InsnListEditor editor, int[] labelReferences) {
+        boolean[] reachable = graph.findReachableBlocks();
+        int removed = 0;
+
+        for (int block = 0; block < graph.getBlockCount(); block++) {
+
+            if (reachable[block]) {
+                continue;
+            }
+
+            for (int i = graph.getBlockStart(block); i < graph.getBlockEnd(block); i++) {
+                AbstractInsnNode insnNode = graph.getInstruction(i);
+
+                if (insnNode.getOpcode() >= 0) {
+                    dropReferences(editor.getInstructions(), labelReferences, insnNode);
+                    editor.remove(insnNode);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the gotos to the instruction that follows them anyway, a goto always being the last instruction of its
+     * block
+     *
+     * @return the number of gotos removed
+     */
+    private static int removeGotosToNext(ControlFlowGraph graph, InsnListEditor editor, int[] labelReferences) {
+        int removed = 0;
+
+        for (int block = 0; block < graph.getBlockCount(); block++) {
+            AbstractInsnNode insnNode = graph.getInstruction(graph.getBlockEnd(block) - 1);
+
+            if (insnNode.getOpcode() != Opcodes.GOTO || editor.isRemoved(insnNode)) {
+                continue;
+            }
+            LabelNode label = ((JumpInsnNode) insnNode).label;
+
+            if (nextInstruction(editor, insnNode) == nextInstruction(editor, label)) {
+                labelReferences[editor.getInstructions().indexOf(label)]--;
+                editor.remove(insnNode);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the labels no instruction left refers to, nor any try/catch block, local variable or annotation
+     *
+     * @return the number of labels removed
+     */
+    private static int removeUnusedLabels(MethodNode method, ControlFlowGraph graph, InsnListEditor editor, int[] labelReferences) {
+        Set<LabelNode> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            used.add(tryCatchBlock.start);
+            used.add(tryCatchBlock.end);
+            used.add(tryCatchBlock.handler);
+        }
+
+        if (method.localVariables != null) {
+
+            for (LocalVariableNode localVariable : method.localVariables) {
+                used.add(localVariable.start);
+                used.add(localVariable.end);
+            }
+        }
+        addLabels(used, method.visibleLocalVariableAnnotations);
+        addLabels(used, method.invisibleLocalVariableAnnotations);
+
+        int removed = 0;
+
+        for (int i = 0; i < labelReferences.length; i++) {
+            AbstractInsnNode insnNode = graph.getInstruction(i);
+
+            if (insnNode instanceof LabelNode && labelReferences[i] == 0 && !used.contains(insnNode)) {
+                editor.remove(insnNode);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Counts down the references the instruction makes to labels, as it is about to be removed
+     */
+    private static void dropReferences(InsnList instructions, int[] labelReferences, AbstractInsnNode insnNode) {
+
+        if (insnNode instanceof JumpInsnNode) {
+            labelReferences[instructions.indexOf(((JumpInsnNode) insnNode).label)]--;
+        } else if (insnNode instanceof TableSwitchInsnNode) {
+            dropReferences(instructions, labelReferences, ((TableSwitchInsnNode) insnNode).dflt, ((TableSwitchInsnNode) insnNode).labels);
+        } else if (insnNode instanceof LookupSwitchInsnNode) {
+            dropReferences(instructions, labelReferences, ((LookupSwitchInsnNode) insnNode).dflt, ((LookupSwitchInsnNode) insnNode).labels);
+        }
+    }
+
+    private static void dropReferences(InsnList instructions, int[] labelReferences, LabelNode dflt, List<LabelNode> labels) {
+        labelReferences[instructions.indexOf(dflt)]--;
+
+        for (LabelNode label : labels) {
+            labelReferences[instructions.indexOf(label)]--;
+        }
+    }
+
+    private static void addLabels(Set<LabelNode> used, List<?> values) {
+
+        if (values == null) {
+            return;
+        }
+
+        for (Object value : values) {
+
+            if (value instanceof LabelNode) {
+                used.add((LabelNode) value);
+            } else if (value instanceof LocalVariableAnnotationNode) {
+                used.addAll(((LocalVariableAnnotationNode) value).start);
+                used.addAll(((LocalVariableAnnotationNode) value).end);
+            }
+        }
+    }
+
+    /**
+     * @return the first instruction after the node that isn't a label, line number or frame
+     */
+    private static AbstractInsnNode nextInstruction(AbstractInsnNode insnNode) {
+        AbstractInsnNode next = insnNode.getNext();
+
+        while (next != null && next.getOpcode() < 0) {
+            next = next.getNext();
+        }
+        return next;
+    }
+
+    /**
+     * @return the first instruction after the node that isn't a label, line number or frame, nor going to be removed
+     */
+    private static AbstractInsnNode nextInstruction(InsnListEditor editor, AbstractInsnNode insnNode) {
+        AbstractInsnNode next = editor.getNext(insnNode);
+
+        while (next != null && next.getOpcode() < 0) {
+            next = editor.getNext(next);
+        }
+        return next;
+    }
+
+    private Histogram histogram(DeobfuscationContext ctx, String name) {
+        return DeobfuscatorMetrics.histogram(ctx, this, name);
+    }
+}
@@ -1,41 +1,64 @@
 package net.alterorb.deobfuscator.transformer.impl;
 
+import com.codahale.metrics.Counter;
 import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ConstantPoolScan;
 import net.alterorb.deobfuscator.DeobfuscationContext;
-import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeContext;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeEngine;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
-import org.objectweb.asm.tree.MethodNode;
-
-import java.util.ListIterator;
 
 @Log4j2
-public class IfJumpTransformer implements Transformer {
+public class IfJumpTransformer extends PeepholeTransformer {
 
     @Override
-    public void process(DeobfuscationContext ctx) {
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+
+        if (!scan.hasOpcode(Opcodes.GOTO)) {
+            return false;
+        }
+
+        for (int opcode = Opcodes.IFEQ; opcode <= Opcodes.IF_ACMPNE; opcode++) {
+
+            if (scan.hasOpcode(opcode)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        ctx.getClassNodes().forEach(classNode -> {
+    @Override
+    protected void register(PeepholeEngine.RuleRegistry registry) {
+        registry.on(Opcodes.IFEQ, Opcodes.IF_ACMPNE, this::retargetJump);
+    }
 
-            for (MethodNode method : classNode.methods) {
-                ListIterator<AbstractInsnNode> iterator = method.instructions.iterator();
+    private void retargetJump(PeepholeContext ctx, AbstractInsnNode insnNode) {
+        JumpInsnNode ifInsnNode = (JumpInsnNode) insnNode;
+        AbstractInsnNode targetInsnNode = ctx.getNext(ifInsnNode.label);
 
-                while (iterator.hasNext()) {
-                    AbstractInsnNode insnNode = iterator.next();
+        if (targetInsnNode.getOpcode() == Opcodes.GOTO && ((JumpInsnNode) targetInsnNode).label != ifInsnNode.label) {
+            JumpInsnNode gotoInsnNode = (JumpInsnNode) targetInsnNode;
 
-                    if (insnNode.getOpcode() >= Opcodes.IFEQ && insnNode.getOpcode() <= Opcodes.IF_ACMPNE) {
-                        JumpInsnNode ifInsnNode = (JumpInsnNode) insnNode;
-                        AbstractInsnNode targetInsnNode = ifInsnNode.label.getNext();
+            ifInsnNode.label = gotoInsnNode.label;
+            ctx.markChanged();
+            retargeted(ctx).inc();
+        }
+    }
 
-                        if (targetInsnNode.getOpcode() == Opcodes.GOTO) {
-                            JumpInsnNode gotoInsnNode = (JumpInsnNode) targetInsnNode;
+    /**
+     * @return the counter of retargeted jumps, looked up once per method and kept as the rule's state
+     */
+    private Counter retargeted(PeepholeContext ctx) {
+        Counter retargeted = ctx.getState();
 
-                            ifInsnNode.label = gotoInsnNode.label;
-                        }
-                    }
-                }
-            }
-        });
+        if (retargeted == null) {
+            retargeted = DeobfuscatorMetrics.counter(ctx.getDeobfuscationContext(), this, "jumps-retargeted");
+            ctx.setState(retargeted);
+        }
+        return retargeted;
     }
 }
@@ -1,15 +1,36 @@
 package net.alterorb.deobfuscator.transformer.impl;
 
 import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ConstantAnalyzer;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.betterasm.DataflowAnalyzer;
+import net.alterorb.betterasm.InsnListEditor;
+import net.alterorb.betterasm.InsnMatch;
+import net.alterorb.betterasm.InsnPattern;
 import net.alterorb.deobfuscator.DeobfuscationContext;
-import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeContext;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeEngine;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -22,67 +43,270 @@ import java.util.Objects;
  * ifne L11 // injected condition
  * if_icmpeq L12
  * <p>
- * This obfuscation seems to be limited to zero comparisons only (ifne, ifeq, ifge, ifgt, ifle, iflt)
+ * The dummy is always false. A boolean of the main class is taken as the dummy once the method stores it to a local,
+ * wherever that happens, and every read of it in the method is then read as false, stored or tested right away.
+ * Constant propagation over the method proves which conditions depend on it, wherever its value flows to, and folds
+ * them: the ones never taken are removed along with the loads feeding them, the ones always taken become gotos, and
+ * the code only they led to is removed. The dummy stores go too once nothing loads their local.
+ * <p>
+ * A method that only ever tests a boolean of the main class right away is left alone, as nothing tells the dummy
+ * apart from a field the game really uses there.
  */
 @Log4j2
-public class ImpossibleJumpTransformer implements Transformer {
+public class ImpossibleJumpTransformer extends PeepholeTransformer {
+
+    /*
+     * getstatic Main.D:boolean
+     * istore dummy
+     */
+    private static final InsnPattern DUMMY_STORE = InsnPattern.of(
+            InsnPattern.field(Opcodes.GETSTATIC, null, null, "Z").as("field"),
+            InsnPattern.opcode(Opcodes.ISTORE).as("store"));
+
+    private static final ThreadLocal<DummyAnalyzer> ANALYZERS = ThreadLocal.withInitial(DummyAnalyzer::new);
 
     @Override
-    public void process(DeobfuscationContext ctx) {
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return scan.referencesFieldOf(ctx.getTargetJarMainClass());
+    }
 
-        ctx.getClassNodes().forEach(classNode -> {
+    @Override
+    public int getVersion() {
+        return 5;
+    }
 
-            for (MethodNode method : classNode.methods) {
-                AbstractInsnNode first = method.instructions.getFirst();
+    @Override
+    protected void register(PeepholeEngine.RuleRegistry registry) {
+        registry.on(DUMMY_STORE, this::collectStore);
+        // the analysis needs the method as the other rules left it
+        registry.afterWalk(this::foldJumps);
+    }
 
-                if (first == null) {
-                    continue;
-                }
+    private void collectStore(PeepholeContext ctx, InsnMatch match) {
+        FieldInsnNode fieldInsnNode = match.get("field");
 
-                if (first.getOpcode() == Opcodes.GETSTATIC) {
-                    FieldInsnNode fieldInsnNode = (FieldInsnNode) first;
+        if (!Objects.equals(fieldInsnNode.owner, ctx.getDeobfuscationContext().getTargetJarMainClass())) {
+            return;
+        }
+        List<InsnMatch> stores = ctx.getState();
+
+        if (stores == null) {
+            ctx.setState(stores = new ArrayList<>());
+        }
+        stores.add(match);
+    }
 
-                    if (Objects.equals(fieldInsnNode.owner, ctx.getTargetJarMainClass())) {
-                        AbstractInsnNode next = first.getNext();
+    private void foldJumps(PeepholeContext ctx) {
+        List<InsnMatch> stores = ctx.getState();
 
-                        if (next.getOpcode() == Opcodes.ISTORE) {
-                            VarInsnNode varInsnNode = (VarInsnNode) next;
-                            LOGGER.warn("Suspicious load to local variable: {}.{}({}), local idx={} at method {}.{}({})", fieldInsnNode.owner, fieldInsnNode.name, fieldInsnNode.desc, varInsnNode.var, classNode.name,
-                                    method.name, method.desc);
-                            cleanMethod(method, varInsnNode.var);
-                            continue;
-                        }
-                    }
+        if (stores == null) {
+            return;
+        }
+        ClassNode classNode = ctx.getClassNode();
+        MethodNode method = ctx.getMethod();
+        List<FieldInsnNode> dummies = new ArrayList<>();
+
+        for (Iterator<InsnMatch> iterator = stores.iterator(); iterator.hasNext(); ) {
+            InsnMatch store = iterator.next();
+            FieldInsnNode fieldInsnNode = store.get("field");
+            VarInsnNode varInsnNode = store.get("store");
+
+            // a label in between could be jumped to with another value to store, and the walk may have removed either
+            if (varInsnNode.getPrevious() != fieldInsnNode) {
+                iterator.remove();
+                continue;
+            }
+            LOGGER.debug("Suspicious load to local variable: {}.{}({}), local idx={} at method {}.{}({})", fieldInsnNode.owner, fieldInsnNode.name, fieldInsnNode.desc, varInsnNode.var, classNode.name,
+                    method.name, method.desc);
+
+            if (!DummyAnalyzer.isDummy(fieldInsnNode, dummies)) {
+                dummies.add(fieldInsnNode);
+            }
+        }
+
+        if (stores.isEmpty()) {
+            return;
+        }
+        DummyAnalyzer analyzer = ANALYZERS.get();
+        analyzer.dummies = dummies;
+
+        try {
+            analyzer.analyze(method);
+        } catch (AnalyzerException e) {
+            LOGGER.debug("Skipping method {}.{}({}), it couldn't be analyzed: {}", classNode.name, method.name, method.desc, e.getMessage());
+            return;
+        } finally {
+            analyzer.dummies = null;
+        }
+        InsnList instructions = method.instructions;
+        InsnListEditor editor = new InsnListEditor(instructions);
+        int folded = 0;
+        int unreachable = 0;
+
+        for (int i = 0; i < analyzer.getSize(); i++) {
+            AbstractInsnNode insnNode = instructions.get(i);
+
+            if (!analyzer.isReachable(i)) {
+
+                if (insnNode.getOpcode() >= 0) {
+                    editor.remove(insnNode);
+                    unreachable++;
                 }
+            } else if (analyzer.getOutcome(i) != DataflowAnalyzer.EITHER) {
+                fold(editor, dummies, insnNode, analyzer.getOutcome(i));
+                folded++;
+            }
+        }
+        int dummiesRemoved = 0;
+
+        for (InsnMatch store : stores) {
+            AbstractInsnNode fieldInsnNode = store.get("field");
+            VarInsnNode varInsnNode = store.get("store");
+
+            // an unreachable store is already gone along with its read
+            if (!editor.isRemoved(varInsnNode) && !isLoaded(editor, instructions, varInsnNode.var)) {
+                editor.remove(fieldInsnNode);
+                editor.remove(varInsnNode);
+                dummiesRemoved++;
             }
-        });
+        }
+
+        if (!editor.hasEdits()) {
+            return;
+        }
+        method.tryCatchBlocks.removeIf(editor::isEmpty);
+        editor.commit();
+        ctx.markChanged();
+
+        DeobfuscationContext deobfuscationContext = ctx.getDeobfuscationContext();
+        DeobfuscatorMetrics.counter(deobfuscationContext, this, "branches-folded").inc(folded);
+        DeobfuscatorMetrics.counter(deobfuscationContext, this, "unreachable-removed").inc(unreachable);
+        DeobfuscatorMetrics.counter(deobfuscationContext, this, "dummy-locals-removed").inc(dummiesRemoved);
     }
 
-    private void cleanMethod(MethodNode methodNode, int localVarIndex) {
-        // ifne -> next
-        // ifeq -> follow jump
-        InsnList instructions = methodNode.instructions;
-        AbstractInsnNode[] abstractInsnNodes = instructions.toArray();
+    /**
+     * Replaces a conditional jump or switch that always goes the same way with a goto, or removes it if it never jumps.
+     * The values it compared are dropped, by removing the instructions that pushed them if they have no other effect,
+     * or with pops otherwise.
+     */
+    private static void fold(InsnListEditor editor, List<FieldInsnNode> dummies, AbstractInsnNode insnNode, int outcome) {
+        int opcode = insnNode.getOpcode();
+        int words = opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ACMPNE ? 2 : 1;
+        AbstractInsnNode previous = insnNode.getPrevious();
 
-        for (AbstractInsnNode abstractInsnNode : abstractInsnNodes) {
+        while (words > 0 && previous != null && !editor.isRemoved(previous) && isRemovablePush(previous, dummies)) {
+            AbstractInsnNode push = previous;
+            previous = previous.getPrevious();
+            editor.remove(push);
+            words--;
+        }
 
-            if (abstractInsnNode.getOpcode() == Opcodes.ISTORE) {
-                VarInsnNode varInsnNode = (VarInsnNode) abstractInsnNode;
+        if (words > 0) {
+            editor.insertBefore(insnNode, new InsnNode(words == 2 ? Opcodes.POP2 : Opcodes.POP));
+        }
+        LabelNode target;
 
-                if (varInsnNode.var == localVarIndex) {
-                    instructions.remove(varInsnNode.getPrevious());
-                    instructions.remove(varInsnNode);
-                }
+        if (insnNode instanceof JumpInsnNode) {
+            target = outcome == 1 ? ((JumpInsnNode) insnNode).label : null;
+        } else if (insnNode instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insnNode;
+            target = outcome == tableSwitch.labels.size() ? tableSwitch.dflt : tableSwitch.labels.get(outcome);
+        } else {
+            LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insnNode;
+            target = outcome == lookupSwitch.labels.size() ? lookupSwitch.dflt : lookupSwitch.labels.get(outcome);
+        }
+
+        if (target == null) {
+            editor.remove(insnNode);
+        } else {
+            editor.set(insnNode, new JumpInsnNode(Opcodes.GOTO, target));
+        }
+    }
+
+    /**
+     * @return whether the instruction pushes a single word without any other effect, the dummies included
+     */
+    private static boolean isRemovablePush(AbstractInsnNode insnNode, List<FieldInsnNode> dummies) {
+
+        switch (insnNode.getOpcode()) {
+
+            case Opcodes.ACONST_NULL:
+            case Opcodes.ICONST_M1:
+            case Opcodes.ICONST_0:
+            case Opcodes.ICONST_1:
+            case Opcodes.ICONST_2:
+            case Opcodes.ICONST_3:
+            case Opcodes.ICONST_4:
+            case Opcodes.ICONST_5:
+            case Opcodes.FCONST_0:
+            case Opcodes.FCONST_1:
+            case Opcodes.FCONST_2:
+            case Opcodes.BIPUSH:
+            case Opcodes.SIPUSH:
+            case Opcodes.ILOAD:
+            case Opcodes.FLOAD:
+            case Opcodes.ALOAD:
+                return true;
+
+            case Opcodes.LDC:
+                Object cst = ((LdcInsnNode) insnNode).cst;
+                return !(cst instanceof Long) && !(cst instanceof Double);
+
+            case Opcodes.GETSTATIC:
+                return DummyAnalyzer.isDummy((FieldInsnNode) insnNode, dummies);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return whether an instruction that is staying reads the local
+     */
+    private static boolean isLoaded(InsnListEditor editor, InsnList instructions, int var) {
+
+        for (AbstractInsnNode insnNode = instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+
+            if (editor.isRemoved(insnNode)) {
+                continue;
+            }
+
+            if (insnNode.getOpcode() == Opcodes.ILOAD && ((VarInsnNode) insnNode).var == var) {
+                return true;
+            }
+
+            if (insnNode.getOpcode() == Opcodes.IINC && ((IincInsnNode) insnNode).var == var) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the dummies as false wherever they're read
+     */
+    private static class DummyAnalyzer extends ConstantAnalyzer {
+
+        private List<FieldInsnNode> dummies;
+
+        @Override
+        protected long getStaticValue(FieldInsnNode insnNode) {
+            return isDummy(insnNode, dummies) ? 0 : UNKNOWN;
+        }
+
+        private static boolean isDummy(FieldInsnNode insnNode, List<FieldInsnNode> dummies) {
 
-            if (abstractInsnNode.getOpcode() == Opcodes.ILOAD) {
-                VarInsnNode varInsnNode = (VarInsnNode) abstractInsnNode;
+            for (FieldInsnNode dummy : dummies) {
 
-                if (varInsnNode.var == localVarIndex) {
-                    instructions.remove(varInsnNode.getNext());
-                    instructions.remove(varInsnNode);
+                if (isDummy(insnNode, dummy)) {
+                    return true;
                 }
             }
+            return false;
+        }
+
+        private static boolean isDummy(FieldInsnNode insnNode, FieldInsnNode dummy) {
+            return insnNode.owner.equals(dummy.owner) && insnNode.name.equals(dummy.name) && insnNode.desc.equals(dummy.desc);
         }
     }
 }
@@ -1,47 +1,94 @@
 package net.alterorb.deobfuscator.transformer.impl;
 
-import net.alterorb.betterasm.ClassNode;
+import com.codahale.metrics.Counter;
+import net.alterorb.betterasm.BufferingMethodVisitor;
+import net.alterorb.betterasm.ChangeReportingClassVisitor;
+import net.alterorb.betterasm.ConstantPoolScan;
 import net.alterorb.deobfuscator.DeobfuscationContext;
-import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.StreamingTransformer;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.LdcInsnNode;
-import org.objectweb.asm.tree.MethodNode;
-
-import java.util.ListIterator;
 
 /**
  * Simplifies bitshifts by overly large constants, ie: var0 >> 1171161633 -> var0 >> 1
  */
-public class SimplifyBitshiftTransformer implements Transformer {
+public class SimplifyBitshiftTransformer implements StreamingTransformer<Void> {
 
     private static final int MASK = 0x1F;
 
+    /**
+     * Only shift distances loaded with ldc can be out of range, smaller constants would be pushed with bipush or sipush
+     */
     @Override
-    public void process(DeobfuscationContext ctx) {
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return scan.hasIntegerConstant(constant -> (constant & ~MASK) != 0) && (scan.hasOpcode(Opcodes.ISHL) || scan.hasOpcode(Opcodes.ISHR));
+    }
+
+    @Override
+    public ClassVisitor visitor(DeobfuscationContext ctx, Void state, ClassVisitor next) {
+        Counter masked = DeobfuscatorMetrics.counter(ctx, this, "shifts-masked");
+
+        return new ChangeReportingClassVisitor(Opcodes.ASM7, next) {
 
-        for (ClassNode classNode : ctx.getClassNodes()) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                return methodVisitor == null ? null : new MaskingMethodVisitor(methodVisitor, masked, () -> markChanged(name, descriptor));
+            }
+        };
+    }
+
+    @Override
+    public boolean reportsChanges() {
+        return true;
+    }
 
-            for (MethodNode method : classNode.methods) {
-                ListIterator<AbstractInsnNode> iterator = method.instructions.iterator();
+    /**
+     * Holds integer constants back until it's clear whether a shift follows them
+     */
+    private static class MaskingMethodVisitor extends BufferingMethodVisitor {
 
-                while (iterator.hasNext()) {
-                    AbstractInsnNode insnNode = iterator.next();
+        private final Counter masked;
+        private final Runnable changed;
+        private Integer pendingConstant;
 
-                    if (insnNode.getOpcode() == Opcodes.ISHR || insnNode.getOpcode() == Opcodes.ISHL) {
-                        AbstractInsnNode previous = insnNode.getPrevious();
+        private MaskingMethodVisitor(MethodVisitor methodVisitor, Counter masked, Runnable changed) {
+            super(Opcodes.ASM7, methodVisitor);
+            this.masked = masked;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void flush() {
+
+            if (pendingConstant != null) {
+                mv.visitLdcInsn(pendingConstant);
+                pendingConstant = null;
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+
+            if (value instanceof Integer) {
+                flush();
+                pendingConstant = (Integer) value;
+                return;
+            }
+            super.visitLdcInsn(value);
+        }
 
-                        if (previous.getType() == AbstractInsnNode.LDC_INSN) {
-                            LdcInsnNode ldcInsnNode = (LdcInsnNode) previous;
-                            Object constant = ldcInsnNode.cst;
+        @Override
+        public void visitInsn(int opcode) {
 
-                            if (constant instanceof Integer) {
-                                ldcInsnNode.cst = (Integer) constant & MASK;
-                            }
-                        }
-                    }
-                }
+            if (pendingConstant != null && (opcode == Opcodes.ISHR || opcode == Opcodes.ISHL) && (pendingConstant & ~MASK) != 0) {
+                pendingConstant = pendingConstant & MASK;
+                masked.inc();
+                changed.run();
             }
+            super.visitInsn(opcode);
         }
     }
 }
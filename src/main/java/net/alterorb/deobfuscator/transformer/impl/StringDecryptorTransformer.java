@@ -1,15 +1,20 @@
 package net.alterorb.deobfuscator.transformer.impl;
 
+import com.codahale.metrics.Counter;
+import net.alterorb.betterasm.BufferingMethodVisitor;
+import net.alterorb.betterasm.ChangeReportingClassVisitor;
+import net.alterorb.betterasm.ConstantPoolScan;
 import net.alterorb.deobfuscator.DeobUtils;
 import net.alterorb.deobfuscator.DeobfuscationContext;
-import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.ClassSource;
+import net.alterorb.deobfuscator.transformer.StreamingTransformer;
 import lombok.extern.log4j.Log4j2;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LabelNode;
-import org.objectweb.asm.tree.LdcInsnNode;
-import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TableSwitchInsnNode;
 
@@ -19,91 +24,94 @@ import java.util.ListIterator;
 import java.util.Objects;
 
 /**
- * Decrypts all strings and removes the decryption methods
+ * Decrypts all strings and removes the decryption methods. The keys are read from the decryption methods before
+ * the class streams through, calls to the decryption methods following a string constant are then dropped and the
+ * constant replaced with the decrypted string.
  */
 @Log4j2
-public class StringDecryptorTransformer implements Transformer {
+public class StringDecryptorTransformer implements StreamingTransformer<StringDecryptorTransformer.Keys> {
 
-    private static final Type[] STRING_DECRYPTOR_ARGUMENTS = {Type.getType(String.class)};
-    private static final Type[] CHAR_ARRAY_DECRYPTOR_ARGUMENTS = {Type.getType(char[].class)};
+    private static final String STRING_DECRYPTOR_DESCRIPTOR = "(Ljava/lang/String;)[C";
+    private static final String CHAR_ARRAY_DECRYPTOR_DESCRIPTOR = "([C)Ljava/lang/String;";
 
     @Override
-    public void process(DeobfuscationContext ctx) {
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return scan.declaresMethod(STRING_DECRYPTOR_DESCRIPTOR);
+    }
 
-        ctx.getClassNodes().forEach(classNode -> {
-            MethodNode stringDecryptorMethod = classNode.findFirstMethodByDescriptor(Type.getType(char[].class), STRING_DECRYPTOR_ARGUMENTS);
-            MethodNode charArrayDecryptorMethod = classNode.findFirstMethodByDescriptor(Type.getType(String.class), CHAR_ARRAY_DECRYPTOR_ARGUMENTS);
+    @Override
+    public Keys prepare(DeobfuscationContext ctx, ClassSource source) {
+        DecryptorReader reader = new DecryptorReader();
+        source.accept(reader);
+        MethodNode stringDecryptorMethod = reader.stringDecryptorMethod;
+        MethodNode charArrayDecryptorMethod = reader.charArrayDecryptorMethod;
 
-            if (stringDecryptorMethod == null) {
-                LOGGER.debug("Skipping class '{}' because we couldn't find the decryptor methods!", classNode.name);
-                return;
-            }
+        if (stringDecryptorMethod == null) {
+            LOGGER.debug("Skipping class '{}' because we couldn't find the decryptor methods!", reader.className);
+            return null;
+        }
 
-            LOGGER.debug("Found string encryptors in the class '{}'", classNode.name);
-            int stringKey = 0;
-            ListIterator<AbstractInsnNode> iterator = stringDecryptorMethod.instructions.iterator();
+        LOGGER.debug("Found string encryptors in the class '{}'", reader.className);
+        int stringKey = 0;
+        ListIterator<AbstractInsnNode> iterator = stringDecryptorMethod.instructions.iterator();
 
-            while (iterator.hasNext()) {
-                AbstractInsnNode next = iterator.next();
+        while (iterator.hasNext()) {
+            AbstractInsnNode next = iterator.next();
 
-                if (next.getOpcode() == Opcodes.CALOAD) {
-                    stringKey = DeobUtils.extractIntValue(next.getNext());
-                    break;
-                }
+            if (next.getOpcode() == Opcodes.CALOAD) {
+                stringKey = DeobUtils.extractIntValue(next.getNext());
+                break;
             }
-            LOGGER.debug("String decryption key={}", stringKey);
+        }
+        LOGGER.debug("String decryption key={}", stringKey);
 
-            TableSwitchInsnNode tableSwitchNode = findTableSwitchNode(charArrayDecryptorMethod);
-            byte[] keys = new byte[5];
+        TableSwitchInsnNode tableSwitchNode = charArrayDecryptorMethod == null ? null : findTableSwitchNode(charArrayDecryptorMethod);
+        byte[] keys = new byte[5];
 
-            if (tableSwitchNode != null) {
-                List<LabelNode> labels = tableSwitchNode.labels;
+        if (tableSwitchNode != null) {
+            List<LabelNode> labels = tableSwitchNode.labels;
 
-                for (int i = 0; i < labels.size(); i++) {
-                    AbstractInsnNode abstractInsnNode = labels.get(i).getNext();
+            for (int i = 0; i < labels.size(); i++) {
+                AbstractInsnNode abstractInsnNode = labels.get(i).getNext();
 
-                    keys[i] = (byte) DeobUtils.extractIntValue(abstractInsnNode);
-                }
-                keys[4] = (byte) DeobUtils.extractIntValue(tableSwitchNode.dflt.getNext());
-                LOGGER.debug("Char array decryption keys={}", Arrays.toString(keys));
+                keys[i] = (byte) DeobUtils.extractIntValue(abstractInsnNode);
             }
+            keys[4] = (byte) DeobUtils.extractIntValue(tableSwitchNode.dflt.getNext());
+            LOGGER.debug("Char array decryption keys={}", Arrays.toString(keys));
+        }
+        return new Keys(stringDecryptorMethod.name, charArrayDecryptorMethod == null ? null : charArrayDecryptorMethod.name, stringKey, keys);
+    }
 
-            List<MethodNode> methods = classNode.methods;
-
-            for (MethodNode method : methods) {
-                AbstractInsnNode[] abstractInsnNodes = method.instructions.toArray(); // we make a 'copy' because we'll be removing elements from the InsnList
-
-                for (AbstractInsnNode abstractInsnNode : abstractInsnNodes) {
+    @Override
+    public ClassVisitor visitor(DeobfuscationContext ctx, Keys keys, ClassVisitor next) {
 
-                    if (abstractInsnNode.getType() == AbstractInsnNode.LDC_INSN) {
-                        LdcInsnNode ldcInsnNode = (LdcInsnNode) abstractInsnNode;
-                        AbstractInsnNode ldcInsnNodeNext = ldcInsnNode.getNext();
+        if (keys == null) {
+            return next;
+        }
+        Counter decrypted = DeobfuscatorMetrics.counter(ctx, this, "strings-decrypted");
 
-                        if (!(ldcInsnNode.cst instanceof String) || ldcInsnNodeNext == null || ldcInsnNodeNext.getType() != AbstractInsnNode.METHOD_INSN
-                                || !isStringDecryptorMethod((MethodInsnNode) ldcInsnNodeNext)) {
-                            continue;
-                        }
+        return new ChangeReportingClassVisitor(Opcodes.ASM7, next) {
 
-                        String deobfuscatedString = deobfuscate(deobfuscate((String) ldcInsnNode.cst, stringKey), keys);
-                        LOGGER.debug("Decrypted string '{}' into '{}'", ldcInsnNode.cst, deobfuscatedString);
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
 
-                        // replaces the cst with the deobfuscated string and removes the call to the string ecryptors
-                        ldcInsnNode.cst = deobfuscatedString;
-                        AbstractInsnNode decryptorNextInsnNode = ldcInsnNodeNext.getNext();
-                        method.instructions.remove(ldcInsnNodeNext); // z(String) char[] call
-                        method.instructions.remove(decryptorNextInsnNode); // z(char[]) String call
-                    }
+                if ((name.equals(keys.stringDecryptorName) && descriptor.equals(STRING_DECRYPTOR_DESCRIPTOR))
+                        || (name.equals(keys.charArrayDecryptorName) && descriptor.equals(CHAR_ARRAY_DECRYPTOR_DESCRIPTOR))) {
+                    return null;
                 }
+                MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                return methodVisitor == null ? null : new DecryptingMethodVisitor(methodVisitor, keys, decrypted, () -> markChanged(name, descriptor));
             }
-            methods.remove(stringDecryptorMethod);
-            methods.remove(charArrayDecryptorMethod);
-        });
+        };
     }
 
-    private static boolean isStringDecryptorMethod(MethodInsnNode methodInsnNode) {
-        return Objects.equals(methodInsnNode.name, "z")
-                && Objects.equals(Type.getReturnType(methodInsnNode.desc), Type.getType(char[].class))
-                && Arrays.equals(Type.getArgumentTypes(methodInsnNode.desc), STRING_DECRYPTOR_ARGUMENTS);
+    @Override
+    public boolean reportsChanges() {
+        return true;
+    }
+
+    private static boolean isStringDecryptorMethod(String name, String descriptor) {
+        return Objects.equals(name, "z") && Objects.equals(descriptor, STRING_DECRYPTOR_DESCRIPTOR);
     }
 
     private static TableSwitchInsnNode findTableSwitchNode(MethodNode methodNode) {
@@ -154,4 +162,110 @@ public class StringDecryptorTransformer implements Transformer {
         }
         return new String(obfuscatedChars);
     }
+
+    /**
+     * The keys of a class along with the names of the decryption methods they were read from
+     */
+    static class Keys {
+
+        private final String stringDecryptorName;
+        private final String charArrayDecryptorName;
+        private final int stringKey;
+        private final byte[] keys;
+
+        private Keys(String stringDecryptorName, String charArrayDecryptorName, int stringKey, byte[] keys) {
+            this.stringDecryptorName = stringDecryptorName;
+            this.charArrayDecryptorName = charArrayDecryptorName;
+            this.stringKey = stringKey;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Only builds the first decryption method of each kind into a tree, the code of every other method is skipped
+     */
+    private static class DecryptorReader extends ClassVisitor {
+
+        private String className;
+        private MethodNode stringDecryptorMethod;
+        private MethodNode charArrayDecryptorMethod;
+
+        private DecryptorReader() {
+            super(Opcodes.ASM7);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.className = name;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+
+            if (stringDecryptorMethod == null && descriptor.equals(STRING_DECRYPTOR_DESCRIPTOR)) {
+                return stringDecryptorMethod = new MethodNode(access, name, descriptor, signature, exceptions);
+            }
+
+            if (charArrayDecryptorMethod == null && descriptor.equals(CHAR_ARRAY_DECRYPTOR_DESCRIPTOR)) {
+                return charArrayDecryptorMethod = new MethodNode(access, name, descriptor, signature, exceptions);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Holds string constants back until it's clear whether the decryption methods are called on them
+     */
+    private static class DecryptingMethodVisitor extends BufferingMethodVisitor {
+
+        private final Keys keys;
+        private final Counter decrypted;
+        private final Runnable changed;
+        private String pendingString;
+
+        private DecryptingMethodVisitor(MethodVisitor methodVisitor, Keys keys, Counter decrypted, Runnable changed) {
+            super(Opcodes.ASM7, methodVisitor);
+            this.keys = keys;
+            this.decrypted = decrypted;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void flush() {
+
+            if (pendingString != null) {
+                mv.visitLdcInsn(pendingString);
+                pendingString = null;
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+
+            if (value instanceof String) {
+                flush();
+                pendingString = (String) value;
+                return;
+            }
+            super.visitLdcInsn(value);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+
+            if (pendingString == null || !isStringDecryptorMethod(name, descriptor)) {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                return;
+            }
+            String deobfuscatedString = deobfuscate(deobfuscate(pendingString, keys.stringKey), keys.keys);
+            LOGGER.debug("Decrypted string '{}' into '{}'", pendingString, deobfuscatedString);
+
+            // replaces the cst with the deobfuscated string, drops the z(String) char[] call and the z(char[]) String call following it
+            pendingString = deobfuscatedString;
+            flush();
+            dropNext();
+            decrypted.inc();
+            changed.run();
+        }
+    }
 }
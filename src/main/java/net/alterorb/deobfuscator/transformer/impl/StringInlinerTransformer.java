@@ -1,8 +1,17 @@
 package net.alterorb.deobfuscator.transformer.impl;
 
+import com.codahale.metrics.Counter;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.betterasm.InsnListEditor;
+import net.alterorb.betterasm.InsnMatch;
+import net.alterorb.betterasm.InsnPattern;
 import net.alterorb.deobfuscator.DeobUtils;
 import net.alterorb.deobfuscator.DeobfuscationContext;
-import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeContext;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeEngine;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeTransformer;
 import lombok.extern.log4j.Log4j2;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -12,7 +21,6 @@ import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -21,103 +29,143 @@ import java.util.Objects;
  * Inlines all strings contained in the static [Ljava/lang/String; array
  */
 @Log4j2
-public class StringInlinerTransformer implements Transformer {
+public class StringInlinerTransformer extends PeepholeTransformer {
 
-    @Override
-    public void process(DeobfuscationContext ctx) {
-
-        ctx.getClassNodes().forEach(classNode -> {
-            FieldNode stringArrayField = classNode.findFirstFieldMatching(fieldNode -> fieldNode.access == (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL) && fieldNode.desc.equals("[Ljava/lang/String;"));
+    private static final String STRING_ARRAY_DESCRIPTOR = "[Ljava/lang/String;";
+    private static final int STRING_ARRAY_ACCESS = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL;
 
-            if (stringArrayField == null) {
-                LOGGER.debug("Skipping class '{}' because we couldn't find the zStringArray field!", classNode.name);
-                return;
-            }
+    /*
+     * getstatic a.z [Ljava/lang/String;
+     * bipush index
+     * aaload
+     */
+    private static final InsnPattern ARRAY_LOAD = InsnPattern.of(
+            InsnPattern.field(Opcodes.GETSTATIC, null, null, STRING_ARRAY_DESCRIPTOR).as("array"),
+            InsnPattern.intConstant().as("index"),
+            InsnPattern.opcode(Opcodes.AALOAD).as("load"));
 
-            Map<Integer, Object> cstMap = new HashMap<>();
+    @Override
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return scan.declaresField(STRING_ARRAY_ACCESS, STRING_ARRAY_DESCRIPTOR);
+    }
 
-            // Find our anchor point where we'll step back, from PUTSTATIC a.z[Ljava/lang/String; to anewarray java/lang/String
-            MethodNode classInitializer = classNode.getClassInitializer();
-            InsnList clinitInstructions = classInitializer.instructions;
-            AbstractInsnNode anchorInsnNode = null;
+    @Override
+    protected void register(PeepholeEngine.RuleRegistry registry) {
+        registry.onClass(this::removeStringArray);
+        registry.on(ARRAY_LOAD, this::inlineLoad);
+    }
 
-            for (AbstractInsnNode abstractInsnNode : clinitInstructions.toArray()) {
+    /**
+     * Reads the strings out of the class initializer and removes the array along with the code filling it, the loads
+     * of it are then inlined as the methods are walked
+     *
+     * @return the strings by their index in the array, or null if the class has no such array
+     */
+    private StringArray removeStringArray(DeobfuscationContext ctx, ClassNode classNode) {
+        FieldNode stringArrayField = null;
 
-                if (abstractInsnNode.getOpcode() == Opcodes.PUTSTATIC) {
-                    FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
+        for (FieldNode fieldNode : classNode.findFieldsByDescriptor(STRING_ARRAY_DESCRIPTOR)) {
 
-                    if (Objects.equals(fieldInsnNode.name, stringArrayField.name) && Objects.equals(fieldInsnNode.desc, "[Ljava/lang/String;")) {
-                        anchorInsnNode = fieldInsnNode;
-                        break;
-                    }
-                }
+            if (fieldNode.access == STRING_ARRAY_ACCESS) {
+                stringArrayField = fieldNode;
+                break;
             }
+        }
 
-            if (anchorInsnNode == null) {
-                LOGGER.warn("Failed to find anchor point!");
-                return;
-            }
+        if (stringArrayField == null) {
+            LOGGER.debug("Skipping class '{}' because we couldn't find the zStringArray field!", classNode.name);
+            return null;
+        }
 
-            ArrayList<AbstractInsnNode> forRemoval = new ArrayList<>();
-            AbstractInsnNode current = anchorInsnNode;
+        Map<Integer, Object> cstMap = new HashMap<>();
 
-            forRemoval.add(anchorInsnNode);
+        // Find our anchor point where we'll step back, from PUTSTATIC a.z[Ljava/lang/String; to anewarray java/lang/String
+        MethodNode classInitializer = classNode.getClassInitializer();
+        InsnList clinitInstructions = classInitializer.instructions;
+        AbstractInsnNode anchorInsnNode = null;
 
-            while ((current = current.getPrevious()) != null) {
-                int opcode = current.getOpcode();
+        for (AbstractInsnNode abstractInsnNode = clinitInstructions.getFirst(); abstractInsnNode != null; abstractInsnNode = abstractInsnNode.getNext()) {
 
-                forRemoval.add(current);
+            if (abstractInsnNode.getOpcode() == Opcodes.PUTSTATIC) {
+                FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
 
-                if (opcode == Opcodes.ANEWARRAY) {
-                    forRemoval.add(current.getPrevious());
+                if (Objects.equals(fieldInsnNode.name, stringArrayField.name) && Objects.equals(fieldInsnNode.desc, "[Ljava/lang/String;")) {
+                    anchorInsnNode = fieldInsnNode;
                     break;
-                } else if (opcode == Opcodes.LDC) {
-                    LdcInsnNode ldcInsnNode = (LdcInsnNode) current;
-                    int index = DeobUtils.extractIntValue(ldcInsnNode.getPrevious());
-
-                    cstMap.put(index, ldcInsnNode.cst);
                 }
             }
+        }
 
-            // Couldn't think of a cleaner way right now
-            for (AbstractInsnNode abstractInsnNode : forRemoval) {
-                clinitInstructions.remove(abstractInsnNode);
-            }
+        if (anchorInsnNode == null) {
+            LOGGER.warn("Failed to find anchor point!");
+            return null;
+        }
 
-            classNode.fields.remove(stringArrayField);
+        InsnListEditor clinitEditor = new InsnListEditor(clinitInstructions);
+        AbstractInsnNode current = anchorInsnNode;
 
-            // replace array loads with inlined values
-            /*
-             * getstatic a.z [Ljava/lang/String;
-             * bipush index
-             * aaload
-             */
-            for (MethodNode method : classNode.methods) {
-                InsnList methodInstructions = method.instructions;
-                AbstractInsnNode[] abstractInsnNodes = methodInstructions.toArray(); // we make a 'copy' because we'll be modifying the InsnList
+        clinitEditor.remove(anchorInsnNode);
 
-                for (AbstractInsnNode abstractInsnNode : abstractInsnNodes) {
+        while ((current = current.getPrevious()) != null) {
+            int opcode = current.getOpcode();
 
-                    if (abstractInsnNode.getOpcode() == Opcodes.GETSTATIC) {
-                        FieldInsnNode fieldInsnNode = (FieldInsnNode) abstractInsnNode;
+            clinitEditor.remove(current);
 
-                        if (Objects.equals(fieldInsnNode.name, stringArrayField.name) && Objects.equals(fieldInsnNode.desc, "[Ljava/lang/String;")) {
-                            int loadIndex = DeobUtils.extractIntValue(fieldInsnNode.getNext());
+            if (opcode == Opcodes.ANEWARRAY) {
+                clinitEditor.remove(current.getPrevious());
+                break;
+            } else if (opcode == Opcodes.LDC) {
+                LdcInsnNode ldcInsnNode = (LdcInsnNode) current;
+                int loadIndex = DeobUtils.extractIntValue(ldcInsnNode.getPrevious());
 
-                            methodInstructions.remove(fieldInsnNode.getNext().getNext()); // aaload
-                            methodInstructions.remove(fieldInsnNode.getNext()); // index
+                cstMap.put(loadIndex, ldcInsnNode.cst);
+            }
+        }
+        clinitEditor.commit();
+        classNode.markDirty(classInitializer);
+        classNode.fields.remove(stringArrayField);
+        return new StringArray(stringArrayField.name, cstMap, DeobfuscatorMetrics.counter(ctx, this, "loads-inlined"));
+    }
 
-                            Object cst = cstMap.get(loadIndex);
+    /**
+     * Replaces a load of the array with the string it holds
+     */
+    private void inlineLoad(PeepholeContext ctx, InsnMatch match) {
+        StringArray stringArray = ctx.getClassState();
+        FieldInsnNode fieldInsnNode = match.get("array");
+
+        if (stringArray == null || !Objects.equals(fieldInsnNode.name, stringArray.name)) {
+            return;
+        }
+        AbstractInsnNode indexInsnNode = match.get("index");
+        int loadIndex = DeobUtils.extractIntValue(indexInsnNode);
+        Object cst = stringArray.constants.get(loadIndex);
+
+        if (cst == null) {
+            LOGGER.warn("No cst for load index {}!", loadIndex);
+            return;
+        }
+        ctx.remove(match.get("load"));
+        ctx.remove(indexInsnNode);
+        ctx.set(fieldInsnNode, new LdcInsnNode(cst));
+        stringArray.inlined.inc();
+    }
 
-                            if (cst == null) {
-                                LOGGER.warn("No cst for load index {}!", loadIndex);
-                                continue;
-                            }
-                            methodInstructions.set(fieldInsnNode, new LdcInsnNode(cst));
-                        }
-                    }
-                }
-            }
-        });
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    private static class StringArray {
+
+        private final String name;
+        private final Map<Integer, Object> constants;
+        private final Counter inlined;
+
+        private StringArray(String name, Map<Integer, Object> constants, Counter inlined) {
+            this.name = name;
+            this.constants = constants;
+            this.inlined = inlined;
+        }
     }
 }
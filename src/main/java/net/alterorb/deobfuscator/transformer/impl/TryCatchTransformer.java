@@ -1,31 +1,44 @@
 package net.alterorb.deobfuscator.transformer.impl;
 
+import net.alterorb.betterasm.ConstantPoolScan;
 import net.alterorb.deobfuscator.DeobfuscationContext;
-import net.alterorb.deobfuscator.transformer.Transformer;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeContext;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeEngine;
+import net.alterorb.deobfuscator.transformer.peephole.PeepholeTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.MethodNode;
 
-import java.util.List;
 import java.util.Objects;
 
-public class TryCatchTransformer implements Transformer {
+public class TryCatchTransformer extends PeepholeTransformer {
 
     @Override
-    public void process(DeobfuscationContext ctx) {
-        ctx.getClassNodes().forEach(classNode -> {
-            List<MethodNode> methods = classNode.methods;
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+        return scan.hasTryCatchBlocks();
+    }
 
-            for (MethodNode method : methods) {
+    @Override
+    protected void register(PeepholeEngine.RuleRegistry registry) {
+        // only looks at the try/catch blocks, so it never needs to walk the instructions
+        registry.onMethod(this::removeFakeHandlers);
+    }
 
-                method.tryCatchBlocks.removeIf(tryCatch -> {
-                    AbstractInsnNode handlerNext = tryCatch.handler.getNext();
+    private void removeFakeHandlers(PeepholeContext ctx) {
+        int tryCatchBlocks = ctx.getMethod().tryCatchBlocks.size();
 
-                    return (handlerNext.getOpcode() == Opcodes.INVOKESTATIC && handlerNext.getNext().getOpcode() == Opcodes.ATHROW)
-                            || handlerNext.getOpcode() == Opcodes.ATHROW
-                            || Objects.equals(tryCatch.type, "java/lang/RuntimeException");
-                });
-            }
+        ctx.getMethod().tryCatchBlocks.removeIf(tryCatch -> {
+            AbstractInsnNode handlerNext = tryCatch.handler.getNext();
+
+            return (handlerNext.getOpcode() == Opcodes.INVOKESTATIC && handlerNext.getNext().getOpcode() == Opcodes.ATHROW)
+                    || handlerNext.getOpcode() == Opcodes.ATHROW
+                    || Objects.equals(tryCatch.type, "java/lang/RuntimeException");
         });
+        int removed = tryCatchBlocks - ctx.getMethod().tryCatchBlocks.size();
+
+        if (removed > 0) {
+            ctx.markChanged();
+            DeobfuscatorMetrics.counter(ctx.getDeobfuscationContext(), this, "handlers-removed").inc(removed);
+        }
     }
 }
@@ -0,0 +1,96 @@
+package net.alterorb.deobfuscator.transformer.impl;
+
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassStore;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.index.Reachability;
+import net.alterorb.deobfuscator.index.SymbolIndex;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.Transformer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Removes the classes, methods and fields that can't be reached from the main class, see {@link Reachability}, which
+ * is what the decryptors, string arrays and dead paths the other transformers cut off leave behind. Inner class
+ * entries naming a removed class go along with it.
+ * <p>
+ * Runs over the whole program, after every class-local transformer, and is left out unless pruning is asked for
+ * since whatever reaches the jar through reflection it can't see is removed as well.
+ */
+@Log4j2
+public class UnreachableMemberTransformer implements Transformer {
+
+    @Override
+    public void process(DeobfuscationContext ctx) {
+        SymbolIndex index = ctx.getSymbolIndex();
+        String mainClass = ctx.getTargetJarMainClass();
+
+        if (!index.contains(mainClass)) {
+            LOGGER.warn("Skipping, the main class {} isn't in the jar", mainClass);
+            return;
+        }
+        Reachability reachability = Reachability.analyze(index, mainClass);
+        ClassStore classStore = ctx.getClassStore();
+        int classCount = classStore.size();
+        AtomicInteger removedMethods = new AtomicInteger();
+        AtomicInteger removedFields = new AtomicInteger();
+        List<String> removedClasses = new ArrayList<>();
+
+        for (int i = 0; i < classCount; i++) {
+            String[] name = new String[1];
+            classStore.read(i, classNode -> name[0] = classNode.name);
+
+            if (!reachability.isReachable(name[0])) {
+                classStore.discard(i);
+                removedClasses.add(name[0]);
+                continue;
+            }
+            classStore.update(i, classNode -> {
+                int methodCount = classNode.methods.size();
+                int fieldCount = classNode.fields.size();
+
+                classNode.methods.removeIf(method -> {
+
+                    if (reachability.isReachable(classNode, method)) {
+                        return false;
+                    }
+                    index.removeMethod(classNode.name, method.name, method.desc);
+                    return true;
+                });
+                classNode.fields.removeIf(field -> {
+
+                    if (reachability.isReachable(classNode, field)) {
+                        return false;
+                    }
+                    index.removeField(classNode.name, field.name, field.desc);
+                    return true;
+                });
+                classNode.innerClasses.removeIf(innerClass -> isRemoved(index, reachability, innerClass.name));
+
+                if (classNode.nestMembers != null) {
+                    classNode.nestMembers.removeIf(nestMember -> isRemoved(index, reachability, nestMember));
+                }
+                removedMethods.addAndGet(methodCount - classNode.methods.size());
+                removedFields.addAndGet(fieldCount - classNode.fields.size());
+                return classNode;
+            });
+        }
+        // only now, the inner class entries naming them had to be told apart from the ones naming outside classes
+        removedClasses.forEach(index::invalidate);
+        classStore.compact();
+        index.compact();
+
+        LOGGER.info("Removed {} of {} classes, {} methods and {} fields that can't be reached from {}, found in {} rounds", removedClasses.size(),
+                classCount, removedMethods, removedFields, mainClass, reachability.getRounds());
+        DeobfuscatorMetrics.counter(ctx, this, "classes-removed").inc(removedClasses.size());
+        DeobfuscatorMetrics.counter(ctx, this, "methods-removed").inc(removedMethods.get());
+        DeobfuscatorMetrics.counter(ctx, this, "fields-removed").inc(removedFields.get());
+    }
+
+    private static boolean isRemoved(SymbolIndex index, Reachability reachability, String className) {
+        return index.contains(className) && !reachability.isReachable(className);
+    }
+}
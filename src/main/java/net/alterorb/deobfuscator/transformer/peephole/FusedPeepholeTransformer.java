@@ -0,0 +1,78 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ConstantPoolScan;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.transformer.MethodTransformer;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs several {@link PeepholeTransformer}s together, with a single walk over the instructions of each method
+ */
+public class FusedPeepholeTransformer implements MethodTransformer {
+
+    private final List<PeepholeTransformer> rules;
+    private final PeepholeEngine engine;
+
+    public FusedPeepholeTransformer(PeepholeTransformer... rules) {
+        this(Arrays.asList(rules));
+    }
+
+    public FusedPeepholeTransformer(List<PeepholeTransformer> rules) {
+        this.rules = rules;
+        this.engine = new PeepholeEngine(this, rules);
+    }
+
+    @Override
+    public boolean process(DeobfuscationContext ctx, ClassNode classNode, MethodNode method) {
+        return engine.process(ctx, classNode, method);
+    }
+
+    @Override
+    public boolean isApplicable(DeobfuscationContext ctx, ConstantPoolScan scan) {
+
+        for (PeepholeTransformer rule : rules) {
+
+            if (rule.isApplicable(ctx, scan)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public PeepholeEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    public void beginClass(DeobfuscationContext ctx, ClassNode classNode) {
+        engine.beginClass(ctx, classNode);
+    }
+
+    @Override
+    public void endClass(DeobfuscationContext ctx, ClassNode classNode) {
+        engine.endClass();
+    }
+
+    @Override
+    public void complete(DeobfuscationContext ctx) {
+        engine.logStatistics(ctx);
+    }
+
+    /**
+     * Combines the names and versions of the fused rules, so changing any of them changes the version
+     */
+    @Override
+    public int getVersion() {
+        int version = 1;
+
+        for (PeepholeTransformer rule : rules) {
+            version = 31 * version + rule.getClass().getName().hashCode();
+            version = 31 * version + rule.getVersion();
+        }
+        return version;
+    }
+}
@@ -0,0 +1,122 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import lombok.Getter;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.InsnListEditor;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+
+/**
+ * State of a single method walk, handed to every handler. Instructions must be removed, replaced or inserted through
+ * this context, which holds the edits back until the walk is over, any other change to the method has to be reported
+ * through {@link #markChanged()}.
+ * <p>
+ * Until then the walk and {@link #getNext}/{@link #getPrevious} skip the instructions removed or replaced so far,
+ * replacements and inserted instructions are only walked on the next pass.
+ */
+public class PeepholeContext {
+
+    @Getter
+    private final DeobfuscationContext deobfuscationContext;
+    private final Object[] ruleStates;
+    private final Object[] classStates;
+
+    @Getter
+    private ClassNode classNode;
+    @Getter
+    private MethodNode method;
+
+    int currentRule;
+    InsnListEditor editor;
+    AbstractInsnNode current;
+    boolean currentRemoved;
+    boolean changed;
+
+    PeepholeContext(DeobfuscationContext deobfuscationContext, int rules, Object[] classStates) {
+        this.deobfuscationContext = deobfuscationContext;
+        this.ruleStates = new Object[rules];
+        this.classStates = classStates;
+    }
+
+    void reset(ClassNode classNode, MethodNode method) {
+        this.classNode = classNode;
+        this.method = method;
+        this.editor = new InsnListEditor(method.instructions);
+        this.current = null;
+        this.currentRemoved = false;
+        this.changed = false;
+        Arrays.fill(ruleStates, null);
+    }
+
+    /**
+     * @return the per-method state of the rule currently running, null until the rule sets one
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getState() {
+        return (T) ruleStates[currentRule];
+    }
+
+    public void setState(Object state) {
+        ruleStates[currentRule] = state;
+    }
+
+    /**
+     * @return what the class hook of the rule currently running returned for the class, null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getClassState() {
+        return (T) classStates[currentRule];
+    }
+
+    /**
+     * Records that the method was changed by something other than {@link #remove} or {@link #set}
+     */
+    public void markChanged() {
+        changed = true;
+    }
+
+    public void remove(AbstractInsnNode insnNode) {
+        changed = true;
+
+        if (insnNode == current) {
+            currentRemoved = true;
+        }
+        editor.remove(insnNode);
+    }
+
+    public void set(AbstractInsnNode insnNode, AbstractInsnNode replacement) {
+        changed = true;
+
+        if (insnNode == current) {
+            currentRemoved = true;
+        }
+        editor.set(insnNode, replacement);
+    }
+
+    public void insertBefore(AbstractInsnNode location, AbstractInsnNode insnNode) {
+        changed = true;
+        editor.insertBefore(location, insnNode);
+    }
+
+    public void insertAfter(AbstractInsnNode location, AbstractInsnNode insnNode) {
+        changed = true;
+        editor.insertAfter(location, insnNode);
+    }
+
+    /**
+     * @return the instruction following the given one once the edits so far are applied, leaving out insertions
+     */
+    public AbstractInsnNode getNext(AbstractInsnNode insnNode) {
+        return editor.getNext(insnNode);
+    }
+
+    /**
+     * @return the instruction preceding the given one once the edits so far are applied, leaving out insertions
+     */
+    public AbstractInsnNode getPrevious(AbstractInsnNode insnNode) {
+        return editor.getPrevious(insnNode);
+    }
+}
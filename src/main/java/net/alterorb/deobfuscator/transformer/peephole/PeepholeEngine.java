@@ -0,0 +1,286 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import lombok.extern.log4j.Log4j2;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.InsnMatch;
+import net.alterorb.betterasm.InsnPattern;
+import net.alterorb.betterasm.InsnPatternMatcher;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches the handlers of any number of {@link PeepholeTransformer}s from a single walk over each method's
+ * instructions. Handlers registered for the same opcode run in registration order, and stop being dispatched
+ * for an instruction once one of them removes or replaces it. The edits of every handler are applied together once
+ * the walk is over.
+ * <p>
+ * Instruction patterns of every rule are compiled into a single {@link InsnPatternMatcher} fed by the same walk, so
+ * a pattern costs no pass of its own. The handlers of the patterns ending at an instruction run after its opcode
+ * handlers, as long as none of the matched instructions was removed or replaced.
+ * <p>
+ * The walks are counted into the metrics of the context, under the transformer the engine runs for, so jobs running
+ * side by side with the same transformers each count their own.
+ */
+@Log4j2
+public class PeepholeEngine {
+
+    private static final int OPCODES = 256;
+
+    private final Object owner;
+    private final List<PeepholeTransformer> rules;
+    private final RuleHandler[][] handlersByOpcode = new RuleHandler[OPCODES][];
+    private final List<RuleHandler> classHooks = new ArrayList<>();
+    private final List<RuleHandler> methodHooks = new ArrayList<>();
+    private final List<RuleHandler> walkHooks = new ArrayList<>();
+    private final List<InsnPattern> patterns = new ArrayList<>();
+    private final List<RuleHandler> patternHandlers = new ArrayList<>();
+    private final InsnPatternMatcher matcher;
+    private final ThreadLocal<ClassScope> classScopes = new ThreadLocal<>();
+    private final boolean[] walkingRules;
+    private boolean instructionHandlers;
+
+    /**
+     * @param owner the transformer the walks are counted for
+     */
+    public PeepholeEngine(Object owner, List<PeepholeTransformer> rules) {
+        this.owner = owner;
+        this.rules = rules;
+        this.walkingRules = new boolean[rules.size()];
+
+        for (int i = 0; i < rules.size(); i++) {
+            rules.get(i).register(new RuleRegistry(i));
+        }
+        this.matcher = patterns.isEmpty() ? null : new InsnPatternMatcher(patterns);
+    }
+
+    /**
+     * Runs the class hooks of the rules, before any method of the class is processed on this thread
+     */
+    public void beginClass(DeobfuscationContext ctx, ClassNode classNode) {
+        Object[] classStates = new Object[rules.size()];
+
+        for (RuleHandler hook : classHooks) {
+            classStates[hook.rule] = hook.classHook.apply(ctx, classNode);
+        }
+        classScopes.set(new ClassScope(classNode, classStates));
+    }
+
+    /**
+     * Forgets the class states once every method of the class was processed
+     */
+    public void endClass() {
+        classScopes.remove();
+    }
+
+    /**
+     * Runs the method hooks and walks the instructions of a single method, then runs the hooks following the walk.
+     * The class hooks run first if the class wasn't begun on this thread.
+     *
+     * @return whether any rule changed the method
+     */
+    public boolean process(DeobfuscationContext ctx, ClassNode classNode, MethodNode method) {
+        ClassScope classScope = classScopes.get();
+
+        if (classScope == null || classScope.classNode != classNode) {
+            beginClass(ctx, classNode);
+            classScope = classScopes.get();
+        }
+        PeepholeContext peepholeContext = new PeepholeContext(ctx, rules.size(), classScope.states);
+        peepholeContext.reset(classNode, method);
+
+        for (RuleHandler hook : methodHooks) {
+            peepholeContext.currentRule = hook.rule;
+            hook.methodHook.accept(peepholeContext);
+        }
+
+        if (instructionHandlers) {
+            long walked = walk(peepholeContext, method);
+
+            if (walked > 0) {
+                DeobfuscatorMetrics.counter(ctx, owner, "method-walks").inc();
+                DeobfuscatorMetrics.counter(ctx, owner, "instructions-walked").inc(walked);
+            }
+        }
+        peepholeContext.editor.commit();
+
+        for (RuleHandler hook : walkHooks) {
+            peepholeContext.currentRule = hook.rule;
+            hook.methodHook.accept(peepholeContext);
+        }
+        return peepholeContext.changed;
+    }
+
+    /**
+     * @return the number of instructions walked
+     */
+    private long walk(PeepholeContext ctx, MethodNode method) {
+        AbstractInsnNode insnNode = method.instructions.getFirst();
+        long walked = 0;
+
+        if (insnNode == null) {
+            return 0;
+        }
+        InsnPatternMatcher.Scan scan = matcher == null ? null : matcher.newScan();
+        InsnPatternMatcher.MatchHandler matchHandler = (pattern, match) -> dispatch(ctx, pattern, match);
+
+        while (insnNode != null) {
+            int opcode = insnNode.getOpcode();
+
+            ctx.current = insnNode;
+            ctx.currentRemoved = false;
+            walked++;
+
+            if (opcode >= 0 && handlersByOpcode[opcode] != null) {
+
+                for (RuleHandler handler : handlersByOpcode[opcode]) {
+                    ctx.currentRule = handler.rule;
+                    handler.handler.handle(ctx, insnNode);
+
+                    if (ctx.currentRemoved) {
+                        break;
+                    }
+                }
+            }
+
+            if (scan != null && !ctx.currentRemoved) {
+                scan.feed(insnNode, matchHandler);
+            }
+            insnNode = ctx.editor.getNext(insnNode);
+        }
+        return walked;
+    }
+
+    private void dispatch(PeepholeContext ctx, int pattern, InsnMatch match) {
+
+        for (int i = 0; i < match.size(); i++) {
+
+            if (ctx.editor.isRemoved(match.get(i))) {
+                return;
+            }
+        }
+        RuleHandler handler = patternHandlers.get(pattern);
+        ctx.currentRule = handler.rule;
+        handler.patternHandler.handle(ctx, match);
+    }
+
+    /**
+     * @return the number of rules that walk the instructions, each of them would walk every method on its own
+     */
+    public int getWalkingRules() {
+        int walking = 0;
+
+        for (boolean walkingRule : walkingRules) {
+            walking += walkingRule ? 1 : 0;
+        }
+        return walking;
+    }
+
+    /**
+     * Logs the walks counted into the metrics of the context, along with the number of walks the rules would have
+     * needed on their own.
+     */
+    public void logStatistics(DeobfuscationContext ctx) {
+        String name = owner.getClass().getSimpleName();
+        long walks = DeobfuscatorMetrics.counter(ctx, owner, "method-walks").getCount();
+        long instructions = DeobfuscatorMetrics.counter(ctx, owner, "instructions-walked").getCount();
+
+        LOGGER.info("{} ran {} rule(s) and {} pattern(s) in {} method walks over {} instructions, separate passes would have needed {} walks",
+                name, rules.size(), patterns.size(), walks, instructions, walks * getWalkingRules());
+    }
+
+    private static class RuleHandler {
+
+        private final int rule;
+        private final PeepholeHandler handler;
+        private final PeepholePatternHandler patternHandler;
+        private final Consumer<PeepholeContext> methodHook;
+        private final BiFunction<DeobfuscationContext, ClassNode, ?> classHook;
+
+        private RuleHandler(int rule, PeepholeHandler handler, PeepholePatternHandler patternHandler, Consumer<PeepholeContext> methodHook,
+                            BiFunction<DeobfuscationContext, ClassNode, ?> classHook) {
+            this.rule = rule;
+            this.handler = handler;
+            this.patternHandler = patternHandler;
+            this.methodHook = methodHook;
+            this.classHook = classHook;
+        }
+    }
+
+    private static class ClassScope {
+
+        private final ClassNode classNode;
+        private final Object[] states;
+
+        private ClassScope(ClassNode classNode, Object[] states) {
+            this.classNode = classNode;
+            this.states = states;
+        }
+    }
+
+    public class RuleRegistry {
+
+        private final int rule;
+
+        private RuleRegistry(int rule) {
+            this.rule = rule;
+        }
+
+        public void on(int opcode, PeepholeHandler handler) {
+            RuleHandler[] handlers = handlersByOpcode[opcode];
+
+            handlers = handlers == null ? new RuleHandler[1] : Arrays.copyOf(handlers, handlers.length + 1);
+            handlers[handlers.length - 1] = new RuleHandler(rule, handler, null, null, null);
+            handlersByOpcode[opcode] = handlers;
+            walkingRules[rule] = true;
+            instructionHandlers = true;
+        }
+
+        public void on(int fromOpcode, int toOpcode, PeepholeHandler handler) {
+
+            for (int opcode = fromOpcode; opcode <= toOpcode; opcode++) {
+                on(opcode, handler);
+            }
+        }
+
+        /**
+         * Registers a handler for every match of the pattern, see {@link InsnPattern} for what a pattern matches
+         */
+        public void on(InsnPattern pattern, PeepholePatternHandler handler) {
+            patterns.add(pattern);
+            patternHandlers.add(new RuleHandler(rule, null, handler, null, null));
+            walkingRules[rule] = true;
+            instructionHandlers = true;
+        }
+
+        /**
+         * Registers a hook that runs once per class before any of its methods, what it returns is the rule's class
+         * state, see {@link PeepholeContext#getClassState()}.
+         */
+        public void onClass(BiFunction<DeobfuscationContext, ClassNode, ?> hook) {
+            classHooks.add(new RuleHandler(rule, null, null, null, hook));
+        }
+
+        /**
+         * Registers a hook that runs once per method before its instructions are walked.
+         */
+        public void onMethod(Consumer<PeepholeContext> hook) {
+            methodHooks.add(new RuleHandler(rule, null, null, hook, null));
+        }
+
+        /**
+         * Registers a hook that runs once per method after the edits of the walk are applied. It changes the method
+         * directly rather than through the context, and reports it through {@link PeepholeContext#markChanged()}.
+         */
+        public void afterWalk(Consumer<PeepholeContext> hook) {
+            walkHooks.add(new RuleHandler(rule, null, null, hook, null));
+        }
+    }
+}
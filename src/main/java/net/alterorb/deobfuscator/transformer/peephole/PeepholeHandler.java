@@ -0,0 +1,10 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+@FunctionalInterface
+public interface PeepholeHandler {
+
+    void handle(PeepholeContext ctx, AbstractInsnNode insnNode);
+
+}
@@ -0,0 +1,10 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import net.alterorb.betterasm.InsnMatch;
+
+@FunctionalInterface
+public interface PeepholePatternHandler {
+
+    void handle(PeepholeContext ctx, InsnMatch match);
+
+}
@@ -0,0 +1,58 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.transformer.MethodTransformer;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Collections;
+
+/**
+ * A transformer made of per-opcode handlers. On its own it walks every method once, but any number of them
+ * can be fused into a single walk with {@link FusedPeepholeTransformer}.
+ */
+public abstract class PeepholeTransformer implements MethodTransformer {
+
+    private volatile PeepholeEngine engine;
+
+    protected abstract void register(PeepholeEngine.RuleRegistry registry);
+
+    @Override
+    public boolean process(DeobfuscationContext ctx, ClassNode classNode, MethodNode method) {
+        return engine().process(ctx, classNode, method);
+    }
+
+    @Override
+    public void beginClass(DeobfuscationContext ctx, ClassNode classNode) {
+        engine().beginClass(ctx, classNode);
+    }
+
+    @Override
+    public void endClass(DeobfuscationContext ctx, ClassNode classNode) {
+        engine().endClass();
+    }
+
+    @Override
+    public void complete(DeobfuscationContext ctx) {
+        engine().logStatistics(ctx);
+    }
+
+    /**
+     * Builds the engine on first use, since it asks the subclass for its rules, which it can't from the constructor
+     */
+    private PeepholeEngine engine() {
+        PeepholeEngine engine = this.engine;
+
+        if (engine == null) {
+
+            synchronized (this) {
+                engine = this.engine;
+
+                if (engine == null) {
+                    this.engine = engine = new PeepholeEngine(this, Collections.singletonList(this));
+                }
+            }
+        }
+        return engine;
+    }
+}
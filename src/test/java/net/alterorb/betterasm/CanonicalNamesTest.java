@@ -0,0 +1,93 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CanonicalNamesTest {
+
+    @Test
+    void copiesUnderOtherNamesShareTheirCanonicalForm() {
+        CanonicalNames first = new CanonicalNames(new HashSet<>(Arrays.asList("a", "b", "Main")), "Main");
+        CanonicalNames second = new CanonicalNames(new HashSet<>(Arrays.asList("x", "y", "Client")), "Client");
+
+        assertArrayEquals(CanonicalNames.remap(copy("a", "b", "Main"), first), CanonicalNames.remap(copy("x", "y", "Client"), second));
+    }
+
+    @Test
+    void leavesClassesOutsideTheJarAlone() {
+        CanonicalNames canonicalNames = new CanonicalNames(new HashSet<>(Arrays.asList("a", "b", "Main")), "Main");
+        ClassNode classNode = read(CanonicalNames.remap(copy("a", "b", "Main"), canonicalNames));
+
+        assertEquals("java/lang/Object", classNode.superName);
+        assertEquals("Ljava/lang/String;", classNode.fields.get(1).desc);
+        // placeholders are numbered in the order the class mentions the names, the main class has its own
+        assertEquals("\u00000", classNode.name);
+        assertEquals("L\u00001;", classNode.fields.get(0).desc);
+        assertEquals("\u0000main", ((MethodInsnNode) classNode.methods.get(0).instructions.get(1)).owner);
+    }
+
+    @Test
+    void inverseMapsTheCanonicalFormIntoAnotherJar() {
+        CanonicalNames first = new CanonicalNames(new HashSet<>(Arrays.asList("a", "b", "Main")), "Main");
+        CanonicalNames second = new CanonicalNames(new HashSet<>(Arrays.asList("x", "y", "Client")), "Client");
+        byte[] canonical = CanonicalNames.remap(copy("a", "b", "Main"), first);
+
+        CanonicalNames.remap(copy("x", "y", "Client"), second);
+
+        assertArrayEquals(CanonicalNames.remap(copy("x", "y", "Client"), new Remapper() {
+        }), CanonicalNames.remap(canonical, second.inverse()));
+        assertFalse(Arrays.equals(CanonicalNames.remap(copy("a", "b", "Main"), new Remapper() {
+        }), CanonicalNames.remap(canonical, second.inverse())));
+    }
+
+    @Test
+    void inverseRejectsPlaceholdersNeverHandedOut() {
+        CanonicalNames canonicalNames = new CanonicalNames(new HashSet<>(Arrays.asList("a", "b", "Main")), "Main");
+
+        assertEquals("a", canonicalNames.inverse().map(canonicalNames.map("a")));
+        assertEquals("Main", canonicalNames.inverse().map(canonicalNames.map("Main")));
+        assertThrows(IllegalStateException.class, () -> canonicalNames.inverse().map("\u00001"));
+    }
+
+    /**
+     * A class named {@code name} with a field of the class {@code other} and a method calling into the main class
+     */
+    private static byte[] copy(String name, String other, String mainClassName) {
+        ClassNode classNode = newClass(name);
+        classNode.fields.add(new FieldNode(Opcodes.ACC_STATIC, "a", "L" + other + ";", null, null));
+        classNode.fields.add(new FieldNode(Opcodes.ACC_STATIC, "b", "Ljava/lang/String;", null, null));
+        addMethod(classNode, "c", "()V", instructions(
+                new FieldInsnNode(Opcodes.GETSTATIC, name, "a", "L" + other + ";"),
+                new MethodInsnNode(Opcodes.INVOKESTATIC, mainClassName, "d", "(Ljava/lang/Object;)V", false),
+                new TypeInsnNode(Opcodes.NEW, other), new InsnNode(Opcodes.POP),
+                new InsnNode(Opcodes.RETURN)));
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static ClassNode read(byte[] classBytes) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classBytes).accept(classNode, 0);
+        return classNode;
+    }
+}
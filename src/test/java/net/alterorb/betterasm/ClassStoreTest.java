@@ -0,0 +1,252 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassStoreTest {
+
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    @Test
+    void keepsTreesWithinTheBudget() {
+        ClassStore classStore = store(4, 1);
+
+        for (int i = 0; i < 4; i++) {
+            read(classStore, i);
+        }
+        assertEquals(4, classStore.getInflations());
+
+        // every tree but the last one used was evicted to make room
+        read(classStore, 3);
+        assertEquals(4, classStore.getInflations());
+        read(classStore, 0);
+        assertEquals(5, classStore.getInflations());
+        assertEquals(0, classStore.getWriteBacks());
+    }
+
+    @Test
+    void keepsTreesThatFit() {
+        ClassStore classStore = store(4, Long.MAX_VALUE);
+        ClassNode first = read(classStore, 0);
+
+        for (int i = 1; i < 4; i++) {
+            read(classStore, i);
+        }
+        assertSame(first, read(classStore, 0));
+        assertEquals(4, classStore.getInflations());
+    }
+
+    @Test
+    void writesModifiedTreesBackWhenEvicted() {
+        ClassStore classStore = store(2, 1);
+
+        classStore.update(0, classNode -> {
+            classNode.fields.add(new FieldNode(Opcodes.ACC_STATIC, "added", "I", null, null));
+            return classNode;
+        });
+        read(classStore, 1);
+        assertEquals(1, classStore.getWriteBacks());
+
+        ClassNode inflated = read(classStore, 0);
+        assertEquals(3, classStore.getInflations());
+        assertNotNull(inflated.findField("added", "I"));
+
+        // read back unchanged, so it isn't written again
+        read(classStore, 1);
+        read(classStore, 0);
+        assertEquals(1, classStore.getWriteBacks());
+    }
+
+    @Test
+    void writesReplacedTreesBack() {
+        ClassStore classStore = store(2, 1);
+
+        classStore.update(0, classNode -> newClass("Replaced"));
+        read(classStore, 1);
+        assertEquals("Replaced", read(classStore, 0).name);
+    }
+
+    @Test
+    void keepsDirtyMethodsAcrossEviction() {
+        ClassStore classStore = new ClassStore(2, PARSING_OPTIONS, 1, false);
+        classStore.put(0, classBytes("a"), true);
+        classStore.put(1, classBytes("b"), true);
+
+        classStore.update(0, classNode -> {
+            MethodNode method = classNode.findMethod("run", "()V");
+            method.instructions.insert(new InsnNode(Opcodes.NOP));
+            classNode.markDirty(method);
+            return classNode;
+        });
+        read(classStore, 1);
+        assertEquals(1, classStore.getWriteBacks());
+
+        ClassNode inflated = read(classStore, 0);
+        assertNotNull(inflated.getSource());
+        assertEquals("a", inflated.getSource().getClassName());
+        assertTrue(inflated.isDirty(inflated.findMethod("run", "()V")));
+        assertFalse(inflated.isDirty(inflated.findMethod("stop", "()V")));
+        assertEquals(Opcodes.NOP, inflated.findMethod("run", "()V").instructions.getFirst().getOpcode());
+    }
+
+    @Test
+    void dropsSourcesOfTreesThatDontKeepThem() {
+        ClassStore classStore = new ClassStore(2, PARSING_OPTIONS, 1, true);
+        classStore.put(0, classBytes("a"), true);
+        classStore.put(1, classBytes("b"), false);
+
+        assertNotNull(read(classStore, 0).getSource());
+        assertNull(read(classStore, 1).getSource());
+        assertEquals("a", read(classStore, 0).name);
+    }
+
+    @Test
+    void compactsDiscardedPlaces() {
+        ClassStore classStore = new ClassStore(5, PARSING_OPTIONS, Long.MAX_VALUE, false);
+        String[] names = {"a", "b", "c", "d"};
+
+        // the place after the last class is never filled
+        for (int i = 0; i < names.length; i++) {
+            classStore.put(i, classBytes(names[i]), false);
+        }
+        long storedBytes = classStore.getStoredBytes();
+        read(classStore, 1);
+
+        classStore.discard(1);
+        classStore.discard(2);
+        assertEquals(5, classStore.size());
+        assertTrue(classStore.getStoredBytes() < storedBytes);
+
+        classStore.compact();
+        assertEquals(2, classStore.size());
+        assertEquals("a", read(classStore, 0).name);
+        assertEquals("d", read(classStore, 1).name);
+    }
+
+    @Test
+    void removesTrees() {
+        ClassStore classStore = store(2, Long.MAX_VALUE);
+        ClassNode inflated = read(classStore, 0);
+
+        assertSame(inflated, classStore.remove(0));
+        assertNotSame(inflated, classStore.remove(1));
+        assertEquals(0, classStore.getStoredBytes());
+    }
+
+    @Test
+    void keepsEveryTreeUntilReleased() {
+        ClassStore classStore = store(4, 1);
+        List<ClassNode> classNodes = classStore.inflateAll();
+
+        for (int i = 0; i < 4; i++) {
+            assertSame(classNodes.get(i), read(classStore, i));
+        }
+        classStore.releaseAll();
+        read(classStore, 0);
+        assertEquals(5, classStore.getInflations());
+
+        // reading through the trees doesn't make them modified
+        assertEquals(0, classStore.getWriteBacks());
+    }
+
+    @Test
+    void staysConsistentUnderConcurrentUse() throws Exception {
+        int classes = 16;
+        ClassStore classStore = new ClassStore(classes, PARSING_OPTIONS, 4096, false);
+
+        for (int i = 0; i < classes; i++) {
+            classStore.put(i, classBytes("c" + i), true);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int thread = 0; thread < 4; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+
+                    for (int round = 0; round < 500; round++) {
+                        int index = (round * 7 + offset) % classes;
+
+                        if (round % 3 == 0) {
+                            classStore.update(index, classNode -> {
+                                classNode.markDirty(classNode.findMethod("run", "()V"));
+                                return classNode;
+                            });
+                        } else {
+                            assertEquals("c" + index, read(classStore, index).name);
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // four trees fit the budget, unless sizes were counted twice along the way
+        for (int i = 0; i < 4; i++) {
+            read(classStore, i);
+        }
+        int inflations = classStore.getInflations();
+
+        for (int i = 0; i < 4; i++) {
+            read(classStore, i);
+        }
+        assertEquals(inflations, classStore.getInflations());
+
+        for (int i = 0; i < classes; i++) {
+            assertEquals("c" + i, read(classStore, i).name);
+        }
+    }
+
+    private static ClassStore store(int classes, long treeBudget) {
+        ClassStore classStore = new ClassStore(classes, PARSING_OPTIONS, treeBudget, false);
+
+        for (int i = 0; i < classes; i++) {
+            classStore.put(i, classBytes("c" + i), false);
+        }
+        return classStore;
+    }
+
+    private static ClassNode read(ClassStore classStore, int index) {
+        ClassNode[] classNode = new ClassNode[1];
+        classStore.read(index, read -> classNode[0] = read);
+        return classNode[0];
+    }
+
+    private static byte[] classBytes(String name) {
+        ClassNode classNode = newClass(name);
+        addMethod(classNode, "run", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+        addMethod(classNode, "stop", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,65 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConstantAnalyzerTest {
+
+    private final ConstantAnalyzer analyzer = new ConstantAnalyzer();
+
+    @Test
+    void mergesConstantsThatAgree() throws AnalyzerException {
+        LabelNode otherwise = new LabelNode();
+        LabelNode end = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "merge", "(I)I", instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0),
+                new JumpInsnNode(Opcodes.IFEQ, otherwise),
+                new IntInsnNode(Opcodes.BIPUSH, 6), new VarInsnNode(Opcodes.ISTORE, 1),
+                new IntInsnNode(Opcodes.BIPUSH, 7), new VarInsnNode(Opcodes.ISTORE, 2),
+                new JumpInsnNode(Opcodes.GOTO, end),
+                otherwise,
+                new InsnNode(Opcodes.ICONST_3), new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IMUL), new VarInsnNode(Opcodes.ISTORE, 1),
+                new InsnNode(Opcodes.ICONST_0), new VarInsnNode(Opcodes.ISTORE, 2),
+                end,
+                new VarInsnNode(Opcodes.ILOAD, 1), new InsnNode(Opcodes.IRETURN)));
+
+        analyzer.analyze(method);
+        int index = method.instructions.indexOf(end);
+
+        assertEquals(6, analyzer.getLocal(index, 1));
+        assertEquals(ConstantAnalyzer.UNKNOWN, analyzer.getLocal(index, 2));
+        // the parameter is unknown, so the jump may go either way
+        assertEquals(DataflowAnalyzer.EITHER, analyzer.getOutcome(1));
+    }
+
+    @Test
+    void followsJumpOnConstantOnlyOneWay() throws AnalyzerException {
+        LabelNode taken = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "jump", "()I", instructions(
+                new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.ICONST_3),
+                new JumpInsnNode(Opcodes.IF_ICMPLT, taken),
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN),
+                taken,
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN)));
+
+        analyzer.analyze(method);
+
+        assertEquals(1, analyzer.getOutcome(2));
+        assertFalse(analyzer.isReachable(3));
+        assertTrue(analyzer.isReachable(method.instructions.indexOf(taken)));
+    }
+}
@@ -0,0 +1,106 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ControlFlowGraphTest {
+
+    @Test
+    void splitsBlocksAtJumpsAndTargets() {
+        LabelNode otherwise = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "branch", "(I)I", instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0),
+                new JumpInsnNode(Opcodes.IFEQ, otherwise),
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN),
+                otherwise, new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN)));
+        ControlFlowGraph graph = ControlFlowGraph.build(method);
+
+        assertEquals(3, graph.getBlockCount());
+        assertEquals(2, graph.getSuccessorCount(0));
+        assertEquals(0, graph.getSuccessorCount(1));
+        assertEquals(2, graph.getBlock(method.instructions.indexOf(otherwise)));
+        assertArrayEquals(new boolean[]{true, true, true}, graph.findReachableBlocks());
+    }
+
+    @Test
+    void countsInstructionsAndLabelReferences() {
+        LabelNode line = new LabelNode();
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "select", "(I)I", instructions(
+                line, new LineNumberNode(1, line),
+                new VarInsnNode(Opcodes.ILOAD, 0),
+                new TableSwitchInsnNode(0, 1, second, first, second),
+                first, new JumpInsnNode(Opcodes.GOTO, second),
+                second, new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN)));
+        ControlFlowGraph graph = ControlFlowGraph.build(method);
+        int[] labelReferences = graph.getLabelReferences();
+
+        assertEquals(5, graph.getInstructionCount());
+        assertEquals(1, labelReferences[method.instructions.indexOf(line)]);
+        assertEquals(1, labelReferences[method.instructions.indexOf(first)]);
+        assertEquals(3, labelReferences[method.instructions.indexOf(second)]);
+
+        // callers count down their own copy
+        labelReferences[method.instructions.indexOf(second)] = 0;
+        assertEquals(3, graph.getLabelReferences()[method.instructions.indexOf(second)]);
+    }
+
+    @Test
+    void reachesGotoCyclesAndNothingPastThem() {
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "spin", "()V", instructions(
+                first, new JumpInsnNode(Opcodes.GOTO, second),
+                second, new JumpInsnNode(Opcodes.GOTO, first),
+                new InsnNode(Opcodes.RETURN)));
+        ControlFlowGraph graph = ControlFlowGraph.build(method);
+
+        assertArrayEquals(new boolean[]{true, true, false}, graph.findReachableBlocks());
+    }
+
+    @Test
+    void reachesHandlersOnlyThroughTheBlocksTheyCover() {
+        LabelNode start = new LabelNode();
+        LabelNode end = new LabelNode();
+        LabelNode handler = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "guarded", "()I", instructions(
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN),
+                start, new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN), end,
+                handler, new VarInsnNode(Opcodes.ASTORE, 0), new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+        method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, null));
+        ControlFlowGraph graph = ControlFlowGraph.build(method);
+        int covered = graph.getBlock(method.instructions.indexOf(start));
+
+        assertEquals(1, graph.getHandlerCount(covered));
+        assertEquals(graph.getBlock(method.instructions.indexOf(handler)), graph.getHandler(covered, 0));
+        // the end of the range starts a block of its own, holding nothing but its label
+        assertArrayEquals(new boolean[]{true, false, false, false}, graph.findReachableBlocks());
+    }
+
+    @Test
+    void rejectsSubroutines() {
+        LabelNode subroutine = new LabelNode();
+        MethodNode method = addMethod(newClass("Test"), "legacy", "()V", instructions(
+                new JumpInsnNode(Opcodes.JSR, subroutine),
+                new InsnNode(Opcodes.RETURN),
+                subroutine, new VarInsnNode(Opcodes.ASTORE, 0), new VarInsnNode(Opcodes.RET, 0)));
+
+        assertThrows(IllegalArgumentException.class, () -> ControlFlowGraph.build(method));
+    }
+}
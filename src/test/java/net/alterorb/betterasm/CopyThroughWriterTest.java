@@ -0,0 +1,93 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static net.alterorb.betterasm.TestClasses.opcodes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CopyThroughWriterTest {
+
+    @Test
+    void copiesTheMethodsThatArentDirtyFromTheSource() {
+        ClassReader source = new ClassReader(originalClass());
+        ClassNode classNode = new ClassNode();
+        // the tree is read without debug information, so only a copied method can still have its line numbers
+        source.accept(classNode, ClassReader.SKIP_DEBUG);
+        classNode.setSource(source);
+
+        MethodNode changed = classNode.findMethod("changed", "()I");
+        changed.instructions.set(changed.instructions.getFirst(), new InsnNode(Opcodes.ICONST_2));
+        classNode.markDirty(changed);
+        addMethod(classNode, "added", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+
+        CopyThroughWriter copyThroughWriter = new CopyThroughWriter(classNode, ClassWriter.COMPUTE_MAXS);
+        byte[] bytes = copyThroughWriter.toByteArray();
+
+        assertEquals(1, copyThroughWriter.getCopiedMethods());
+        assertEquals(2, copyThroughWriter.getWrittenMethods());
+
+        ClassNode written = new ClassNode();
+        new ClassReader(bytes).accept(written, 0);
+        assertEquals(1, lineNumber(written.findMethod("unchanged", "()I")).line);
+        assertNull(lineNumber(written.findMethod("changed", "()I")));
+        assertEquals(Arrays.asList(Opcodes.ICONST_2, Opcodes.IRETURN), opcodes(written.findMethod("changed", "()I")));
+        assertEquals(Collections.singletonList(Opcodes.RETURN), opcodes(written.findMethod("added", "()V")));
+
+        StringWriter problems = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(bytes), false, new PrintWriter(problems));
+        assertEquals("", problems.toString());
+    }
+
+    @Test
+    void writesClassesWithoutASourceFromTheTree() {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(originalClass()).accept(classNode, 0);
+
+        CopyThroughWriter copyThroughWriter = new CopyThroughWriter(classNode, ClassWriter.COMPUTE_MAXS);
+        copyThroughWriter.toByteArray();
+
+        assertEquals(0, copyThroughWriter.getCopiedMethods());
+        assertEquals(2, copyThroughWriter.getWrittenMethods());
+    }
+
+    private static byte[] originalClass() {
+        ClassNode classNode = newClass("Copied");
+
+        for (String name : new String[] {"unchanged", "changed"}) {
+            LabelNode line = new LabelNode();
+            addMethod(classNode, name, "()I", instructions(
+                    line, new LineNumberNode(1, line), new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN)));
+        }
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static LineNumberNode lineNumber(MethodNode method) {
+
+        for (int i = 0; i < method.instructions.size(); i++) {
+
+            if (method.instructions.get(i) instanceof LineNumberNode) {
+                return (LineNumberNode) method.instructions.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchyClassWriterTest {
+
+    @Test
+    void computesFramesFromTheJarAndTheJdk() throws ReflectiveOperationException {
+        Map<String, byte[]> classes = new HashMap<>();
+        ClassNode base = newSubclass("Base", ClassHierarchy.OBJECT);
+        ClassNode left = newSubclass("Left", "Base");
+        ClassNode right = newSubclass("Right", "Base");
+
+        for (ClassNode classNode : new ClassNode[] {base, left, right}) {
+            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            classNode.accept(writer);
+            classes.put(classNode.name, writer.toByteArray());
+        }
+        // the right class is only found through the lookup, as a class of the classpath would be
+        ClassHierarchy hierarchy = new ClassHierarchy(name -> classes.containsKey(name) ? new ClassReader(classes.get(name)) : null);
+        hierarchy.add(base);
+        hierarchy.add(left);
+
+        ClassNode chooser = newClass("Chooser");
+        chooser.version = Opcodes.V1_7;
+        addMethod(chooser, "pick", "(Z)Ljava/lang/Object;", choose("Left", "Right"));
+        addMethod(chooser, "list", "(Z)Ljava/lang/Object;", choose("java/util/ArrayList", "java/util/LinkedList"));
+        HierarchyClassWriter writer = new HierarchyClassWriter(hierarchy, ClassWriter.COMPUTE_FRAMES);
+        chooser.accept(writer);
+        byte[] bytes = writer.toByteArray();
+        classes.put("Chooser", bytes);
+
+        ClassNode written = new ClassNode();
+        new ClassReader(bytes).accept(written, ClassReader.EXPAND_FRAMES);
+        assertEquals("Base", joinedType(written.findMethod("pick", "(Z)Ljava/lang/Object;")));
+        assertEquals("java/util/AbstractList", joinedType(written.findMethod("list", "(Z)Ljava/lang/Object;")));
+        assertTrue(hierarchy.getUnresolvedTypes().isEmpty());
+
+        ClassLoader loader = new GeneratedClassLoader(classes);
+        StringWriter problems = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(bytes), loader, false, new PrintWriter(problems));
+        assertEquals("", problems.toString());
+
+        // loading the class runs it through the verifier of the JVM, which checks the frames
+        Method list = loader.loadClass("Chooser").getMethod("list", boolean.class);
+        assertEquals(ArrayList.class, list.invoke(null, true).getClass());
+        assertEquals(LinkedList.class, list.invoke(null, false).getClass());
+        assertEquals("Left", loader.loadClass("Chooser").getMethod("pick", boolean.class).invoke(null, true).getClass().getName());
+    }
+
+    /**
+     * @return code creating the first type if the argument is true and the second otherwise, and storing it in a local
+     * before returning it, so the frame where both paths join holds their common superclass
+     */
+    private static InsnList choose(String first, String second) {
+        LabelNode otherwise = new LabelNode();
+        LabelNode join = new LabelNode();
+        return instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0), new JumpInsnNode(Opcodes.IFEQ, otherwise),
+                new TypeInsnNode(Opcodes.NEW, first), new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, first, "<init>", "()V", false),
+                new JumpInsnNode(Opcodes.GOTO, join),
+                otherwise, new TypeInsnNode(Opcodes.NEW, second), new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, second, "<init>", "()V", false),
+                join, new VarInsnNode(Opcodes.ASTORE, 1), new VarInsnNode(Opcodes.ALOAD, 1), new InsnNode(Opcodes.ARETURN));
+    }
+
+    /**
+     * @return the type on the stack of the last frame of the method, where both paths join
+     */
+    private static Object joinedType(MethodNode method) {
+        FrameNode frame = null;
+
+        for (int i = 0; i < method.instructions.size(); i++) {
+
+            if (method.instructions.get(i) instanceof FrameNode) {
+                frame = (FrameNode) method.instructions.get(i);
+            }
+        }
+        return frame.stack.get(0);
+    }
+
+    private static ClassNode newSubclass(String name, String superName) {
+        ClassNode classNode = newClass(name);
+        classNode.superName = superName;
+        MethodNode constructor = new MethodNode(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.instructions = instructions(
+                new VarInsnNode(Opcodes.ALOAD, 0),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false),
+                new InsnNode(Opcodes.RETURN));
+        classNode.methods.add(constructor);
+        return classNode;
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        private GeneratedClassLoader(Map<String, byte[]> classes) {
+            super(GeneratedClassLoader.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name.replace('.', '/'));
+
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
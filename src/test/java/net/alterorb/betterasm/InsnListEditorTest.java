@@ -0,0 +1,182 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InsnListEditorTest {
+
+    @Test
+    void leavesTheListAloneUntilCommitted() {
+        InsnList instructions = pushes(0, 1, 2);
+        InsnListEditor editor = new InsnListEditor(instructions);
+
+        editor.remove(instructions.get(1));
+        editor.insertAfter(instructions.get(2), push(3));
+        assertEquals(Arrays.asList(0, 1, 2), values(instructions));
+        assertTrue(editor.hasEdits());
+
+        assertTrue(editor.commit());
+        assertEquals(Arrays.asList(0, 2, 3), values(instructions));
+        assertFalse(editor.hasEdits());
+        assertFalse(editor.commit());
+    }
+
+    @Test
+    void insertsAroundALocationRemovedInTheSameBatch() {
+        InsnList instructions = pushes(0, 1, 2);
+        InsnListEditor editor = new InsnListEditor(instructions);
+        AbstractInsnNode location = instructions.get(1);
+
+        editor.insertBefore(location, push(10));
+        editor.remove(location);
+        editor.insertAfter(location, push(20));
+        editor.insertBefore(location, push(11));
+        editor.insertAfter(location, pushes(21, 22));
+        editor.commit();
+
+        assertEquals(Arrays.asList(0, 10, 11, 20, 21, 22, 2), values(instructions));
+    }
+
+    @Test
+    void insertsAroundAReplacedLocation() {
+        InsnList instructions = pushes(0, 1, 2);
+        InsnListEditor editor = new InsnListEditor(instructions);
+        AbstractInsnNode location = instructions.get(1);
+
+        editor.set(location, push(5));
+        editor.insertBefore(location, push(4));
+        editor.insertAfter(location, push(6));
+        editor.commit();
+
+        assertEquals(Arrays.asList(0, 4, 5, 6, 2), values(instructions));
+    }
+
+    @Test
+    void walksSkipPendingRemovals() {
+        InsnList instructions = pushes(0, 1, 2, 3, 4);
+        InsnListEditor editor = new InsnListEditor(instructions);
+        AbstractInsnNode first = instructions.getFirst();
+
+        assertSame(instructions.get(1), editor.getNext(first));
+
+        editor.remove(instructions.get(1));
+        editor.set(instructions.get(2), push(9));
+        editor.insertAfter(first, push(8));
+        editor.remove(instructions.get(4));
+
+        assertSame(instructions.get(3), editor.getNext(first));
+        assertSame(first, editor.getPrevious(instructions.get(3)));
+        assertNull(editor.getNext(instructions.get(3)));
+        assertNull(editor.getPrevious(first));
+        assertTrue(editor.isRemoved(instructions.get(2)));
+        assertFalse(editor.isRemoved(instructions.get(3)));
+    }
+
+    @Test
+    void rejectsRemovingTwice() {
+        InsnList instructions = pushes(0, 1);
+        InsnListEditor editor = new InsnListEditor(instructions);
+
+        editor.remove(instructions.get(0));
+        assertThrows(IllegalStateException.class, () -> editor.remove(instructions.get(0)));
+        assertThrows(IllegalStateException.class, () -> editor.set(instructions.get(0), push(2)));
+    }
+
+    @Test
+    void findsEditsByIndexPastTheScannedOnes() {
+        int size = 40;
+        int[] values = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        InsnList instructions = pushes(values);
+        InsnListEditor editor = new InsnListEditor(instructions);
+        AbstractInsnNode[] nodes = instructions.toArray();
+        List<Integer> expected = new ArrayList<>();
+
+        // well past the edits that are scanned, with inserts mixed in so edits don't all remove
+        for (int i = 0; i < size; i++) {
+
+            if (i % 3 == 0) {
+                editor.remove(nodes[i]);
+            } else if (i % 5 == 0) {
+                editor.insertBefore(nodes[i], push(100 + i));
+                expected.add(100 + i);
+                expected.add(i);
+            } else {
+                expected.add(i);
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            assertEquals(i % 3 == 0, editor.isRemoved(nodes[i]));
+        }
+        assertSame(nodes[1], editor.getNext(nodes[0]));
+        assertSame(nodes[4], editor.getNext(nodes[2]));
+        assertSame(nodes[2], editor.getPrevious(nodes[4]));
+        assertFalse(editor.isRemoved(push(0)));
+        assertThrows(IllegalArgumentException.class, () -> editor.insertAfter(new InsnNode(Opcodes.NOP), push(0)));
+
+        editor.commit();
+        assertEquals(expected, values(instructions));
+    }
+
+    @Test
+    void editsAgainAfterCommitting() {
+        InsnList instructions = pushes(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        InsnListEditor editor = new InsnListEditor(instructions);
+        AbstractInsnNode[] nodes = instructions.toArray();
+
+        for (int i = 0; i < nodes.length; i += 2) {
+            editor.remove(nodes[i]);
+        }
+        editor.commit();
+
+        // the indexes the first batch was looked up by are stale now
+        editor.remove(nodes[1]);
+        editor.insertAfter(nodes[9], push(11));
+        assertSame(nodes[3], editor.getNext(instructions.getFirst()));
+        editor.commit();
+
+        assertEquals(Arrays.asList(3, 5, 7, 9, 11), values(instructions));
+    }
+
+    private static IntInsnNode push(int value) {
+        return new IntInsnNode(Opcodes.BIPUSH, value);
+    }
+
+    private static InsnList pushes(int... values) {
+        AbstractInsnNode[] insnNodes = new AbstractInsnNode[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            insnNodes[i] = push(values[i]);
+        }
+        return instructions(insnNodes);
+    }
+
+    private static List<Integer> values(InsnList instructions) {
+        List<Integer> values = new ArrayList<>();
+
+        for (AbstractInsnNode insnNode = instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+            values.add(((IntInsnNode) insnNode).operand);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,162 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InsnPatternMatcherTest {
+
+    private static final InsnPattern ARRAY_LOAD = InsnPattern.of(
+            InsnPattern.field(Opcodes.GETSTATIC, null, null, "[Ljava/lang/String;").as("array"),
+            InsnPattern.intConstant().as("index"),
+            InsnPattern.opcode(Opcodes.AALOAD).as("load"));
+
+    @Test
+    void matchesAcrossLabelsAndLineNumbers() {
+        LabelNode label = new LabelNode();
+        FieldInsnNode array = new FieldInsnNode(Opcodes.GETSTATIC, "a", "z", "[Ljava/lang/String;");
+        IntInsnNode index = new IntInsnNode(Opcodes.BIPUSH, 12);
+        InsnNode load = new InsnNode(Opcodes.AALOAD);
+        List<InsnMatch> matches = scan(new InsnPatternMatcher(ARRAY_LOAD), instructions(
+                array, label, new LineNumberNode(3, label), index, new LabelNode(), load));
+
+        assertEquals(1, matches.size());
+        assertSame(array, matches.get(0).get("array"));
+        assertSame(index, matches.get(0).get("index"));
+        assertSame(load, matches.get(0).get("load"));
+    }
+
+    @Test
+    void rejectsMatchesFailingAPredicate() {
+        InsnList instructions = instructions(
+                new FieldInsnNode(Opcodes.GETSTATIC, "a", "z", "[I"), new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.AALOAD),
+                new FieldInsnNode(Opcodes.GETSTATIC, "a", "z", "[Ljava/lang/String;"), new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.AALOAD));
+        List<InsnMatch> matches = scan(new InsnPatternMatcher(ARRAY_LOAD), instructions);
+
+        assertEquals(1, matches.size());
+        assertSame(instructions.get(3), matches.get(0).getFirst());
+    }
+
+    @Test
+    void keepsMatchingAfterAPredicateRejects() {
+        // the predicate rejects the first store, the automaton still tracks the overlapping attempt starting with it
+        InsnPattern pattern = InsnPattern.of(
+                InsnPattern.opcode(Opcodes.ISTORE).where((VarInsnNode insnNode) -> insnNode.var == 1),
+                InsnPattern.opcode(Opcodes.ISTORE));
+        InsnList instructions = instructions(
+                new VarInsnNode(Opcodes.ISTORE, 2), new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ISTORE, 3));
+        List<InsnMatch> matches = scan(new InsnPatternMatcher(pattern), instructions);
+
+        assertEquals(1, matches.size());
+        assertSame(instructions.get(1), matches.get(0).getFirst());
+    }
+
+    @Test
+    void reportsOverlappingMatches() {
+        InsnPattern pattern = InsnPattern.of(InsnPattern.opcode(Opcodes.POP), InsnPattern.opcode(Opcodes.POP));
+        InsnList instructions = instructions(new InsnNode(Opcodes.POP), new InsnNode(Opcodes.POP), new InsnNode(Opcodes.POP));
+        List<InsnMatch> matches = scan(new InsnPatternMatcher(pattern), instructions);
+
+        assertEquals(2, matches.size());
+        assertSame(instructions.get(0), matches.get(0).getFirst());
+        assertSame(instructions.get(1), matches.get(1).getFirst());
+    }
+
+    @Test
+    void reportsEveryPatternEndingOnAnInstructionInOrder() {
+        InsnPattern longer = InsnPattern.of(InsnPattern.opcode(Opcodes.ICONST_0), InsnPattern.intConstant());
+        InsnPattern shorter = InsnPattern.of(InsnPattern.opcode(Opcodes.ICONST_1));
+        List<Integer> patterns = new ArrayList<>();
+
+        new InsnPatternMatcher(longer, shorter).scan(instructions(new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.ICONST_1)),
+                (pattern, match) -> patterns.add(pattern));
+        assertEquals(Arrays.asList(0, 1), patterns);
+    }
+
+    @Test
+    void carriesStatesBetweenWords() {
+        InsnPattern.Element[] filler = new InsnPattern.Element[62];
+        Arrays.fill(filler, InsnPattern.opcode(Opcodes.NOP));
+
+        // takes the bits from 62 to 65, so each step of the match has to carry into the next word
+        InsnPattern straddling = InsnPattern.of(InsnPattern.opcode(Opcodes.ICONST_1), InsnPattern.opcode(Opcodes.ICONST_2),
+                InsnPattern.opcode(Opcodes.ICONST_3), InsnPattern.opcode(Opcodes.ICONST_4));
+        InsnPatternMatcher matcher = new InsnPatternMatcher(InsnPattern.of(filler), straddling);
+        List<Integer> patterns = new ArrayList<>();
+
+        matcher.scan(instructions(new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.ICONST_2),
+                new InsnNode(Opcodes.ICONST_3), new InsnNode(Opcodes.ICONST_4)), (pattern, match) -> patterns.add(pattern));
+        assertEquals(Arrays.asList(1), patterns);
+    }
+
+    @Test
+    void matchesPatternsLongerThanAWord() {
+        InsnPattern.Element[] elements = new InsnPattern.Element[70];
+
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = InsnPattern.opcode(alternating(i));
+        }
+        InsnPatternMatcher matcher = new InsnPatternMatcher(InsnPattern.of(elements));
+        InsnList instructions = alternatingConstants(-1);
+        List<InsnMatch> matches = scan(matcher, instructions);
+
+        assertEquals(1, matches.size());
+        assertEquals(70, matches.get(0).size());
+        assertSame(instructions.get(1), matches.get(0).getFirst());
+        assertSame(instructions.getLast(), matches.get(0).getLast());
+
+        // breaking the run past the first word leaves nothing to match
+        assertTrue(scan(matcher, alternatingConstants(66)).isEmpty());
+    }
+
+    @Test
+    void forgetsInstructionsOnReset() {
+        InsnPattern pattern = InsnPattern.of(InsnPattern.opcode(Opcodes.POP), InsnPattern.opcode(Opcodes.POP2));
+        InsnPatternMatcher.Scan scan = new InsnPatternMatcher(pattern).newScan();
+        List<InsnMatch> matches = new ArrayList<>();
+
+        scan.feed(new InsnNode(Opcodes.POP), (index, match) -> matches.add(match));
+        scan.reset();
+        scan.feed(new InsnNode(Opcodes.POP2), (index, match) -> matches.add(match));
+        assertTrue(matches.isEmpty());
+    }
+
+    /**
+     * @return an iconst_0 followed by 70 alternating iconst_0 and iconst_1, with a nop in place of one of them
+     */
+    private static InsnList alternatingConstants(int nop) {
+        AbstractInsnNode[] insnNodes = new AbstractInsnNode[71];
+        insnNodes[0] = new InsnNode(Opcodes.ICONST_0);
+
+        for (int i = 1; i < insnNodes.length; i++) {
+            insnNodes[i] = new InsnNode(i == nop ? Opcodes.NOP : alternating(i - 1));
+        }
+        return instructions(insnNodes);
+    }
+
+    private static int alternating(int i) {
+        return i % 2 == 0 ? Opcodes.ICONST_0 : Opcodes.ICONST_1;
+    }
+
+    private static List<InsnMatch> scan(InsnPatternMatcher matcher, InsnList instructions) {
+        List<InsnMatch> matches = new ArrayList<>();
+        matcher.scan(instructions, (pattern, match) -> matches.add(match));
+        return matches;
+    }
+}
@@ -0,0 +1,130 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemberIndexTest {
+
+    @Test
+    void looksUpMembersByNameAndDescriptor() {
+        ClassNode classNode = newClass("Members");
+        MethodNode run = addMethod(classNode, "run", "()V", returning());
+        MethodNode runWith = addMethod(classNode, "run", "(I)V", returning());
+        MethodNode stop = addMethod(classNode, "stop", "()V", returning());
+        FieldNode first = field(classNode, "a", "I");
+        FieldNode second = field(classNode, "b", "I");
+        FieldNode name = field(classNode, "c", "Ljava/lang/String;");
+
+        assertSame(runWith, classNode.findMethod("run", "(I)V"));
+        assertNull(classNode.findMethod("run", "(J)V"));
+        assertEquals(Arrays.asList(run, runWith), classNode.findMethodsByName("run"));
+        assertEquals(Arrays.asList(run, stop), classNode.findMethodsByDescriptor("()V"));
+        assertEquals(Collections.singletonList(runWith), classNode.findMethodsByDescriptor(Type.VOID_TYPE, Type.INT_TYPE));
+        assertSame(run, classNode.findFirstMethodByDescriptor(Type.VOID_TYPE));
+        assertSame(name, classNode.findField("c", "Ljava/lang/String;"));
+        assertEquals(Arrays.asList(first, second), classNode.findFieldsByType(Type.INT_TYPE));
+        assertTrue(classNode.findFieldsByDescriptor("J").isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> classNode.findMethodsByName("run").add(stop));
+    }
+
+    @Test
+    void buildsAgainOnceMembersAreAddedOrRemoved() {
+        ClassNode classNode = newClass("Members");
+        MethodNode run = addMethod(classNode, "run", "()V", returning());
+        FieldNode count = field(classNode, "count", "I");
+
+        assertSame(run, classNode.findMethod("run", "()V"));
+        assertSame(count, classNode.findField("count", "I"));
+
+        MethodNode stop = addMethod(classNode, "stop", "()V", returning());
+        classNode.fields.remove(count);
+
+        assertSame(stop, classNode.findMethod("stop", "()V"));
+        assertNull(classNode.findField("count", "I"));
+
+        classNode.methods.removeIf(method -> method == run);
+        assertNull(classNode.findMethod("run", "()V"));
+        assertEquals(Collections.singletonList(stop), classNode.findMethodsByDescriptor("()V"));
+    }
+
+    @Test
+    void keepsRenamedMembersUntilInvalidated() {
+        ClassNode classNode = newClass("Members");
+        MethodNode run = addMethod(classNode, "run", "()V", returning());
+
+        assertSame(run, classNode.findMethod("run", "()V"));
+
+        // renaming doesn't touch the list, so the index can't notice it
+        run.name = "start";
+        assertSame(run, classNode.findMethod("run", "()V"));
+
+        classNode.invalidateMembers();
+        assertNull(classNode.findMethod("run", "()V"));
+        assertSame(run, classNode.findMethod("start", "()V"));
+    }
+
+    @Test
+    void tracksTheModificationCountOfItsLists() {
+        TrackedList<MethodNode> methods = new TrackedList<>();
+        TrackedList<FieldNode> fields = new TrackedList<>();
+        MethodNode run = new MethodNode(Opcodes.ACC_STATIC, "run", "()V", null, null);
+        methods.add(run);
+        MemberIndex index = new MemberIndex(methods, fields);
+
+        assertTrue(index.isCurrent(methods, fields));
+        assertFalse(index.isCurrent(new TrackedList<>(methods), fields));
+
+        int modCount = methods.getModCount();
+        methods.set(0, new MethodNode(Opcodes.ACC_STATIC, "stop", "()V", null, null));
+        assertEquals(modCount, methods.getModCount());
+
+        fields.add(new FieldNode(Opcodes.ACC_STATIC, "count", "I", null, null));
+        assertFalse(index.isCurrent(methods, fields));
+
+        List<MethodNode> untracked = new ArrayList<>(methods);
+        List<FieldNode> untrackedFields = new ArrayList<>(fields);
+        assertFalse(new MemberIndex(untracked, untrackedFields).isCurrent(untracked, untrackedFields));
+    }
+
+    @Test
+    void neverTrustsListsThatDontTrackChanges() {
+        ClassNode classNode = newClass("Members");
+        classNode.methods = new ArrayList<>();
+        MethodNode run = addMethod(classNode, "run", "()V", returning());
+
+        assertSame(run, classNode.findMethod("run", "()V"));
+
+        classNode.methods.set(0, new MethodNode(Opcodes.ACC_STATIC, "stop", "()V", null, null));
+        assertNull(classNode.findMethod("run", "()V"));
+    }
+
+    private static FieldNode field(ClassNode classNode, String name, String descriptor) {
+        FieldNode field = new FieldNode(Opcodes.ACC_STATIC, name, descriptor, null, null);
+        classNode.fields.add(field);
+        return field;
+    }
+
+    private static InsnList returning() {
+        return instructions(new InsnNode(Opcodes.RETURN));
+    }
+}
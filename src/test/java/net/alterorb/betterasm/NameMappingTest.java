@@ -0,0 +1,158 @@
+package net.alterorb.betterasm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NameMappingTest {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void namesOverridingMethodsAlike() throws IOException {
+        List<NameMapping.ClassDeclaration> declarations = Arrays.asList(
+                declaration("a", OBJECT, new String[0], "b\t()V", "c\t()V"),
+                declaration("d", "a", new String[0], "b\t()V"),
+                declaration("e", "d", new String[0]),
+                declaration("f", OBJECT, new String[0], "b\t()V"));
+        NameMapping mapping = complete(declarations);
+
+        String name = mapping.mapMethodName("a", "b", "()V");
+        assertTrue(name.startsWith("method"));
+        assertEquals(name, mapping.mapMethodName("d", "b", "()V"));
+        // a reference through a subclass gets the name of the method it inherits
+        assertEquals(name, mapping.mapMethodName("e", "b", "()V"));
+        // the same method in an unrelated class can't override it, so it's named on its own
+        assertNotEquals(name, mapping.mapMethodName("f", "b", "()V"));
+        assertNotEquals(name, mapping.mapMethodName("a", "c", "()V"));
+    }
+
+    @Test
+    void namesInterfaceMethodsAlongWithTheirImplementations() throws IOException {
+        NameMapping mapping = complete(Arrays.asList(
+                declaration(Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "a", OBJECT, new String[0], "b\t()I"),
+                declaration("c", OBJECT, new String[] {"a"}, "b\t()I")));
+
+        assertEquals(mapping.mapMethodName("a", "b", "()I"), mapping.mapMethodName("c", "b", "()I"));
+    }
+
+    @Test
+    void keepsMethodsDeclaredOutsideTheJar() throws IOException {
+        NameMapping mapping = complete(Arrays.asList(
+                declaration("a", "java/util/AbstractList", new String[0], "get\t(I)Ljava/lang/Object;", "b\t()V"),
+                declaration("c", "a", new String[0], "get\t(I)Ljava/lang/Object;"),
+                declaration("d", "com/example/Missing", new String[0], "b\t()V")));
+
+        assertEquals("get", mapping.mapMethodName("a", "get", "(I)Ljava/lang/Object;"));
+        assertEquals("get", mapping.mapMethodName("c", "get", "(I)Ljava/lang/Object;"));
+        assertTrue(mapping.mapMethodName("a", "b", "()V").startsWith("method"));
+        // nothing is known of the methods of a class that can't be found, so none of its subclasses' are renamed
+        assertEquals("b", mapping.mapMethodName("d", "b", "()V"));
+    }
+
+    @Test
+    void resolvesFieldsThroughTheHierarchy() throws IOException {
+        NameMapping mapping = complete(Arrays.asList(
+                declaration("a", OBJECT, new String[0]),
+                declaration("c", "a", new String[0])));
+
+        assertEquals(mapping.mapFieldName("a", "f", "I"), mapping.mapFieldName("c", "f", "I"));
+        assertTrue(mapping.mapFieldName("a", "f", "I").startsWith("field"));
+    }
+
+    @Test
+    void readsBackTheNamesItWrote() throws IOException {
+        List<NameMapping.ClassDeclaration> declarations = Arrays.asList(
+                declaration("a", OBJECT, new String[0], "b\t()V"),
+                declaration("c", "a", new String[0], "b\t()V"),
+                declaration("Game", OBJECT, new String[0], "run\t()V"));
+        Path path = directory.resolve("game.mapping");
+        NameMapping mapping = complete(declarations);
+        mapping.write(path);
+
+        NameMapping reread = NameMapping.read(path);
+        reread.complete(declarations);
+
+        assertEquals(mapping.describe(), reread.describe());
+        assertEquals(0, reread.getGeneratedCount());
+        assertEquals("Game", reread.map("Game"));
+    }
+
+    @Test
+    void keepsEditedNamesAndNumbersNewOnesAfterThem() throws IOException {
+        Path path = directory.resolve("game.mapping");
+        Files.write(path, Arrays.asList("class\ta\tPlayer", "class\tb\tClass7", "method\ta\tc\t()V\ttick"), StandardCharsets.UTF_8);
+        NameMapping mapping = NameMapping.read(path);
+        mapping.complete(Arrays.asList(
+                declaration("a", OBJECT, new String[0], "c\t()V"),
+                declaration("d", "a", new String[0], "c\t()V"),
+                declaration("e", OBJECT, new String[0])));
+
+        assertEquals("Player", mapping.map("a"));
+        assertEquals("Class8", mapping.map("d"));
+        assertEquals("Class9", mapping.map("e"));
+        assertEquals("tick", mapping.mapMethodName("d", "c", "()V"));
+    }
+
+    @Test
+    void rejectsMalformedEntries() throws IOException {
+        Path path = directory.resolve("game.mapping");
+        Files.write(path, Collections.singletonList("class\ta"), StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> NameMapping.read(path));
+    }
+
+    private NameMapping complete(List<NameMapping.ClassDeclaration> declarations) throws IOException {
+        NameMapping mapping = NameMapping.read(directory.resolve("missing.mapping"));
+        mapping.complete(declarations);
+        return mapping;
+    }
+
+    private static NameMapping.ClassDeclaration declaration(String name, String superName, String[] interfaces, String... methods) {
+        return declaration(0, name, superName, interfaces, methods);
+    }
+
+    /**
+     * A class with the methods given by name and descriptor separated by a tab, and an int field {@code f} if it directly
+     * extends Object
+     */
+    private static NameMapping.ClassDeclaration declaration(int access, String name, String superName, String[] interfaces, String... methods) {
+        ClassNode classNode = newClass(name);
+        classNode.access |= access;
+        classNode.superName = superName;
+        classNode.interfaces.addAll(Arrays.asList(interfaces));
+
+        if ((access & Opcodes.ACC_INTERFACE) == 0 && superName.equals(OBJECT)) {
+            classNode.fields.add(new FieldNode(Opcodes.ACC_PUBLIC, "f", "I", null, null));
+        }
+
+        for (String method : methods) {
+            String[] columns = method.split("\t");
+            classNode.methods.add(new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, columns[0], columns[1], null, null));
+        }
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        return NameMapping.ClassDeclaration.of(new ClassReader(writer.toByteArray()));
+    }
+}
@@ -0,0 +1,97 @@
+package net.alterorb.betterasm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Builds classes and methods by hand for the tests, and checks what the transformers leave of them with the ASM
+ * verifier.
+ */
+public final class TestClasses {
+
+    private TestClasses() {
+    }
+
+    public static ClassNode newClass(String name) {
+        ClassNode classNode = new ClassNode();
+        classNode.version = Opcodes.V1_6;
+        classNode.access = Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER;
+        classNode.name = name;
+        classNode.superName = "java/lang/Object";
+        return classNode;
+    }
+
+    /**
+     * Adds a static method to the class, with room for any stack and locals the tests need
+     */
+    public static MethodNode addMethod(ClassNode classNode, String name, String descriptor, InsnList instructions) {
+        MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, descriptor, null, null);
+        method.instructions = instructions;
+        method.maxStack = 8;
+        method.maxLocals = 8;
+        classNode.methods.add(method);
+        return method;
+    }
+
+    public static InsnList instructions(AbstractInsnNode... insnNodes) {
+        InsnList instructions = new InsnList();
+
+        for (AbstractInsnNode insnNode : insnNodes) {
+            instructions.add(insnNode);
+        }
+        return instructions;
+    }
+
+    /**
+     * @return the opcodes of the method's instructions, leaving out labels, line numbers and frames
+     */
+    public static List<Integer> opcodes(MethodNode method) {
+        List<Integer> opcodes = new ArrayList<>();
+
+        for (AbstractInsnNode insnNode = method.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+
+            if (insnNode.getOpcode() >= 0) {
+                opcodes.add(insnNode.getOpcode());
+            }
+        }
+        return opcodes;
+    }
+
+    /**
+     * @return the first instruction of the method with the opcode, or null if there is none
+     */
+    public static AbstractInsnNode find(MethodNode method, int opcode) {
+
+        for (AbstractInsnNode insnNode = method.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+
+            if (insnNode.getOpcode() == opcode) {
+                return insnNode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the class and runs it through the ASM verifier, failing on anything it reports
+     */
+    public static void verify(ClassNode classNode) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        StringWriter problems = new StringWriter();
+
+        CheckClassAdapter.verify(new ClassReader(writer.toByteArray()), false, new PrintWriter(problems));
+        assertEquals("", problems.toString());
+    }
+}
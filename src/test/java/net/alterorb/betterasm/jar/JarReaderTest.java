@@ -0,0 +1,221 @@
+package net.alterorb.betterasm.jar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JarReaderTest {
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsEntriesLikeJarFile() throws IOException {
+        Path path = write(jar());
+        JarReader reader = JarReader.open(path);
+        List<String> names = new ArrayList<>();
+
+        try (JarFile jarFile = new JarFile(path.toFile())) {
+            List<JarEntry> expected = Collections.list(jarFile.entries());
+
+            for (JarReader.Entry entry : reader.getEntries()) {
+                names.add(entry.getName());
+            }
+            assertEquals(expected.stream().map(ZipEntry::getName).collect(Collectors.toList()), names);
+
+            for (JarReader.Entry entry : reader.getEntries()) {
+                JarEntry jarEntry = jarFile.getJarEntry(entry.getName());
+
+                assertEquals(jarEntry.isDirectory(), entry.isDirectory());
+                assertEquals(jarEntry.getSize(), entry.getSize());
+                assertEquals(jarEntry.getTime(), entry.getTime());
+
+                try (InputStream in = jarFile.getInputStream(jarEntry)) {
+                    assertArrayEquals(readFully(in), reader.read(entry));
+                }
+            }
+        }
+        assertEquals(Arrays.asList("net/", "net/Stored.class", "Deflated.class", "readme.txt"), names);
+        assertEquals(Arrays.asList("net/Stored.class", "Deflated.class"),
+                reader.getClassEntries().stream().map(JarReader.Entry::getName).collect(Collectors.toList()));
+    }
+
+    @Test
+    void readsStoredAndDeflatedClasses() throws IOException {
+        JarReader reader = JarReader.open(write(jar()));
+        List<JarReader.Entry> classEntries = reader.getClassEntries();
+
+        assertEquals("net/Stored", reader.classReader(classEntries.get(0)).getClassName());
+        assertEquals("Deflated", reader.classReader(classEntries.get(1)).getClassName());
+        assertEquals("net/Stored", reader.readClasses(0, true).get(0).name);
+    }
+
+    @Test
+    void rejectsTruncatedJars() throws IOException {
+        byte[] data = jar();
+
+        assertThrows(ZipException.class, () -> JarReader.open(write(Arrays.copyOf(data, data.length - 10))));
+        assertThrows(ZipException.class, () -> JarReader.open(write(Arrays.copyOf(data, data.length / 2))));
+    }
+
+    @Test
+    void rejectsTruncatedEntries() throws IOException {
+        byte[] data = jar();
+        ByteBuffer buffer = littleEndian(data);
+        int header = centralHeader(buffer, "Deflated.class");
+
+        // the inflater runs out of input long before the class is complete
+        buffer.putInt(header + 20, 2);
+        JarReader reader = JarReader.open(write(data));
+        JarReader.Entry entry = reader.getClassEntries().get(1);
+
+        assertThrows(ZipException.class, () -> reader.read(entry));
+    }
+
+    @Test
+    void rejectsZip64Jars() throws IOException {
+        byte[] data = jar();
+        ByteBuffer buffer = littleEndian(data);
+        int end = data.length - END_OF_CENTRAL_DIRECTORY_SIZE;
+
+        buffer.putShort(end + 8, (short) 0xFFFF);
+        buffer.putShort(end + 10, (short) 0xFFFF);
+        ZipException exception = assertThrows(ZipException.class, () -> JarReader.open(write(data)));
+        assertTrue(exception.getMessage().contains("ZIP64"));
+    }
+
+    @Test
+    void rejectsZip64Entries() throws IOException {
+        byte[] data = jar();
+        ByteBuffer buffer = littleEndian(data);
+
+        buffer.putInt(centralHeader(buffer, "Deflated.class") + 24, -1);
+        ZipException exception = assertThrows(ZipException.class, () -> JarReader.open(write(data)));
+        assertTrue(exception.getMessage().contains("ZIP64"));
+    }
+
+    @Test
+    void rejectsEncryptedEntries() throws IOException {
+        byte[] data = jar();
+        ByteBuffer buffer = littleEndian(data);
+        int header = centralHeader(buffer, "net/Stored.class");
+
+        buffer.putShort(header + 8, (short) (buffer.getShort(header + 8) | 1));
+        ZipException exception = assertThrows(ZipException.class, () -> JarReader.open(write(data)));
+        assertTrue(exception.getMessage().contains("Encrypted"));
+    }
+
+    /**
+     * @return a jar with a directory, a stored class, a deflated class and a deflated resource, in that order
+     */
+    private static byte[] jar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            JarEntry directory = new JarEntry("net/");
+            out.putNextEntry(directory);
+            out.closeEntry();
+
+            byte[] stored = classBytes("net/Stored");
+            CRC32 crc32 = new CRC32();
+            crc32.update(stored);
+            JarEntry storedEntry = new JarEntry("net/Stored.class");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            storedEntry.setCompressedSize(stored.length);
+            storedEntry.setCrc(crc32.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+            out.closeEntry();
+
+            out.putNextEntry(new JarEntry("Deflated.class"));
+            out.write(classBytes("Deflated"));
+            out.closeEntry();
+
+            out.putNextEntry(new JarEntry("readme.txt"));
+            out.write("Not a class".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] classBytes(String name) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "value", "I", null, null).visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static ByteBuffer littleEndian(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the offset of the central directory header of the named entry
+     */
+    private static int centralHeader(ByteBuffer buffer, String name) {
+        int end = buffer.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        int offset = buffer.getInt(end + 16);
+
+        while (offset < end) {
+            int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+            byte[] nameBytes = new byte[nameLength];
+
+            for (int i = 0; i < nameLength; i++) {
+                nameBytes[i] = buffer.get(offset + 46 + i);
+            }
+
+            if (name.equals(new String(nameBytes, StandardCharsets.UTF_8))) {
+                return offset;
+            }
+            offset += 46 + nameLength + (buffer.getShort(offset + 30) & 0xFFFF) + (buffer.getShort(offset + 32) & 0xFFFF);
+        }
+        throw new IllegalArgumentException("No entry named " + name);
+    }
+
+    private Path write(byte[] data) throws IOException {
+        Path path = Files.createTempFile(directory, "test", ".jar");
+        Files.write(path, data);
+        return path;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
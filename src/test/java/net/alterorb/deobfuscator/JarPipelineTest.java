@@ -0,0 +1,333 @@
+package net.alterorb.deobfuscator;
+
+import com.codahale.metrics.MetricRegistry;
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.cache.ClassCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.find;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JarPipelineTest {
+
+    @TempDir
+    Path directory;
+
+    private Path jarPath;
+    private Path deobJarPath;
+    private DeobfuscatorOptions options;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        jarPath = directory.resolve("game.jar");
+        deobJarPath = directory.resolve("game-deob.jar");
+        options = DeobfuscatorOptions.parse(new String[] {jarPath.toString(), deobJarPath.toString()});
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jarPath.toFile()))) {
+
+            for (String name : new String[] {"a", "b", "Game"}) {
+                ClassNode classNode = newClass(name);
+
+                // the main class only reaches a, b is left for pruning
+                if (name.equals("Game")) {
+                    addMethod(classNode, "main", "([Ljava/lang/String;)V", instructions(
+                            new MethodInsnNode(Opcodes.INVOKESTATIC, "a", "run", "()V", false),
+                            new InsnNode(Opcodes.RETURN)));
+                } else {
+                    addMethod(classNode, "run", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+                }
+                ClassWriter writer = new ClassWriter(0);
+                classNode.accept(writer);
+                out.putNextEntry(new JarEntry(name + ".class"));
+                out.write(writer.toByteArray());
+                out.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    void writesEveryClass() throws IOException {
+        JarPipeline jarPipeline = new JarPipeline(new TransformerPipeline(Collections.emptyList()), ForkJoinPool.commonPool(), null,
+                new MetricRegistry(), options);
+
+        assertEquals(3, jarPipeline.run(jarPath, deobJarPath).getClassCount());
+    }
+
+    @Test
+    void failsOnceCancelled() {
+        JarPipeline jarPipeline = new JarPipeline(new TransformerPipeline(Collections.emptyList()), ForkJoinPool.commonPool(), null,
+                new MetricRegistry(), options);
+
+        // cancelling before the run starts still reaches it, as the server may time a job out before it gets a thread
+        jarPipeline.cancel();
+        assertThrows(CancellationException.class, () -> jarPipeline.run(jarPath, deobJarPath));
+    }
+
+    @Test
+    void writesTheSameJarOnAnyNumberOfThreads() throws IOException {
+        Path gameJarPath = directory.resolve("large.jar");
+        writeJar(gameJarPath, 64);
+
+        for (boolean streaming : new boolean[] {false, true}) {
+            byte[] serial = runOnThreads(gameJarPath, 1, streaming);
+            byte[] parallel = runOnThreads(gameJarPath, 4, streaming);
+            assertArrayEquals(serial, parallel, streaming ? "streaming" : "collected");
+        }
+
+        // the transformers did change the classes being compared
+        try (JarFile jarFile = new JarFile(directory.resolve("large-4.jar").toFile())) {
+            ClassNode classNode = new ClassNode();
+            new ClassReader(jarFile.getInputStream(jarFile.getJarEntry("c5.class"))).accept(classNode, 0);
+            assertNull(find(classNode.methods.get(0), Opcodes.IFNE));
+            assertEquals(5, ((LdcInsnNode) find(classNode.methods.get(0), Opcodes.LDC)).cst);
+        }
+    }
+
+    /**
+     * @return the bytes of the jar written on the given number of threads, with the pool the deobfuscator would use
+     */
+    private byte[] runOnThreads(Path gameJarPath, int threads, boolean streaming) throws IOException {
+        Path output = directory.resolve("large-" + threads + ".jar");
+        List<String> args = new ArrayList<>(Arrays.asList(gameJarPath.toString(), output.toString(), "--no-cache", "--threads",
+                String.valueOf(threads)));
+
+        if (streaming) {
+            args.add("--streaming");
+        }
+        DeobfuscatorOptions options = DeobfuscatorOptions.parse(args.toArray(new String[0]));
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+
+        try {
+            new JarPipeline(Deobfuscator.createPipeline(options), pool, null, new MetricRegistry(), options).run(gameJarPath, output);
+        } finally {
+
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return Files.readAllBytes(output);
+    }
+
+    /**
+     * Writes a main class with a dummy boolean, and classes with impossible jumps on it and shifts out of range for the
+     * transformers to work on
+     */
+    private static void writeJar(Path path, int classCount) throws IOException {
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(path.toFile()))) {
+            ClassNode main = newClass("Game");
+            main.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "D", "Z", null, null));
+            writeClass(out, main);
+
+            for (int i = 0; i < classCount; i++) {
+                ClassNode classNode = newClass("c" + i);
+                LabelNode impossible = new LabelNode();
+                addMethod(classNode, "m", "(I)I", instructions(
+                        new FieldInsnNode(Opcodes.GETSTATIC, "Game", "D", "Z"),
+                        new VarInsnNode(Opcodes.ISTORE, 1),
+                        new VarInsnNode(Opcodes.ILOAD, 1),
+                        new JumpInsnNode(Opcodes.IFNE, impossible),
+                        new VarInsnNode(Opcodes.ILOAD, 0),
+                        new LdcInsnNode(32 + i),
+                        new InsnNode(Opcodes.ISHL),
+                        new InsnNode(Opcodes.IRETURN),
+                        impossible,
+                        new LdcInsnNode(i),
+                        new InsnNode(Opcodes.IRETURN)));
+                writeClass(out, classNode);
+            }
+        }
+    }
+
+    private static void writeClass(JarOutputStream out, ClassNode classNode) throws IOException {
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        out.putNextEntry(new JarEntry(classNode.name + ".class"));
+        out.write(writer.toByteArray());
+        out.closeEntry();
+    }
+
+    @Test
+    void copiesClassesNoTransformerAppliesToAsTheyAre() throws IOException {
+        Path prescanJarPath = directory.resolve("prescan.jar");
+        ClassNode plain = newClass("Plain");
+        plain.sourceFile = "Plain.java";
+        addMethod(plain, "run", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+        // only the integer constant of its constant pool shows the shift is out of range
+        ClassNode shifting = newClass("Shifting");
+        addMethod(shifting, "shift", "(I)I", instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0), new LdcInsnNode(40), new InsnNode(Opcodes.ISHL), new InsnNode(Opcodes.IRETURN)));
+        // written with a constant nothing uses, which a class parsed and written again would lose
+        ClassWriter plainWriter = new ClassWriter(0);
+        plain.accept(plainWriter);
+        plainWriter.newUTF8("unused");
+        byte[] plainBytes = plainWriter.toByteArray();
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(prescanJarPath.toFile()))) {
+            out.putNextEntry(new JarEntry("Plain.class"));
+            out.write(plainBytes);
+            out.closeEntry();
+            writeClass(out, shifting);
+        }
+
+        for (boolean streaming : new boolean[] {false, true}) {
+            List<String> args = new ArrayList<>(Arrays.asList(prescanJarPath.toString(), deobJarPath.toString(), "--no-cache"));
+
+            if (streaming) {
+                args.add("--streaming");
+            }
+            DeobfuscatorOptions options = DeobfuscatorOptions.parse(args.toArray(new String[0]));
+            MetricRegistry metrics = new MetricRegistry();
+            new JarPipeline(Deobfuscator.createPipeline(options), ForkJoinPool.commonPool(), null, metrics, options)
+                    .run(prescanJarPath, deobJarPath);
+
+            try (JarFile jarFile = new JarFile(deobJarPath.toFile())) {
+                assertArrayEquals(plainBytes, readAllBytes(jarFile, "Plain.class"), streaming ? "streaming" : "collected");
+                ClassNode classNode = new ClassNode();
+                new ClassReader(readAllBytes(jarFile, "Shifting.class")).accept(classNode, 0);
+                assertEquals(8, ((LdcInsnNode) find(classNode.methods.get(0), Opcodes.LDC)).cst);
+            }
+            assertEquals(1, metrics.counter("JarPipeline.classes-copied").getCount());
+        }
+    }
+
+    private static byte[] readAllBytes(JarFile jarFile, String name) throws IOException {
+
+        try (InputStream in = jarFile.getInputStream(jarFile.getJarEntry(name))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    @Test
+    void renamesAndPrunesWithTheCache() throws IOException {
+        Path cacheDir = directory.resolve("cache");
+
+        // the second run takes the classes from the cache
+        assertRenamedAndPruned("--cache-dir", cacheDir.toString());
+        assertRenamedAndPruned("--cache-dir", cacheDir.toString());
+    }
+
+    @Test
+    void renamesAndPrunesWithoutTheCache() throws IOException {
+        assertRenamedAndPruned("--no-cache");
+    }
+
+    @Test
+    void keepsCachedClassesWhenTheMappingChanges() throws IOException {
+        Path cacheDir = directory.resolve("cache");
+        DeobfuscatorOptions options = DeobfuscatorOptions.parse(new String[] {jarPath.toString(), deobJarPath.toString(), "--rename",
+                "--no-prescan", "--cache-dir", cacheDir.toString()});
+
+        runCached(options, "class\tGame\tClient\nclass\ta\tHelper\n");
+        assertEquals(3, countFiles(cacheDir));
+        // the cache holds the classes under their original names, renamed as they're written
+        runCached(options, "class\tGame\tClient\nclass\ta\tLoader\n");
+        assertEquals(3, countFiles(cacheDir));
+
+        try (JarFile jarFile = new JarFile(deobJarPath.toFile())) {
+            ClassNode classNode = new ClassNode();
+            new ClassReader(jarFile.getInputStream(jarFile.getJarEntry("Client.class"))).accept(classNode, 0);
+            MethodNode main = classNode.methods.stream().filter(method -> method.name.equals("main")).findFirst().orElseThrow(AssertionError::new);
+            assertEquals("Loader", ((MethodInsnNode) find(main, Opcodes.INVOKESTATIC)).owner);
+        }
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private void runCached(DeobfuscatorOptions options, String mapping) throws IOException {
+        Files.write(directory.resolve("game-deob.mapping"), mapping.getBytes(StandardCharsets.UTF_8));
+
+        try (ClassCache cache = new ClassCache(options.getCacheDir(), options.getCacheSize())) {
+            new JarPipeline(Deobfuscator.createPipeline(options), ForkJoinPool.commonPool(), cache, new MetricRegistry(), options)
+                    .run(jarPath, deobJarPath);
+        }
+    }
+
+    /**
+     * Runs every transformer on the jar with the main class renamed, and checks the classes are pruned from the main
+     * class and renamed exactly once
+     */
+    private void assertRenamedAndPruned(String... cacheArgs) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList(jarPath.toString(), deobJarPath.toString(), "--rename", "--prune"));
+        args.addAll(Arrays.asList(cacheArgs));
+        DeobfuscatorOptions options = DeobfuscatorOptions.parse(args.toArray(new String[0]));
+        Files.write(directory.resolve("game-deob.mapping"), "class\tGame\tClient\nclass\ta\tHelper\nclass\tb\tUnused\n".getBytes(StandardCharsets.UTF_8));
+        ClassCache cache = options.isCache() ? new ClassCache(options.getCacheDir(), options.getCacheSize()) : null;
+
+        try {
+            JarPipeline jarPipeline = new JarPipeline(Deobfuscator.createPipeline(options), ForkJoinPool.commonPool(), cache,
+                    new MetricRegistry(), options);
+            DeobfuscationContext ctx = jarPipeline.run(jarPath, deobJarPath);
+
+            assertEquals(2, ctx.getClassCount());
+            assertEquals("Client", ctx.getTargetJarMainClass());
+        } finally {
+
+            if (cache != null) {
+                cache.close();
+            }
+        }
+
+        try (JarFile jarFile = new JarFile(deobJarPath.toFile())) {
+            Set<String> names = jarFile.stream().map(JarEntry::getName).collect(Collectors.toSet());
+            assertEquals(new HashSet<>(Arrays.asList("Client.class", "Helper.class")), names);
+
+            ClassNode classNode = new ClassNode();
+            new ClassReader(jarFile.getInputStream(jarFile.getJarEntry("Client.class"))).accept(classNode, 0);
+            MethodNode main = classNode.methods.stream().filter(method -> method.name.equals("main")).findFirst().orElseThrow(AssertionError::new);
+            assertEquals("Helper", ((MethodInsnNode) find(main, Opcodes.INVOKESTATIC)).owner);
+        }
+    }
+}
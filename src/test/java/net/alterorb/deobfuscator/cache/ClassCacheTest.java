@@ -0,0 +1,97 @@
+package net.alterorb.deobfuscator.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassCacheTest {
+
+    private static final byte[] FINGERPRINT = ClassCache.fingerprint("test");
+
+    @TempDir
+    Path directory;
+
+    private ClassCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ClassCache(directory, 1024);
+    }
+
+    @Test
+    void readsWhatItStored() {
+        String key = cache.key(FINGERPRINT, bytes("a"));
+
+        assertNull(cache.get(key));
+        cache.put(key, bytes("transformed"));
+        assertArrayEquals(bytes("transformed"), cache.get(key));
+    }
+
+    @Test
+    void deletesTheTemporaryFileWhenAnEntryCantBeWritten() throws IOException {
+        String key = cache.key(FINGERPRINT, bytes("a"));
+        // a directory that isn't empty can't be replaced by the entry
+        Path entry = directory.resolve(key.substring(0, 2)).resolve(key + ".class");
+        Files.createDirectories(entry);
+        Files.write(entry.resolve("blocker"), bytes("blocker"));
+
+        cache.put(key, bytes("transformed"));
+        assertEquals(0, files(".tmp").size());
+    }
+
+    @Test
+    void trimDeletesStaleTemporaryFiles() throws IOException {
+        Path subdirectory = Files.createDirectories(directory.resolve("ab"));
+        Path stale = Files.write(subdirectory.resolve("ab12.tmp"), bytes("stale"));
+        Path fresh = Files.write(subdirectory.resolve("ab34.tmp"), bytes("fresh"));
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+
+        cache.trim();
+        assertFalse(Files.exists(stale));
+        // may still be being written by a concurrent run
+        assertTrue(Files.exists(fresh));
+    }
+
+    @Test
+    void trimEvictsTheLeastRecentlyUsedEntries() throws IOException {
+        String oldKey = cache.key(FINGERPRINT, bytes("old"));
+        String newKey = cache.key(FINGERPRINT, bytes("new"));
+        cache.put(oldKey, new byte[600]);
+        cache.put(newKey, new byte[600]);
+        Path oldEntry = files(".class").stream().filter(path -> path.getFileName().toString().startsWith(oldKey)).findFirst()
+                                       .orElseThrow(AssertionError::new);
+        Files.setLastModifiedTime(oldEntry, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+
+        cache.trim();
+        assertNull(cache.get(oldKey));
+        assertArrayEquals(new byte[600], cache.get(newKey));
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(suffix) && Files.isRegularFile(path))
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,147 @@
+package net.alterorb.deobfuscator.index;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReachabilityTest {
+
+    private ClassNode main;
+    private ClassNode serializable;
+    private ClassNode enumClass;
+    private ClassNode loaded;
+    private ClassNode base;
+    private ClassNode sub;
+    private ClassNode other;
+    private Reachability reachability;
+
+    @BeforeEach
+    void setUp() {
+        main = newClass("Main");
+        main.superName = "java/applet/Applet";
+        constructor(main);
+        method(main, Opcodes.ACC_PUBLIC, "init", "()V",
+                new TypeInsnNode(Opcodes.NEW, "a"), new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, "a", "<init>", "()V", false), new InsnNode(Opcodes.POP),
+                new FieldInsnNode(Opcodes.GETSTATIC, "b", "c", "Lb;"), new InsnNode(Opcodes.POP),
+                new LdcInsnNode("pkg.Loaded"), new InsnNode(Opcodes.POP),
+                new TypeInsnNode(Opcodes.NEW, "e"), new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, "e", "<init>", "()V", false),
+                new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "d", "f", "()V", false),
+                new InsnNode(Opcodes.RETURN));
+        method(main, Opcodes.ACC_PUBLIC, "g", "()V", new InsnNode(Opcodes.RETURN));
+
+        serializable = newClass("a");
+        serializable.interfaces.add("java/io/Serializable");
+        serializable.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, "h", "I", null, null));
+        constructor(serializable);
+        method(serializable, Opcodes.ACC_PRIVATE, "writeObject", "(Ljava/io/ObjectOutputStream;)V", new InsnNode(Opcodes.RETURN));
+        method(serializable, Opcodes.ACC_PRIVATE, "i", "()V", new InsnNode(Opcodes.RETURN));
+
+        enumClass = newClass("b");
+        enumClass.access |= Opcodes.ACC_ENUM;
+        enumClass.superName = "java/lang/Enum";
+        enumClass.fields.add(new FieldNode(Opcodes.ACC_STATIC | Opcodes.ACC_ENUM, "c", "Lb;", null, null));
+        method(enumClass, Opcodes.ACC_STATIC, "values", "()[Lb;", new InsnNode(Opcodes.ACONST_NULL), new InsnNode(Opcodes.ARETURN));
+        method(enumClass, Opcodes.ACC_STATIC, "valueOf", "(Ljava/lang/String;)Lb;", new InsnNode(Opcodes.ACONST_NULL),
+                new InsnNode(Opcodes.ARETURN));
+        method(enumClass, Opcodes.ACC_STATIC, "j", "()V", new InsnNode(Opcodes.RETURN));
+
+        loaded = newClass("pkg/Loaded");
+        constructor(loaded);
+        method(loaded, Opcodes.ACC_PUBLIC, "k", "()V", new InsnNode(Opcodes.RETURN));
+
+        base = newClass("d");
+        constructor(base);
+        method(base, Opcodes.ACC_PUBLIC, "f", "()V", new InsnNode(Opcodes.RETURN));
+        sub = newClass("e");
+        sub.superName = "d";
+        constructor(sub);
+        method(sub, Opcodes.ACC_PUBLIC, "f", "()V", new InsnNode(Opcodes.RETURN));
+        method(sub, Opcodes.ACC_PUBLIC, "l", "()V", new InsnNode(Opcodes.RETURN));
+
+        other = newClass("m");
+        constructor(other);
+
+        List<ClassNode> classNodes = Arrays.asList(main, serializable, enumClass, loaded, base, sub, other);
+        // no tree stays inflated, so nothing may rely on the trees the analysis reads being the ones put
+        ClassStore classStore = new ClassStore(classNodes.size(), 0, 0, false);
+
+        for (int i = 0; i < classNodes.size(); i++) {
+            classStore.put(i, classNodes.get(i), null);
+        }
+        reachability = Reachability.analyze(SymbolIndex.build(classStore), "Main");
+    }
+
+    @Test
+    void seedsTheMethodsOverridingJdkOnes() {
+        assertTrue(reachability.isReachable(main, main.findMethod("<init>", "()V")));
+        // the applet lifecycle reaches init, nothing reaches g
+        assertTrue(reachability.isReachable(main, main.findMethod("init", "()V")));
+        assertFalse(reachability.isReachable(main, main.findMethod("g", "()V")));
+        assertFalse(reachability.isReachable(other.name));
+    }
+
+    @Test
+    void keepsTheSerializedFormOfSerializableClasses() {
+        assertTrue(reachability.isReachable(serializable, serializable.findField("h", "I")));
+        assertTrue(reachability.isReachable(serializable, serializable.findMethod("writeObject", "(Ljava/io/ObjectOutputStream;)V")));
+        assertFalse(reachability.isReachable(serializable, serializable.findMethod("i", "()V")));
+    }
+
+    @Test
+    void keepsTheValuesAndValueOfOfEnums() {
+        assertTrue(reachability.isReachable(enumClass, enumClass.findField("c", "Lb;")));
+        assertTrue(reachability.isReachable(enumClass, enumClass.findMethod("values", "()[Lb;")));
+        assertTrue(reachability.isReachable(enumClass, enumClass.findMethod("valueOf", "(Ljava/lang/String;)Lb;")));
+        assertFalse(reachability.isReachable(enumClass, enumClass.findMethod("j", "()V")));
+    }
+
+    @Test
+    void reachesClassesNamedByStrings() {
+        assertTrue(reachability.isReachable(loaded.name));
+        assertTrue(reachability.isReachable(loaded, loaded.findMethod("<init>", "()V")));
+        assertFalse(reachability.isReachable(loaded, loaded.findMethod("k", "()V")));
+    }
+
+    @Test
+    void reachesTheMethodsVirtualCallsDispatchTo() {
+        assertTrue(reachability.isReachable(base, base.findMethod("f", "()V")));
+        assertTrue(reachability.isReachable(sub, sub.findMethod("f", "()V")));
+        assertFalse(reachability.isReachable(sub, sub.findMethod("l", "()V")));
+        // only the subclass is constructed, its constructor reaches the one of its superclass
+        assertTrue(reachability.isReachable(base, base.findMethod("<init>", "()V")));
+    }
+
+    private static void constructor(ClassNode classNode) {
+        method(classNode, Opcodes.ACC_PUBLIC, "<init>", "()V",
+                new VarInsnNode(Opcodes.ALOAD, 0),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, classNode.superName, "<init>", "()V", false),
+                new InsnNode(Opcodes.RETURN));
+    }
+
+    private static void method(ClassNode classNode, int access, String name, String descriptor, AbstractInsnNode... insnNodes) {
+        MethodNode method = addMethod(classNode, name, descriptor, instructions(insnNodes));
+        method.access = access;
+    }
+}
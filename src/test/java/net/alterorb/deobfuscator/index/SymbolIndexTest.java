@@ -0,0 +1,92 @@
+package net.alterorb.deobfuscator.index;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.ClassStore;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SymbolIndexTest {
+
+    @Test
+    void buildsFromSerializedClassesWithoutInflatingThem() {
+        ClassStore classStore = store();
+        SymbolIndex index = SymbolIndex.build(classStore);
+
+        assertEquals(0, classStore.getInflations());
+        assertTrue(index.contains("Sub"));
+        assertTrue(index.declaresMethod("Base", "run", "()V"));
+        assertTrue(index.declaresField("Base", "count", "I"));
+        assertEquals(Collections.singleton("Sub"), index.getDirectSubclasses("Base"));
+        assertEquals(new HashSet<>(Arrays.asList("Base", "java/lang/Object")), index.getSupertypes("Sub"));
+    }
+
+    @Test
+    void forgetsRemovedMembersAndDiscardedClasses() {
+        ClassStore classStore = store();
+        SymbolIndex index = SymbolIndex.build(classStore);
+
+        index.removeMethod("Base", "run", "()V");
+        index.removeField("Base", "count", "I");
+        assertFalse(index.declaresMethod("Base", "run", "()V"));
+        assertFalse(index.declaresField("Base", "count", "I"));
+
+        classStore.discard(1);
+        index.invalidate("Sub");
+        classStore.compact();
+        index.compact();
+
+        assertFalse(index.contains("Sub"));
+        assertTrue(index.getDirectSubclasses("Base").isEmpty());
+        // the class after the discarded one moved down a place, and is still read from it
+        assertTrue(index.readClass("Other", classNode -> assertEquals("Other", classNode.name)));
+    }
+
+    @Test
+    void readsAnInvalidatedClassAgain() {
+        ClassStore classStore = store();
+        SymbolIndex index = SymbolIndex.build(classStore);
+
+        classStore.update(0, classNode -> {
+            addMethod(classNode, "stop", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+            return classNode;
+        });
+        assertFalse(index.declaresMethod("Base", "stop", "()V"));
+
+        index.invalidate("Base");
+        assertTrue(index.declaresMethod("Base", "stop", "()V"));
+        assertEquals(Collections.singleton("Sub"), index.getDirectSubclasses("Base"));
+    }
+
+    private static ClassStore store() {
+        ClassNode base = newClass("Base");
+        base.fields.add(new FieldNode(Opcodes.ACC_STATIC, "count", "I", null, null));
+        addMethod(base, "run", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+        ClassNode sub = newClass("Sub");
+        sub.superName = "Base";
+        ClassNode other = newClass("Other");
+        ClassStore classStore = new ClassStore(3, ClassReader.SKIP_FRAMES, 0, false);
+        ClassNode[] classNodes = {base, sub, other};
+
+        for (int i = 0; i < classNodes.length; i++) {
+            ClassWriter writer = new ClassWriter(0);
+            classNodes[i].accept(writer);
+            classStore.put(i, writer.toByteArray(), false);
+        }
+        return classStore;
+    }
+}
@@ -0,0 +1,136 @@
+package net.alterorb.deobfuscator.transformer;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FixedPointTransformerTest {
+
+    private DeobfuscationContext ctx;
+    private ClassNode classNode;
+    private MethodNode first;
+    private MethodNode second;
+
+    @BeforeEach
+    void setUp() {
+        ctx = new DeobfuscationContext();
+        classNode = newClass("Game");
+        first = addMethod(classNode, "first", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+        second = addMethod(classNode, "second", "()V", instructions(new InsnNode(Opcodes.RETURN)));
+    }
+
+    @Test
+    void stopsAtTheCapOfPasses() {
+        ScriptedTransformer transformer = new ScriptedTransformer(Integer.MAX_VALUE, 0);
+        FixedPointTransformer fixedPoint = new FixedPointTransformer(transformer);
+
+        fixedPoint.process(ctx, classNode);
+
+        assertEquals(FixedPointTransformer.DEFAULT_MAX_PASSES, count(fixedPoint, "passes"));
+        // the second method, never changing, is only visited by the first pass
+        assertEquals(FixedPointTransformer.DEFAULT_MAX_PASSES + 1, count(fixedPoint, "method-visits"));
+        assertEquals(1, count(fixedPoint, "capped-classes"));
+        assertTrue(classNode.isDirty(first));
+    }
+
+    @Test
+    void rerunsOnlyTheMethodsThatChanged() {
+        // the first method changes in the first two passes, the second one never
+        ScriptedTransformer transformer = new ScriptedTransformer(2, 0);
+        FixedPointTransformer fixedPoint = new FixedPointTransformer(transformer);
+
+        fixedPoint.process(ctx, classNode);
+
+        assertEquals(Arrays.asList("first", "second", "first", "first"), transformer.visited);
+        assertEquals(3, count(fixedPoint, "passes"));
+        assertEquals(4, count(fixedPoint, "method-visits"));
+        assertEquals(0, count(fixedPoint, "capped-classes"));
+        assertTrue(classNode.isDirty(first));
+        assertFalse(classNode.isDirty(second));
+    }
+
+    @Test
+    void stopsOnceNothingChanges() {
+        ScriptedTransformer transformer = new ScriptedTransformer(0, 0);
+        FixedPointTransformer fixedPoint = new FixedPointTransformer(transformer);
+
+        fixedPoint.process(ctx, classNode);
+
+        assertEquals(Arrays.asList("first", "second"), transformer.visited);
+        assertEquals(1, count(fixedPoint, "passes"));
+        assertEquals(Collections.emptySet(), classNode.getDirtyMethods());
+        assertEquals(Arrays.asList("begin", "end"), transformer.lifecycle);
+    }
+
+    @Test
+    void rerunsEveryTransformerOnAMethodAnyOfThemChanged() {
+        ScriptedTransformer changing = new ScriptedTransformer(1, 1);
+        ScriptedTransformer idle = new ScriptedTransformer(0, 0);
+        FixedPointTransformer fixedPoint = new FixedPointTransformer(3, Arrays.asList(changing, idle));
+
+        fixedPoint.process(ctx, classNode);
+
+        assertEquals(Arrays.asList("first", "second", "first", "second"), idle.visited);
+        assertEquals(2, count(fixedPoint, "passes"));
+    }
+
+    private long count(FixedPointTransformer fixedPoint, String name) {
+        return DeobfuscatorMetrics.counter(ctx, fixedPoint, name).getCount();
+    }
+
+    /**
+     * Reports the first and second methods as changed for the given number of visits each
+     */
+    private class ScriptedTransformer implements MethodTransformer {
+
+        private final Map<MethodNode, Integer> changes = new HashMap<>();
+        private final List<String> visited = new ArrayList<>();
+        private final List<String> lifecycle = new ArrayList<>();
+
+        private ScriptedTransformer(int firstChanges, int secondChanges) {
+            changes.put(first, firstChanges);
+            changes.put(second, secondChanges);
+        }
+
+        @Override
+        public boolean process(DeobfuscationContext ctx, ClassNode classNode, MethodNode method) {
+            visited.add(method.name);
+            int remaining = changes.get(method);
+
+            if (remaining == 0) {
+                return false;
+            }
+            changes.put(method, remaining - 1);
+            return true;
+        }
+
+        @Override
+        public void beginClass(DeobfuscationContext ctx, ClassNode classNode) {
+            lifecycle.add("begin");
+        }
+
+        @Override
+        public void endClass(DeobfuscationContext ctx, ClassNode classNode) {
+            lifecycle.add("end");
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.alterorb.deobfuscator.transformer.impl;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.find;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static net.alterorb.betterasm.TestClasses.opcodes;
+import static net.alterorb.betterasm.TestClasses.verify;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadCodeTransformerTest {
+
+    private final DeadCodeTransformer transformer = new DeadCodeTransformer();
+    private DeobfuscationContext ctx;
+    private ClassNode classNode;
+
+    @BeforeEach
+    void setUp() {
+        ctx = new DeobfuscationContext();
+        classNode = newClass("Game");
+    }
+
+    @Test
+    void collapsesGotoChains() {
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+        LabelNode end = new LabelNode();
+        MethodNode method = addMethod(classNode, "chain", "(I)I", instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0),
+                new JumpInsnNode(Opcodes.IFEQ, first),
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN),
+                first, new JumpInsnNode(Opcodes.GOTO, second),
+                second, new JumpInsnNode(Opcodes.GOTO, end),
+                end, new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertSame(end, ((JumpInsnNode) find(method, Opcodes.IFEQ)).label);
+        assertEquals(Arrays.asList(Opcodes.ILOAD, Opcodes.IFEQ, Opcodes.ICONST_0, Opcodes.IRETURN, Opcodes.ICONST_1, Opcodes.IRETURN),
+                opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void keepsGotoCycles() {
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+        MethodNode method = addMethod(classNode, "spin", "(I)I", instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0),
+                new JumpInsnNode(Opcodes.IFEQ, first),
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN),
+                first, new JumpInsnNode(Opcodes.GOTO, second),
+                second, new JumpInsnNode(Opcodes.GOTO, first)));
+
+        // following the cycle gives up and leaves the jump into it alone, only the goto to the next one goes
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertSame(first, ((JumpInsnNode) find(method, Opcodes.IFEQ)).label);
+        assertSame(first, ((JumpInsnNode) find(method, Opcodes.GOTO)).label);
+        assertEquals(Arrays.asList(Opcodes.ILOAD, Opcodes.IFEQ, Opcodes.ICONST_0, Opcodes.IRETURN, Opcodes.GOTO), opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void removesHandlersWhoseRangeBecameEmpty() {
+        LabelNode start = new LabelNode();
+        LabelNode end = new LabelNode();
+        LabelNode handler = new LabelNode();
+        MethodNode method = addMethod(classNode, "guarded", "()I", instructions(
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN),
+                start, new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN), end,
+                handler, new VarInsnNode(Opcodes.ASTORE, 0), new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+        method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, "java/lang/RuntimeException"));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        // the handler could only be reached from the code it covered
+        assertTrue(method.tryCatchBlocks.isEmpty());
+        assertEquals(Arrays.asList(Opcodes.ICONST_0, Opcodes.IRETURN), opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void skipsMethodsWithSubroutines() {
+        LabelNode subroutine = new LabelNode();
+        LabelNode unused = new LabelNode();
+        MethodNode method = addMethod(classNode, "legacy", "()V", instructions(
+                new JumpInsnNode(Opcodes.JSR, subroutine),
+                new InsnNode(Opcodes.RETURN),
+                unused, new JumpInsnNode(Opcodes.GOTO, unused),
+                subroutine, new VarInsnNode(Opcodes.ASTORE, 0), new VarInsnNode(Opcodes.RET, 0)));
+        List<Integer> before = opcodes(method);
+
+        assertFalse(transformer.process(ctx, classNode, method));
+        assertEquals(before, opcodes(method));
+    }
+
+    @Test
+    void onlyCollapsesGotoChainsOfMethodsWithSubroutines() {
+        LabelNode subroutine = new LabelNode();
+        LabelNode first = new LabelNode();
+        LabelNode end = new LabelNode();
+        MethodNode method = addMethod(classNode, "legacy", "(I)V", instructions(
+                new VarInsnNode(Opcodes.ILOAD, 0),
+                new JumpInsnNode(Opcodes.IFEQ, first),
+                new JumpInsnNode(Opcodes.JSR, subroutine),
+                first, new JumpInsnNode(Opcodes.GOTO, end),
+                end, new InsnNode(Opcodes.RETURN),
+                subroutine, new VarInsnNode(Opcodes.ASTORE, 1), new VarInsnNode(Opcodes.RET, 1)));
+        List<Integer> before = opcodes(method);
+
+        // the graph can't be built, so the trampoline left behind stays
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertSame(end, ((JumpInsnNode) find(method, Opcodes.IFEQ)).label);
+        assertSame(subroutine, ((JumpInsnNode) find(method, Opcodes.JSR)).label);
+        assertEquals(before, opcodes(method));
+    }
+
+    @Test
+    void countsInstructionsIntoTheContextMetrics() {
+        LabelNode end = new LabelNode();
+        MethodNode method = addMethod(classNode, "jump", "()V", instructions(
+                new JumpInsnNode(Opcodes.GOTO, end),
+                new InsnNode(Opcodes.NOP),
+                end, new InsnNode(Opcodes.RETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertEquals(3, ctx.getMetrics().counter("DeadCodeTransformer.instructions-before").getCount());
+        assertEquals(1, ctx.getMetrics().counter("DeadCodeTransformer.instructions-after").getCount());
+    }
+}
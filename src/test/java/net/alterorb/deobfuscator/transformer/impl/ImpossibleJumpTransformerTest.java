@@ -0,0 +1,180 @@
+package net.alterorb.deobfuscator.transformer.impl;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.Arrays;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.find;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static net.alterorb.betterasm.TestClasses.opcodes;
+import static net.alterorb.betterasm.TestClasses.verify;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImpossibleJumpTransformerTest {
+
+    private static final String MAIN_CLASS = "Main";
+
+    private final ImpossibleJumpTransformer transformer = new ImpossibleJumpTransformer();
+    private DeobfuscationContext ctx;
+    private ClassNode classNode;
+
+    @BeforeEach
+    void setUp() {
+        ctx = new DeobfuscationContext();
+        ctx.setTargetJarMainClass(MAIN_CLASS);
+        classNode = newClass("Game");
+    }
+
+    @Test
+    void keepsTheOperandThatCantBeRemoved() {
+        LabelNode taken = new LabelNode();
+        MethodNode method = addMethod(classNode, "compare", "()I", instructions(
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                new MethodInsnNode(Opcodes.INVOKESTATIC, "Game", "next", "()I", false),
+                new VarInsnNode(Opcodes.ILOAD, 1),
+                new JumpInsnNode(Opcodes.IF_ICMPEQ, taken),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN),
+                taken, new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+        addMethod(classNode, "next", "()I", instructions(new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.IRETURN)));
+
+        // the call is unknown, so the comparison isn't either
+        assertFalse(transformer.process(ctx, classNode, method));
+
+        method = addMethod(classNode, "compareConstant", "()I", instructions(
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IADD),
+                new VarInsnNode(Opcodes.ILOAD, 1),
+                new JumpInsnNode(Opcodes.IF_ICMPEQ, taken = new LabelNode()),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN),
+                taken, new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        // the sum stays and is popped, the dummy load and the never taken branch go
+        assertEquals(Arrays.asList(Opcodes.ICONST_1, Opcodes.ICONST_1, Opcodes.IADD, Opcodes.POP, Opcodes.ICONST_1, Opcodes.IRETURN),
+                opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void foldsTableSwitchOnConstantKey() {
+        LabelNode zero = new LabelNode();
+        LabelNode one = new LabelNode();
+        LabelNode dflt = new LabelNode();
+        MethodNode method = addMethod(classNode, "select", "()I", instructions(
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                new VarInsnNode(Opcodes.ILOAD, 1),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IADD),
+                new TableSwitchInsnNode(0, 1, dflt, zero, one),
+                zero, new InsnNode(Opcodes.ICONST_3), new InsnNode(Opcodes.IRETURN),
+                one, new InsnNode(Opcodes.ICONST_4), new InsnNode(Opcodes.IRETURN),
+                dflt, new InsnNode(Opcodes.ICONST_M1), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        // the key is 1, computed by more than a plain push so it's popped, which keeps the dummy read
+        assertEquals(Arrays.asList(Opcodes.GETSTATIC, Opcodes.ISTORE, Opcodes.ILOAD, Opcodes.ICONST_1, Opcodes.IADD, Opcodes.POP,
+                Opcodes.GOTO, Opcodes.ICONST_4, Opcodes.IRETURN), opcodes(method));
+        assertSame(one, ((JumpInsnNode) find(method, Opcodes.GOTO)).label);
+        verify(classNode);
+    }
+
+    @Test
+    void keepsDummyStillReadAfterFolding() {
+        LabelNode taken = new LabelNode();
+        MethodNode method = addMethod(classNode, "check", "()I", instructions(
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                new VarInsnNode(Opcodes.ILOAD, 1),
+                new JumpInsnNode(Opcodes.IFNE, taken),
+                new VarInsnNode(Opcodes.ILOAD, 1), new InsnNode(Opcodes.IRETURN),
+                taken, new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertEquals(Arrays.asList(Opcodes.GETSTATIC, Opcodes.ISTORE, Opcodes.ILOAD, Opcodes.IRETURN), opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void removesDummyNoLongerRead() {
+        LabelNode taken = new LabelNode();
+        MethodNode method = addMethod(classNode, "check", "()I", instructions(
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                new VarInsnNode(Opcodes.ILOAD, 1),
+                new JumpInsnNode(Opcodes.IFEQ, taken),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN),
+                taken, new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertEquals(Arrays.asList(Opcodes.GOTO, Opcodes.ICONST_2, Opcodes.IRETURN), opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void foldsDummyStoredPastTheStart() {
+        LabelNode taken = new LabelNode();
+        MethodNode method = addMethod(classNode, "late", "()I", instructions(
+                new InsnNode(Opcodes.ICONST_5), new VarInsnNode(Opcodes.ISTORE, 2),
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                new VarInsnNode(Opcodes.ILOAD, 1),
+                new JumpInsnNode(Opcodes.IFNE, taken),
+                new VarInsnNode(Opcodes.ILOAD, 2), new InsnNode(Opcodes.IRETURN),
+                taken, new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        assertEquals(Arrays.asList(Opcodes.ICONST_5, Opcodes.ISTORE, Opcodes.ILOAD, Opcodes.IRETURN), opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void foldsDirectReadsOfAStoredDummy() {
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+        MethodNode method = addMethod(classNode, "direct", "()I", instructions(
+                dummy(), new VarInsnNode(Opcodes.ISTORE, 1),
+                dummy(),
+                new JumpInsnNode(Opcodes.IFEQ, first),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN),
+                first, new VarInsnNode(Opcodes.ILOAD, 1),
+                new JumpInsnNode(Opcodes.IFNE, second),
+                new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN),
+                second, new InsnNode(Opcodes.ICONST_3), new InsnNode(Opcodes.IRETURN)));
+
+        assertTrue(transformer.process(ctx, classNode, method));
+        // the direct read goes with the jump it fed, the stored one once its local isn't loaded anymore
+        assertEquals(Arrays.asList(Opcodes.GOTO, Opcodes.ICONST_2, Opcodes.IRETURN), opcodes(method));
+        verify(classNode);
+    }
+
+    @Test
+    void leavesMainClassBooleansThatArentStoredAlone() {
+        LabelNode taken = new LabelNode();
+        MethodNode method = addMethod(classNode, "running", "()I", instructions(
+                new FieldInsnNode(Opcodes.GETSTATIC, MAIN_CLASS, "running", "Z"),
+                new JumpInsnNode(Opcodes.IFEQ, taken),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IRETURN),
+                taken, new InsnNode(Opcodes.ICONST_2), new InsnNode(Opcodes.IRETURN)));
+
+        assertFalse(transformer.process(ctx, classNode, method));
+        assertEquals(Arrays.asList(Opcodes.GETSTATIC, Opcodes.IFEQ, Opcodes.ICONST_1, Opcodes.IRETURN, Opcodes.ICONST_2, Opcodes.IRETURN),
+                opcodes(method));
+    }
+
+    private static FieldInsnNode dummy() {
+        return new FieldInsnNode(Opcodes.GETSTATIC, MAIN_CLASS, "D", "Z");
+    }
+}
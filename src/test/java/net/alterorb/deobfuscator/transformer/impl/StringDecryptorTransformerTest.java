@@ -0,0 +1,164 @@
+package net.alterorb.deobfuscator.transformer.impl;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.FixedPointTransformer;
+import net.alterorb.deobfuscator.transformer.peephole.FusedPeepholeTransformer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static net.alterorb.betterasm.TestClasses.opcodes;
+import static net.alterorb.betterasm.TestClasses.verify;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StringDecryptorTransformerTest {
+
+    private static final String STRING_ARRAY_DESCRIPTOR = "[Ljava/lang/String;";
+    private static final int STRING_KEY = 42;
+    private static final byte[] KEYS = {11, 22, 33, 44, 55};
+
+    private final StringDecryptorTransformer transformer = new StringDecryptorTransformer();
+    private DeobfuscationContext ctx;
+
+    @BeforeEach
+    void setUp() {
+        ctx = new DeobfuscationContext();
+        ctx.setTargetJarMainClass("Main");
+    }
+
+    @Test
+    void decryptsTheStringTableAndRemovesTheDecryptors() {
+        ClassReader reader = new ClassReader(write(encryptedClass("hello, world", "x")));
+        ClassNode classNode = new ClassNode();
+
+        // the streaming pass reads the keys from the class, then rewrites it on the second read
+        reader.accept(transformer.visitor(ctx, transformer.prepare(ctx, visitor -> reader.accept(visitor, 0)), classNode), 0);
+
+        assertNull(classNode.findMethod("z", "(Ljava/lang/String;)[C"));
+        assertNull(classNode.findMethod("z", "([C)Ljava/lang/String;"));
+        assertEquals(2, DeobfuscatorMetrics.counter(ctx, transformer, "strings-decrypted").getCount());
+        assertTrue(classNode.isDirty(classNode.getClassInitializer()));
+
+        new FixedPointTransformer(new FusedPeepholeTransformer(new StringInlinerTransformer())).process(ctx, classNode);
+
+        MethodNode greeting = classNode.findMethod("greeting", "()Ljava/lang/String;");
+        MethodNode letter = classNode.findMethod("letter", "()Ljava/lang/String;");
+        assertEquals(Arrays.asList(Opcodes.LDC, Opcodes.ARETURN), opcodes(greeting));
+        assertEquals("hello, world", ((LdcInsnNode) greeting.instructions.getFirst()).cst);
+        assertEquals("x", ((LdcInsnNode) letter.instructions.getFirst()).cst);
+        assertEquals(Collections.singletonList(Opcodes.RETURN), opcodes(classNode.getClassInitializer()));
+        assertTrue(classNode.fields.isEmpty());
+        verify(classNode);
+    }
+
+    /**
+     * A class holding its strings encrypted in a table, decrypted as the class initializes the way the obfuscator
+     * does it: single characters xored with one key, then every character with one of five keys
+     */
+    private static ClassNode encryptedClass(String... strings) {
+        ClassNode classNode = newClass("Game");
+        classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "z", STRING_ARRAY_DESCRIPTOR, null, null));
+        InsnList table = instructions(new IntInsnNode(Opcodes.BIPUSH, strings.length), new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/String"));
+
+        for (int i = 0; i < strings.length; i++) {
+            table.add(instructions(
+                    new InsnNode(Opcodes.DUP), new IntInsnNode(Opcodes.BIPUSH, i), new LdcInsnNode(encrypt(strings[i])),
+                    new MethodInsnNode(Opcodes.INVOKESTATIC, "Game", "z", "(Ljava/lang/String;)[C", false),
+                    new MethodInsnNode(Opcodes.INVOKESTATIC, "Game", "z", "([C)Ljava/lang/String;", false),
+                    new InsnNode(Opcodes.AASTORE)));
+        }
+        table.add(new FieldInsnNode(Opcodes.PUTSTATIC, "Game", "z", STRING_ARRAY_DESCRIPTOR));
+        table.add(new InsnNode(Opcodes.RETURN));
+        addMethod(classNode, "<clinit>", "()V", table);
+        addMethod(classNode, "greeting", "()Ljava/lang/String;", load(0));
+        addMethod(classNode, "letter", "()Ljava/lang/String;", load(1));
+
+        LabelNode longer = new LabelNode();
+        addMethod(classNode, "z", "(Ljava/lang/String;)[C", instructions(
+                new VarInsnNode(Opcodes.ALOAD, 0),
+                new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false),
+                new InsnNode(Opcodes.DUP), new InsnNode(Opcodes.ARRAYLENGTH), new InsnNode(Opcodes.ICONST_2),
+                new JumpInsnNode(Opcodes.IF_ICMPGE, longer),
+                new InsnNode(Opcodes.DUP), new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.DUP2), new InsnNode(Opcodes.CALOAD),
+                new IntInsnNode(Opcodes.BIPUSH, STRING_KEY), new InsnNode(Opcodes.IXOR), new InsnNode(Opcodes.I2C), new InsnNode(Opcodes.CASTORE),
+                longer, new InsnNode(Opcodes.ARETURN)));
+
+        LabelNode loop = new LabelNode();
+        LabelNode xor = new LabelNode();
+        LabelNode end = new LabelNode();
+        LabelNode[] cases = {new LabelNode(), new LabelNode(), new LabelNode(), new LabelNode()};
+        LabelNode otherwise = new LabelNode();
+        InsnList charArrayDecryptor = instructions(
+                new InsnNode(Opcodes.ICONST_0), new VarInsnNode(Opcodes.ISTORE, 1),
+                loop, new VarInsnNode(Opcodes.ILOAD, 1), new VarInsnNode(Opcodes.ALOAD, 0), new InsnNode(Opcodes.ARRAYLENGTH),
+                new JumpInsnNode(Opcodes.IF_ICMPGE, end),
+                new VarInsnNode(Opcodes.ALOAD, 0), new VarInsnNode(Opcodes.ILOAD, 1), new InsnNode(Opcodes.DUP2), new InsnNode(Opcodes.CALOAD),
+                new VarInsnNode(Opcodes.ILOAD, 1), new InsnNode(Opcodes.ICONST_5), new InsnNode(Opcodes.IREM),
+                new TableSwitchInsnNode(0, 3, otherwise, cases));
+
+        for (int i = 0; i < cases.length; i++) {
+            charArrayDecryptor.add(instructions(cases[i], new IntInsnNode(Opcodes.BIPUSH, KEYS[i]), new JumpInsnNode(Opcodes.GOTO, xor)));
+        }
+        charArrayDecryptor.add(instructions(
+                otherwise, new IntInsnNode(Opcodes.BIPUSH, KEYS[4]),
+                xor, new InsnNode(Opcodes.IXOR), new InsnNode(Opcodes.I2C), new InsnNode(Opcodes.CASTORE),
+                new IincInsnNode(1, 1), new JumpInsnNode(Opcodes.GOTO, loop),
+                end, new TypeInsnNode(Opcodes.NEW, "java/lang/String"), new InsnNode(Opcodes.DUP), new VarInsnNode(Opcodes.ALOAD, 0),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false),
+                new InsnNode(Opcodes.ARETURN)));
+        addMethod(classNode, "z", "([C)Ljava/lang/String;", charArrayDecryptor);
+        verify(classNode);
+        return classNode;
+    }
+
+    private static InsnList load(int index) {
+        return instructions(
+                new FieldInsnNode(Opcodes.GETSTATIC, "Game", "z", STRING_ARRAY_DESCRIPTOR), new IntInsnNode(Opcodes.BIPUSH, index),
+                new InsnNode(Opcodes.AALOAD), new InsnNode(Opcodes.ARETURN));
+    }
+
+    private static String encrypt(String string) {
+        char[] chars = string.toCharArray();
+
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] ^= KEYS[i % 5];
+        }
+
+        if (chars.length < 2) {
+            chars[0] ^= STRING_KEY;
+        }
+        return new String(chars);
+    }
+
+    private static byte[] write(ClassNode classNode) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+}
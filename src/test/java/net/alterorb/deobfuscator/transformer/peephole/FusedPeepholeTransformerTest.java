@@ -0,0 +1,120 @@
+package net.alterorb.deobfuscator.transformer.peephole;
+
+import net.alterorb.betterasm.ClassNode;
+import net.alterorb.betterasm.InsnPattern;
+import net.alterorb.deobfuscator.DeobfuscationContext;
+import net.alterorb.deobfuscator.metrics.DeobfuscatorMetrics;
+import net.alterorb.deobfuscator.transformer.FixedPointTransformer;
+import net.alterorb.deobfuscator.transformer.impl.IfJumpTransformer;
+import net.alterorb.deobfuscator.transformer.impl.ImpossibleJumpTransformer;
+import net.alterorb.deobfuscator.transformer.impl.StringInlinerTransformer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.alterorb.betterasm.TestClasses.addMethod;
+import static net.alterorb.betterasm.TestClasses.instructions;
+import static net.alterorb.betterasm.TestClasses.newClass;
+import static net.alterorb.betterasm.TestClasses.opcodes;
+import static net.alterorb.betterasm.TestClasses.verify;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FusedPeepholeTransformerTest {
+
+    private static final String STRING_ARRAY_DESCRIPTOR = "[Ljava/lang/String;";
+
+    private DeobfuscationContext ctx;
+    private ClassNode classNode;
+
+    @BeforeEach
+    void setUp() {
+        ctx = new DeobfuscationContext();
+        ctx.setTargetJarMainClass("Main");
+        classNode = newClass("Game");
+    }
+
+    @Test
+    void inlinesStringsAndFoldsDummiesInTheSameWalk() {
+        classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "z", STRING_ARRAY_DESCRIPTOR, null, null));
+        MethodNode classInitializer = addMethod(classNode, "<clinit>", "()V", instructions(
+                new InsnNode(Opcodes.ICONST_2), new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/String"),
+                new InsnNode(Opcodes.DUP), new InsnNode(Opcodes.ICONST_0), new LdcInsnNode("zero"), new InsnNode(Opcodes.AASTORE),
+                new InsnNode(Opcodes.DUP), new InsnNode(Opcodes.ICONST_1), new LdcInsnNode("one"), new InsnNode(Opcodes.AASTORE),
+                new FieldInsnNode(Opcodes.PUTSTATIC, "Game", "z", STRING_ARRAY_DESCRIPTOR),
+                new InsnNode(Opcodes.RETURN)));
+        LabelNode impossible = new LabelNode();
+        MethodNode method = addMethod(classNode, "name", "()Ljava/lang/String;", instructions(
+                new FieldInsnNode(Opcodes.GETSTATIC, "Main", "D", "Z"), new VarInsnNode(Opcodes.ISTORE, 0),
+                new VarInsnNode(Opcodes.ILOAD, 0), new JumpInsnNode(Opcodes.IFNE, impossible),
+                new FieldInsnNode(Opcodes.GETSTATIC, "Game", "z", STRING_ARRAY_DESCRIPTOR), new InsnNode(Opcodes.ICONST_1),
+                new InsnNode(Opcodes.AALOAD), new InsnNode(Opcodes.ARETURN),
+                impossible, new FieldInsnNode(Opcodes.GETSTATIC, "Game", "z", STRING_ARRAY_DESCRIPTOR), new InsnNode(Opcodes.ICONST_0),
+                new InsnNode(Opcodes.AALOAD), new InsnNode(Opcodes.ARETURN)));
+        FusedPeepholeTransformer fused = new FusedPeepholeTransformer(
+                new StringInlinerTransformer(), new IfJumpTransformer(), new ImpossibleJumpTransformer());
+
+        new FixedPointTransformer(fused).process(ctx, classNode);
+
+        assertEquals(Arrays.asList(Opcodes.LDC, Opcodes.ARETURN), opcodes(method));
+        assertEquals("one", ((LdcInsnNode) method.instructions.getFirst()).cst);
+        assertEquals(Collections.singletonList(Opcodes.RETURN), opcodes(classInitializer));
+        assertTrue(classNode.fields.isEmpty());
+        // both methods in the first pass, then the folded one once more to find nothing left
+        assertEquals(3, DeobfuscatorMetrics.counter(ctx, fused, "method-walks").getCount());
+        // on their own, the three rules would each have walked every method walked here
+        assertEquals(3, fused.getEngine().getWalkingRules());
+        verify(classNode);
+    }
+
+    @Test
+    void dispatchesPatternsAfterOpcodeHandlersAndSkipsRemovedInstructions() {
+        List<String> dispatched = new ArrayList<>();
+        PeepholeTransformer removeConstants = new PeepholeTransformer() {
+
+            @Override
+            protected void register(PeepholeEngine.RuleRegistry registry) {
+                registry.on(Opcodes.ICONST_0, (peepholeContext, insnNode) -> {
+                    dispatched.add("iconst_0");
+                    peepholeContext.remove(insnNode);
+                });
+            }
+        };
+        PeepholeTransformer poppedConstants = new PeepholeTransformer() {
+
+            @Override
+            protected void register(PeepholeEngine.RuleRegistry registry) {
+                registry.on(InsnPattern.of(InsnPattern.range(Opcodes.ICONST_0, Opcodes.ICONST_1), InsnPattern.opcode(Opcodes.POP)),
+                        (peepholeContext, match) -> dispatched.add("constant popped"));
+            }
+        };
+        MethodNode method = addMethod(classNode, "pops", "()V", instructions(
+                new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.POP),
+                new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.POP),
+                new InsnNode(Opcodes.RETURN)));
+        FusedPeepholeTransformer fused = new FusedPeepholeTransformer(removeConstants, poppedConstants);
+
+        assertTrue(fused.process(ctx, classNode, method));
+        // the removed constant is never fed to the matcher, so only the second pop matches
+        assertEquals(Arrays.asList("iconst_0", "constant popped"), dispatched);
+        assertEquals(Arrays.asList(Opcodes.POP, Opcodes.ICONST_1, Opcodes.POP, Opcodes.RETURN), opcodes(method));
+        assertEquals(1, DeobfuscatorMetrics.counter(ctx, fused, "method-walks").getCount());
+        assertEquals(2, fused.getEngine().getWalkingRules());
+        assertFalse(fused.process(ctx, classNode, addMethod(classNode, "empty", "()V", instructions(new InsnNode(Opcodes.RETURN)))));
+    }
+}